@@ -0,0 +1,168 @@
+package election_algorithms;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+import election_algorithms.Chang_roberts.ChangRobertActor;
+import election_algorithms.DolevklaweRodehAglorithm.DolevKlaweRodehActor;
+import election_algorithms.echo_algorithm.EchoWithExtinctionActor;
+import org.openjdk.jmh.annotations.*;
+import util.BenchmarkSupport;
+import util.Graph;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// One election from the first message until the leader knows it won.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ElectionBenchmark {
+
+    // A ring 0 -> 1 -> ... -> n-1 -> 0, started by node 0. Its id travels to the highest node, which then sends
+    // its own id and the Elected message around the whole ring.
+    @State(Scope.Thread)
+    public static class Ring {
+        @Param({"1000", "10000"})
+        public int nodes;
+
+        ActorTestKit testKit;
+        ActorRef<ChangRobertActor.Message> starter;
+        CompletableFuture<Void> elected;
+
+        @Setup(Level.Invocation)
+        public void spawn() {
+            testKit = ActorTestKit.create();
+            elected = new CompletableFuture<>();
+            // Sees every message to the leader; the only Elected among them is its own returning
+            ActorRef<ChangRobertActor.Message> leaderMonitor = testKit.spawn(Behaviors.receive(ChangRobertActor.Message.class)
+                    .onMessage(ChangRobertActor.Elected.class, message -> {
+                        elected.complete(null);
+                        return Behaviors.same();
+                    })
+                    .build(), "leader-monitor");
+            List<ActorRef<ChangRobertActor.Message>> ring = new ArrayList<>(nodes);
+            for (int id = 0; id < nodes - 1; id++) {
+                ring.add(testKit.spawn(ChangRobertActor.create(id), "node-" + id));
+            }
+            ring.add(testKit.spawn(Behaviors.monitor(ChangRobertActor.Message.class, leaderMonitor, ChangRobertActor.create(nodes - 1)), "node-" + (nodes - 1)));
+            for (int id = 0; id < nodes; id++) {
+                ring.get(id).tell(new ChangRobertActor.SetNextActor(ring.get((id + 1) % nodes)));
+            }
+            starter = ring.get(0);
+        }
+
+        @TearDown(Level.Invocation)
+        public void shutdown() {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    // A ring in which every node starts. The elected node announces itself to its neighbor, which the monitor on
+    // every node sees. Every node forwards every id it did not replace, so the messages grow with the square of the
+    // ring and it stays smaller than the others.
+    @State(Scope.Thread)
+    public static class DolevKlaweRodehRing {
+        @Param({"100", "1000"})
+        public int nodes;
+
+        ActorTestKit testKit;
+        List<ActorRef<DolevKlaweRodehActor.Message>> ring;
+        CompletableFuture<Void> elected;
+
+        @Setup(Level.Invocation)
+        public void spawn() {
+            testKit = ActorTestKit.create();
+            elected = new CompletableFuture<>();
+            ActorRef<DolevKlaweRodehActor.Message> leaderMonitor = testKit.spawn(Behaviors.receive(DolevKlaweRodehActor.Message.class)
+                    .onMessage(DolevKlaweRodehActor.LeaderElectedMessage.class, message -> {
+                        elected.complete(null);
+                        return Behaviors.same();
+                    })
+                    .build(), "leader-monitor");
+            ring = new ArrayList<>(nodes);
+            for (int id = 0; id < nodes; id++) {
+                ring.add(testKit.spawn(Behaviors.monitor(DolevKlaweRodehActor.Message.class, leaderMonitor, DolevKlaweRodehActor.create(id)), "node-" + id));
+            }
+            for (int id = 0; id < nodes; id++) {
+                Map<Boolean, ActorRef<DolevKlaweRodehActor.Message>> next = new HashMap<>();
+                next.put(true, ring.get((id + 1) % nodes));
+                ring.get(id).tell(new DolevKlaweRodehActor.InitializeRing(next));
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void shutdown() {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    // Echo with extinction on a generated topology, the wave of the highest node started directly.
+    @State(Scope.Thread)
+    public static class Network {
+        @Param({"torus", "random-regular"})
+        public String topology;
+
+        @Param({"1000", "10000"})
+        public int nodes;
+
+        Graph graph;
+        ActorTestKit testKit;
+        TestProbe<EchoWithExtinctionActor.LeaderElected> leaderProbe;
+        ActorRef<EchoWithExtinctionActor.Message> highest;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            graph = BenchmarkSupport.topology(topology, nodes).toGraph();
+        }
+
+        @Setup(Level.Invocation)
+        public void spawn() {
+            testKit = ActorTestKit.create();
+            leaderProbe = testKit.createTestProbe();
+            List<ActorRef<EchoWithExtinctionActor.Message>> network = new ArrayList<>(graph.nodeCount());
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                network.add(testKit.spawn(EchoWithExtinctionActor.create(node, new HashMap<>(), leaderProbe), "node-" + node));
+            }
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                Map<Integer, ActorRef<EchoWithExtinctionActor.Message>> neighbors = new HashMap<>();
+                for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                    neighbors.put(graph.target(edge), network.get(graph.target(edge)));
+                }
+                network.get(node).tell(new EchoWithExtinctionActor.InitializeNeighbors(neighbors));
+            }
+            highest = network.get(graph.nodeCount() - 1);
+        }
+
+        @TearDown(Level.Invocation)
+        public void shutdown() {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    @Benchmark
+    public void changRoberts(Ring ring) throws Exception {
+        ring.starter.tell(new ChangRobertActor.StartElection(0));
+        BenchmarkSupport.await(ring.elected);
+    }
+
+    @Benchmark
+    public void dolevKlaweRodeh(DolevKlaweRodehRing ring) throws Exception {
+        ring.ring.forEach(node -> node.tell(new DolevKlaweRodehActor.StartElection()));
+        BenchmarkSupport.await(ring.elected);
+    }
+
+    @Benchmark
+    public EchoWithExtinctionActor.LeaderElected echoWithExtinction(Network network) {
+        network.highest.tell(new EchoWithExtinctionActor.StartElection(network.graph.nodeCount() - 1));
+        return network.leaderProbe.receiveMessage(Duration.ofSeconds(BenchmarkSupport.RUN_TIMEOUT_SECONDS));
+    }
+}
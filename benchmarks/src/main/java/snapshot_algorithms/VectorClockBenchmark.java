@@ -0,0 +1,59 @@
+package snapshot_algorithms;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Merging and comparing two clocks of the given number of nodes, every entry set.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorClockBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int nodes;
+
+    private VectorClock local;
+    private VectorClock received;
+    private VectorClock target;
+
+    @Setup
+    public void createClocks() {
+        Random random = new Random(42);
+        local = new VectorClock(nodes);
+        received = new VectorClock(nodes);
+        for (int node = 0; node < nodes; node++) {
+            local.set(node, 1 + random.nextInt(1000));
+            received.set(node, 1 + random.nextInt(1000));
+        }
+        target = local.copy();
+    }
+
+    @Benchmark
+    public VectorClock merge() {
+        // After the first call the target already holds the maximum, so every call does the same comparisons
+        target.merge(received);
+        return target;
+    }
+
+    @Benchmark
+    public VectorClock copyAndMerge() {
+        target.copyFrom(local);
+        target.merge(received);
+        return target;
+    }
+
+    @Benchmark
+    public VectorClock.Order compare() {
+        return local.compare(received);
+    }
+
+    @Benchmark
+    public boolean dominates() {
+        return local.dominates(received);
+    }
+}
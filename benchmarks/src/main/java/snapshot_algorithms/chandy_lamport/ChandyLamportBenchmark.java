@@ -0,0 +1,145 @@
+package snapshot_algorithms.chandy_lamport;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+import org.openjdk.jmh.annotations.*;
+import snapshot_algorithms.GlobalSnapshot;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SnapshotWriter;
+import util.BenchmarkSupport;
+import util.Graph;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Serializing one node's snapshot, and a whole snapshot of a generated network from the initiators' first markers
+// until every node reported its state and channels to the collector.
+public class ChandyLamportBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RecordedState {
+        @Param({"8", "64"})
+        public int channels;
+
+        @Param({"16"})
+        public int messagesPerChannel;
+
+        ActorTestKit testKit;
+        List<ActorRef<Message>> senders;
+        int[][] values;
+        int[] valueCounts;
+        ChandyLamportActor.SnapshotFormatter formatter;
+
+        @Setup
+        public void recordChannels() {
+            testKit = ActorTestKit.create();
+            senders = new ArrayList<>(channels);
+            values = new int[channels][messagesPerChannel];
+            valueCounts = new int[channels];
+            for (int channel = 0; channel < channels; channel++) {
+                senders.add(testKit.<Message>createTestProbe("neighbor-" + channel).getRef());
+                for (int message = 0; message < messagesPerChannel; message++) {
+                    values[channel][message] = message;
+                }
+                valueCounts[channel] = messagesPerChannel;
+            }
+            formatter = new ChandyLamportActor.SnapshotFormatter();
+        }
+
+        @TearDown
+        public void shutdown() {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Network {
+        @Param({"torus", "random-regular"})
+        public String topology;
+
+        @Param({"1000", "10000"})
+        public int nodes;
+
+        // Nodes starting the same snapshot, spread evenly over the node ids
+        @Param({"1", "4"})
+        public int initiators;
+
+        Graph graph;
+        List<String> nodeNames;
+        ActorTestKit testKit;
+        List<ActorRef<Message>> initiatorNodes;
+        CompletableFuture<GlobalSnapshot> completed;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            graph = BenchmarkSupport.topology(topology, nodes).toGraph();
+            nodeNames = new ArrayList<>(graph.nodeCount());
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                nodeNames.add("node-" + node);
+            }
+        }
+
+        // Every run gets fresh actors: the nodes report to the collector they were created with, which collects a
+        // single snapshot
+        @Setup(Level.Invocation)
+        public void spawn() {
+            testKit = ActorTestKit.create();
+            completed = new CompletableFuture<>();
+            ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(nodeNames, Duration.ofSeconds(BenchmarkSupport.RUN_TIMEOUT_SECONDS), completed), "snapshot-collector");
+            ActorRef<SnapshotWriter.Command> writer = testKit.spawn(Behaviors.ignore(), "snapshot-writer");
+            List<ActorRef<Message>> network = new ArrayList<>(graph.nodeCount());
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                network.add(testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer, collector), "node-" + node));
+            }
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                    network.get(node).tell(new ChandyLamportActor.AddNeighbor(network.get(graph.target(edge))));
+                }
+            }
+            // Only the snapshot is measured: a node answers the query after the AddNeighbor messages sent to it
+            // before, so once every node answered the setup traffic has drained
+            TestProbe<ChandyLamportActor.NeighborsResponse> neighborsProbe = testKit.createTestProbe();
+            network.forEach(node -> node.tell(new ChandyLamportActor.QueryNeighbors(neighborsProbe.getRef())));
+            neighborsProbe.receiveSeveralMessages(network.size(), Duration.ofSeconds(BenchmarkSupport.RUN_TIMEOUT_SECONDS));
+            initiatorNodes = new ArrayList<>(initiators);
+            for (int initiator = 0; initiator < initiators; initiator++) {
+                initiatorNodes.add(network.get(initiator * graph.nodeCount() / initiators));
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void shutdown() {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public String formatSnapshot(RecordedState recorded) {
+        return recorded.formatter.format("2024-01-01T00:00:00", 1, "node-0", 42, recorded.senders, recorded.values, recorded.valueCounts, recorded.channels);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public void fullSnapshot(Network network) throws Exception {
+        for (ActorRef<Message> initiator : network.initiatorNodes) {
+            initiator.tell(new ChandyLamportActor.InitiateSnapshot(1));
+        }
+        BenchmarkSupport.await(network.completed);
+    }
+}
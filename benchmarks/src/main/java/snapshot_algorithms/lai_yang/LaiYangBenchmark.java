@@ -0,0 +1,90 @@
+package snapshot_algorithms.lai_yang;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import org.openjdk.jmh.annotations.*;
+import snapshot_algorithms.GlobalSnapshot;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SnapshotWriter;
+import util.BenchmarkSupport;
+import util.Graph;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// A whole snapshot of a generated network, from the initiator's first presnap message until every node reported its
+// state and channels to the collector.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LaiYangBenchmark {
+
+    // Only connected topologies; a node the presnap messages cannot reach never takes its snapshot
+    @Param({"torus", "random-regular"})
+    public String topology;
+
+    @Param({"1000", "10000"})
+    public int nodes;
+
+    // LaiYangActor, or CountingLaiYangActor with message counters
+    @Param({"flood", "counting"})
+    public String variant;
+
+    private Graph graph;
+    private List<String> nodeNames;
+    private ActorTestKit testKit;
+    private ActorRef<Message> initiator;
+    private CompletableFuture<GlobalSnapshot> completed;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        graph = BenchmarkSupport.topology(topology, nodes).toGraph();
+        nodeNames = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            nodeNames.add("node-" + node);
+        }
+    }
+
+    // Every run gets fresh actors, as a node records at most one snapshot
+    @Setup(Level.Invocation)
+    public void spawn() {
+        testKit = ActorTestKit.create();
+        completed = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(nodeNames, Duration.ofSeconds(BenchmarkSupport.RUN_TIMEOUT_SECONDS), completed), "snapshot-collector");
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(Behaviors.ignore(), "snapshot-writer");
+        List<ActorRef<Message>> network = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            Behavior<Message> behavior = variant.equals("counting")
+                    ? CountingLaiYangActor.create(new HashSet<>(), writer, collector)
+                    : LaiYangActor.create(new HashSet<>(), writer, collector);
+            network.add(testKit.spawn(behavior, "node-" + node));
+        }
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                network.get(node).tell(new LaiYangActor.AddNeighbor(network.get(graph.target(edge))));
+            }
+        }
+        initiator = network.get(0);
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Benchmark
+    public void fullSnapshot() throws Exception {
+        initiator.tell(new LaiYangActor.InitiateSnapshot());
+        BenchmarkSupport.await(completed);
+    }
+}
@@ -0,0 +1,82 @@
+package snapshot_algorithms.peterson_kearns;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import org.openjdk.jmh.annotations.*;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.VectorClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Writing a snapshot with its vector clock, and reading it back the way recovery does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotDataBenchmark {
+
+    // Number of nodes in the vector clock
+    @Param({"16", "1024"})
+    public int nodes;
+
+    @Param({"8"})
+    public int channels;
+
+    @Param({"16"})
+    public int messagesPerChannel;
+
+    private ActorTestKit testKit;
+    private NodeIndex nodeIndex;
+    private VectorClock vectorClock;
+    private Map<ActorRef<Message>, List<Message>> state;
+    private String snapshot;
+    private String vectorClockJson;
+
+    @Setup
+    public void recordSnapshot() {
+        testKit = ActorTestKit.create();
+        nodeIndex = NodeIndex.shared();
+        vectorClock = new VectorClock(nodes);
+        for (int node = 0; node < nodes; node++) {
+            vectorClock.set(nodeIndex.indexOf("node-" + node), node + 1);
+        }
+        state = new HashMap<>();
+        for (int channel = 0; channel < channels; channel++) {
+            ActorRef<Message> neighbor = testKit.<Message>createTestProbe("neighbor-" + channel).getRef();
+            List<Message> messages = new ArrayList<>(messagesPerChannel);
+            for (int message = 0; message < messagesPerChannel; message++) {
+                messages.add(new PetersonKearnsActor.BasicMessage(message, neighbor, vectorClock));
+            }
+            state.put(neighbor, messages);
+        }
+        snapshot = formatSnapshot();
+        vectorClockJson = vectorClock.appendJson(new StringBuilder(), nodeIndex).toString();
+    }
+
+    @TearDown
+    public void shutdown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Benchmark
+    public String formatSnapshot() {
+        return PetersonKearnsActor.formatSnapshot("2024-01-01T00:00:00", 42, vectorClock, nodeIndex, state);
+    }
+
+    @Benchmark
+    public CheckpointRecoveryManager.SnapshotData parseSnapshotData() {
+        return CheckpointRecoveryManager.parseSnapshotData("2024-01-01T00:00:00", snapshot);
+    }
+
+    @Benchmark
+    public Map<String, Integer> parseVectorClock() {
+        return CheckpointRecoveryManager.parseJsonMap(vectorClockJson);
+    }
+}
@@ -0,0 +1,30 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Topologies and waiting shared by the benchmarks.
+public final class BenchmarkSupport {
+
+    // Fixed so that every run of a benchmark sees the same random graphs
+    public static final long SEED = 42;
+    // Longest a single end-to-end run may take before the benchmark fails
+    public static final long RUN_TIMEOUT_SECONDS = 300;
+
+    private BenchmarkSupport() {
+    }
+
+    // Generated topology of about the given number of nodes, see GraphGenerator.ofSize.
+    public static GraphGenerator.Topology topology(String kind, int nodes) {
+        return GraphGenerator.ofSize(kind, nodes, SEED);
+    }
+
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Run did not finish within " + RUN_TIMEOUT_SECONDS + " seconds", e);
+        }
+    }
+}
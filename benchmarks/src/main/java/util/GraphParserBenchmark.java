@@ -0,0 +1,48 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parsing a generated DOT file into the edge list the simulations used to build from, and into the compact Graph.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphParserBenchmark {
+
+    @Param({"torus", "barabasi-albert"})
+    public String topology;
+
+    @Param({"10000", "100000"})
+    public int nodes;
+
+    private Path dotFile;
+
+    @Setup
+    public void writeDotFile() throws IOException {
+        dotFile = Files.createTempFile("benchmark-" + topology + "-" + nodes, ".dot");
+        BenchmarkSupport.topology(topology, nodes).writeDot(dotFile);
+    }
+
+    @TearDown
+    public void deleteDotFile() throws IOException {
+        Files.deleteIfExists(dotFile);
+    }
+
+    @Benchmark
+    public List<GraphParser.Edge> parseDotFile() {
+        return GraphParser.parseDotFile(dotFile.toString());
+    }
+
+    @Benchmark
+    public Graph graphFromDotFile() throws IOException {
+        return Graph.fromDotFile(dotFile);
+    }
+}
@@ -107,7 +107,8 @@ public class DolevKlaweRodehActor extends AbstractBehavior<DolevKlaweRodehActor.
             this.electionId = message.electionId;
             this.parity = message.parity;  // Adopt the message's parity directly
             getContext().getLog().info("Actor {} recognizes a higher ID: {}, becoming passive, adopts parity", id, this.electionId);
-        } else if (message.electionId == this.electionId && message.parity == this.parity && message.sender.equals(getContext().getSelf())) {
+        } else if (message.electionId == this.id && message.electionId == this.electionId && message.parity == this.parity) {
+            // Its own id came around the whole ring: the sender is the previous node, never the actor itself
             this.isLeader = true;
             this.isActive = false;
             getContext().getLog().info("Actor {} has received its own ID and is now the leader", id);
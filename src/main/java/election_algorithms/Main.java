@@ -3,6 +3,7 @@ package election_algorithms;
 import akka.actor.testkit.typed.javadsl.ActorTestKit;
 import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
 import election_algorithms.Chang_roberts.ChangRobertActor;
 import election_algorithms.DolevklaweRodehAglorithm.DolevKlaweRodehActor;
 import election_algorithms.echo_algorithm.EchoWithExtinctionActor;
@@ -10,10 +11,16 @@ import util.GraphParser;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 
 public class Main {
+    private static final Duration ELECTION_TIMEOUT = Duration.ofSeconds(30);
+
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
         ActorTestKit testKit = ActorTestKit.create();
@@ -58,14 +65,26 @@ public class Main {
 
         Map<Integer, ActorRef<ChangRobertActor.Message>> actors = new HashMap<>();
 
+        // Every node sees the Elected message once and the leader sees it last, when it has gone around the ring
+        CompletableFuture<Void> elected = new CompletableFuture<>();
+        int[] electedSeen = new int[1];
+        ActorRef<ChangRobertActor.Message> electionMonitor = testKit.spawn(Behaviors.receive(ChangRobertActor.Message.class)
+                .onMessage(ChangRobertActor.Elected.class, message -> {
+                    if (++electedSeen[0] == actors.size()) {
+                        elected.complete(null);
+                    }
+                    return Behaviors.same();
+                })
+                .build());
+
         // Create actors for each unique node ID found in the .ngs.dot file
         edges.forEach(edge -> {
             if (!edge.getSource().isEmpty() && !edge.getDestination().isEmpty()) {
                 try {
                     int sourceId = Integer.parseInt(edge.getSource());
                     int destId = Integer.parseInt(edge.getDestination());
-                    actors.computeIfAbsent(sourceId, id -> testKit.spawn(ChangRobertActor.create(id), "actor" + id));
-                    actors.computeIfAbsent(destId, id -> testKit.spawn(ChangRobertActor.create(id), "actor" + id));
+                    actors.computeIfAbsent(sourceId, id -> testKit.spawn(Behaviors.monitor(ChangRobertActor.Message.class, electionMonitor, ChangRobertActor.create(id)), "actor" + id));
+                    actors.computeIfAbsent(destId, id -> testKit.spawn(Behaviors.monitor(ChangRobertActor.Message.class, electionMonitor, ChangRobertActor.create(id)), "actor" + id));
                 } catch (NumberFormatException e) {
                     System.err.println("Error parsing node ID: " + e.getMessage());
                 }
@@ -94,12 +113,17 @@ public class Main {
             System.err.println("No actors were created due to input errors.");
         }
 
-        // Wait to observe the election process
+        // Wait until the leader got its own Elected message back
         try {
-            Thread.sleep(5000); // Simple delay to allow messages to be processed
+            elected.get(ELECTION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            System.out.println("Election complete");
+        } catch (TimeoutException e) {
+            System.err.println("Election not complete after " + ELECTION_TIMEOUT.toMillis() + " ms");
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
         }
 
     }
@@ -0,0 +1,261 @@
+package scalability;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.MailboxSelector;
+import akka.actor.typed.javadsl.Behaviors;
+import election_algorithms.Chang_roberts.ChangRobertActor;
+import election_algorithms.DolevklaweRodehAglorithm.DolevKlaweRodehActor;
+import election_algorithms.echo_algorithm.EchoWithExtinctionActor;
+import snapshot_algorithms.GlobalSnapshot;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.chandy_lamport.ChandyLamportActor;
+import snapshot_algorithms.lai_yang.CountingLaiYangActor;
+import snapshot_algorithms.lai_yang.LaiYangActor;
+import snapshot_algorithms.mattern.MatternActor;
+import snapshot_algorithms.peterson_kearns.PetersonKearnsActor;
+import snapshot_algorithms.storage.SnapshotWriter;
+import util.Graph;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// The algorithms the harness measures. Each spawns its network on the given graph with the instrumented mailbox
+// and returns how to start it and how to tell that it finished.
+enum Algorithm {
+
+    // A ring 0 -> 1 -> ... -> n-1 -> 0 started by node 0; done when the highest node's Elected message returns to it.
+    CHANG_ROBERTS("chang-roberts", false) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            int nodes = graph.nodeCount();
+            CompletableFuture<Void> elected = new CompletableFuture<>();
+            // Sees every message to the leader; the only Elected among them is its own returning
+            ActorRef<ChangRobertActor.Message> leaderMonitor = testKit.spawn(Behaviors.receive(ChangRobertActor.Message.class)
+                    .onMessage(ChangRobertActor.Elected.class, message -> {
+                        elected.complete(null);
+                        return Behaviors.same();
+                    })
+                    .build(), "leader-monitor");
+            List<ActorRef<ChangRobertActor.Message>> ring = new ArrayList<>(nodes);
+            for (int id = 0; id < nodes - 1; id++) {
+                ring.add(testKit.spawn(ChangRobertActor.create(id), "node-" + id, mailbox));
+            }
+            ring.add(testKit.spawn(Behaviors.monitor(ChangRobertActor.Message.class, leaderMonitor, ChangRobertActor.create(nodes - 1)), "node-" + (nodes - 1), mailbox));
+            for (int id = 0; id < nodes; id++) {
+                ring.get(id).tell(new ChangRobertActor.SetNextActor(ring.get((id + 1) % nodes)));
+            }
+            return new Run(() -> ring.get(0).tell(new ChangRobertActor.StartElection(0)), timeout -> await(elected, timeout));
+        }
+    },
+
+    // A ring in which every node starts; done when a node announces itself as leader to its neighbor.
+    DOLEV_KLAWE_RODEH("dolev-klawe-rodeh", false) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            int nodes = graph.nodeCount();
+            CompletableFuture<Void> elected = new CompletableFuture<>();
+            ActorRef<DolevKlaweRodehActor.Message> leaderMonitor = testKit.spawn(Behaviors.receive(DolevKlaweRodehActor.Message.class)
+                    .onMessage(DolevKlaweRodehActor.LeaderElectedMessage.class, message -> {
+                        elected.complete(null);
+                        return Behaviors.same();
+                    })
+                    .build(), "leader-monitor");
+            List<ActorRef<DolevKlaweRodehActor.Message>> ring = new ArrayList<>(nodes);
+            for (int id = 0; id < nodes; id++) {
+                ring.add(testKit.spawn(Behaviors.monitor(DolevKlaweRodehActor.Message.class, leaderMonitor, DolevKlaweRodehActor.create(id)), "node-" + id, mailbox));
+            }
+            for (int id = 0; id < nodes; id++) {
+                Map<Boolean, ActorRef<DolevKlaweRodehActor.Message>> next = new HashMap<>();
+                next.put(true, ring.get((id + 1) % nodes));
+                ring.get(id).tell(new DolevKlaweRodehActor.InitializeRing(next));
+            }
+            return new Run(() -> ring.forEach(node -> node.tell(new DolevKlaweRodehActor.StartElection())), timeout -> await(elected, timeout));
+        }
+    },
+
+    // The wave of the highest node on the graph; done when the highest node learns it was elected.
+    ECHO_WITH_EXTINCTION("echo-with-extinction", true) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            TestProbe<EchoWithExtinctionActor.LeaderElected> leaderProbe = testKit.createTestProbe();
+            List<ActorRef<EchoWithExtinctionActor.Message>> network = new ArrayList<>(graph.nodeCount());
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                network.add(testKit.spawn(EchoWithExtinctionActor.create(node, new HashMap<>(), leaderProbe), "node-" + node, mailbox));
+            }
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                Map<Integer, ActorRef<EchoWithExtinctionActor.Message>> neighbors = new HashMap<>();
+                for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                    neighbors.put(graph.target(edge), network.get(graph.target(edge)));
+                }
+                network.get(node).tell(new EchoWithExtinctionActor.InitializeNeighbors(neighbors));
+            }
+            int highest = graph.nodeCount() - 1;
+            return new Run(() -> network.get(highest).tell(new EchoWithExtinctionActor.StartElection(highest)), timeout -> {
+                try {
+                    leaderProbe.receiveMessage(timeout);
+                    return true;
+                } catch (AssertionError e) {
+                    return false;
+                }
+            });
+        }
+    },
+
+    // Node 0 takes the first snapshot; done when every node reported its state and channels to the collector.
+    CHANDY_LAMPORT("chandy-lamport", true) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            return prepareSnapshot(testKit, graph, mailbox,
+                    (writer, collector) -> ChandyLamportActor.create(new HashSet<>(), writer, collector),
+                    ChandyLamportActor.AddNeighbor::new,
+                    (network, collector) -> network.get(0).tell(new ChandyLamportActor.InitiateSnapshot()));
+        }
+    },
+
+    // Node 0 takes the first snapshot; done when every node reported its state and channels to the collector.
+    LAI_YANG("lai-yang", true) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            return prepareSnapshot(testKit, graph, mailbox,
+                    (writer, collector) -> LaiYangActor.create(new HashSet<>(), writer, collector),
+                    LaiYangActor.AddNeighbor::new,
+                    (network, collector) -> network.get(0).tell(new LaiYangActor.InitiateSnapshot()));
+        }
+    },
+
+    // Lai-Yang with message counters; node 0 takes the first snapshot, done when every node reported to the collector.
+    LAI_YANG_COUNTING("lai-yang-counting", true) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            return prepareSnapshot(testKit, graph, mailbox,
+                    (writer, collector) -> CountingLaiYangActor.create(new HashSet<>(), writer, collector),
+                    LaiYangActor.AddNeighbor::new,
+                    (network, collector) -> network.get(0).tell(new LaiYangActor.InitiateSnapshot()));
+        }
+    },
+
+    // Node 0 starts a snapshot of every node; done when every node reported to the collector.
+    MATTERN("mattern", true) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            return prepareSnapshot(testKit, graph, mailbox,
+                    (writer, collector) -> MatternActor.create(new HashSet<>(), writer, collector),
+                    MatternActor.AddNeighbor::new,
+                    (network, collector) -> network.get(0).tell(new MatternActor.InitiateSnapshot(network)));
+        }
+    },
+
+    // Every node sends one message over each of its edges and then checkpoints; done when every node reported its
+    // checkpoint to the collector.
+    PETERSON_KEARNS("peterson-kearns", true) {
+        @Override
+        Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox) {
+            return prepareSnapshot(testKit, graph, mailbox,
+                    (writer, collector) -> PetersonKearnsActor.create(new HashSet<>(), 0, writer),
+                    PetersonKearnsActor.AddNeighbor::new,
+                    (network, collector) -> {
+                        for (int node = 0; node < graph.nodeCount(); node++) {
+                            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                                network.get(node).tell(new PetersonKearnsActor.SendBasicMessage(1, network.get(graph.target(edge))));
+                            }
+                        }
+                        network.forEach(node -> node.tell(new PetersonKearnsActor.InitiateSnapshot(collector)));
+                    });
+        }
+    };
+
+    // Starts a prepared network and waits for it to finish.
+    static final class Run {
+        interface Completion {
+            // Whether the run finished within the timeout
+            boolean await(Duration timeout) throws InterruptedException;
+        }
+
+        final Runnable start;
+        final Completion completion;
+
+        Run(Runnable start, Completion completion) {
+            this.start = start;
+            this.completion = completion;
+        }
+    }
+
+    // The harness gives up on a run itself; the collector only has to outlive it
+    private static final Duration COLLECTOR_TIMEOUT = Duration.ofDays(1);
+
+    final String name;
+    // Whether the algorithm runs on the swept topology; the ring algorithms only take its node count
+    final boolean usesTopology;
+
+    Algorithm(String name, boolean usesTopology) {
+        this.name = name;
+        this.usesTopology = usesTopology;
+    }
+
+    abstract Run prepare(ActorTestKit testKit, Graph graph, MailboxSelector mailbox);
+
+    // Algorithm of the given name, or null if there is none.
+    static Algorithm named(String name) {
+        for (Algorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    // Spawns one snapshot node per graph node, all sharing a collector and a writer that drops the snapshots, and
+    // connects them along the graph's edges; the run starts the network and waits for the collected snapshot.
+    private static Run prepareSnapshot(ActorTestKit testKit, Graph graph, MailboxSelector mailbox,
+                                       BiFunction<ActorRef<SnapshotWriter.Command>, ActorRef<SnapshotCollector.Command>, Behavior<Message>> nodeFactory,
+                                       Function<ActorRef<Message>, Message> addNeighbor,
+                                       BiConsumer<List<ActorRef<Message>>, ActorRef<SnapshotCollector.Command>> start) {
+        CompletableFuture<GlobalSnapshot> completed = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(nodeNames(graph), COLLECTOR_TIMEOUT, completed), "snapshot-collector");
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(Behaviors.ignore(), "snapshot-writer");
+        List<ActorRef<Message>> network = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            network.add(testKit.spawn(nodeFactory.apply(writer, collector), "node-" + node, mailbox));
+        }
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                network.get(node).tell(addNeighbor.apply(network.get(graph.target(edge))));
+            }
+        }
+        return new Run(() -> start.accept(network, collector), timeout -> await(completed, timeout));
+    }
+
+    private static List<String> nodeNames(Graph graph) {
+        List<String> names = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            names.add("node-" + node);
+        }
+        return names;
+    }
+
+    private static boolean await(CompletableFuture<?> future, Duration timeout) throws InterruptedException {
+        try {
+            future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package scalability;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Unbounded mailbox that reports every message it is given to the system's MessageStatistics and keeps the
+// deepest it has been. Selected with MailboxSelector.fromConfig("instrumented-mailbox"), see application.conf.
+public class InstrumentedMailbox implements MailboxType {
+
+    public static final String CONFIG_PATH = "instrumented-mailbox";
+
+    public InstrumentedMailbox(ActorSystem.Settings settings, Config config) {
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        String ownerName = owner.isDefined() ? owner.get().path().name() : "";
+        Queue queue = new Queue(ownerName, system.isDefined() ? MessageStatistics.get(system.get()) : null);
+        if (queue.statistics != null) {
+            queue.statistics.register(queue);
+        }
+        return queue;
+    }
+
+    static final class Queue implements MessageQueue, UnboundedMessageQueueSemantics {
+        final String owner;
+        final MessageStatistics statistics;
+        private final ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicInteger highWater = new AtomicInteger();
+
+        Queue(String owner, MessageStatistics statistics) {
+            this.owner = owner;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            if (statistics != null) {
+                statistics.received(handle.message());
+            }
+            // Counted before it is visible so a concurrent dequeue never takes the depth below zero
+            highWater.accumulateAndGet(depth.incrementAndGet(), Math::max);
+            queue.offer(handle);
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope envelope = queue.poll();
+            if (envelope != null) {
+                depth.decrementAndGet();
+            }
+            return envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return depth.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Envelope envelope;
+            while ((envelope = dequeue()) != null) {
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+
+        int highWater() {
+            return highWater.get();
+        }
+
+        void resetHighWater() {
+            highWater.set(depth.get());
+        }
+    }
+}
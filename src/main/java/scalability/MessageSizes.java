@@ -0,0 +1,142 @@
+package scalability;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Estimates the payload a message would take on the wire in a compact binary encoding. The actors run in one JVM
+// and nothing is serialized, so this stands in for the bytes a distributed deployment would send:
+//   primitives and their boxes  their width (boolean and byte 1)
+//   String                      2 bytes of length and the UTF-8 bytes
+//   actor references            like a String, their path
+//   arrays, collections, maps   4 bytes of length and the elements
+//   other objects               the sum of their instance fields
+// Shared or cyclic objects are counted once.
+final class MessageSizes {
+
+    private static final int LENGTH_BYTES = 4;
+    private static final int REFERENCE_BYTES = 8;
+    private static final Map<Class<?>, List<Field>> FIELDS = new ConcurrentHashMap<>();
+
+    private MessageSizes() {
+    }
+
+    static long estimate(Object message) {
+        return estimate(message, new IdentityHashMap<>());
+    }
+
+    private static long estimate(Object value, IdentityHashMap<Object, Boolean> seen) {
+        if (value == null) {
+            return 1;
+        }
+        Class<?> type = value.getClass();
+        if (value instanceof String) {
+            return 2 + ((String) value).getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (value instanceof akka.actor.typed.ActorRef) {
+            return 2 + ((akka.actor.typed.ActorRef<?>) value).path().toString().length();
+        }
+        if (value instanceof akka.actor.ActorRef) {
+            return 2 + ((akka.actor.ActorRef) value).path().toString().length();
+        }
+        if (value instanceof Boolean || value instanceof Byte) {
+            return 1;
+        }
+        if (value instanceof Short || value instanceof Character) {
+            return 2;
+        }
+        if (value instanceof Integer || value instanceof Float) {
+            return 4;
+        }
+        if (value instanceof Number) {
+            return 8;
+        }
+        if (type.isEnum()) {
+            return 4;
+        }
+        if (seen.put(value, Boolean.TRUE) != null) {
+            return REFERENCE_BYTES;
+        }
+        if (type.isArray()) {
+            Class<?> component = type.getComponentType();
+            int length = Array.getLength(value);
+            if (component.isPrimitive()) {
+                return LENGTH_BYTES + (long) length * primitiveWidth(component);
+            }
+            long size = LENGTH_BYTES;
+            for (int i = 0; i < length; i++) {
+                size += estimate(Array.get(value, i), seen);
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = LENGTH_BYTES;
+            for (Object element : (Collection<?>) value) {
+                size += estimate(element, seen);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = LENGTH_BYTES;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += estimate(entry.getKey(), seen) + estimate(entry.getValue(), seen);
+            }
+            return size;
+        }
+        if (type.getName().startsWith("java.")) {
+            // The JDK's internals are not open to reflection
+            return REFERENCE_BYTES;
+        }
+        long size = 0;
+        for (Field field : fields(type)) {
+            try {
+                if (field.getType().isPrimitive()) {
+                    size += primitiveWidth(field.getType());
+                } else {
+                    size += estimate(field.get(value), seen);
+                }
+            } catch (IllegalAccessException e) {
+                size += REFERENCE_BYTES;
+            }
+        }
+        return size;
+    }
+
+    private static List<Field> fields(Class<?> type) {
+        return FIELDS.computeIfAbsent(type, key -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = key; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    if (field.trySetAccessible()) {
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields;
+        });
+    }
+
+    private static int primitiveWidth(Class<?> type) {
+        if (type == boolean.class || type == byte.class) {
+            return 1;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        return 8;
+    }
+}
@@ -0,0 +1,113 @@
+package scalability;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.typed.javadsl.Adapter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts of the messages delivered to the actors of one actor system that use the instrumented mailbox: messages
+// and estimated payload bytes per message type, and the deepest every mailbox has been.
+public final class MessageStatistics implements Extension {
+
+    public static final Id ID = new Id();
+
+    public static final class Id extends AbstractExtensionId<MessageStatistics> {
+        @Override
+        public MessageStatistics createExtension(ExtendedActorSystem system) {
+            return new MessageStatistics();
+        }
+    }
+
+    public static final class TypeCount {
+        public final long messages;
+        public final long bytes;
+
+        TypeCount(long messages, long bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Counter {
+        final LongAdder messages = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    private final Map<Class<?>, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<InstrumentedMailbox.Queue> queues = new ConcurrentLinkedQueue<>();
+    private final LongAdder received = new LongAdder();
+
+    private MessageStatistics() {
+    }
+
+    public static MessageStatistics get(akka.actor.ActorSystem system) {
+        return ID.get(system);
+    }
+
+    public static MessageStatistics get(akka.actor.typed.ActorSystem<?> system) {
+        return ID.get(Adapter.toClassic(system));
+    }
+
+    void register(InstrumentedMailbox.Queue queue) {
+        queues.add(queue);
+    }
+
+    void received(Object message) {
+        Counter counter = counters.computeIfAbsent(message.getClass(), type -> new Counter());
+        counter.messages.increment();
+        counter.bytes.add(MessageSizes.estimate(message));
+        received.increment();
+    }
+
+    // Forgets everything counted so far, e.g. the messages that set up the network.
+    public void reset() {
+        counters.clear();
+        received.reset();
+        queues.forEach(InstrumentedMailbox.Queue::resetHighWater);
+    }
+
+    // Messages delivered since the last reset.
+    public long received() {
+        return received.sum();
+    }
+
+    // Whether every instrumented mailbox is empty. Together with an unchanged received() over a while this means
+    // the actors stopped sending each other messages.
+    public boolean mailboxesEmpty() {
+        for (InstrumentedMailbox.Queue queue : queues) {
+            if (queue.hasMessages()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Messages and bytes per message type, by the type's simple name including its enclosing class.
+    public Map<String, TypeCount> byType() {
+        Map<String, TypeCount> byType = new LinkedHashMap<>();
+        counters.forEach((type, counter) -> byType.put(typeName(type), new TypeCount(counter.messages.sum(), counter.bytes.sum())));
+        return byType;
+    }
+
+    // Deepest each mailbox has been since the last reset, by the name of the actor it belongs to.
+    public Map<String, Integer> highWaterMarks() {
+        Map<String, Integer> marks = new LinkedHashMap<>();
+        List<InstrumentedMailbox.Queue> registered = new ArrayList<>(queues);
+        for (InstrumentedMailbox.Queue queue : registered) {
+            marks.put(queue.owner, queue.highWater());
+        }
+        return marks;
+    }
+
+    private static String typeName(Class<?> type) {
+        return type.getEnclosingClass() != null ? type.getEnclosingClass().getSimpleName() + "." + type.getSimpleName() : type.getSimpleName();
+    }
+}
@@ -0,0 +1,56 @@
+package scalability;
+
+import java.util.Map;
+
+// What one run of an algorithm on one network measured. Public fields so the results serialize to JSON as they are.
+public final class RunResult {
+
+    public final String algorithm;
+    public final String topology;
+    public final int nodes;
+    // Directed edges, i.e. channels
+    public final int edges;
+    public final int repetition;
+    // False if the run did not finish within the timeout; the counts then cover the run until it was given up
+    public final boolean completed;
+    public final double millis;
+    public final long messages;
+    public final long bytes;
+    // Sum of the peak usage of every heap memory pool during the run
+    public final long peakHeapBytes;
+    public final int maxMailboxHighWater;
+    public final double meanMailboxHighWater;
+    public final Map<String, MessageStatistics.TypeCount> messagesByType;
+    public final Map<String, Integer> mailboxHighWaterByNode;
+
+    RunResult(String algorithm, String topology, int nodes, int edges, int repetition, boolean completed, double millis,
+              long peakHeapBytes, Map<String, MessageStatistics.TypeCount> messagesByType, Map<String, Integer> mailboxHighWaterByNode) {
+        this.algorithm = algorithm;
+        this.topology = topology;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.repetition = repetition;
+        this.completed = completed;
+        this.millis = millis;
+        this.peakHeapBytes = peakHeapBytes;
+        this.messagesByType = messagesByType;
+        this.mailboxHighWaterByNode = mailboxHighWaterByNode;
+        this.messages = messagesByType.values().stream().mapToLong(count -> count.messages).sum();
+        this.bytes = messagesByType.values().stream().mapToLong(count -> count.bytes).sum();
+        this.maxMailboxHighWater = mailboxHighWaterByNode.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        this.meanMailboxHighWater = mailboxHighWaterByNode.values().stream().mapToInt(Integer::intValue).average().orElse(0);
+    }
+
+    static final String CSV_HEADER = "algorithm,topology,nodes,edges,repetition,completed,millis,messages,bytes,peak_heap_bytes,max_mailbox_high_water,mean_mailbox_high_water";
+
+    String toCsv() {
+        return String.format(java.util.Locale.ROOT, "%s,%s,%d,%d,%d,%b,%.3f,%d,%d,%d,%d,%.3f",
+                algorithm, topology, nodes, edges, repetition, completed, millis, messages, bytes, peakHeapBytes,
+                maxMailboxHighWater, meanMailboxHighWater);
+    }
+
+    // Columns identifying the run, for the per-type and per-node files
+    String key() {
+        return algorithm + "," + topology + "," + nodes + "," + repetition;
+    }
+}
@@ -0,0 +1,177 @@
+package scalability;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.MailboxSelector;
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Graph;
+import util.GraphGenerator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sweeps the election and snapshot algorithms over generated topologies and network sizes and measures, per run,
+// the messages and estimated bytes sent by message type, the time from the first message until the algorithm's own
+// completion signal, the peak heap and the deepest every node's mailbox got.
+//
+//   ScalabilityHarness [--algorithms chang-roberts,echo-with-extinction,...] [--topologies torus,random-regular,...]
+//                      [--nodes 100,1000] [--repetitions 3] [--warmup 1] [--timeout-seconds 60]
+//                      [--seed 42] [--out target/scalability]
+//
+// Writes runs.csv (one row per run), message-types.csv and mailboxes.csv (one row per run and message type or
+// node) and runs.json (all of it) to the output directory. Chang-Roberts and Dolev-Klawe-Rodeh run on a ring of
+// each size whatever the topologies. Dolev-Klawe-Rodeh is only run when asked for: its nodes never announce a
+// leader on a ring, so every run ends in the timeout.
+//
+// Runs share the JVM's NodeIndex, so a Peterson-Kearns vector clock has an entry for every node name seen by an
+// earlier run too; sweep one size per JVM when its byte counts matter.
+public class ScalabilityHarness {
+
+    private static final List<String> DEFAULT_ALGORITHMS = Arrays.asList("chang-roberts", "echo-with-extinction", "chandy-lamport", "lai-yang", "lai-yang-counting", "mattern", "peterson-kearns");
+    // How long the mailboxes have to stay empty, without new messages, before the network counts as idle
+    private static final Duration QUIET_PERIOD = Duration.ofMillis(100);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        List<String> algorithmNames = list(options.getOrDefault("algorithms", String.join(",", DEFAULT_ALGORITHMS)));
+        List<String> topologies = list(options.getOrDefault("topologies", "torus,random-regular"));
+        List<String> nodeCounts = list(options.getOrDefault("nodes", "100,1000"));
+        int repetitions = Integer.parseInt(options.getOrDefault("repetitions", "3"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout-seconds", "60")));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        Path out = Paths.get(options.getOrDefault("out", "target/scalability"));
+
+        List<Algorithm> algorithms = new ArrayList<>();
+        for (String name : algorithmNames) {
+            Algorithm algorithm = Algorithm.named(name);
+            if (algorithm == null) {
+                System.err.println("Unknown algorithm: " + name);
+                return;
+            }
+            algorithms.add(algorithm);
+        }
+
+        // The actors log every message at info level, which would be most of what is measured
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        List<RunResult> results = new ArrayList<>();
+        for (Algorithm algorithm : algorithms) {
+            for (String topology : algorithm.usesTopology ? topologies : List.of("ring")) {
+                for (String nodeCount : nodeCounts) {
+                    Graph graph = GraphGenerator.ofSize(topology, Integer.parseInt(nodeCount), seed).toGraph();
+                    for (int run = 0; run < warmup; run++) {
+                        measure(algorithm, topology, graph, -1, timeout);
+                    }
+                    for (int repetition = 0; repetition < repetitions; repetition++) {
+                        RunResult result = measure(algorithm, topology, graph, repetition, timeout);
+                        System.out.println(result.toCsv());
+                        results.add(result);
+                    }
+                }
+            }
+        }
+        write(results, out);
+        System.out.println("Wrote " + results.size() + " runs to " + out.toAbsolutePath());
+    }
+
+    static RunResult measure(Algorithm algorithm, String topology, Graph graph, int repetition, Duration timeout) throws InterruptedException {
+        ActorTestKit testKit = ActorTestKit.create("scalability", ConfigFactory.load());
+        try {
+            MessageStatistics statistics = MessageStatistics.get(testKit.system());
+            Algorithm.Run run = algorithm.prepare(testKit, graph, MailboxSelector.fromConfig(InstrumentedMailbox.CONFIG_PATH));
+            // Only the algorithm is measured, not the messages that built the network
+            if (!awaitIdle(statistics, timeout)) {
+                throw new IllegalStateException("Network of " + algorithm.name + " did not settle after setup");
+            }
+            statistics.reset();
+            System.gc();
+            List<MemoryPoolMXBean> heapPools = heapPools();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+            long start = System.nanoTime();
+            run.start.run();
+            boolean completed = run.completion.await(timeout);
+            double millis = (System.nanoTime() - start) / 1e6;
+
+            long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            return new RunResult(algorithm.name, topology, graph.nodeCount(), graph.edgeCount(), repetition, completed, millis,
+                    peakHeap, statistics.byType(), statistics.highWaterMarks());
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    // Waits until no message was delivered and every mailbox stayed empty for the quiet period. Returns false if
+    // that did not happen within the timeout.
+    static boolean awaitIdle(MessageStatistics statistics, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long received = -1;
+        while (System.nanoTime() < deadline) {
+            long now = statistics.received();
+            if (now == received && statistics.mailboxesEmpty()) {
+                return true;
+            }
+            received = statistics.mailboxesEmpty() ? now : -1;
+            Thread.sleep(QUIET_PERIOD.toMillis());
+        }
+        return false;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    static void write(List<RunResult> results, Path out) throws IOException {
+        Files.createDirectories(out);
+        try (PrintWriter runs = new PrintWriter(Files.newBufferedWriter(out.resolve("runs.csv")));
+             PrintWriter types = new PrintWriter(Files.newBufferedWriter(out.resolve("message-types.csv")));
+             PrintWriter mailboxes = new PrintWriter(Files.newBufferedWriter(out.resolve("mailboxes.csv")))) {
+            runs.println(RunResult.CSV_HEADER);
+            types.println("algorithm,topology,nodes,repetition,message_type,messages,bytes");
+            mailboxes.println("algorithm,topology,nodes,repetition,node,high_water");
+            for (RunResult result : results) {
+                runs.println(result.toCsv());
+                result.messagesByType.forEach((type, count) -> types.println(result.key() + "," + type + "," + count.messages + "," + count.bytes));
+                result.mailboxHighWaterByNode.forEach((node, highWater) -> mailboxes.println(result.key() + "," + node + "," + highWater));
+            }
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out.resolve("runs.json").toFile(), results);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option but got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static List<String> list(String value) {
+        return Arrays.asList(value.split(","));
+    }
+}
@@ -0,0 +1,470 @@
+package snapshot_algorithms;
+
+import snapshot_algorithms.storage.SnapshotStore;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+
+// The local snapshots of every node of the network, assembled into primitive arrays indexed by node id. Ids are the
+// positions of the node names the collector was created with; the drivers pass the names in graph order, so they are
+// the util.Graph ids. Nothing is kept as an object per node or per channel, so a snapshot of 100k nodes and their
+// channels is a handful of int arrays.
+//
+// Channels are stored in compressed sparse row form by receiving node: the incoming channels of node q are
+// channelStart(q) until channelEnd(q), and the values recorded on channel c are values[valueStart[c]] until
+// values[valueStart[c + 1]]. What a node sent is packed as (receiver << 32 | count), sorted by receiver within the
+// node's range, so the sending side of a channel is found with a binary search.
+public final class GlobalSnapshot {
+
+    // Node id of the records a global snapshot is written under in a SnapshotStore
+    public static final String STORE_NODE_ID = "global-snapshot";
+    // Nodes per record written to the store, so no record holds the whole snapshot
+    static final int NODES_PER_RECORD = 1024;
+
+    // One channel whose counts do not add up: every message sent before the sender's snapshot must either have been
+    // received before the receiver's snapshot or be recorded as in transit.
+    public static final class Inconsistency {
+        public final String from;
+        public final String to;
+        public final int sent;
+        public final int received;
+        public final int inFlight;
+
+        Inconsistency(String from, String to, int sent, int received, int inFlight) {
+            this.from = from;
+            this.to = to;
+            this.sent = sent;
+            this.received = received;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to + ": sent " + sent + ", received " + received + ", in flight " + inFlight;
+        }
+    }
+
+    // Folds local snapshots into the arrays as they arrive, in any order. Channels are appended in arrival order and
+    // only put in node order by build().
+    public static final class Builder {
+        private final String[] names;
+        private final Map<String, Integer> ids;
+        private final int[] states;
+        private final boolean[] reported;
+        private final boolean[] counted;
+        private int[] clocks;
+        private int reportedCount;
+
+        // Per node, where its channels and sent counts start in the arrival-order arrays
+        private final int[] nodeChannelStart;
+        private final int[] nodeChannelCount;
+        private final int[] nodeSentStart;
+        private final int[] nodeSentCount;
+
+        private int channels;
+        private int[] channelSender = new int[64];
+        private int[] channelReceived = new int[64];
+        private int[] channelValueStart = new int[64];
+        private int[] channelValueCount = new int[64];
+        private int valueCount;
+        private int[] values = new int[64];
+        private int sentCount;
+        private long[] sent = new long[64];
+
+        public Builder(Collection<String> nodeNames) {
+            this.ids = new HashMap<>(nodeNames.size() * 2);
+            for (String name : nodeNames) {
+                ids.putIfAbsent(name, ids.size());
+            }
+            this.names = new String[ids.size()];
+            ids.forEach((name, node) -> names[node] = name);
+            this.states = new int[names.length];
+            this.reported = new boolean[names.length];
+            this.counted = new boolean[names.length];
+            this.nodeChannelStart = new int[names.length];
+            this.nodeChannelCount = new int[names.length];
+            this.nodeSentStart = new int[names.length];
+            this.nodeSentCount = new int[names.length];
+        }
+
+        // Adds a node's local snapshot. Returns false, and adds nothing, if the node is not part of the snapshot or
+        // already reported. Channels from and counts for nodes outside the snapshot (a test probe) are left out.
+        public boolean add(LocalSnapshot snapshot) {
+            Integer id = ids.get(snapshot.node);
+            if (id == null || reported[id]) {
+                return false;
+            }
+            int node = id;
+            reported[node] = true;
+            reportedCount++;
+            states[node] = snapshot.state;
+            counted[node] = snapshot.countsMessages();
+            if (snapshot.snapshotClock != LocalSnapshot.NO_CLOCK) {
+                if (clocks == null) {
+                    clocks = new int[names.length];
+                    Arrays.fill(clocks, LocalSnapshot.NO_CLOCK);
+                }
+                clocks[node] = snapshot.snapshotClock;
+            }
+
+            nodeChannelStart[node] = channels;
+            for (Map.Entry<String, List<Integer>> channel : snapshot.channels.entrySet()) {
+                Integer sender = ids.get(channel.getKey());
+                if (sender == null) {
+                    continue;
+                }
+                List<Integer> recorded = channel.getValue();
+                ensureChannelCapacity();
+                ensureValueCapacity(recorded.size());
+                channelSender[channels] = sender;
+                channelReceived[channels] = counted[node] ? snapshot.received.getOrDefault(channel.getKey(), 0) : -1;
+                channelValueStart[channels] = valueCount;
+                channelValueCount[channels] = recorded.size();
+                for (int value : recorded) {
+                    values[valueCount++] = value;
+                }
+                channels++;
+            }
+            nodeChannelCount[node] = channels - nodeChannelStart[node];
+
+            nodeSentStart[node] = sentCount;
+            if (counted[node]) {
+                for (Map.Entry<String, Integer> count : snapshot.sent.entrySet()) {
+                    Integer receiver = ids.get(count.getKey());
+                    if (receiver == null) {
+                        continue;
+                    }
+                    if (sentCount == sent.length) {
+                        sent = Arrays.copyOf(sent, sentCount * 2);
+                    }
+                    sent[sentCount++] = pack(receiver, count.getValue());
+                }
+                Arrays.sort(sent, nodeSentStart[node], sentCount);
+            }
+            nodeSentCount[node] = sentCount - nodeSentStart[node];
+            return true;
+        }
+
+        public int nodeCount() {
+            return names.length;
+        }
+
+        public int reportedCount() {
+            return reportedCount;
+        }
+
+        public boolean isComplete() {
+            return reportedCount == names.length;
+        }
+
+        // Names of the nodes that did not report yet, in id order.
+        public Set<String> missingNodes() {
+            Set<String> missing = new LinkedHashSet<>();
+            for (int node = 0; node < names.length; node++) {
+                if (!reported[node]) {
+                    missing.add(names[node]);
+                }
+            }
+            return missing;
+        }
+
+        // Lays the channels and counts out in node order. Nodes that did not report keep state 0 and no channels.
+        public GlobalSnapshot build(Duration elapsed) {
+            int nodes = names.length;
+            int[] firstChannel = new int[nodes + 1];
+            int[] firstSent = new int[nodes + 1];
+            for (int node = 0; node < nodes; node++) {
+                firstChannel[node + 1] = firstChannel[node] + nodeChannelCount[node];
+                firstSent[node + 1] = firstSent[node] + nodeSentCount[node];
+            }
+
+            int[] senders = new int[channels];
+            int[] received = new int[channels];
+            int[] valueStart = new int[channels + 1];
+            int[] orderedValues = new int[valueCount];
+            long[] orderedSent = new long[sentCount];
+            int nextValue = 0;
+            for (int node = 0; node < nodes; node++) {
+                int channel = firstChannel[node];
+                for (int source = nodeChannelStart[node]; source < nodeChannelStart[node] + nodeChannelCount[node]; source++) {
+                    senders[channel] = channelSender[source];
+                    received[channel] = channelReceived[source];
+                    valueStart[channel] = nextValue;
+                    System.arraycopy(values, channelValueStart[source], orderedValues, nextValue, channelValueCount[source]);
+                    nextValue += channelValueCount[source];
+                    channel++;
+                }
+                System.arraycopy(sent, nodeSentStart[node], orderedSent, firstSent[node], nodeSentCount[node]);
+            }
+            valueStart[channels] = nextValue;
+
+            return new GlobalSnapshot(names, ids, states.clone(), counted.clone(), clocks != null ? clocks.clone() : null,
+                    firstChannel, senders, received, valueStart, orderedValues, firstSent, orderedSent, elapsed);
+        }
+
+        private void ensureChannelCapacity() {
+            if (channels == channelSender.length) {
+                int capacity = channels * 2;
+                channelSender = Arrays.copyOf(channelSender, capacity);
+                channelReceived = Arrays.copyOf(channelReceived, capacity);
+                channelValueStart = Arrays.copyOf(channelValueStart, capacity);
+                channelValueCount = Arrays.copyOf(channelValueCount, capacity);
+            }
+        }
+
+        private void ensureValueCapacity(int additional) {
+            if (valueCount + additional > values.length) {
+                values = Arrays.copyOf(values, Math.max(valueCount + additional, values.length * 2));
+            }
+        }
+    }
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int[] states;
+    // Whether the node reported its message counts; channelReceived is -1 and no sent counts exist if not
+    private final boolean[] counted;
+    // Snapshot clock per node, null if no node reported one
+    private final int[] clocks;
+    private final int[] firstChannel;
+    private final int[] channelSender;
+    private final int[] channelReceived;
+    private final int[] valueStart;
+    private final int[] values;
+    private final int[] firstSent;
+    private final long[] sent;
+    // From the start of the collector until the last node reported
+    public final Duration elapsed;
+
+    private GlobalSnapshot(String[] names, Map<String, Integer> ids, int[] states, boolean[] counted, int[] clocks,
+                           int[] firstChannel, int[] channelSender, int[] channelReceived, int[] valueStart, int[] values,
+                           int[] firstSent, long[] sent, Duration elapsed) {
+        this.names = names;
+        this.ids = ids;
+        this.states = states;
+        this.counted = counted;
+        this.clocks = clocks;
+        this.firstChannel = firstChannel;
+        this.channelSender = channelSender;
+        this.channelReceived = channelReceived;
+        this.valueStart = valueStart;
+        this.values = values;
+        this.firstSent = firstSent;
+        this.sent = sent;
+        this.elapsed = elapsed;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int node) {
+        return names[node];
+    }
+
+    // Id of the named node, or -1 if it is not part of this snapshot.
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    public int state(int node) {
+        return states[node];
+    }
+
+    public int channelCount() {
+        return channelSender.length;
+    }
+
+    public int channelStart(int node) {
+        return firstChannel[node];
+    }
+
+    public int channelEnd(int node) {
+        return firstChannel[node + 1];
+    }
+
+    public int sender(int channel) {
+        return channelSender[channel];
+    }
+
+    // Number of messages recorded as in transit on the channel.
+    public int inFlight(int channel) {
+        return valueStart[channel + 1] - valueStart[channel];
+    }
+
+    // Local snapshot of the node, or null if it is not part of this snapshot. Built from the arrays on every call.
+    public LocalSnapshot get(String node) {
+        int id = id(node);
+        if (id < 0) {
+            return null;
+        }
+        Map<String, List<Integer>> channels = new HashMap<>();
+        Map<String, Integer> received = counted[id] ? new HashMap<>() : null;
+        for (int channel = firstChannel[id]; channel < firstChannel[id + 1]; channel++) {
+            List<Integer> recorded = new ArrayList<>(inFlight(channel));
+            for (int value = valueStart[channel]; value < valueStart[channel + 1]; value++) {
+                recorded.add(values[value]);
+            }
+            channels.put(names[channelSender[channel]], recorded);
+            if (received != null) {
+                received.put(names[channelSender[channel]], channelReceived[channel]);
+            }
+        }
+        Map<String, Integer> sentTo = null;
+        if (counted[id]) {
+            sentTo = new HashMap<>();
+            for (int entry = firstSent[id]; entry < firstSent[id + 1]; entry++) {
+                sentTo.put(names[receiver(sent[entry])], count(sent[entry]));
+            }
+        }
+        return new LocalSnapshot(node, states[id], channels, clocks != null ? clocks[id] : LocalSnapshot.NO_CLOCK, sentTo, received);
+    }
+
+    // Checks every channel between two nodes that both counted their messages: what the sender sent before its
+    // snapshot minus what the receiver received before its own must equal what the receiver recorded in transit. A
+    // channel the sender sent on but the receiver did not record at all is inconsistent as well. Works on the arrays
+    // only; the result is empty for a consistent snapshot.
+    public List<Inconsistency> checkConsistency() {
+        List<Inconsistency> inconsistencies = new ArrayList<>();
+        boolean[] matched = new boolean[sent.length];
+        for (int receiver = 0; receiver < names.length; receiver++) {
+            if (!counted[receiver]) {
+                continue;
+            }
+            for (int channel = firstChannel[receiver]; channel < firstChannel[receiver + 1]; channel++) {
+                int sender = channelSender[channel];
+                if (!counted[sender]) {
+                    continue;
+                }
+                int entry = findSent(sender, receiver);
+                int sentCount = 0;
+                if (entry >= 0) {
+                    matched[entry] = true;
+                    sentCount = count(sent[entry]);
+                }
+                if (sentCount - channelReceived[channel] != inFlight(channel)) {
+                    inconsistencies.add(new Inconsistency(names[sender], names[receiver], sentCount, channelReceived[channel], inFlight(channel)));
+                }
+            }
+        }
+        for (int sender = 0; sender < names.length; sender++) {
+            for (int entry = firstSent[sender]; entry < firstSent[sender + 1]; entry++) {
+                int receiver = receiver(sent[entry]);
+                if (!matched[entry] && counted[receiver] && count(sent[entry]) > 0) {
+                    inconsistencies.add(new Inconsistency(names[sender], names[receiver], count(sent[entry]), 0, 0));
+                }
+            }
+        }
+        return inconsistencies;
+    }
+
+    public boolean isConsistent() {
+        return checkConsistency().isEmpty();
+    }
+
+    // Appends the snapshot to the store under STORE_NODE_ID, NODES_PER_RECORD nodes per record with the ids
+    // "<snapshotId>/<part>", followed by a summary record with the snapshot id itself. The summary is written last,
+    // so a snapshot whose summary is in the store is complete. Only one record's content is built at a time.
+    public void writeTo(SnapshotStore store, String snapshotId) throws IOException {
+        StringBuilder content = new StringBuilder();
+        int parts = 0;
+        for (int first = 0; first < names.length; first += NODES_PER_RECORD) {
+            int last = Math.min(first + NODES_PER_RECORD, names.length);
+            content.setLength(0);
+            content.append("{\"Nodes\": [");
+            for (int node = first; node < last; node++) {
+                if (node > first) {
+                    content.append(", ");
+                }
+                appendNode(content, node);
+            }
+            content.append("]}");
+            store.append(STORE_NODE_ID, snapshotId + "/" + parts++, content.toString());
+        }
+        content.setLength(0);
+        content.append("{\"Nodes\": ").append(names.length)
+                .append(", \"Channels\": ").append(channelCount())
+                .append(", \"Parts\": ").append(parts)
+                .append(", \"ElapsedMillis\": ").append(elapsed.toMillis())
+                .append(", \"Inconsistencies\": ").append(checkConsistency().size())
+                .append('}');
+        store.append(STORE_NODE_ID, snapshotId, content.toString());
+        store.sync();
+    }
+
+    private void appendNode(StringBuilder out, int node) {
+        out.append("{\"Node\": \"").append(names[node]).append("\", \"State\": ").append(states[node]).append(", \"ChannelStates\": {");
+        for (int channel = firstChannel[node]; channel < firstChannel[node + 1]; channel++) {
+            if (channel > firstChannel[node]) {
+                out.append(", ");
+            }
+            out.append('"').append(names[channelSender[channel]]).append("\": [");
+            for (int value = valueStart[channel]; value < valueStart[channel + 1]; value++) {
+                if (value > valueStart[channel]) {
+                    out.append(", ");
+                }
+                out.append(values[value]);
+            }
+            out.append(']');
+        }
+        out.append('}');
+        if (counted[node]) {
+            out.append(", \"Sent\": {");
+            for (int entry = firstSent[node]; entry < firstSent[node + 1]; entry++) {
+                if (entry > firstSent[node]) {
+                    out.append(", ");
+                }
+                out.append('"').append(names[receiver(sent[entry])]).append("\": ").append(count(sent[entry]));
+            }
+            out.append("}, \"Received\": {");
+            for (int channel = firstChannel[node]; channel < firstChannel[node + 1]; channel++) {
+                if (channel > firstChannel[node]) {
+                    out.append(", ");
+                }
+                out.append('"').append(names[channelSender[channel]]).append("\": ").append(channelReceived[channel]);
+            }
+            out.append('}');
+        }
+        if (clocks != null && clocks[node] != LocalSnapshot.NO_CLOCK) {
+            out.append(", \"SnapshotClock\": ").append(clocks[node]);
+        }
+        out.append('}');
+    }
+
+    // Index into sent of what the sender sent to the receiver, or -1 if it sent nothing.
+    private int findSent(int sender, int receiver) {
+        int low = firstSent[sender];
+        int high = firstSent[sender + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int candidate = receiver(sent[middle]);
+            if (candidate < receiver) {
+                low = middle + 1;
+            } else if (candidate > receiver) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static long pack(int receiver, int count) {
+        return (long) receiver << 32 | (count & 0xFFFFFFFFL);
+    }
+
+    private static int receiver(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int count(long entry) {
+        return (int) entry;
+    }
+
+    @Override
+    public String toString() {
+        return "GlobalSnapshot{nodes=" + names.length + ", channels=" + channelCount() + ", elapsed=" + elapsed.toMillis() + " ms}";
+    }
+}
@@ -0,0 +1,58 @@
+package snapshot_algorithms;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// What one node recorded for a global snapshot: its own state and, per incoming channel, the values of the messages
+// that were in transit on it. Algorithms that do not record channels leave them empty. Vector-time snapshots report
+// only the initiator's entry of the clock the node recorded at; the full clock stays in the node's own store record,
+// so a global snapshot does not hold a clock of every node per node.
+//
+// Algorithms that count their basic messages also report, per neighbor, how many they sent to it and received from
+// it before recording their state, so the global snapshot can check every channel. Both are null if not counted.
+public final class LocalSnapshot {
+
+    // The snapshot clock of algorithms without vector time
+    public static final int NO_CLOCK = -1;
+
+    public final String node;
+    public final int state;
+    // Recorded message values by the name of the sending neighbor
+    public final Map<String, List<Integer>> channels;
+    // The initiator's entry of the node's vector clock when it recorded, or NO_CLOCK
+    public final int snapshotClock;
+    // Messages sent before the snapshot by the name of the receiving neighbor
+    public final Map<String, Integer> sent;
+    // Messages received before the snapshot by the name of the sending neighbor
+    public final Map<String, Integer> received;
+
+    public LocalSnapshot(String node, int state, Map<String, List<Integer>> channels, int snapshotClock, Map<String, Integer> sent, Map<String, Integer> received) {
+        this.node = node;
+        this.state = state;
+        this.channels = Collections.unmodifiableMap(channels);
+        this.snapshotClock = snapshotClock;
+        this.sent = sent != null ? Collections.unmodifiableMap(sent) : null;
+        this.received = received != null ? Collections.unmodifiableMap(received) : null;
+    }
+
+    public LocalSnapshot(String node, int state, Map<String, List<Integer>> channels, Map<String, Integer> sent, Map<String, Integer> received) {
+        this(node, state, channels, NO_CLOCK, sent, received);
+    }
+
+    public LocalSnapshot(String node, int state, Map<String, List<Integer>> channels) {
+        this(node, state, channels, NO_CLOCK, null, null);
+    }
+
+    // Whether the node reported its message counts.
+    public boolean countsMessages() {
+        return sent != null && received != null;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalSnapshot{node='" + node + "', state=" + state + ", channels=" + channels
+                + (snapshotClock != NO_CLOCK ? ", snapshotClock=" + snapshotClock : "")
+                + (countsMessages() ? ", sent=" + sent + ", received=" + received : "") + '}';
+    }
+}
@@ -3,22 +3,33 @@ package snapshot_algorithms;
 import akka.actor.testkit.typed.javadsl.ActorTestKit;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.Props;
 import akka.actor.typed.javadsl.AskPattern;
 import snapshot_algorithms.chandy_lamport.ChandyLamportActor;
 import snapshot_algorithms.lai_yang.LaiYangActor;
+import snapshot_algorithms.mattern.MatternActor;
 import snapshot_algorithms.peterson_kearns.CheckpointRecoveryManager;
 import snapshot_algorithms.peterson_kearns.PetersonKearnsActor;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+import snapshot_algorithms.storage.SnapshotWriter;
+import util.Graph;
 import util.GraphParser;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 
 public class Main {
 
     private static final String TEST_FILE_PATH = "src/main/resources/graph/NetGraph_17-03-24-12-50-04.ngs.dot";
+    // How long a driver waits for every node to report its part of the global snapshot
+    private static final Duration SNAPSHOT_TIMEOUT = Duration.ofSeconds(30);
 
     public static void main(String[] args) throws InterruptedException, ExecutionException {
         Scanner scanner = new Scanner(System.in);
@@ -28,7 +39,8 @@ public class Main {
                 System.out.println("1: Lai-Yang");
                 System.out.println("2: Chandy-Lamport");
                 System.out.println("3: Peterson-Kearns");
-                System.out.println("4: Exit");
+                System.out.println("4: Mattern");
+                System.out.println("5: Exit");
 
                 String choice = scanner.nextLine();
                 switch (choice) {
@@ -42,10 +54,13 @@ public class Main {
                         runPetersonKearns();
                         break;
                     case "4":
+                        runMattern();
+                        break;
+                    case "5":
                         System.out.println("Exiting...");
                         System.exit(0);  // This will forcibly terminate the JVM
                     default:
-                        System.out.println("Invalid option. Please enter 1, 2, 3, or 4.");
+                        System.out.println("Invalid option. Please enter 1, 2, 3, 4, or 5.");
                 }
             }
         } catch (IOException e) {
@@ -55,26 +70,43 @@ public class Main {
         }
     }
 
-    private static void runLaiYang() throws InterruptedException {
+    private static void runLaiYang() throws InterruptedException, IOException {
         ActorTestKit testKit = ActorTestKit.create();
-        List<GraphParser.Edge> edges = GraphParser.parseDotFile(TEST_FILE_PATH);
+        Graph graph = GraphParser.loadGraph(TEST_FILE_PATH);
 
-        Map<String, ActorRef<Message>> network = new HashMap<>();
+        // One writer for the whole network so snapshot files are batched instead of written by every node
+        ActorRef<SnapshotWriter.Command> snapshotWriter = testKit.spawn(SnapshotWriter.create(), "snapshot-writer", DispatcherSelector.blocking());
+        CompletableFuture<GlobalSnapshot> globalSnapshot = new CompletableFuture<>();
+        CompletableFuture<SnapshotCollector.Durability> durability = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(nodeNames(graph), SnapshotCollector.ANY_SNAPSHOT, SNAPSHOT_TIMEOUT, globalSnapshot, durability), "snapshot-collector");
 
-        edges.forEach(edge -> {
-            network.computeIfAbsent(edge.getSource(), sourceId -> testKit.spawn(LaiYangActor.create(new HashSet<>()), sourceId));
-            network.computeIfAbsent(edge.getDestination(), destId -> testKit.spawn(LaiYangActor.create(new HashSet<>()), destId));
-        });
+        List<ActorRef<Message>> network = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            network.add(testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter, collector), graph.name(node)));
+        }
 
-        edges.forEach(edge -> {
-            ActorRef<Message> sourceNode = network.get(edge.getSource());
-            ActorRef<Message> destinationNode = network.get(edge.getDestination());
-            sourceNode.tell(new LaiYangActor.AddNeighbor(destinationNode));
-        });
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                network.get(node).tell(new LaiYangActor.AddNeighbor(network.get(graph.target(edge))));
+            }
+        }
+        // The graph is directed: a node only waits for the presnap messages of the nodes with an edge to it
+        List<Set<ActorRef<Message>>> senders = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            senders.add(new HashSet<>());
+        }
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                senders.get(graph.target(edge)).add(network.get(node));
+            }
+        }
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            network.get(node).tell(new LaiYangActor.SetIncomingChannels(senders.get(node)));
+        }
 
         // Assuming the initial snapshot trigger is from node "0"
-        ActorRef<Message> initNode = network.get("0");
-        ActorRef<Message> nodeSeven = network.get("7");
+        ActorRef<Message> initNode = network.get(graph.id("0"));
+        ActorRef<Message> nodeSeven = network.get(graph.id("7"));
 
         initNode.tell(new LaiYangActor.PerformCalculation(10));
         nodeSeven.tell(new LaiYangActor.PerformCalculation(2));
@@ -84,46 +116,86 @@ public class Main {
         Thread.sleep(1000);
         nodeSeven.tell(new LaiYangActor.PerformCalculation(3));
 
-        // Allow some time for the snapshot process to complete
-        Thread.sleep(5000);
+        awaitSnapshot(globalSnapshot, durability);
 
         testKit.shutdownTestKit();
         System.out.println("Lai-yang simulation ended...");
-        System.out.println("Snapshot are saved under the /snapshot directory.");
+        System.out.println("Snapshots are saved in the snapshot store under the /snapshots/store directory.");
     }
 
-    private static void runChandyLamport() throws InterruptedException {
+    private static void runChandyLamport() throws InterruptedException, IOException {
         ActorTestKit testKitChandyLamport = ActorTestKit.create();
-        List<GraphParser.Edge> edges = GraphParser.parseDotFile(TEST_FILE_PATH);
-
-        Map<String, ActorRef<Message>> network = new HashMap<>();
-
-        edges.forEach(edge -> {
-            network.computeIfAbsent(edge.getSource(), sourceId -> testKitChandyLamport.spawn(ChandyLamportActor.create(new HashSet<>()), sourceId));
-            network.computeIfAbsent(edge.getDestination(), destId -> testKitChandyLamport.spawn(ChandyLamportActor.create(new HashSet<>()), destId));
-        });
-
-        edges.forEach(edge -> {
-            ActorRef<Message> sourceNode = network.get(edge.getSource());
-            ActorRef<Message> destinationNode = network.get(edge.getDestination());
-            sourceNode.tell(new ChandyLamportActor.AddNeighbor(destinationNode));
-        });
+        // The actors treat every neighbor as a channel in both directions, and wait for a marker on each of them
+        Graph graph = GraphParser.loadGraph(TEST_FILE_PATH).undirected();
+
+        // One writer for the whole network so snapshot files are batched instead of written by every node
+        ActorRef<SnapshotWriter.Command> snapshotWriter = testKitChandyLamport.spawn(SnapshotWriter.create(), "snapshot-writer", DispatcherSelector.blocking());
+        CompletableFuture<GlobalSnapshot> globalSnapshot = new CompletableFuture<>();
+        CompletableFuture<SnapshotCollector.Durability> durability = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKitChandyLamport.spawn(SnapshotCollector.create(nodeNames(graph), SnapshotCollector.ANY_SNAPSHOT, SNAPSHOT_TIMEOUT, globalSnapshot, durability), "snapshot-collector");
+
+        List<ActorRef<Message>> network = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            network.add(testKitChandyLamport.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter, collector), graph.name(node)));
+        }
 
-        Thread.sleep(2000);
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                network.get(node).tell(new ChandyLamportActor.AddNeighbor(network.get(graph.target(edge))));
+            }
+        }
 
-        // Assuming the initial snapshot trigger is from node "0"
-        ActorRef<Message> initNode = network.get("0");
+        // No wait for the neighbors to be added: each node gets its AddNeighbor messages before any marker, which is
+        // only sent after the initiator's own InitiateSnapshot below
+        ActorRef<Message> initNode = network.get(graph.id("0"));
 
         initNode.tell(new ChandyLamportActor.InitiateSnapshot());
 
-        // Allow some time for the snapshot process to complete
-        Thread.sleep(5000);
+        awaitSnapshot(globalSnapshot, durability);
         testKitChandyLamport.shutdownTestKit();
         System.out.println("Chandy-Lamport simulation ended...");
-        System.out.println("Snapshot are saved under the /snapshot directory.");
+        System.out.println("Snapshots are saved in the snapshot store under the /snapshots/store directory.");
     }
 
 
+    private static void runMattern() throws InterruptedException, IOException {
+        ActorTestKit testKit = ActorTestKit.create();
+        // Channels are counted by the initiator, so the directed graph needs no list of incoming channels
+        Graph graph = GraphParser.loadGraph(TEST_FILE_PATH);
+
+        // One writer for the whole network so snapshot files are batched instead of written by every node
+        ActorRef<SnapshotWriter.Command> snapshotWriter = testKit.spawn(SnapshotWriter.create(), "snapshot-writer", DispatcherSelector.blocking());
+        CompletableFuture<GlobalSnapshot> globalSnapshot = new CompletableFuture<>();
+        CompletableFuture<SnapshotCollector.Durability> durability = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(nodeNames(graph), SnapshotCollector.ANY_SNAPSHOT, SNAPSHOT_TIMEOUT, globalSnapshot, durability), "snapshot-collector");
+
+        List<ActorRef<Message>> network = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            network.add(testKit.spawn(MatternActor.create(new HashSet<>(), snapshotWriter, collector), graph.name(node)));
+        }
+
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            for (int edge = graph.edgeStart(node); edge < graph.edgeEnd(node); edge++) {
+                network.get(node).tell(new MatternActor.AddNeighbor(network.get(graph.target(edge))));
+            }
+        }
+
+        ActorRef<Message> initNode = network.get(graph.id("0"));
+        ActorRef<Message> nodeSeven = network.get(graph.id("7"));
+
+        initNode.tell(new MatternActor.PerformCalculation(10));
+        nodeSeven.tell(new MatternActor.PerformCalculation(2));
+        Thread.sleep(2000);
+
+        initNode.tell(new MatternActor.InitiateSnapshot(network));
+
+        awaitSnapshot(globalSnapshot, durability);
+
+        testKit.shutdownTestKit();
+        System.out.println("Mattern simulation ended...");
+        System.out.println("Snapshots are saved in the snapshot store under the /snapshots/store directory.");
+    }
+
     public static void runPetersonKearns() throws InterruptedException, ExecutionException, IOException {
         // Create the actor system and the checkpoint manager actor
         ActorSystem<CheckpointRecoveryManager.Command> system = ActorSystem.create(CheckpointRecoveryManager.create(), "System");
@@ -131,8 +203,7 @@ public class Main {
         // Send command to build the network
         system.tell(new CheckpointRecoveryManager.BuildNetworkFromDotFile(TEST_FILE_PATH));
 
-        Thread.sleep(1000);
-
+        // The manager answers these after it built the network
         CompletionStage<ActorRef<Message>> actor0Future = AskPattern.ask(
                 system,
                 replyTo -> new CheckpointRecoveryManager.GetActorRef("0", replyTo),
@@ -151,27 +222,71 @@ public class Main {
         ActorRef<Message> actor1 = actor1Future.toCompletableFuture().get();
 
         // Send messages to actors to change state
-        actor0.tell(new PetersonKearnsActor.BasicMessage(10, actor1, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
+        actor0.tell(new PetersonKearnsActor.BasicMessage(10, actor1, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
 
         // Allow time for messages to be processed
         Thread.sleep(2000);
         // Initiate snapshot across all nodes
-        system.tell(new CheckpointRecoveryManager.InitiateNetworkSnapshot());
-        Thread.sleep(2000);
+        CompletableFuture<GlobalSnapshot> globalSnapshot = new CompletableFuture<>();
+        CompletableFuture<SnapshotCollector.Durability> durability = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = system.systemActorOf(SnapshotCollector.create(nodeNames(GraphParser.loadGraph(TEST_FILE_PATH)), SnapshotCollector.ANY_SNAPSHOT, SNAPSHOT_TIMEOUT, globalSnapshot, durability), "snapshot-collector", Props.empty());
+        system.tell(new CheckpointRecoveryManager.InitiateNetworkSnapshot(collector));
+        awaitSnapshot(globalSnapshot, durability);
 
-        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
 
+        // Asked before the node is terminated, so the answer is about the recovery this failure starts
+        CompletionStage<CheckpointRecoveryManager.RecoveryCompleted> recovery = AskPattern.ask(
+                system,
+                replyTo -> new CheckpointRecoveryManager.AwaitRecovery("0", replyTo),
+                SNAPSHOT_TIMEOUT,
+                system.scheduler()
+        );
         system.tell(new CheckpointRecoveryManager.TerminateActor("0"));
-        Thread.sleep(2000);
+        CheckpointRecoveryManager.RecoveryCompleted recovered = recovery.toCompletableFuture().get();
+        System.out.println(recovered.recovered ? "Node 0 recovered from its checkpoint" : "Node 0 could not be recovered");
 
         System.out.println("Peterson-kearns simulation ended...");
-        System.out.println("Snapshots and message logs are saved under the /snapshot directory.");
+        System.out.println("Snapshots and message logs are saved under the /snapshots directory.");
 
         system.terminate();
     }
 
+    private static List<String> nodeNames(Graph graph) {
+        List<String> names = new ArrayList<>(graph.nodeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            names.add(graph.name(node));
+        }
+        return names;
+    }
 
+    // Waits for the collector and reports how long the snapshot took and whether its channels add up, or which nodes
+    // did not report in time. A complete snapshot is also written to the snapshot store as a whole. Then waits until
+    // the snapshot writer acknowledged every node's local snapshot and reports whether all of them are durable.
+    private static void awaitSnapshot(CompletableFuture<GlobalSnapshot> globalSnapshot, CompletableFuture<SnapshotCollector.Durability> durability) throws InterruptedException {
+        try {
+            GlobalSnapshot snapshot = globalSnapshot.get();
+            System.out.println("Global snapshot of " + snapshot.size() + " nodes complete after " + snapshot.elapsed.toMillis() + " ms");
+            List<GlobalSnapshot.Inconsistency> inconsistencies = snapshot.checkConsistency();
+            if (inconsistencies.isEmpty()) {
+                System.out.println("Every channel of the global snapshot is consistent");
+            } else {
+                inconsistencies.forEach(inconsistency -> System.err.println("Inconsistent channel " + inconsistency));
+            }
+            snapshot.writeTo(SegmentedSnapshotStore.open(), LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        } catch (ExecutionException e) {
+            System.err.println(e.getCause().getMessage());
+        } catch (IOException e) {
+            System.err.println("Failed to write the global snapshot: " + e.getMessage());
+        }
+        try {
+            SnapshotCollector.Durability outcome = durability.get();
+            (outcome.isDurable() ? System.out : System.err).println("Snapshot durability: " + outcome);
+        } catch (ExecutionException e) {
+            System.err.println(e.getCause().getMessage());
+        }
+    }
 }
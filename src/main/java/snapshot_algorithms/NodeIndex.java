@@ -0,0 +1,63 @@
+package snapshot_algorithms;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Dense numbering of node names, so that per-node data such as vector clocks can be kept in arrays. The nodes of a
+// graph are registered when the network is built and get the indices 0..n-1 in graph order; names seen later (a
+// recovered actor, a test probe) are appended. Indices are never reused, and are only meaningful inside one JVM:
+// anything persisted stores names.
+public final class NodeIndex {
+
+    private static final NodeIndex SHARED = new NodeIndex();
+
+    private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile int size;
+
+    // The index used by every node in this JVM.
+    public static NodeIndex shared() {
+        return SHARED;
+    }
+
+    // Returns the index of the name, assigning the next free one if the name is new.
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index != null ? index : register(name);
+    }
+
+    // Returns the index of the name, or -1 if it has none.
+    public int find(String name) {
+        Integer index = indices.get(name);
+        return index != null ? index : -1;
+    }
+
+    // Name of an index, or null if it is not assigned.
+    public String name(int index) {
+        // Read the size first: a name is stored before the size that covers it is published
+        int assigned = size;
+        String[] current = names;
+        return index >= 0 && index < assigned ? current[index] : null;
+    }
+
+    // Number of assigned indices.
+    public int size() {
+        return size;
+    }
+
+    private synchronized int register(String name) {
+        Integer index = indices.get(name);
+        if (index != null) {
+            return index;
+        }
+        int assigned = size;
+        if (assigned == names.length) {
+            names = Arrays.copyOf(names, assigned * 2);
+        }
+        names[assigned] = name;
+        size = assigned + 1;
+        indices.put(name, assigned);
+        return assigned;
+    }
+}
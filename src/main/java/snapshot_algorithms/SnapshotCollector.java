@@ -0,0 +1,254 @@
+package snapshot_algorithms;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.*;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// Gathers the local snapshots of a network. Every node reports once it recorded its own state and all of its
+// channel states; when the last expected node reported, the future completes with the global snapshot. If that
+// does not happen within the timeout, the future fails with an IncompleteSnapshotException naming the nodes that
+// are still missing, and the collector stops. Reports are folded into a GlobalSnapshot.Builder as they arrive, so
+// the collector holds no per-node objects.
+//
+// A collector created with a durability future also gathers the snapshot writer's acknowledgements for the same
+// snapshot id. It then stays alive after the global snapshot completed until every node's local snapshot is on
+// disk, or failed to get there, and completes the durability future with the outcome; on timeout the nodes that
+// were never acknowledged are reported as such.
+public class SnapshotCollector extends AbstractBehavior<SnapshotCollector.Command> {
+
+    public interface Command {}
+
+    // Snapshot id of the reports of algorithms that take a single snapshot
+    public static final long SINGLE_SNAPSHOT = 0;
+    // Passed instead of a snapshot id to collect the first report of every node, whatever its snapshot
+    public static final long ANY_SNAPSHOT = -1;
+
+    public static final class LocalSnapshotRecorded implements Command {
+        public final LocalSnapshot snapshot;
+        public final long snapshotId;
+
+        public LocalSnapshotRecorded(LocalSnapshot snapshot) {
+            this(snapshot, SINGLE_SNAPSHOT);
+        }
+
+        public LocalSnapshotRecorded(LocalSnapshot snapshot, long snapshotId) {
+            this.snapshot = snapshot;
+            this.snapshotId = snapshotId;
+        }
+    }
+
+    // Sent by the snapshot writer once per flush: which of the nodes' local snapshots of one snapshot id are synced
+    public static final class LocalSnapshotsPersisted implements Command {
+        public final long snapshotId;
+        public final List<String> persisted;
+        public final List<String> failed;
+
+        public LocalSnapshotsPersisted(long snapshotId, List<String> persisted, List<String> failed) {
+            this.snapshotId = snapshotId;
+            this.persisted = persisted;
+            this.failed = failed;
+        }
+    }
+
+    public static final class GetProgress implements Command {
+        public final ActorRef<Progress> replyTo;
+
+        public GetProgress(ActorRef<Progress> replyTo) {
+            this.replyTo = replyTo;
+        }
+    }
+
+    public static final class Progress {
+        public final int recorded;
+        public final int expected;
+        public final Set<String> missing;
+
+        public Progress(int recorded, int expected, Set<String> missing) {
+            this.recorded = recorded;
+            this.expected = expected;
+            this.missing = missing;
+        }
+
+        @Override
+        public String toString() {
+            return recorded + " of " + expected + " nodes recorded" + (missing.isEmpty() ? "" : ", missing " + missing);
+        }
+    }
+
+    public static final class Durability {
+        public final int persisted;
+        public final int expected;
+        public final Set<String> failed;
+        public final Set<String> unacknowledged;
+
+        public Durability(int persisted, int expected, Set<String> failed, Set<String> unacknowledged) {
+            this.persisted = persisted;
+            this.expected = expected;
+            this.failed = failed;
+            this.unacknowledged = unacknowledged;
+        }
+
+        public boolean isDurable() {
+            return persisted == expected;
+        }
+
+        @Override
+        public String toString() {
+            return persisted + " of " + expected + " local snapshots persisted"
+                    + (failed.isEmpty() ? "" : ", failed " + failed)
+                    + (unacknowledged.isEmpty() ? "" : ", unacknowledged " + unacknowledged);
+        }
+    }
+
+    public static final class IncompleteSnapshotException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        // Not serialized; the message names the missing nodes as well
+        public final transient Progress progress;
+
+        public IncompleteSnapshotException(Progress progress, Duration timeout) {
+            super("Snapshot not complete after " + timeout.toMillis() + " ms: " + progress);
+            this.progress = progress;
+        }
+    }
+
+    private static final class Timeout implements Command {}
+
+    private static final Object TIMEOUT_KEY = new Object();
+
+    private final GlobalSnapshot.Builder snapshot;
+    // Reports of other snapshots are dropped, unless this is ANY_SNAPSHOT
+    private final long snapshotId;
+    private final CompletableFuture<GlobalSnapshot> result;
+    // Null unless durability is tracked, and then nodes leave unacknowledged once the writer reported on them
+    private final CompletableFuture<Durability> durability;
+    private final Set<String> unacknowledged;
+    private final Set<String> failed;
+    private final int expected;
+    private final Duration timeout;
+    private final long startNanos;
+
+    private SnapshotCollector(ActorContext<Command> context, TimerScheduler<Command> timers, Collection<String> expectedNodes, long snapshotId, Duration timeout, CompletableFuture<GlobalSnapshot> result, CompletableFuture<Durability> durability) {
+        super(context);
+        this.snapshot = new GlobalSnapshot.Builder(expectedNodes);
+        this.snapshotId = snapshotId;
+        this.result = result;
+        this.durability = durability;
+        this.unacknowledged = durability == null ? null : new HashSet<>(expectedNodes);
+        this.failed = durability == null ? null : new HashSet<>();
+        this.expected = snapshot.nodeCount();
+        this.timeout = timeout;
+        this.startNanos = System.nanoTime();
+        timers.startSingleTimer(TIMEOUT_KEY, new Timeout(), timeout);
+    }
+
+    // Collects the first local snapshot every named node reports into the result, failing it after the timeout.
+    public static Behavior<Command> create(Collection<String> expectedNodes, Duration timeout, CompletableFuture<GlobalSnapshot> result) {
+        return create(expectedNodes, ANY_SNAPSHOT, timeout, result);
+    }
+
+    // Collects the local snapshots the named nodes report for one snapshot id, for nodes that take several.
+    public static Behavior<Command> create(Collection<String> expectedNodes, long snapshotId, Duration timeout, CompletableFuture<GlobalSnapshot> result) {
+        return create(expectedNodes, snapshotId, timeout, result, null);
+    }
+
+    // As above, and completes the durability future once the writer acknowledged every node's local snapshot.
+    public static Behavior<Command> create(Collection<String> expectedNodes, long snapshotId, Duration timeout, CompletableFuture<GlobalSnapshot> result, CompletableFuture<Durability> durability) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> {
+            SnapshotCollector collector = new SnapshotCollector(context, timers, expectedNodes, snapshotId, timeout, result, durability);
+            // A network without nodes has nothing to wait for
+            return collector.completeIfDone();
+        }));
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(LocalSnapshotRecorded.class, this::onLocalSnapshotRecorded)
+                .onMessage(LocalSnapshotsPersisted.class, this::onLocalSnapshotsPersisted)
+                .onMessage(GetProgress.class, this::onGetProgress)
+                .onMessage(Timeout.class, this::onTimeout)
+                .build();
+    }
+
+    private Behavior<Command> onLocalSnapshotRecorded(LocalSnapshotRecorded message) {
+        String node = message.snapshot.node;
+        if (snapshotId != ANY_SNAPSHOT && message.snapshotId != snapshotId) {
+            getContext().getLog().debug("Ignoring local snapshot of {} for snapshot {}", node, message.snapshotId);
+            return this;
+        }
+        if (!snapshot.add(message.snapshot)) {
+            getContext().getLog().warn("Ignoring local snapshot of {}: not expected or already recorded", node);
+            return this;
+        }
+        getContext().getLog().debug("Local snapshot of {} recorded, {} of {}", node, snapshot.reportedCount(), snapshot.nodeCount());
+        return completeIfDone();
+    }
+
+    private Behavior<Command> onLocalSnapshotsPersisted(LocalSnapshotsPersisted message) {
+        if (durability == null || (snapshotId != ANY_SNAPSHOT && message.snapshotId != snapshotId)) {
+            return this;
+        }
+        for (String node : message.failed) {
+            if (unacknowledged.remove(node)) {
+                failed.add(node);
+            }
+        }
+        unacknowledged.removeAll(message.persisted);
+        return completeIfDone();
+    }
+
+    private Behavior<Command> onGetProgress(GetProgress message) {
+        message.replyTo.tell(progress());
+        return this;
+    }
+
+    private Behavior<Command> onTimeout(Timeout message) {
+        if (!result.isDone()) {
+            Progress progress = progress();
+            getContext().getLog().warn("Global snapshot timed out: {}", progress);
+            result.completeExceptionally(new IncompleteSnapshotException(progress, timeout));
+        }
+        if (durability != null) {
+            getContext().getLog().warn("Snapshot durability timed out: {}", durability());
+            durability.complete(durability());
+        }
+        return Behaviors.stopped();
+    }
+
+    private Behavior<Command> completeIfDone() {
+        if (!snapshot.isComplete()) {
+            return this;
+        }
+        if (!result.isDone()) {
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+            getContext().getLog().info("Global snapshot of {} nodes complete after {} ms", snapshot.nodeCount(), elapsed.toMillis());
+            result.complete(snapshot.build(elapsed));
+        }
+        if (durability == null) {
+            return Behaviors.stopped();
+        }
+        if (!unacknowledged.isEmpty()) {
+            return this;
+        }
+        Durability outcome = durability();
+        getContext().getLog().info("Snapshot durability: {}", outcome);
+        durability.complete(outcome);
+        return Behaviors.stopped();
+    }
+
+    private Durability durability() {
+        return new Durability(expected - failed.size() - unacknowledged.size(), expected, new HashSet<>(failed), new HashSet<>(unacknowledged));
+    }
+
+    private Progress progress() {
+        return new Progress(snapshot.reportedCount(), snapshot.nodeCount(), snapshot.missingNodes());
+    }
+}
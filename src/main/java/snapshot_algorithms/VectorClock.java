@@ -0,0 +1,157 @@
+package snapshot_algorithms;
+
+import java.util.Arrays;
+
+// Vector clock backed by an int array indexed by NodeIndex. Entries past the end of the array are zero, so clocks
+// of different lengths compare as if padded with zeros. Merging, comparing and serializing work on the arrays
+// directly; the only allocation is growing a clock to a node index it has not seen yet. Not thread-safe: a clock
+// handed to another actor must be a copy.
+public final class VectorClock {
+
+    public enum Order { BEFORE, AFTER, EQUAL, CONCURRENT }
+
+    private int[] counters;
+
+    public VectorClock() {
+        this(NodeIndex.shared().size());
+    }
+
+    // A zero clock with room for the given number of nodes.
+    public VectorClock(int capacity) {
+        this.counters = new int[capacity];
+    }
+
+    private VectorClock(int[] counters) {
+        this.counters = counters;
+    }
+
+    // Number of entries backed by the array; every entry past it is zero.
+    public int capacity() {
+        return counters.length;
+    }
+
+    public int get(int node) {
+        return node < counters.length ? counters[node] : 0;
+    }
+
+    public void set(int node, int value) {
+        ensureCapacity(node + 1);
+        counters[node] = value;
+    }
+
+    // Increments the node's entry and returns the new value.
+    public int increment(int node) {
+        ensureCapacity(node + 1);
+        return ++counters[node];
+    }
+
+    // Componentwise maximum with the other clock.
+    public void merge(VectorClock other) {
+        int[] theirs = other.counters;
+        int length = lastNonZero(theirs) + 1;
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            if (theirs[i] > counters[i]) {
+                counters[i] = theirs[i];
+            }
+        }
+    }
+
+    // Componentwise minimum with the other clock, e.g. to compute a recovery line.
+    public void meet(VectorClock other) {
+        int[] theirs = other.counters;
+        for (int i = 0; i < counters.length; i++) {
+            int their = i < theirs.length ? theirs[i] : 0;
+            if (their < counters[i]) {
+                counters[i] = their;
+            }
+        }
+    }
+
+    // True if no entry of the other clock is greater than this one's.
+    public boolean dominates(VectorClock other) {
+        int[] theirs = other.counters;
+        for (int i = 0; i < theirs.length; i++) {
+            if (theirs[i] > get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // How this clock relates to the other in the happened-before order.
+    public Order compare(VectorClock other) {
+        boolean before = false;
+        boolean after = false;
+        int length = Math.max(counters.length, other.counters.length);
+        for (int i = 0; i < length && !(before && after); i++) {
+            int mine = get(i);
+            int theirs = other.get(i);
+            if (mine < theirs) {
+                before = true;
+            } else if (mine > theirs) {
+                after = true;
+            }
+        }
+        if (before && after) {
+            return Order.CONCURRENT;
+        }
+        return before ? Order.BEFORE : after ? Order.AFTER : Order.EQUAL;
+    }
+
+    public VectorClock copy() {
+        return new VectorClock(counters.clone());
+    }
+
+    // Overwrites this clock with the other one, reusing the array when it is large enough.
+    public void copyFrom(VectorClock other) {
+        ensureCapacity(other.counters.length);
+        System.arraycopy(other.counters, 0, counters, 0, other.counters.length);
+        Arrays.fill(counters, other.counters.length, counters.length, 0);
+    }
+
+    // Appends the non-zero entries as a JSON object keyed by node name, e.g. {"0": 3, "2": 1}.
+    public StringBuilder appendJson(StringBuilder out, NodeIndex index) {
+        out.append('{');
+        boolean first = true;
+        for (int i = 0; i < counters.length; i++) {
+            if (counters[i] != 0) {
+                if (!first) {
+                    out.append(", ");
+                }
+                out.append('"').append(index.name(i)).append("\": ").append(counters[i]);
+                first = false;
+            }
+        }
+        return out.append('}');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VectorClock && compare((VectorClock) o) == Order.EQUAL;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(Arrays.copyOf(counters, lastNonZero(counters) + 1));
+    }
+
+    @Override
+    public String toString() {
+        return appendJson(new StringBuilder(), NodeIndex.shared()).toString();
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > counters.length) {
+            counters = Arrays.copyOf(counters, Math.max(length, counters.length + (counters.length >> 1)));
+        }
+    }
+
+    private static int lastNonZero(int[] values) {
+        int last = values.length - 1;
+        while (last >= 0 && values[last] == 0) {
+            last--;
+        }
+        return last;
+    }
+}
@@ -3,19 +3,69 @@ package snapshot_algorithms.chandy_lamport;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.*;
+import snapshot_algorithms.LocalSnapshot;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SnapshotWriter;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
 
+// Chandy-Lamport snapshots on a live network. Every marker carries the id of its snapshot, and a node keeps the
+// recording state of each snapshot it is part of until markers arrived on all of its channels; then the local
+// snapshot is persisted, reported and evicted, and the node carries on. Several snapshots can be in flight at once,
+// each recording the basic messages that arrive on its channels before their marker.
+//
+// Several nodes may initiate the same snapshot id at once (Spezialetti-Kearns). A node joins the region of the
+// initiator whose marker reached it first and remembers the neighbor it came from as its parent; markers carry the
+// region, so nodes also learn which other regions border theirs. Local snapshots travel up these trees to the
+// initiators, the initiators tell each other their region boundaries until every region is known, and the one with
+// the lowest actor path merges the partial snapshots and reports them to the collector. With k initiators spread
+// over the network the marker wave covers it in about diameter / k hops.
+//
+// Neighbors get a slot in the order they were added, and message counts and recorded channel states are kept in
+// primitive arrays indexed by slot, so handling a basic message allocates nothing but the message it forwards.
 public class ChandyLamportActor extends AbstractBehavior<Message> {
 
-    public static final class InitiateSnapshot implements Message {}
+    // Snapshots a node keeps recording at the same time; a periodic snapshot is skipped while this many are open
+    static final int MAX_SNAPSHOTS_IN_FLIGHT = 8;
+    // Ids of completed snapshots remembered to ignore a late marker, e.g. from a neighbor added during the snapshot
+    private static final int COMPLETED_SNAPSHOTS_REMEMBERED = 64;
+    private static final Object PERIODIC_SNAPSHOT_KEY = new Object();
+
+    // Starts a snapshot from this node. Without an id the node picks a new one, unique to this node.
+    public static final class InitiateSnapshot implements Message {
+        public final long snapshotId;
+        final boolean periodic;
+
+        public InitiateSnapshot() {
+            this(-1, false);
+        }
+
+        public InitiateSnapshot(long snapshotId) {
+            this(snapshotId, false);
+        }
+
+        private InitiateSnapshot(long snapshotId, boolean periodic) {
+            this.snapshotId = snapshotId;
+            this.periodic = periodic;
+        }
+    }
+
+    // Makes the node initiate a new snapshot every interval, replacing an earlier interval.
+    public static final class StartPeriodicSnapshots implements Message {
+        public final Duration interval;
+
+        public StartPeriodicSnapshots(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static final class StopPeriodicSnapshots implements Message {}
 
     public static final class BasicMessage implements Message {
         public final int value;
@@ -29,9 +79,56 @@ public class ChandyLamportActor extends AbstractBehavior<Message> {
 
     public static final class MarkerMessage implements Message {
         public final ActorRef<Message> from;
+        public final long snapshotId;
+        // Initiator of the sender's region
+        public final ActorRef<Message> region;
+        // Whether this marker's receiver is the neighbor the sender joined the region through
+        public final boolean joinedRegion;
 
-        public MarkerMessage(ActorRef<Message> from) {
+        public MarkerMessage(ActorRef<Message> from, long snapshotId, ActorRef<Message> region, boolean joinedRegion) {
             this.from = from;
+            this.snapshotId = snapshotId;
+            this.region = region;
+            this.joinedRegion = joinedRegion;
+        }
+    }
+
+    // Sent to the parent once a node and all nodes that joined the region through it recorded every channel.
+    public static final class RegionReport implements Message {
+        public final long snapshotId;
+        public final List<LocalSnapshot> snapshots;
+        public final Set<ActorRef<Message>> adjacentRegions;
+
+        public RegionReport(long snapshotId, List<LocalSnapshot> snapshots, Set<ActorRef<Message>> adjacentRegions) {
+            this.snapshotId = snapshotId;
+            this.snapshots = snapshots;
+            this.adjacentRegions = adjacentRegions;
+        }
+    }
+
+    // The regions bordering an initiator's region, told to every other initiator once the region is complete.
+    public static final class RegionBorders implements Message {
+        public final long snapshotId;
+        public final ActorRef<Message> initiator;
+        public final Set<ActorRef<Message>> adjacentRegions;
+
+        public RegionBorders(long snapshotId, ActorRef<Message> initiator, Set<ActorRef<Message>> adjacentRegions) {
+            this.snapshotId = snapshotId;
+            this.initiator = initiator;
+            this.adjacentRegions = adjacentRegions;
+        }
+    }
+
+    // The local snapshots of one region, sent to the initiator that merges them.
+    public static final class RegionSnapshot implements Message {
+        public final long snapshotId;
+        public final ActorRef<Message> initiator;
+        public final List<LocalSnapshot> snapshots;
+
+        public RegionSnapshot(long snapshotId, ActorRef<Message> initiator, List<LocalSnapshot> snapshots) {
+            this.snapshotId = snapshotId;
+            this.initiator = initiator;
+            this.snapshots = snapshots;
         }
     }
 
@@ -43,90 +140,311 @@ public class ChandyLamportActor extends AbstractBehavior<Message> {
         }
     }
 
+    // Answered after every message the node received before it, e.g. to wait until the neighbors are added.
+    public static final class QueryNeighbors implements Message {
+        public final ActorRef<NeighborsResponse> replyTo;
+
+        public QueryNeighbors(ActorRef<NeighborsResponse> replyTo) {
+            this.replyTo = replyTo;
+        }
+    }
+
+    public static final class NeighborsResponse implements Message {
+        public final Set<String> neighbors;
+
+        public NeighborsResponse(Set<String> neighbors) {
+            this.neighbors = neighbors;
+        }
+    }
+
+    // What the node recorded for one snapshot that is still waiting for markers. Channels are the neighbor slots
+    // taken when the state was recorded; neighbors added later are not part of the snapshot.
+    private static final class SnapshotState {
+        final long id;
+        final int recordedState;
+        final String timestamp;
+        final int channelCount;
+        // Channels whose marker has not arrived yet; basic messages arriving on them are in transit
+        final boolean[] markerPending;
+        int markersPending;
+        // Values in transit on each channel, allocated on the first one and doubled when full
+        final int[][] values;
+        final int[] valueCounts;
+        // Basic messages sent to and received from each neighbor before the state was recorded
+        final int[] sent;
+        final int[] received;
+        // The initiator whose region the node joined, and the neighbor it joined through; null at the initiator
+        final ActorRef<Message> region;
+        final ActorRef<Message> parent;
+        // Neighbors that joined the region through this node, known once all markers arrived, and how many reported
+        int children;
+        int childrenReported;
+        boolean recorded;
+        // Local snapshots of this node and the nodes below it, and the other regions they border
+        final List<LocalSnapshot> subtree = new ArrayList<>();
+        final Set<ActorRef<Message>> adjacentRegions = new HashSet<>();
+
+        SnapshotState(long id, int recordedState, String timestamp, int channelCount, int[] sentTotal, int[] receivedTotal, ActorRef<Message> region, ActorRef<Message> parent) {
+            this.id = id;
+            this.recordedState = recordedState;
+            this.timestamp = timestamp;
+            this.channelCount = channelCount;
+            this.markerPending = new boolean[channelCount];
+            Arrays.fill(markerPending, true);
+            this.markersPending = channelCount;
+            this.values = new int[channelCount][];
+            this.valueCounts = new int[channelCount];
+            this.sent = Arrays.copyOf(sentTotal, channelCount);
+            this.received = Arrays.copyOf(receivedTotal, channelCount);
+            this.region = region;
+            this.parent = parent;
+        }
+
+        void recordInTransit(int slot, int value) {
+            if (slot >= channelCount || !markerPending[slot]) {
+                return;
+            }
+            int count = valueCounts[slot];
+            if (values[slot] == null) {
+                values[slot] = new int[8];
+            } else if (count == values[slot].length) {
+                values[slot] = Arrays.copyOf(values[slot], count * 2);
+            }
+            values[slot][count] = value;
+            valueCounts[slot] = count + 1;
+        }
+
+        void markerReceived(int slot) {
+            if (slot < channelCount && markerPending[slot]) {
+                markerPending[slot] = false;
+                markersPending--;
+            }
+        }
+    }
+
+    // Writes local snapshots as JSON into a byte array that is kept and reused from one snapshot to the next; only
+    // the finished string is allocated. Node names are actor names, which are ASCII.
+    static final class SnapshotFormatter {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        String format(String timestamp, long snapshotId, String region, int state, List<ActorRef<Message>> senders, int[][] values, int[] valueCounts, int channelCount) {
+            length = 0;
+            append("{\"Timestamp\": \"").append(timestamp).append("\", \"SnapshotId\": ").append(snapshotId)
+                    .append(", \"Region\": \"").append(region).append("\", \"State\": ").append(state)
+                    .append(", \"ChannelStates\": {");
+            for (int slot = 0; slot < channelCount; slot++) {
+                if (slot > 0) {
+                    append(", ");
+                }
+                append("\"").append(senders.get(slot).path().name()).append("\": [");
+                for (int value = 0; value < valueCounts[slot]; value++) {
+                    if (value > 0) {
+                        append(", ");
+                    }
+                    append(values[slot][value]);
+                }
+                append("]");
+            }
+            append("}}");
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+
+        private SnapshotFormatter append(String text) {
+            ensureCapacity(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                bytes[length++] = (byte) text.charAt(i);
+            }
+            return this;
+        }
+
+        // Writes the digits of the negated value, which also covers the lowest long, then reverses them.
+        private SnapshotFormatter append(long value) {
+            ensureCapacity(20);
+            if (value < 0) {
+                bytes[length++] = '-';
+            } else {
+                value = -value;
+            }
+            int start = length;
+            do {
+                bytes[length++] = (byte) ('0' - value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int low = start, high = length - 1; low < high; low++, high--) {
+                byte digit = bytes[low];
+                bytes[low] = bytes[high];
+                bytes[high] = digit;
+            }
+            return this;
+        }
+
+        private void ensureCapacity(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + more, bytes.length * 2));
+            }
+        }
+    }
+
+    // What an initiator knows about the regions of one snapshot until the partial snapshots are merged.
+    private static final class RegionMerge {
+        final long id;
+        // The local snapshots of the initiator's own region; null until all of them arrived
+        List<LocalSnapshot> snapshots;
+        // Adjacent regions by initiator, for every region whose boundaries are known, including the own
+        final Map<ActorRef<Message>, Set<ActorRef<Message>>> borders = new HashMap<>();
+        // Initiators told the own region's boundaries
+        final Set<ActorRef<Message>> informed = new HashSet<>();
+        // Partial snapshots of the other regions, sent to the merging initiator
+        final Map<ActorRef<Message>, List<LocalSnapshot>> partials = new HashMap<>();
+
+        RegionMerge(long id) {
+            this.id = id;
+        }
+    }
+
     @Override
     public Receive<Message> createReceive() {
         return newReceiveBuilder()
                 .onMessage(InitiateSnapshot.class, this::onInitiateSnapshot)
+                .onMessage(StartPeriodicSnapshots.class, this::onStartPeriodicSnapshots)
+                .onMessage(StopPeriodicSnapshots.class, this::onStopPeriodicSnapshots)
                 .onMessage(BasicMessage.class, this::onBasicMessage)
                 .onMessage(MarkerMessage.class, this::onMarkerMessage)
+                .onMessage(RegionReport.class, this::onRegionReport)
+                .onMessage(RegionBorders.class, this::onRegionBorders)
+                .onMessage(RegionSnapshot.class, this::onRegionSnapshot)
                 .onMessage(AddNeighbor.class, this::onAddNeighbor)
+                .onMessage(QueryNeighbors.class, this::onQueryNeighbors)
                 .build();
     }
 
-    private  boolean recorded;
-    private final Map<ActorRef<Message>, Boolean> marker;
-    private final Map<ActorRef<Message>, List<Message>> state;
+    // Neighbors by slot, and the slot of each neighbor
+    private final List<ActorRef<Message>> neighbors = new ArrayList<>();
+    private final Map<ActorRef<Message>, Integer> slots = new HashMap<>();
     private int personalState;
-
-    public ChandyLamportActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors) {
+    private final ActorRef<SnapshotWriter.Command> snapshotWriter;
+    // Told the local snapshot once every channel is recorded; null if nobody collects the snapshots
+    private final ActorRef<SnapshotCollector.Command> snapshotCollector;
+    private final TimerScheduler<Message> timers;
+    // Open snapshots by id, evicted once markers arrived on every channel and the nodes below reported
+    private final Map<Long, SnapshotState> snapshots = new HashMap<>();
+    // Snapshots this node initiated whose regions are not merged yet
+    private final Map<Long, RegionMerge> regions = new HashMap<>();
+    private final Set<Long> completedSnapshots = Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > COMPLETED_SNAPSHOTS_REMEMBERED;
+        }
+    });
+    // Basic messages sent to and received from each neighbor since the node started, by slot
+    private int[] sentTotal = new int[0];
+    private int[] receivedTotal = new int[0];
+    private final SnapshotFormatter formatter = new SnapshotFormatter();
+    // Snapshots initiated by this node; with the node's index it makes up the ids it picks
+    private int snapshotSequence;
+
+    public ChandyLamportActor(ActorContext<Message> context, TimerScheduler<Message> timers, Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
         super(context);
-        this.recorded = false;
+        this.timers = timers;
+        this.snapshotWriter = snapshotWriter;
+        this.snapshotCollector = snapshotCollector;
         this.personalState = 0;
-        this.marker = new HashMap<>();
-        this.state = new HashMap<>();
-        for (ActorRef<Message> neighbor : neighbors) {
-            this.marker.put(neighbor, false);
-            this.state.put(neighbor, new LinkedList<>());
-        }
+        neighbors.forEach(this::addNeighbor);
+    }
+
+    public static Behavior<Message> create(Set<ActorRef<Message>> initialNeighbors, ActorRef<SnapshotWriter.Command> snapshotWriter) {
+        return create(initialNeighbors, snapshotWriter, null);
     }
-    public static Behavior<Message> create(Set<ActorRef<Message>> initialNeighbors) {
-        return Behaviors.setup(context -> new ChandyLamportActor(context, initialNeighbors));
+
+    public static Behavior<Message> create(Set<ActorRef<Message>> initialNeighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> new ChandyLamportActor(context, timers, initialNeighbors, snapshotWriter, snapshotCollector)));
     }
 
-    // Call this method when you want to perform the basic calculation
+    // Call this method when you want to perform the basic calculation. Logging is at debug level and guarded, as
+    // its arguments would be boxed on every message.
     private void performCalculationAndForward(int value, ActorRef<Message> receiver) {
         this.personalState = value * 2; // Doubles the value received.
-        getContext().getLog().info("Value {} received from {}, doubled new value: {}", value, receiver.path().name(), personalState);
+        boolean debug = getContext().getLog().isDebugEnabled();
+        if (debug) {
+            getContext().getLog().debug("Value {} received from {}, doubled new value: {}", value, receiver.path().name(), personalState);
+        }
         // Forward the updated value to a neighbor
-        ActorRef<Message> neighbor = selectNeighbor(receiver);
-        if (neighbor != null) {
+        int slot = selectNeighbor(receiver);
+        if (slot >= 0) {
+            ActorRef<Message> neighbor = neighbors.get(slot);
             neighbor.tell(new BasicMessage(personalState, getContext().getSelf()));
-            getContext().getLog().info("Forwarding new value {} to {}", personalState, neighbor.path().name());
-        } else {
-            getContext().getLog().info("No neighbor found to forward the value.");
+            sentTotal[slot]++;
+            if (debug) {
+                getContext().getLog().debug("Forwarding new value {} to {}", personalState, neighbor.path().name());
+            }
+        } else if (debug) {
+            getContext().getLog().debug("No neighbor found to forward the value.");
+        }
+    }
+
+    // The slot of the neighbor the message will be forwarded to, or -1 if there is none
+    private int selectNeighbor(ActorRef<Message> sender) {
+        // Just picking the first neighbor other than the sender for simplicity, but you could have more complex logic
+        for (int slot = 0; slot < neighbors.size(); slot++) {
+            if (!neighbors.get(slot).equals(sender)) {
+                return slot;
+            }
         }
+        return -1;
     }
 
-    // Helper method to select a neighbor to which the message will be forwarded
-    private ActorRef<Message> selectNeighbor(ActorRef<Message> sender) {
-        getContext().getLog().info("Selecting a neighbor to forward the message.");
-        // Exclude the sender from the list of neighbors
-        List<ActorRef<Message>> otherNeighbors = new ArrayList<>(this.marker.keySet());
-        otherNeighbors.remove(sender);
-        if (!otherNeighbors.isEmpty()) {
-            // Just picking the first neighbor for simplicity, but you could have more complex logic
-            return otherNeighbors.get(0);
+    private void addNeighbor(ActorRef<Message> neighbor) {
+        if (slots.putIfAbsent(neighbor, neighbors.size()) == null) {
+            neighbors.add(neighbor);
+            sentTotal = Arrays.copyOf(sentTotal, neighbors.size());
+            receivedTotal = Arrays.copyOf(receivedTotal, neighbors.size());
         }
-        return null;
     }
 
     private Behavior<Message> onInitiateSnapshot(InitiateSnapshot message) {
-        if (!recorded) {
-            getContext().getLog().info("Initiating snapshot process.");
-            takeSnapshot();
+        if (message.periodic && snapshots.size() >= MAX_SNAPSHOTS_IN_FLIGHT) {
+            getContext().getLog().warn("Skipping periodic snapshot at {}, {} snapshots still open.", getContext().getSelf().path().name(), snapshots.size());
+            return this;
+        }
+        long snapshotId = message.snapshotId >= 0 ? message.snapshotId : nextSnapshotId();
+        if (snapshots.containsKey(snapshotId) || completedSnapshots.contains(snapshotId)) {
+            getContext().getLog().info("Snapshot {} initiation ignored, already recorded.", snapshotId);
         } else {
-            getContext().getLog().info("Snapshot initiation ignored, already recorded.");
+            getContext().getLog().info("Initiating snapshot {}.", snapshotId);
+            regions.put(snapshotId, new RegionMerge(snapshotId));
+            takeSnapshot(snapshotId, getContext().getSelf(), null);
         }
         return this;
     }
 
+    private Behavior<Message> onStartPeriodicSnapshots(StartPeriodicSnapshots message) {
+        getContext().getLog().info("Taking a snapshot every {} ms from {}.", message.interval.toMillis(), getContext().getSelf().path().name());
+        timers.startTimerWithFixedDelay(PERIODIC_SNAPSHOT_KEY, new InitiateSnapshot(-1, true), message.interval);
+        return this;
+    }
+
+    private Behavior<Message> onStopPeriodicSnapshots(StopPeriodicSnapshots message) {
+        timers.cancel(PERIODIC_SNAPSHOT_KEY);
+        return this;
+    }
+
     private Behavior<Message> onBasicMessage(BasicMessage message) {
-        getContext().getLog().info("{} received BasicMessage with value: {} from {}",getContext().getSelf().path().name(), message.value, message.from.path().name());
-        // If the actor has recorded its state and hasn't received a marker from the sender yet
-        if (recorded && !marker.getOrDefault(message.from, false)) {
-            getContext().getLog().info("Actor recorded and hasn't received marker from {}. Appending message to state.", message.from.path().name());
-            // Append the message to the state queue for the sender's channel
-            List<Message> messages = state.get(message.from);
-            if (messages == null) {
-                messages = new LinkedList<>();
-                state.put(message.from, messages);
-            }
-            messages.add(message);
+        if (getContext().getLog().isDebugEnabled()) {
+            getContext().getLog().debug("{} received BasicMessage with value: {} from {}", getContext().getSelf().path().name(), message.value, message.from.path().name());
         }
-        if (!recorded || marker.getOrDefault(message.from, true)) {
-            getContext().getLog().info("Performing calculation and forwarding for value: {} from {}", message.value, message.from.path().name());
-            performCalculationAndForward(message.value, message.from);
+        // Messages from outside the neighborhood are neither counted nor recorded
+        Integer slot = slots.get(message.from);
+        if (slot != null) {
+            receivedTotal[slot]++;
+            // Every open snapshot that has not seen the sender's marker yet records the message as in transit
+            if (!snapshots.isEmpty()) {
+                for (SnapshotState snapshot : snapshots.values()) {
+                    snapshot.recordInTransit(slot, message.value);
+                }
+            }
         }
+        performCalculationAndForward(message.value, message.from);
         return this;
     }
 
@@ -136,119 +454,202 @@ public class ChandyLamportActor extends AbstractBehavior<Message> {
             getContext().getLog().info("Received own marker, ignoring.");
             return this;
         }
+        if (completedSnapshots.contains(message.snapshotId)) {
+            getContext().getLog().info("Marker from {} for completed snapshot {} ignored.", message.from.path().name(), message.snapshotId);
+            return this;
+        }
 
-        // Check if this is the first marker message received, then take a snapshot
-        if (!recorded) {
-            getContext().getLog().info("{} taking snapshot due to first marker received from {}", getContext().getSelf().path().name(), message.from.path().name());
-            takeSnapshot();
-        }else {
-            getContext().getLog().info("Already in recorded state, marker from {} is ignored for snapshot.", message.from.path().name());
+        // The first marker of a snapshot makes the node record its state
+        SnapshotState snapshot = snapshots.get(message.snapshotId);
+        if (snapshot == null) {
+            getContext().getLog().info("{} taking snapshot {} due to first marker received from {}", getContext().getSelf().path().name(), message.snapshotId, message.from.path().name());
+            snapshot = takeSnapshot(message.snapshotId, message.region, message.from);
+        } else if (!snapshot.region.equals(message.region)) {
+            snapshot.adjacentRegions.add(message.region);
+        }
+        if (message.joinedRegion) {
+            snapshot.children++;
         }
 
-        // Regardless of whether a snapshot was taken, mark that a marker has been received from this sender
-        marker.put(message.from, true);
+        // The channel from the sender is recorded for this snapshot
+        Integer slot = slots.get(message.from);
+        if (slot != null) {
+            snapshot.markerReceived(slot);
+        }
+        completeIfRecorded(snapshot);
+        return this;
+    }
 
-        // If marker messages have been received on all incoming channels, then terminate.
-        if (marker.values().stream().allMatch(Boolean::booleanValue)) {
-            getContext().getLog().info("All markers received at {}. Preparing to terminate.", getContext().getSelf().path().name());
-            return terminate();
+    private Behavior<Message> onRegionReport(RegionReport message) {
+        SnapshotState snapshot = snapshots.get(message.snapshotId);
+        if (snapshot == null) {
+            getContext().getLog().warn("Region report for unknown snapshot {} ignored.", message.snapshotId);
+            return this;
         }
+        snapshot.subtree.addAll(message.snapshots);
+        snapshot.adjacentRegions.addAll(message.adjacentRegions);
+        snapshot.childrenReported++;
+        completeIfRecorded(snapshot);
+        return this;
+    }
 
+    private Behavior<Message> onRegionBorders(RegionBorders message) {
+        RegionMerge region = regions.get(message.snapshotId);
+        if (region == null) {
+            // This initiator already handed its region to the merging one
+            getContext().getLog().debug("Borders of region {} for snapshot {} no longer needed.", message.initiator.path().name(), message.snapshotId);
+            return this;
+        }
+        region.borders.put(message.initiator, message.adjacentRegions);
+        advanceMerge(region);
+        return this;
+    }
+
+    private Behavior<Message> onRegionSnapshot(RegionSnapshot message) {
+        RegionMerge region = regions.get(message.snapshotId);
+        if (region == null) {
+            getContext().getLog().warn("Region {} of unknown snapshot {} ignored.", message.initiator.path().name(), message.snapshotId);
+            return this;
+        }
+        region.partials.put(message.initiator, message.snapshots);
+        advanceMerge(region);
         return this;
     }
 
     private Behavior<Message> onAddNeighbor(AddNeighbor message) {
-        // Add the neighbor to the set of neighbors
-        this.marker.put(message.neighbor, false); // Initialize marker received status for the new neighbor
-        this.state.put(message.neighbor, new LinkedList<>()); // Initialize message queue for the new neighbor
+        // Add the neighbor to the set of neighbors; snapshots already open do not wait for its marker
+        addNeighbor(message.neighbor);
 
         getContext().getLog().info("{} added as neighbor added to {}", message.neighbor.path().name(), getContext().getSelf().path().name());
 
         return this;
     }
 
-    private Behavior<Message> terminate() {
-        // Implement termination logic. This could involve cleanup or preparing for shutdown.
-        getContext().getLog().info("Snapshot protocol complete. Terminating {} actor.", getContext().getSelf().path().name());
+    private Behavior<Message> onQueryNeighbors(QueryNeighbors message) {
+        Set<String> names = new HashSet<>();
+        neighbors.forEach(neighbor -> names.add(neighbor.path().name()));
+        message.replyTo.tell(new NeighborsResponse(names));
+        return this;
+    }
 
-        return Behaviors.stopped();
+    // Records the node's state for the snapshot, joining the initiator's region through the parent, and sends its
+    // marker on every outgoing channel.
+    private SnapshotState takeSnapshot(long snapshotId, ActorRef<Message> region, ActorRef<Message> parent) {
+        getContext().getLog().info("Starting snapshot {} in the region of {}. Current state: {}", snapshotId, region.path().name(), personalState);
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        SnapshotState snapshot = new SnapshotState(snapshotId, personalState, timestamp, neighbors.size(), sentTotal, receivedTotal, region, parent);
+        snapshots.put(snapshotId, snapshot);
+
+        for (ActorRef<Message> neighbor : neighbors) {
+            neighbor.tell(new MarkerMessage(getContext().getSelf(), snapshotId, region, neighbor.equals(parent)));
+        }
+        // A node without incoming channels has nothing to wait for
+        completeIfRecorded(snapshot);
+        return snapshot;
     }
 
-    private void takeSnapshot() {
-        if (recorded) {
-            // Prevent taking a snapshot again if already recorded
+    // Once markers arrived on every channel, persists the local snapshot. Once the nodes below reported as well,
+    // hands the local snapshots up to the parent, or to the region merge at the initiator, and forgets them.
+    private void completeIfRecorded(SnapshotState snapshot) {
+        if (snapshot.markersPending > 0) {
             return;
         }
-
-        getContext().getLog().info("Starting the snapshot process. Current state: {}", personalState);
-        // Record the actor's current state
-        recorded = true;
-        snapshot(); // Take the snapshot
-
-        // Send a marker message to all outgoing channels
-        for (ActorRef<Message> neighbor : marker.keySet()) {
-            // Reset the state queue for each neighbor, since we are taking a new snapshot
-            state.get(neighbor).clear();
-            // Set marker received to false for all neighbors since we are initiating the snapshot
-            marker.put(neighbor, false);
-            // Send the marker message to each neighbor
-            neighbor.tell(new MarkerMessage(getContext().getSelf()));
-        }
-
-    }
-
-    private void snapshot() {
-        getContext().getLog().info("Compiling snapshot data. Personal state: {}", personalState);
-        getContext().getLog().info("Taking snapshot...");
-        // Capture the local state and in-transit messages
-        Map<String, List<Integer>> channelStates = new HashMap<>();
-        for (ActorRef<Message> neighbor : state.keySet()) {
-            List<Integer> messages = state.get(neighbor).stream()
-                    .map(message -> {
-                        if (message instanceof BasicMessage) {
-                            return ((BasicMessage) message).value;
-                        }
-                        return null;
-                    })
-                    .filter(Objects::nonNull) // Filter out any null values
-                    .collect(Collectors.toList());
-            channelStates.put(neighbor.path().name(), messages);
-        }
-        // Serialize the channel states for output
-        String channelStatesJson = channelStates.entrySet().stream()
-                .map(entry -> "\"" + entry.getKey() + "\": " + entry.getValue())
-                .collect(Collectors.joining(", ", "{", "}"));
-        String formattedTimestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-        String snapshotContent = String.format(
-                "{\"Timestamp\": \"%s\", \"State\": %d, \"ChannelStates\": %s}",
-                formattedTimestamp,
-                personalState,
-                channelStatesJson
-        );
-        // Write the snapshot to a file
-        writeSnapshotToFile(formattedTimestamp, snapshotContent);
-    }
-
-    private void writeSnapshotToFile(String formattedTimestamp, String snapshotContent) {
-        getContext().getLog().info("Writing snapshot to file. Timestamp: {}", formattedTimestamp);
-        String directoryPath = "snapshots";
-        File directory = new File(directoryPath);
-        if (!directory.exists() && !directory.mkdir()) {
-            getContext().getLog().error("Failed to create snapshot directory");
+        if (!snapshot.recorded) {
+            getContext().getLog().info("All markers of snapshot {} received at {}.", snapshot.id, getContext().getSelf().path().name());
+            snapshot.recorded = true;
+            completedSnapshots.add(snapshot.id);
+            persistSnapshot(snapshot.id, snapshot.timestamp, formatter.format(snapshot.timestamp, snapshot.id, snapshot.region.path().name(), snapshot.recordedState, neighbors, snapshot.values, snapshot.valueCounts, snapshot.channelCount));
+            snapshot.subtree.add(localSnapshot(snapshot));
+        }
+        if (snapshot.childrenReported < snapshot.children) {
             return;
         }
+        snapshots.remove(snapshot.id);
+        if (snapshot.parent != null) {
+            snapshot.parent.tell(new RegionReport(snapshot.id, snapshot.subtree, snapshot.adjacentRegions));
+            return;
+        }
+        getContext().getLog().info("Region of {} in snapshot {} complete: {} nodes, {} adjacent regions.", getContext().getSelf().path().name(), snapshot.id, snapshot.subtree.size(), snapshot.adjacentRegions.size());
+        RegionMerge region = regions.get(snapshot.id);
+        region.snapshots = snapshot.subtree;
+        region.borders.put(getContext().getSelf(), snapshot.adjacentRegions);
+        advanceMerge(region);
+    }
 
-        String nodeName = getContext().getSelf().path().name();
-        String filePath = directoryPath + "/snapshot_" + nodeName + "_" + formattedTimestamp.replace(":", "-").replace("T", "_") + ".json";
+    // Tells every initiator known so far the own region's boundaries. Once the boundaries of all of them are known,
+    // the partial snapshot goes to the initiator with the lowest path, which reports all of them once they arrived.
+    private void advanceMerge(RegionMerge region) {
+        if (region.snapshots == null) {
+            return;
+        }
+        ActorRef<Message> self = getContext().getSelf();
+        Set<ActorRef<Message>> initiators = new HashSet<>(region.borders.keySet());
+        region.borders.values().forEach(initiators::addAll);
+        for (ActorRef<Message> initiator : initiators) {
+            if (!initiator.equals(self) && region.informed.add(initiator)) {
+                initiator.tell(new RegionBorders(region.id, self, region.borders.get(self)));
+            }
+        }
+        if (!region.borders.keySet().containsAll(initiators)) {
+            return;
+        }
+        ActorRef<Message> merger = Collections.min(initiators);
+        if (!merger.equals(self)) {
+            getContext().getLog().info("Handing region of snapshot {} to {}.", region.id, merger.path().name());
+            merger.tell(new RegionSnapshot(region.id, self, region.snapshots));
+            regions.remove(region.id);
+            return;
+        }
+        if (region.partials.size() < initiators.size() - 1) {
+            return;
+        }
+        regions.remove(region.id);
+        getContext().getLog().info("Snapshot {} merged from {} regions.", region.id, initiators.size());
+        if (snapshotCollector == null) {
+            return;
+        }
+        reportSnapshots(region.id, region.snapshots);
+        region.partials.values().forEach(snapshots -> reportSnapshots(region.id, snapshots));
+    }
 
-        try (FileWriter writer = new FileWriter(filePath)) {
-            writer.write(snapshotContent);
-            getContext().getLog().info("Snapshot saved to " + filePath);
-        } catch (IOException e) {
-            getContext().getLog().error("Failed to save snapshot", e);
+    private void reportSnapshots(long snapshotId, List<LocalSnapshot> snapshots) {
+        for (LocalSnapshot snapshot : snapshots) {
+            snapshotCollector.tell(new SnapshotCollector.LocalSnapshotRecorded(snapshot, snapshotId));
         }
     }
 
+    // The recorded state, the messages recorded on every channel and the message counts.
+    private LocalSnapshot localSnapshot(SnapshotState snapshot) {
+        Map<String, List<Integer>> channels = new HashMap<>();
+        Map<String, Integer> sent = new HashMap<>();
+        Map<String, Integer> received = new HashMap<>();
+        for (int slot = 0; slot < snapshot.channelCount; slot++) {
+            String neighbor = neighbors.get(slot).path().name();
+            List<Integer> values = new ArrayList<>(snapshot.valueCounts[slot]);
+            for (int value = 0; value < snapshot.valueCounts[slot]; value++) {
+                values.add(snapshot.values[slot][value]);
+            }
+            channels.put(neighbor, values);
+            if (snapshot.sent[slot] > 0) {
+                sent.put(neighbor, snapshot.sent[slot]);
+            }
+            if (snapshot.received[slot] > 0) {
+                received.put(neighbor, snapshot.received[slot]);
+            }
+        }
+        return new LocalSnapshot(getContext().getSelf().path().name(), snapshot.recordedState, channels, sent, received);
+    }
 
+    // Ids picked by a node put its index in the high half, so initiators never pick the same id.
+    private long nextSnapshotId() {
+        long node = NodeIndex.shared().indexOf(getContext().getSelf().path().name());
+        return node << 32 | ++snapshotSequence;
+    }
 
+    // The writer acknowledges to this node and, when there is one, to the collector under the snapshot's id
+    private void persistSnapshot(long snapshotId, String formattedTimestamp, String snapshotContent) {
+        getContext().getLog().info("Handing snapshot to writer. Timestamp: {}", formattedTimestamp);
+        String nodeName = getContext().getSelf().path().name();
+        snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(nodeName, formattedTimestamp, snapshotContent, null, snapshotCollector, snapshotId));
+    }
 }
@@ -0,0 +1,200 @@
+package snapshot_algorithms.lai_yang;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.*;
+import snapshot_algorithms.LocalSnapshot;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SnapshotWriter;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Lai-Yang with Mattern's message counters, for large and dense networks. Unlike LaiYangActor, which forwards every
+// unrecorded state message to all neighbors, a node passes each value on to a single neighbor, so the application
+// sends as many messages as it is given values, and the snapshot adds one presnap message per channel.
+//
+// State messages are white before their sender's snapshot and red after it. A node records its state when it
+// initiates, on the first presnap message, or before it processes the first red message, and then tells every
+// neighbor in a presnap message how many white messages it sent to it. The white messages a node receives after
+// its snapshot are the state of their channel, and a channel is recorded once its presnap message arrived and as
+// many white messages were received on it as the presnap message counted; this does not rely on FIFO channels.
+// Once every incoming channel is recorded the local snapshot is persisted and reported.
+public class CountingLaiYangActor extends AbstractBehavior<Message> {
+
+    private final List<ActorRef<Message>> neighbors = new ArrayList<>();
+    // Senders of the incoming channels, or null if they are the neighbors
+    private Set<ActorRef<Message>> incomingChannels = null;
+    // The neighbor the next value is passed on to, round robin
+    private int nextNeighbor;
+    private int state = 0;
+    private boolean recorded = false;
+    private boolean reported = false;
+    private int recordedState;
+    private LocalDateTime snapshotTimestamp;
+    // White messages sent to each neighbor and received from each sender
+    private final Map<ActorRef<Message>, Integer> whiteSent = new HashMap<>();
+    private final Map<ActorRef<Message>, Integer> whiteReceived = new HashMap<>();
+    // White messages received from each sender before the snapshot was taken
+    private final Map<ActorRef<Message>, Integer> receivedBeforeSnapshot = new HashMap<>();
+    // White messages each sender sent on its channel, from its presnap message
+    private final Map<ActorRef<Message>, Integer> presnapCounts = new HashMap<>();
+    // The white messages received after the snapshot
+    private final InTransitRecording inTransit = new InTransitRecording();
+    private final ActorRef<SnapshotWriter.Command> snapshotWriter;
+    // Told the local snapshot once every channel is recorded; null if nobody collects the snapshots
+    private final ActorRef<SnapshotCollector.Command> snapshotCollector;
+
+    private CountingLaiYangActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        super(context);
+        this.neighbors.addAll(neighbors);
+        this.snapshotWriter = snapshotWriter;
+        this.snapshotCollector = snapshotCollector;
+    }
+
+    public static Behavior<Message> create(Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        return Behaviors.setup(context -> new CountingLaiYangActor(context, neighbors, snapshotWriter, snapshotCollector));
+    }
+
+    @Override
+    public Receive<Message> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(LaiYangActor.PerformCalculation.class, this::onPerformCalculation)
+                .onMessage(LaiYangActor.StateMessage.class, this::onStateMessage)
+                .onMessage(LaiYangActor.PresnapMessage.class, this::onPresnapMessage)
+                .onMessage(LaiYangActor.InitiateSnapshot.class, this::onInitiateSnapshot)
+                .onMessage(LaiYangActor.QueryState.class, this::onQueryState)
+                .onMessage(LaiYangActor.AddNeighbor.class, this::onAddNeighbor)
+                .onMessage(LaiYangActor.SetIncomingChannels.class, this::onSetIncomingChannels)
+                .build();
+    }
+
+    private Behavior<Message> onPerformCalculation(LaiYangActor.PerformCalculation message) {
+        state = message.value * 2;
+        passOn();
+        return this;
+    }
+
+    private Behavior<Message> onStateMessage(LaiYangActor.StateMessage message) {
+        // A red message was sent after its sender's snapshot, so this node's snapshot must come before it
+        if (message.isRecorded && !recorded) {
+            recordState();
+        }
+        if (!message.isRecorded) {
+            whiteReceived.merge(message.from, 1, Integer::sum);
+            if (recorded) {
+                inTransit.record(message.from, message.value, false);
+            } else {
+                receivedBeforeSnapshot.merge(message.from, 1, Integer::sum);
+            }
+        }
+        state = message.value * 2;
+        passOn();
+        reportIfChannelsRecorded();
+        return this;
+    }
+
+    private Behavior<Message> onPresnapMessage(LaiYangActor.PresnapMessage message) {
+        if (!recorded) {
+            recordState();
+        }
+        presnapCounts.put(message.from, message.count);
+        reportIfChannelsRecorded();
+        return this;
+    }
+
+    private Behavior<Message> onInitiateSnapshot(LaiYangActor.InitiateSnapshot message) {
+        if (!recorded) {
+            getContext().getLog().info("Initiating snapshot at {}.", getContext().getSelf().path().name());
+            recordState();
+            reportIfChannelsRecorded();
+        }
+        return this;
+    }
+
+    private Behavior<Message> onQueryState(LaiYangActor.QueryState message) {
+        message.replyTo.tell(new LaiYangActor.StateResponse(state, recorded, inTransit.view()));
+        return this;
+    }
+
+    private Behavior<Message> onAddNeighbor(LaiYangActor.AddNeighbor message) {
+        if (!neighbors.contains(message.neighbor)) {
+            neighbors.add(message.neighbor);
+        }
+        return this;
+    }
+
+    private Behavior<Message> onSetIncomingChannels(LaiYangActor.SetIncomingChannels message) {
+        incomingChannels = new HashSet<>(message.senders);
+        return this;
+    }
+
+    // Sends the current state to the next neighbor, colored by whether this node's snapshot is taken.
+    private void passOn() {
+        if (neighbors.isEmpty()) {
+            return;
+        }
+        ActorRef<Message> neighbor = neighbors.get(nextNeighbor++ % neighbors.size());
+        neighbor.tell(new LaiYangActor.StateMessage(state, getContext().getSelf(), recorded));
+        if (!recorded) {
+            whiteSent.merge(neighbor, 1, Integer::sum);
+        }
+    }
+
+    private void recordState() {
+        recorded = true;
+        recordedState = state;
+        snapshotTimestamp = LocalDateTime.now();
+        for (ActorRef<Message> neighbor : neighbors) {
+            neighbor.tell(new LaiYangActor.PresnapMessage(whiteSent.getOrDefault(neighbor, 0), getContext().getSelf()));
+        }
+    }
+
+    // Once the presnap message of every incoming channel arrived and so did all white messages it counted, persists
+    // the local snapshot and tells the collector.
+    private void reportIfChannelsRecorded() {
+        if (!recorded || reported) {
+            return;
+        }
+        Collection<ActorRef<Message>> incoming = incomingChannels != null ? incomingChannels : neighbors;
+        for (ActorRef<Message> sender : incoming) {
+            Integer count = presnapCounts.get(sender);
+            if (count == null || whiteReceived.getOrDefault(sender, 0) < count) {
+                return;
+            }
+        }
+        reported = true;
+        getContext().getLog().info("All channels of {} recorded.", getContext().getSelf().path().name());
+
+        String nodeName = getContext().getSelf().path().name();
+        String formattedTimestamp = snapshotTimestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(nodeName, formattedTimestamp, snapshotContent(formattedTimestamp, incoming), null, snapshotCollector, SnapshotCollector.SINGLE_SNAPSHOT));
+
+        if (snapshotCollector == null) {
+            return;
+        }
+        Map<String, List<Integer>> channels = new HashMap<>();
+        for (ActorRef<Message> sender : incoming) {
+            channels.put(sender.path().name(), new ArrayList<>());
+        }
+        inTransit.view().forEach((sender, value, red) -> channels.computeIfAbsent(sender.path().name(), name -> new ArrayList<>()).add(value));
+        Map<String, Integer> sent = new HashMap<>();
+        whiteSent.forEach((neighbor, count) -> sent.put(neighbor.path().name(), count));
+        Map<String, Integer> received = new HashMap<>();
+        receivedBeforeSnapshot.forEach((sender, count) -> received.put(sender.path().name(), count));
+        snapshotCollector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot(nodeName, recordedState, channels, sent, received)));
+    }
+
+    private String snapshotContent(String formattedTimestamp, Collection<ActorRef<Message>> incoming) {
+        StringJoiner inTransitJson = new StringJoiner(", ", "[", "]");
+        inTransit.view().forEach((sender, value, red) -> inTransitJson.add(String.format("{\"from\": \"%s\", \"value\": %d, \"recorded\": false}", sender.path().name(), value)));
+        String countersJson = incoming.stream()
+                .map(sender -> String.format("\"%s\": %d", sender.path().name(), presnapCounts.get(sender)))
+                .collect(Collectors.joining(", ", "{", "}"));
+        return String.format("{\"Timestamp\": \"%s\", \"State\": %d, \"InTransitMessages\": %s, \"Counters\": %s}",
+                formattedTimestamp, recordedState, inTransitJson, countersJson);
+    }
+}
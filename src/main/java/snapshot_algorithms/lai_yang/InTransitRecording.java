@@ -0,0 +1,242 @@
+package snapshot_algorithms.lai_yang;
+
+import akka.actor.typed.ActorRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import snapshot_algorithms.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// The state messages a Lai-Yang node recorded in transit, per incoming channel. A message is kept as one long, its
+// value in the low half and whether it was red in the high half, in a growing array per channel, so a recorded
+// message costs 8 bytes rather than an object and a hash set entry.
+//
+// With a spill threshold, once that many messages are held in memory they are appended to a temporary file as
+// (int channel, long message) records and the arrays start over. Nothing recorded is ever overwritten, so a View,
+// which remembers how much of every array and of the file it covers, stays the same while recording goes on and can
+// be handed to other actors without copying. Clearing starts a new spill file and keeps the old one for the views
+// taken before; spill files are only deleted when the recording is closed. The same View is returned until
+// something new is recorded. Not thread-safe; a View is.
+public final class InTransitRecording implements AutoCloseable {
+
+    // Keeps every recorded message in memory
+    public static final int NO_SPILL = Integer.MAX_VALUE;
+
+    private static final int SPILL_RECORD_BYTES = Integer.BYTES + Long.BYTES;
+    private static final Logger log = LoggerFactory.getLogger(InTransitRecording.class);
+
+    // Receives the recorded messages of a view; those of one channel arrive in the order they were recorded.
+    public interface MessageHandler {
+        void accept(ActorRef<Message> sender, int value, boolean red);
+    }
+
+    private final int spillThreshold;
+    private final List<ActorRef<Message>> senders = new ArrayList<>();
+    private final Map<ActorRef<Message>, Integer> channels = new HashMap<>();
+    private long[][] messages = new long[0][];
+    private int[] counts = new int[0];
+    private int inMemory;
+    private Path spillFile;
+    private FileChannel spill;
+    // Spill files of recordings cleared since, still read by views taken before
+    private final List<Path> retiredSpillFiles = new ArrayList<>();
+    private ByteBuffer spillBuffer;
+    private long spilledRecords;
+    private View view;
+
+    public InTransitRecording() {
+        this(NO_SPILL);
+    }
+
+    public InTransitRecording(int spillThreshold) {
+        if (spillThreshold < 1) {
+            throw new IllegalArgumentException("spillThreshold must be at least 1");
+        }
+        this.spillThreshold = spillThreshold;
+    }
+
+    public void record(ActorRef<Message> sender, int value, boolean red) {
+        int channel = channels.computeIfAbsent(sender, newSender -> {
+            senders.add(newSender);
+            messages = Arrays.copyOf(messages, senders.size());
+            counts = Arrays.copyOf(counts, senders.size());
+            return senders.size() - 1;
+        });
+        int count = counts[channel];
+        if (messages[channel] == null) {
+            messages[channel] = new long[8];
+        } else if (count == messages[channel].length) {
+            messages[channel] = Arrays.copyOf(messages[channel], count * 2);
+        }
+        messages[channel][count] = (red ? 1L << 32 : 0L) | (value & 0xFFFFFFFFL);
+        counts[channel] = count + 1;
+        inMemory++;
+        view = null;
+        if (inMemory >= spillThreshold) {
+            spill();
+        }
+    }
+
+    // Messages recorded so far, in memory and spilled
+    public long size() {
+        return inMemory + spilledRecords;
+    }
+
+    public View view() {
+        if (view == null) {
+            long[][] arrays = Arrays.copyOf(messages, messages.length);
+            view = new View(new ArrayList<>(senders), arrays, Arrays.copyOf(counts, counts.length), spillFile, spilledRecords);
+        }
+        return view;
+    }
+
+    // Forgets everything recorded; views taken earlier keep reading what they cover.
+    public void clear() {
+        retireSpillFile();
+        senders.clear();
+        channels.clear();
+        messages = new long[0][];
+        counts = new int[0];
+        inMemory = 0;
+        spilledRecords = 0;
+        view = null;
+    }
+
+    // Deletes the spill files; views taken earlier can no longer read spilled messages.
+    @Override
+    public void close() {
+        retireSpillFile();
+        for (Path file : retiredSpillFiles) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete in-transit spill file {}", file, e);
+            }
+        }
+        retiredSpillFiles.clear();
+    }
+
+    private void retireSpillFile() {
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.close();
+        } catch (IOException e) {
+            log.warn("Could not close in-transit spill file {}", spillFile, e);
+        }
+        retiredSpillFiles.add(spillFile);
+        spill = null;
+        spillFile = null;
+    }
+
+    // Appends the messages held in memory to the spill file and drops the arrays, which views may still refer to.
+    private void spill() {
+        try {
+            if (spill == null) {
+                spillFile = Files.createTempFile("in-transit-", ".bin");
+                spill = FileChannel.open(spillFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                spillBuffer = ByteBuffer.allocate(SPILL_RECORD_BYTES * 1024);
+            }
+            for (int channel = 0; channel < counts.length; channel++) {
+                for (int message = 0; message < counts[channel]; message++) {
+                    if (spillBuffer.remaining() < SPILL_RECORD_BYTES) {
+                        writeSpillBuffer();
+                    }
+                    spillBuffer.putInt(channel).putLong(messages[channel][message]);
+                }
+            }
+            writeSpillBuffer();
+        } catch (IOException e) {
+            // Keep recording in memory rather than losing messages
+            log.warn("Could not spill in-transit messages to {}, keeping them in memory", spillFile, e);
+            return;
+        }
+        spilledRecords += inMemory;
+        inMemory = 0;
+        messages = new long[messages.length][];
+        Arrays.fill(counts, 0);
+    }
+
+    private void writeSpillBuffer() throws IOException {
+        spillBuffer.flip();
+        while (spillBuffer.hasRemaining()) {
+            spill.write(spillBuffer);
+        }
+        spillBuffer.clear();
+    }
+
+    // The messages recorded up to the moment the view was taken.
+    public static final class View {
+        private final List<ActorRef<Message>> senders;
+        private final long[][] messages;
+        private final int[] counts;
+        private final Path spillFile;
+        private final long spilledRecords;
+
+        private View(List<ActorRef<Message>> senders, long[][] messages, int[] counts, Path spillFile, long spilledRecords) {
+            this.senders = senders;
+            this.messages = messages;
+            this.counts = counts;
+            this.spillFile = spillFile;
+            this.spilledRecords = spilledRecords;
+        }
+
+        public long size() {
+            long size = spilledRecords;
+            for (int count : counts) {
+                size += count;
+            }
+            return size;
+        }
+
+        // Hands every message to the handler, the spilled ones first. Throws UncheckedIOException if the spill file
+        // cannot be read, e.g. because the recording was closed since.
+        public void forEach(MessageHandler handler) {
+            if (spilledRecords > 0) {
+                readSpilled(handler);
+            }
+            for (int channel = 0; channel < counts.length; channel++) {
+                for (int message = 0; message < counts[channel]; message++) {
+                    accept(handler, channel, messages[channel][message]);
+                }
+            }
+        }
+
+        private void readSpilled(MessageHandler handler) {
+            ByteBuffer buffer = ByteBuffer.allocate(SPILL_RECORD_BYTES * 1024);
+            try (FileChannel file = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+                long position = 0;
+                long end = spilledRecords * SPILL_RECORD_BYTES;
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    while (buffer.hasRemaining()) {
+                        int read = file.read(buffer, position + buffer.position());
+                        if (read < 0) {
+                            throw new IOException("Spill file " + spillFile + " ends early");
+                        }
+                    }
+                    position += buffer.limit();
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        accept(handler, buffer.getInt(), buffer.getLong());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void accept(MessageHandler handler, int channel, long message) {
+            handler.accept(senders.get(channel), (int) message, (message >>> 32) != 0);
+        }
+    }
+}
@@ -2,12 +2,13 @@ package snapshot_algorithms.lai_yang;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
 import akka.actor.typed.javadsl.*;
+import snapshot_algorithms.LocalSnapshot;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SnapshotWriter;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -62,12 +63,13 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         }
     }
 
+    // The in-transit messages are a view shared with the node, not a copy; it does not change once sent.
     public static final class StateResponse implements Message {
         public final int state;
         public final boolean recorded;
-        public final Set<StateMessage> inTransitMessages;
+        public final InTransitRecording.View inTransitMessages;
 
-        public StateResponse(int state, boolean recorded, Set<StateMessage> inTransitMessages) {
+        public StateResponse(int state, boolean recorded, InTransitRecording.View inTransitMessages) {
             this.state = state;
             this.recorded = recorded;
             this.inTransitMessages = inTransitMessages;
@@ -82,6 +84,16 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         }
     }
 
+    // Declares the nodes that have a channel to this node, on a directed graph. Until it is declared, every neighbor
+    // is taken to send on a channel back, as on an undirected graph.
+    public static final class SetIncomingChannels implements Message {
+        public final Set<ActorRef<Message>> senders;
+
+        public SetIncomingChannels(Set<ActorRef<Message>> senders) {
+            this.senders = senders;
+        }
+    }
+
     public static final class QueryNeighbors implements Message {
         public final ActorRef<NeighborsResponse> replyTo;
 
@@ -104,20 +116,52 @@ public class LaiYangActor extends AbstractBehavior<Message> {
     private boolean recorded = false;
     private final Map<ActorRef<Message>, Integer> incomingMessageCounters = new HashMap<>();
     private final Set<ActorRef<Message>> neighbors;
-    private final Set<StateMessage> inTransitMessages = new HashSet<>();
-    private final Map<ActorRef<Message>, Set<StateMessage>> stateMessagesAfterSnapshot = new HashMap<>();
+    private final InTransitRecording inTransitMessages;
     private LocalDateTime snapshotTimestamp = null;
+    private final ActorRef<SnapshotWriter.Command> snapshotWriter;
+    // Told the local snapshot once every channel is recorded; null if nobody collects the snapshots
+    private final ActorRef<SnapshotCollector.Command> snapshotCollector;
+    // Neighbors whose presnap message arrived; on a FIFO channel every message sent before the sender's snapshot
+    // arrives before it
+    private final Set<ActorRef<Message>> presnapReceived = new HashSet<>();
+    // Senders of the incoming channels, or null if they are the neighbors
+    private Set<ActorRef<Message>> incomingChannels = null;
+    private int recordedState;
+    private boolean reported = false;
+    // State messages sent to and received from each neighbor before the snapshot was taken
+    private final Map<ActorRef<Message>, Integer> sentBeforeSnapshot = new HashMap<>();
+    private final Map<ActorRef<Message>, Integer> receivedBeforeSnapshot = new HashMap<>();
+
+    public LaiYangActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter) {
+        this(context, neighbors, snapshotWriter, null);
+    }
+
+    public LaiYangActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        this(context, neighbors, snapshotWriter, snapshotCollector, InTransitRecording.NO_SPILL);
+    }
 
-    public LaiYangActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors) {
+    public LaiYangActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector, int spillThreshold) {
         super(context);
+        this.inTransitMessages = new InTransitRecording(spillThreshold);
         this.neighbors = neighbors;
+        this.snapshotWriter = snapshotWriter;
+        this.snapshotCollector = snapshotCollector;
         neighbors.forEach(neighbor -> incomingMessageCounters.put(neighbor, 0));
         String nodeName = context.getSelf().path().name();
         context.getLog().info("NodeActor {} created with neighbors: {}",nodeName,  neighbors);
     }
 
-    public static Behavior<Message> create(Set<ActorRef<Message>> neighbors) {
-        return Behaviors.setup(context -> new LaiYangActor(context, neighbors));
+    public static Behavior<Message> create(Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter) {
+        return Behaviors.setup(context -> new LaiYangActor(context, neighbors, snapshotWriter));
+    }
+
+    public static Behavior<Message> create(Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        return Behaviors.setup(context -> new LaiYangActor(context, neighbors, snapshotWriter, snapshotCollector));
+    }
+
+    // Spills the recorded in-transit messages to a temporary file whenever spillThreshold of them are in memory.
+    public static Behavior<Message> create(Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector, int spillThreshold) {
+        return Behaviors.setup(context -> new LaiYangActor(context, neighbors, snapshotWriter, snapshotCollector, spillThreshold));
     }
 
     @Override
@@ -130,9 +174,11 @@ public class LaiYangActor extends AbstractBehavior<Message> {
                 .onMessage(QueryState.class, this::onQueryState)
                 .onMessage(InitiateSnapshot.class, this::initiateSnapshot)
                 .onMessage(AddNeighbor.class, this::onAddNeighbor)
+                .onMessage(SetIncomingChannels.class, this::onSetIncomingChannels)
                 .onMessage(QueryNeighbors.class, this::onQueryNeighbors)
                 .onMessage(PresnapMessage.class, this::onPresnapMessage)
                 .onMessage(TriggerSnapshot.class, this::onTriggerSnapshot)
+                .onSignal(PostStop.class, this::onPostStop)
                 .build();
     }
 
@@ -142,9 +188,11 @@ public class LaiYangActor extends AbstractBehavior<Message> {
             getContext().getLog().info("Updated counter for {} from {} to {} upon receiving PresnapMessage.", message.from.path().name(), v, newValue);
             return newValue;
         });
+        presnapReceived.add(message.from);
         if (!recorded) {
             getContext().getSelf().tell(new TriggerSnapshot());
         }
+        reportIfChannelsRecorded();
         // Check if termination condition is met
         boolean shouldTerminate = incomingMessageCounters.values().stream().allMatch(count -> count <= 0);
         if (shouldTerminate) {
@@ -161,7 +209,7 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         state = message.value * 2;
         if (!recorded) {
             // Send StateMessage to neighbors to mimic in-transit messages if recorded
-            neighbors.forEach(neighbor -> neighbor.tell(new StateMessage(state, getContext().getSelf(), recorded)));
+            neighbors.forEach(neighbor -> sendStateMessage(neighbor, new StateMessage(state, getContext().getSelf(), recorded)));
         }
         return this;
     }
@@ -170,6 +218,7 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         getContext().getLog().info("Initiating snapshot process...");
         if (!recorded) {
             recorded = true;
+            recordedState = state;
             snapshotTimestamp = LocalDateTime.now();
 
             neighbors.forEach(neighbor -> {
@@ -190,6 +239,7 @@ public class LaiYangActor extends AbstractBehavior<Message> {
             // Clear in-transit messages and check for completion
             inTransitMessages.clear();
             checkSnapshotCompletion();
+            reportIfChannelsRecorded();
         }
         return this;
     }
@@ -205,6 +255,7 @@ public class LaiYangActor extends AbstractBehavior<Message> {
     private void initiateSnapshotProcess() {
         getContext().getLog().info("Initiating snapshot process...");
         recorded = true;
+        recordedState = state;
         snapshotTimestamp = LocalDateTime.now();
 
         neighbors.forEach(neighbor -> {
@@ -214,6 +265,7 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         });
 
         saveStateAndMessages();
+        reportIfChannelsRecorded();
     }
 
     private Behavior<Message> onPrintState(PrintState message) {
@@ -234,18 +286,31 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         // Update the state and possibly pass the message further if not recorded
         if (!recorded && message.isRecorded) {
             getContext().getSelf().tell(new TriggerSnapshot());
-            inTransitMessages.add(message);
+            inTransitMessages.record(message.from, message.value, message.isRecorded);
         } else if (!recorded) {
+            receivedBeforeSnapshot.merge(message.from, 1, Integer::sum);
             state = message.value * 2;
-            neighbors.forEach(neighbor -> neighbor.tell(new StateMessage(state, getContext().getSelf(), false)));
+            neighbors.forEach(neighbor -> sendStateMessage(neighbor, new StateMessage(state, getContext().getSelf(), false)));
         } else if (recorded) {
-            inTransitMessages.add(message);
+            inTransitMessages.record(message.from, message.value, message.isRecorded);
         }
         return this;
     }
+    private void sendStateMessage(ActorRef<Message> neighbor, StateMessage message) {
+        neighbor.tell(message);
+        if (!recorded) {
+            sentBeforeSnapshot.merge(neighbor, 1, Integer::sum);
+        }
+    }
+
     private Behavior<Message> onQueryState(QueryState message) {
         getContext().getLog().info("Received QueryState from {}", message.replyTo.path().name());
-        message.replyTo.tell(new StateResponse(state, recorded, new HashSet<>(inTransitMessages)));
+        message.replyTo.tell(new StateResponse(state, recorded, inTransitMessages.view()));
+        return this;
+    }
+
+    private Behavior<Message> onPostStop(PostStop signal) {
+        inTransitMessages.close();
         return this;
     }
 
@@ -258,6 +323,11 @@ public class LaiYangActor extends AbstractBehavior<Message> {
         return this;
     }
 
+    private Behavior<Message> onSetIncomingChannels(SetIncomingChannels message) {
+        incomingChannels = new HashSet<>(message.senders);
+        return this;
+    }
+
     private Behavior<Message> onQueryNeighbors(QueryNeighbors message) {
         getContext().getLog().info("Received QueryNeighbors from {}", message.replyTo.path().name());
         Set<String> neighborPaths = neighbors.stream().map(neighbor -> neighbor.path().name()).collect(Collectors.toSet());
@@ -282,10 +352,9 @@ public class LaiYangActor extends AbstractBehavior<Message> {
 
     private String prepareSnapshotContent(String formattedTimestamp) {
         // Serialize in-transit messages
-        List<String> inTransitMessagesSerialized = inTransitMessages.stream()
-                .map(msg -> String.format("{\"from\": \"%s\", \"value\": %d, \"recorded\": %b}",
-                        msg.from.path().name(), msg.value, msg.isRecorded))
-                .collect(Collectors.toList());
+        List<String> inTransitMessagesSerialized = new ArrayList<>();
+        inTransitMessages.view().forEach((from, value, red) -> inTransitMessagesSerialized.add(
+                String.format("{\"from\": \"%s\", \"value\": %d, \"recorded\": %b}", from.path().name(), value, red)));
         String inTransitMessagesJson = inTransitMessagesSerialized.toString();
 
         // Serialize counters for each channel
@@ -303,26 +372,33 @@ public class LaiYangActor extends AbstractBehavior<Message> {
     }
 
     private void saveSnapshotToFile(String snapshotContent, String formattedTimestamp) {
-        String directoryPath = "snapshots";
-        File directory = new File(directoryPath);
-        if (!directory.exists()) {
-            boolean wasSuccessful = directory.mkdir();
-            if (!wasSuccessful) {
-                getContext().getLog().error("Failed to create snapshot directory");
-                return;
-            }
-        }
-
+        // The writer persists the snapshot on the blocking-IO dispatcher and logs whether it became durable
         String nodeName = getContext().getSelf().path().name();
-        String fileName = String.format("snapshot_%s_%s.json", nodeName, formattedTimestamp.replace(":", "-").replace("T", "_"));
-        String filePath = directoryPath + "/" + fileName;
-
-        try (FileWriter writer = new FileWriter(filePath)) {
-            writer.write(snapshotContent);
-            getContext().getLog().info("Snapshot saved to " + filePath);
-        } catch (IOException e) {
-            getContext().getLog().error("Failed to save snapshot", e);
+        snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(nodeName, formattedTimestamp, snapshotContent, null, snapshotCollector, SnapshotCollector.SINGLE_SNAPSHOT));
+    }
+
+    // Once the state is recorded and every neighbor's presnap message arrived, tells the collector the recorded
+    // state, the messages sent before the senders' snapshots that arrived after this node's, and the message counts.
+    private void reportIfChannelsRecorded() {
+        Set<ActorRef<Message>> incoming = incomingChannels != null ? incomingChannels : neighbors;
+        if (snapshotCollector == null || reported || !recorded || !presnapReceived.containsAll(incoming)) {
+            return;
         }
+        reported = true;
+        Map<String, List<Integer>> channels = new HashMap<>();
+        for (ActorRef<Message> neighbor : incoming) {
+            channels.put(neighbor.path().name(), new ArrayList<>());
+        }
+        inTransitMessages.view().forEach((from, value, red) -> {
+            if (!red) {
+                channels.computeIfAbsent(from.path().name(), name -> new ArrayList<>()).add(value);
+            }
+        });
+        Map<String, Integer> sent = new HashMap<>();
+        sentBeforeSnapshot.forEach((neighbor, count) -> sent.put(neighbor.path().name(), count));
+        Map<String, Integer> received = new HashMap<>();
+        receivedBeforeSnapshot.forEach((neighbor, count) -> received.put(neighbor.path().name(), count));
+        snapshotCollector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot(getContext().getSelf().path().name(), recordedState, channels, sent, received)));
     }
 
     private void checkSnapshotCompletion() {
@@ -0,0 +1,429 @@
+package snapshot_algorithms.mattern;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.*;
+import snapshot_algorithms.LocalSnapshot;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.VectorClock;
+import snapshot_algorithms.lai_yang.InTransitRecording;
+import snapshot_algorithms.storage.SnapshotWriter;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// Mattern's snapshot algorithm on vector time. Every basic message carries its sender's vector clock. The initiator
+// picks a vector time s in its own future, s[initiator] being one past its current entry, tells every node and
+// waits for their acknowledgements, and only then advances its clock to s and records its state. Until then no
+// clock can reach s, so every node knows s before the first message stamped at or after it arrives. A node records
+// its state just before its clock passes s: before it processes the first message whose clock has reached s in
+// the initiator's entry, which is the same as dominating s. The initiator sends its advanced clock to every node so
+// nodes without such messages record as well.
+//
+// Messages sent before their sender recorded are stamped before s, and those received after the receiver recorded
+// are the state of their channel. To know when a channel is complete, every node sends the initiator how many of
+// those messages it sent to each neighbor, and the initiator hands every node the counts of its incoming channels.
+// A snapshot thus takes five control messages per node other than the initiator, whatever the number of edges, and
+// does not rely on FIFO channels or on knowing the incoming channels up front.
+//
+// One snapshot per network: a node ignores snapshot times once it knows one.
+public class MatternActor extends AbstractBehavior<Message> {
+
+    public static final class PerformCalculation implements Message {
+        public final int value;
+
+        public PerformCalculation(int value) {
+            this.value = value;
+        }
+    }
+
+    public static final class BasicMessage implements Message {
+        public final int value;
+        public final ActorRef<Message> from;
+        public final VectorClock vectorClock;
+
+        public BasicMessage(int value, ActorRef<Message> from, VectorClock vectorClock) {
+            this.value = value;
+            this.from = from;
+            this.vectorClock = vectorClock.copy();
+        }
+    }
+
+    public static final class AddNeighbor implements Message {
+        public final ActorRef<Message> neighbor;
+
+        public AddNeighbor(ActorRef<Message> neighbor) {
+            this.neighbor = neighbor;
+        }
+    }
+
+    // Starts a snapshot of the given nodes, which may include the initiator itself.
+    public static final class InitiateSnapshot implements Message {
+        public final List<ActorRef<Message>> nodes;
+
+        public InitiateSnapshot(List<ActorRef<Message>> nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    // The vector time a node records its state at.
+    public static final class SnapshotTime implements Message {
+        public final VectorClock time;
+        public final ActorRef<Message> initiator;
+
+        public SnapshotTime(VectorClock time, ActorRef<Message> initiator) {
+            this.time = time.copy();
+            this.initiator = initiator;
+        }
+    }
+
+    public static final class SnapshotTimeAcknowledged implements Message {
+        public final ActorRef<Message> from;
+
+        public SnapshotTimeAcknowledged(ActorRef<Message> from) {
+            this.from = from;
+        }
+    }
+
+    // The initiator's clock once it passed the snapshot time.
+    public static final class ClockAdvanced implements Message {
+        public final VectorClock vectorClock;
+
+        public ClockAdvanced(VectorClock vectorClock) {
+            this.vectorClock = vectorClock.copy();
+        }
+    }
+
+    // How many basic messages a node sent to each neighbor before it recorded its state.
+    public static final class SentBeforeSnapshot implements Message {
+        public final ActorRef<Message> from;
+        public final Map<ActorRef<Message>, Integer> counts;
+
+        public SentBeforeSnapshot(ActorRef<Message> from, Map<ActorRef<Message>, Integer> counts) {
+            this.from = from;
+            this.counts = counts;
+        }
+    }
+
+    // How many basic messages each sender sent to the node before the sender recorded its state. Senders that sent
+    // none are left out.
+    public static final class ExpectedMessages implements Message {
+        public final Map<ActorRef<Message>, Integer> counts;
+
+        public ExpectedMessages(Map<ActorRef<Message>, Integer> counts) {
+            this.counts = counts;
+        }
+    }
+
+    private final List<ActorRef<Message>> neighbors = new ArrayList<>();
+    // The neighbor the next value is passed on to, round robin
+    private int nextNeighbor;
+    private int state = 0;
+    private final NodeIndex nodeIndex;
+    private final int selfIndex;
+    private final VectorClock vectorClock;
+    // The snapshot time and the index of its initiator, whose entry decides whether a clock passed it; null until known
+    private VectorClock snapshotTime;
+    private int initiatorIndex;
+    private ActorRef<Message> initiator;
+    private boolean recorded = false;
+    private boolean reported = false;
+    private int recordedState;
+    private VectorClock recordedClock;
+    private LocalDateTime snapshotTimestamp;
+    // Basic messages sent to each neighbor and received from each sender before the snapshot
+    private final Map<ActorRef<Message>, Integer> sentBeforeSnapshot = new HashMap<>();
+    private final Map<ActorRef<Message>, Integer> receivedBeforeSnapshot = new HashMap<>();
+    // Messages stamped before the snapshot time that arrived after this node recorded, per sender
+    private final Map<ActorRef<Message>, Integer> receivedInTransit = new HashMap<>();
+    private final InTransitRecording inTransit = new InTransitRecording();
+    // From the initiator; null until it arrived
+    private Map<ActorRef<Message>, Integer> expectedMessages;
+    private final ActorRef<SnapshotWriter.Command> snapshotWriter;
+    // Told the local snapshot once every channel is recorded; null if nobody collects the snapshots
+    private final ActorRef<SnapshotCollector.Command> snapshotCollector;
+
+    // Only set at the initiator: the other nodes, those that did not acknowledge the snapshot time yet, and per
+    // receiving node the counts of its incoming channels
+    private List<ActorRef<Message>> participants;
+    private Set<ActorRef<Message>> unacknowledged;
+    // Application messages that arrived while the snapshot time was announced, processed once it is passed
+    private final List<Message> deferred = new ArrayList<>();
+    private Map<ActorRef<Message>, Map<ActorRef<Message>, Integer>> incomingCounts;
+    private int countsPending;
+
+    private MatternActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        super(context);
+        this.neighbors.addAll(neighbors);
+        this.snapshotWriter = snapshotWriter;
+        this.snapshotCollector = snapshotCollector;
+        this.nodeIndex = NodeIndex.shared();
+        this.selfIndex = nodeIndex.indexOf(context.getSelf().path().name());
+        this.vectorClock = new VectorClock(nodeIndex.size());
+    }
+
+    public static Behavior<Message> create(Set<ActorRef<Message>> neighbors, ActorRef<SnapshotWriter.Command> snapshotWriter, ActorRef<SnapshotCollector.Command> snapshotCollector) {
+        return Behaviors.setup(context -> new MatternActor(context, neighbors, snapshotWriter, snapshotCollector));
+    }
+
+    @Override
+    public Receive<Message> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(PerformCalculation.class, this::onPerformCalculation)
+                .onMessage(BasicMessage.class, this::onBasicMessage)
+                .onMessage(AddNeighbor.class, this::onAddNeighbor)
+                .onMessage(InitiateSnapshot.class, this::onInitiateSnapshot)
+                .onMessage(SnapshotTime.class, this::onSnapshotTime)
+                .onMessage(SnapshotTimeAcknowledged.class, this::onSnapshotTimeAcknowledged)
+                .onMessage(ClockAdvanced.class, this::onClockAdvanced)
+                .onMessage(SentBeforeSnapshot.class, this::onSentBeforeSnapshot)
+                .onMessage(ExpectedMessages.class, this::onExpectedMessages)
+                .onSignal(PostStop.class, signal -> {
+                    inTransit.close();
+                    return this;
+                })
+                .build();
+    }
+
+    private Behavior<Message> onPerformCalculation(PerformCalculation message) {
+        if (deferUntilClockAdvanced(message)) {
+            return this;
+        }
+        vectorClock.increment(selfIndex);
+        state = message.value * 2;
+        passOn();
+        return this;
+    }
+
+    private Behavior<Message> onBasicMessage(BasicMessage message) {
+        if (deferUntilClockAdvanced(message)) {
+            return this;
+        }
+        boolean beforeSnapshot = !passed(message.vectorClock);
+        // The message was sent after its sender passed the snapshot time, so this node's snapshot must come before it
+        if (!beforeSnapshot && !recorded) {
+            recordState();
+        }
+        if (beforeSnapshot) {
+            if (recorded) {
+                inTransit.record(message.from, message.value, false);
+                receivedInTransit.merge(message.from, 1, Integer::sum);
+            } else {
+                receivedBeforeSnapshot.merge(message.from, 1, Integer::sum);
+            }
+        }
+        vectorClock.merge(message.vectorClock);
+        vectorClock.increment(selfIndex);
+        state = message.value * 2;
+        passOn();
+        reportIfChannelsRecorded();
+        return this;
+    }
+
+    private Behavior<Message> onAddNeighbor(AddNeighbor message) {
+        if (!neighbors.contains(message.neighbor)) {
+            neighbors.add(message.neighbor);
+        }
+        return this;
+    }
+
+    private Behavior<Message> onInitiateSnapshot(InitiateSnapshot message) {
+        if (snapshotTime != null) {
+            getContext().getLog().warn("{} already takes part in a snapshot, not initiating another.", getContext().getSelf().path().name());
+            return this;
+        }
+        getContext().getLog().info("Initiating snapshot at {}.", getContext().getSelf().path().name());
+        ActorRef<Message> self = getContext().getSelf();
+        VectorClock time = vectorClock.copy();
+        time.set(selfIndex, vectorClock.get(selfIndex) + 1);
+        useSnapshotTime(time, self);
+
+        participants = new ArrayList<>();
+        for (ActorRef<Message> node : message.nodes) {
+            if (!node.equals(self) && !participants.contains(node)) {
+                participants.add(node);
+            }
+        }
+        unacknowledged = new HashSet<>(participants);
+        incomingCounts = new HashMap<>();
+        countsPending = participants.size() + 1;
+        SnapshotTime announcement = new SnapshotTime(time, self);
+        participants.forEach(node -> node.tell(announcement));
+        if (unacknowledged.isEmpty()) {
+            advanceClock();
+        }
+        return this;
+    }
+
+    private Behavior<Message> onSnapshotTime(SnapshotTime message) {
+        if (snapshotTime != null) {
+            getContext().getLog().warn("{} ignores the snapshot time of {}, it already has one.", getContext().getSelf().path().name(), message.initiator.path().name());
+            return this;
+        }
+        useSnapshotTime(message.time, message.initiator);
+        message.initiator.tell(new SnapshotTimeAcknowledged(getContext().getSelf()));
+        return this;
+    }
+
+    private Behavior<Message> onSnapshotTimeAcknowledged(SnapshotTimeAcknowledged message) {
+        if (unacknowledged != null && unacknowledged.remove(message.from) && unacknowledged.isEmpty()) {
+            advanceClock();
+        }
+        return this;
+    }
+
+    private Behavior<Message> onClockAdvanced(ClockAdvanced message) {
+        if (!recorded && snapshotTime != null && passed(message.vectorClock)) {
+            recordState();
+            vectorClock.merge(message.vectorClock);
+            reportIfChannelsRecorded();
+        }
+        return this;
+    }
+
+    private Behavior<Message> onSentBeforeSnapshot(SentBeforeSnapshot message) {
+        addSentCounts(message.from, message.counts);
+        return this;
+    }
+
+    private Behavior<Message> onExpectedMessages(ExpectedMessages message) {
+        expectedMessages = message.counts;
+        reportIfChannelsRecorded();
+        return this;
+    }
+
+    private void useSnapshotTime(VectorClock time, ActorRef<Message> initiator) {
+        this.snapshotTime = time;
+        this.initiator = initiator;
+        this.initiatorIndex = nodeIndex.indexOf(initiator.path().name());
+    }
+
+    // Whether the clock reached the snapshot time. Only the initiator's entry has to be compared: no clock gets to
+    // snapshotTime[initiator] without the initiator's advance, which every other entry of the snapshot time precedes.
+    private boolean passed(VectorClock clock) {
+        return snapshotTime != null && clock.get(initiatorIndex) >= snapshotTime.get(initiatorIndex);
+    }
+
+    // At the initiator, holds application messages back while the snapshot time is announced, since every event
+    // would advance its clock towards the snapshot time before all nodes know it.
+    private boolean deferUntilClockAdvanced(Message message) {
+        if (unacknowledged == null || unacknowledged.isEmpty()) {
+            return false;
+        }
+        deferred.add(message);
+        return true;
+    }
+
+    // Every node knows the snapshot time: the initiator records its state, passes the snapshot time and makes every
+    // other node pass it as well.
+    private void advanceClock() {
+        recordState();
+        vectorClock.set(selfIndex, snapshotTime.get(selfIndex));
+        ClockAdvanced advanced = new ClockAdvanced(vectorClock);
+        participants.forEach(node -> node.tell(advanced));
+        reportIfChannelsRecorded();
+        List<Message> held = new ArrayList<>(deferred);
+        deferred.clear();
+        for (Message message : held) {
+            if (message instanceof PerformCalculation) {
+                onPerformCalculation((PerformCalculation) message);
+            } else {
+                onBasicMessage((BasicMessage) message);
+            }
+        }
+    }
+
+    // Sends the current state to the next neighbor, stamped with this node's clock.
+    private void passOn() {
+        if (neighbors.isEmpty()) {
+            return;
+        }
+        ActorRef<Message> neighbor = neighbors.get(nextNeighbor++ % neighbors.size());
+        vectorClock.increment(selfIndex);
+        neighbor.tell(new BasicMessage(state, getContext().getSelf(), vectorClock));
+        if (!recorded) {
+            sentBeforeSnapshot.merge(neighbor, 1, Integer::sum);
+        }
+    }
+
+    private void recordState() {
+        recorded = true;
+        recordedState = state;
+        recordedClock = vectorClock.copy();
+        snapshotTimestamp = LocalDateTime.now();
+        getContext().getLog().info("{} recorded its state at {}.", getContext().getSelf().path().name(), recordedClock);
+        if (initiator.equals(getContext().getSelf())) {
+            addSentCounts(getContext().getSelf(), sentBeforeSnapshot);
+        } else {
+            initiator.tell(new SentBeforeSnapshot(getContext().getSelf(), new HashMap<>(sentBeforeSnapshot)));
+        }
+    }
+
+    // At the initiator, files a node's sent counts under the receiving nodes, and once every node sent them tells
+    // each node the counts of its incoming channels.
+    private void addSentCounts(ActorRef<Message> sender, Map<ActorRef<Message>, Integer> counts) {
+        if (incomingCounts == null) {
+            return;
+        }
+        counts.forEach((receiver, count) -> incomingCounts.computeIfAbsent(receiver, node -> new HashMap<>()).put(sender, count));
+        if (--countsPending > 0) {
+            return;
+        }
+        for (ActorRef<Message> node : participants) {
+            node.tell(new ExpectedMessages(incomingCounts.getOrDefault(node, Collections.emptyMap())));
+        }
+        expectedMessages = incomingCounts.getOrDefault(getContext().getSelf(), Collections.emptyMap());
+        incomingCounts = null;
+        reportIfChannelsRecorded();
+    }
+
+    // Once every message sent to this node before its sender's snapshot arrived, persists the local snapshot and
+    // tells the collector.
+    private void reportIfChannelsRecorded() {
+        if (!recorded || reported || expectedMessages == null) {
+            return;
+        }
+        for (Map.Entry<ActorRef<Message>, Integer> expected : expectedMessages.entrySet()) {
+            ActorRef<Message> sender = expected.getKey();
+            int received = receivedBeforeSnapshot.getOrDefault(sender, 0) + receivedInTransit.getOrDefault(sender, 0);
+            if (received < expected.getValue()) {
+                return;
+            }
+        }
+        reported = true;
+        getContext().getLog().info("All channels of {} recorded.", getContext().getSelf().path().name());
+
+        String nodeName = getContext().getSelf().path().name();
+        Map<String, List<Integer>> channels = new HashMap<>();
+        for (ActorRef<Message> sender : expectedMessages.keySet()) {
+            channels.put(sender.path().name(), new ArrayList<>());
+        }
+        inTransit.view().forEach((sender, value, red) -> channels.computeIfAbsent(sender.path().name(), name -> new ArrayList<>()).add(value));
+
+        String formattedTimestamp = snapshotTimestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(nodeName, formattedTimestamp, snapshotContent(formattedTimestamp, channels), null, snapshotCollector, SnapshotCollector.SINGLE_SNAPSHOT));
+
+        if (snapshotCollector == null) {
+            return;
+        }
+        Map<String, Integer> sent = new HashMap<>();
+        sentBeforeSnapshot.forEach((neighbor, count) -> sent.put(neighbor.path().name(), count));
+        Map<String, Integer> received = new HashMap<>();
+        receivedBeforeSnapshot.forEach((sender, count) -> received.put(sender.path().name(), count));
+        snapshotCollector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot(nodeName, recordedState, channels, recordedClock.get(initiatorIndex), sent, received)));
+    }
+
+    private String snapshotContent(String formattedTimestamp, Map<String, List<Integer>> channels) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"Timestamp\": \"").append(formattedTimestamp).append("\", \"State\": ").append(recordedState);
+        recordedClock.appendJson(json.append(", \"VectorClock\": "), nodeIndex);
+        snapshotTime.appendJson(json.append(", \"SnapshotTime\": "), nodeIndex);
+        StringJoiner channelStates = new StringJoiner(", ", "{", "}");
+        new TreeMap<>(channels).forEach((sender, values) -> channelStates.add("\"" + sender + "\": " + values));
+        return json.append(", \"ChannelStates\": ").append(channelStates).append('}').toString();
+    }
+}
@@ -3,48 +3,74 @@ package snapshot_algorithms.peterson_kearns;
 import akka.actor.typed.Terminated;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.Behaviors;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
 import akka.actor.typed.javadsl.AbstractBehavior;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.VectorClock;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+import snapshot_algorithms.storage.SnapshotRecord;
+import snapshot_algorithms.storage.SnapshotStore;
+import snapshot_algorithms.storage.SnapshotWriter;
+import util.Graph;
 import util.GraphParser;
 
 public class CheckpointRecoveryManager extends AbstractBehavior<CheckpointRecoveryManager.Command> {
 
-    private static final String PERSISTENT_MESSAGE_LOG_PATH = "snapshots/message.log";
+    // How often the message log is truncated below the recovery line
+    private static final Duration COMPACTION_INTERVAL = Duration.ofSeconds(10);
+    private static final Object COMPACTION_TIMER_KEY = new Object();
+    // Failures arriving within this delay of each other are recovered together, from one pass over the log
+    private static final Duration RECOVERY_BATCH_DELAY = Duration.ofMillis(50);
+    private static final Object RECOVERY_TIMER_KEY = new Object();
+    private static final ObjectMapper JSON = new ObjectMapper();
+    // For the recovery planning and compaction, which run on the recovery pool where the actor context must not be used
+    private static final Logger log = LoggerFactory.getLogger(CheckpointRecoveryManager.class);
 
     public interface Command {}
 
-    public class SnapshotData {
+    public static class SnapshotData {
+        private String snapshotId;
         private int personalState;
-        private Map<String, Integer> vectorClock;
+        private VectorClock vectorClock;
 
-        public SnapshotData(int personalState, Map<String, Integer> vectorClock) {
+        public SnapshotData(String snapshotId, int personalState, VectorClock vectorClock) {
+            this.snapshotId = snapshotId;
             this.personalState = personalState;
             this.vectorClock = vectorClock;
         }
 
+        public String getSnapshotId() {
+            return snapshotId;
+        }
+
         public int getPersonalState() {
             return personalState;
         }
 
-        public Map<String, Integer> getVectorClock() {
+        public VectorClock getVectorClock() {
             return vectorClock;
         }
     }
@@ -59,6 +85,28 @@ public class CheckpointRecoveryManager extends AbstractBehavior<CheckpointRecove
         }
     }
 
+    // Answered once the next recovery of the node has replayed its logged messages to it, or failed.
+    public static final class AwaitRecovery implements Command {
+        public final String actorId;
+        public final ActorRef<RecoveryCompleted> replyTo;
+
+        public AwaitRecovery(String actorId, ActorRef<RecoveryCompleted> replyTo) {
+            this.actorId = actorId;
+            this.replyTo = replyTo;
+        }
+    }
+
+    public static final class RecoveryCompleted {
+        public final String actorId;
+        // False if the node had no snapshot to recover from or its recovery failed
+        public final boolean recovered;
+
+        public RecoveryCompleted(String actorId, boolean recovered) {
+            this.actorId = actorId;
+            this.recovered = recovered;
+        }
+    }
+
     public static class BuildNetworkFromDotFile implements Command {
         final String dotFilePath;
         public BuildNetworkFromDotFile(String dotFilePath) {
@@ -81,19 +129,105 @@ public class CheckpointRecoveryManager extends AbstractBehavior<CheckpointRecove
         }
     }
 
-    public static class InitiateNetworkSnapshot implements Command {}
+    public static class InitiateNetworkSnapshot implements Command {
+        // Told every node's checkpoint; null if nobody collects them
+        final ActorRef<SnapshotCollector.Command> collector;
 
-    private Map<String, Set<String>> nodeNeighbors;
-    private Map<String, ActorRef<Message>> nodes;
+        public InitiateNetworkSnapshot() {
+            this(null);
+        }
+
+        public InitiateNetworkSnapshot(ActorRef<SnapshotCollector.Command> collector) {
+            this.collector = collector;
+        }
+    }
+
+    // Sent to the manager itself once the failures collected during the batch delay are to be recovered.
+    private static final class RecoverPending implements Command {}
+
+    // Sent to the manager itself when the rollback plan of a region is computed.
+    private static final class RegionPlanned implements Command {
+        final Set<String> failedIds;
+        final Map<String, SnapshotData> plan;
+        final Throwable failure;
+
+        RegionPlanned(Set<String> failedIds, Map<String, SnapshotData> plan, Throwable failure) {
+            this.failedIds = failedIds;
+            this.plan = plan;
+            this.failure = failure;
+        }
+    }
+
+    // Sent to the manager itself when the replay to one recovered node is done.
+    private static final class ReplayFinished implements Command {
+        final String actorId;
+        final int replayed;
+        final Throwable failure;
+
+        ReplayFinished(String actorId, int replayed, Throwable failure) {
+            this.actorId = actorId;
+            this.replayed = replayed;
+            this.failure = failure;
+        }
+    }
+
+    // Drops the message log segments that no recovery can replay anymore. Also sent periodically by the manager itself.
+    public static class CompactMessageLog implements Command {}
+
+    // Sent to the manager itself when a compaction on the recovery pool is done.
+    private static final class CompactionFinished implements Command {
+        final Integer deleted;
+        final Throwable failure;
+
+        CompactionFinished(Integer deleted, Throwable failure) {
+            this.deleted = deleted;
+            this.failure = failure;
+        }
+    }
 
-    private CheckpointRecoveryManager(ActorContext<Command> context) {
+    // Topology of the network built from the DOT file, with node ids in graph order; null until it is built
+    private Graph topology;
+    private Map<String, ActorRef<Message>> nodes;
+    private final SnapshotStore snapshotStore;
+    private final Map<String, SnapshotData> latestSnapshots;
+    private final MessageLog messageLog;
+    private final ActorRef<SnapshotWriter.Command> snapshotWriter;
+    // Bounded pool for snapshot loading and message replay during recovery
+    private final Executor recoveryExecutor;
+    // How the spawned nodes piggyback their vector clocks
+    private final PetersonKearnsActor.ClockEncoding clockEncoding;
+    private final TimerScheduler<Command> timers;
+    // Failed nodes waiting for the next recovery; one region is planned at a time so no node is respawned twice
+    private final Set<String> pendingRecovery = new LinkedHashSet<>();
+    // Failed nodes of the region being planned, empty while no plan is running
+    private Set<String> planningIds = Collections.emptySet();
+    // GetActorRef requests for nodes that are being recovered, answered once their region is respawned
+    private final Map<String, List<ActorRef<ActorRef<Message>>>> awaitingRecovery = new HashMap<>();
+    // AwaitRecovery requests, answered when the next recovery of their node is done
+    private final Map<String, List<ActorRef<RecoveryCompleted>>> recoveryWaiters = new HashMap<>();
+    // True while a compaction runs on the recovery pool; timer ticks meanwhile are skipped
+    private boolean compacting;
+
+    private CheckpointRecoveryManager(ActorContext<Command> context, TimerScheduler<Command> timers, PetersonKearnsActor.ClockEncoding clockEncoding) {
         super(context);
-        this.nodeNeighbors = new HashMap<>();
+        this.clockEncoding = clockEncoding;
+        this.timers = timers;
         this.nodes = new HashMap<>();
+        this.snapshotStore = SegmentedSnapshotStore.open();
+        this.latestSnapshots = new ConcurrentHashMap<>();
+        this.messageLog = MessageLog.open();
+        // Shared by every node in the network, including recovered ones
+        this.snapshotWriter = SnapshotWriter.spawn(context, "snapshot-writer");
+        this.recoveryExecutor = context.getSystem().dispatchers().lookup(DispatcherSelector.blocking());
+        timers.startTimerWithFixedDelay(COMPACTION_TIMER_KEY, new CompactMessageLog(), COMPACTION_INTERVAL);
     }
 
     public static Behavior<Command> create() {
-        return Behaviors.setup(CheckpointRecoveryManager::new);
+        return create(PetersonKearnsActor.ClockEncoding.FULL);
+    }
+
+    public static Behavior<Command> create(PetersonKearnsActor.ClockEncoding clockEncoding) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> new CheckpointRecoveryManager(context, timers, clockEncoding)));
     }
 
     @Override
@@ -103,38 +237,76 @@ public class CheckpointRecoveryManager extends AbstractBehavior<CheckpointRecove
                 .onMessage(RecoverActor.class, this::onRecoverActor)
                 .onMessage(TerminateActor.class, this::onTerminateActorCommand)
                 .onMessage(InitiateNetworkSnapshot.class, this::onInitiateNetworkSnapshot)
+                .onMessage(CompactMessageLog.class, this::onCompactMessageLog)
+                .onMessage(CompactionFinished.class, this::onCompactionFinished)
+                .onMessage(RecoverPending.class, this::onRecoverPending)
+                .onMessage(RegionPlanned.class, this::onRegionPlanned)
+                .onMessage(ReplayFinished.class, this::onReplayFinished)
                 .onSignal(Terminated.class, this::onTerminated)
                 .onMessage(GetActorRef.class, this::onGetActorRef)
+                .onMessage(AwaitRecovery.class, this::onAwaitRecovery)
                 .build();
     }
 
-    // Handling GetActorRef inside createReceive method
+    // A node that failed has no actor until its region is respawned, so the request waits for that. Requests for
+    // unknown nodes are not answered; Akka does not deliver null replies.
     private Behavior<Command> onGetActorRef(GetActorRef command) {
-        ActorRef<Message> actorRef = nodes.get(command.actorId); // Assuming actorMap holds the references
-        command.replyTo.tell(actorRef);
+        ActorRef<Message> actorRef = nodes.get(command.actorId);
+        if (actorRef != null) {
+            command.replyTo.tell(actorRef);
+        } else if (pendingRecovery.contains(command.actorId) || planningIds.contains(command.actorId)) {
+            awaitingRecovery.computeIfAbsent(command.actorId, id -> new ArrayList<>()).add(command.replyTo);
+        } else {
+            getContext().getLog().warn("No actor found with ID {}", command.actorId);
+        }
+        return this;
+    }
+
+    // Waits for the node's next recovery even if the node is up, since a TerminateActor sent just before may not have
+    // stopped it yet.
+    private Behavior<Command> onAwaitRecovery(AwaitRecovery command) {
+        recoveryWaiters.computeIfAbsent(command.actorId, id -> new ArrayList<>()).add(command.replyTo);
         return this;
     }
 
+    private void completeRecovery(String actorId, boolean recovered) {
+        List<ActorRef<RecoveryCompleted>> waiting = recoveryWaiters.remove(actorId);
+        if (waiting != null) {
+            waiting.forEach(replyTo -> replyTo.tell(new RecoveryCompleted(actorId, recovered)));
+        }
+    }
+
     private Behavior<Command> onBuildNetworkFromDotFile(BuildNetworkFromDotFile command) {
         getContext().getLog().info("Building network from DOT file: {}", command.dotFilePath);
-        List<GraphParser.Edge> edges = GraphParser.parseDotFile(command.dotFilePath);
-        edges.forEach(edge -> {
-            nodes.computeIfAbsent(edge.getSource(), sourceId -> getContext().spawn(PetersonKearnsActor.create(new HashSet<>(), 0), sourceId));
-            nodes.computeIfAbsent(edge.getDestination(), destId -> getContext().spawn(PetersonKearnsActor.create(new HashSet<>(), 0), destId));
-        });
+        try {
+            topology = GraphParser.loadGraph(command.dotFilePath);
+        } catch (IOException e) {
+            getContext().getLog().error("Failed to read DOT file {}", command.dotFilePath, e);
+            return this;
+        }
+        // Graph nodes get the first dense indices, so their vector clocks stay small
+        for (int node = 0; node < topology.nodeCount(); node++) {
+            NodeIndex.shared().indexOf(topology.name(node));
+        }
+        List<ActorRef<Message>> actors = new ArrayList<>(topology.nodeCount());
+        for (int node = 0; node < topology.nodeCount(); node++) {
+            String nodeId = topology.name(node);
+            ActorRef<Message> actor = nodes.computeIfAbsent(nodeId, id -> getContext().spawn(PetersonKearnsActor.create(new HashSet<>(), 0, snapshotWriter, clockEncoding), id));
+            getContext().watch(actor);
+            actors.add(actor);
+        }
 
-        edges.forEach(edge -> {
-            ActorRef<Message> sourceNode = nodes.get(edge.getSource());
-            ActorRef<Message> destinationNode = nodes.get(edge.getDestination());
-            sourceNode.tell(new PetersonKearnsActor.AddNeighbor(destinationNode));
-            getContext().watch(sourceNode);
-            getContext().watch(destinationNode);
-        });
+        for (int node = 0; node < topology.nodeCount(); node++) {
+            ActorRef<Message> sourceNode = actors.get(node);
+            for (int edge = topology.edgeStart(node); edge < topology.edgeEnd(node); edge++) {
+                sourceNode.tell(new PetersonKearnsActor.AddNeighbor(actors.get(topology.target(edge))));
+            }
+        }
         return this;
     }
 
     private Behavior<Command> onRecoverActor(RecoverActor command) {
-        recoverActorFromSnapshot(command.actorId);
+        scheduleRecovery(command.actorId);
         return this;
     }
 
@@ -152,97 +324,259 @@ public class CheckpointRecoveryManager extends AbstractBehavior<CheckpointRecove
     private Behavior<Command> onTerminated(Terminated t) {
         String terminatedActorId = t.getRef().path().name();
         getContext().getLog().info("Actor {} has terminated.", terminatedActorId);
-        recoverActorFromSnapshot(terminatedActorId);
-        nodes.remove(terminatedActorId);
+        // A recovered actor is registered under its node id; unregister it before it is respawned
+        String nodeId = PetersonKearnsActor.nodeIdOf(terminatedActorId);
+        if (nodes.get(nodeId) == null || nodes.get(nodeId).equals(t.getRef())) {
+            nodes.remove(nodeId);
+            scheduleRecovery(nodeId);
+        }
+        return this;
+    }
+
+    // Collects the failed node for the next recovery, which starts after the batch delay, so that nodes failing
+    // together are planned together instead of one log pass each.
+    private void scheduleRecovery(String nodeId) {
+        pendingRecovery.add(nodeId);
+        if (planningIds.isEmpty() && !timers.isTimerActive(RECOVERY_TIMER_KEY)) {
+            timers.startSingleTimer(RECOVERY_TIMER_KEY, new RecoverPending(), RECOVERY_BATCH_DELAY);
+        }
+    }
+
+    private Behavior<Command> onRecoverPending(RecoverPending command) {
+        if (!planningIds.isEmpty() || pendingRecovery.isEmpty()) {
+            return this;
+        }
+        Set<String> failedIds = new LinkedHashSet<>(pendingRecovery);
+        pendingRecovery.clear();
+        recoverRegion(failedIds);
         return this;
     }
 
     private Behavior<Command> onInitiateNetworkSnapshot(InitiateNetworkSnapshot command) {
         nodes.values().forEach(actorRef -> {
-            actorRef.tell(new PetersonKearnsActor.InitiateSnapshot());
+            actorRef.tell(new PetersonKearnsActor.InitiateSnapshot(command.collector));
             getContext().getLog().info("Initiated snapshot for actor {}", actorRef.path().name());
         });
         return this;
     }
 
-    private void recoverActorFromSnapshot(String actorId) {
-        // load the snapshot, determine the initial state and recreate the actor
-        getContext().getLog().info("Trying to recover Actor {}, loading latest snapshot file.", actorId);
+    // Snapshot reads and the log scan run on the recovery pool. Failed nodes count as well: the messages their
+    // recovery will replay must stay.
+    private Behavior<Command> onCompactMessageLog(CompactMessageLog command) {
+        if (compacting || nodes.isEmpty()) {
+            return this;
+        }
+        compacting = true;
+        Set<String> nodeIds = new HashSet<>(nodes.keySet());
+        nodeIds.addAll(pendingRecovery);
+        nodeIds.addAll(planningIds);
+        getContext().pipeToSelf(
+                CompletableFuture.supplyAsync(() -> compactBelowRecoveryLine(nodeIds), recoveryExecutor),
+                CompactionFinished::new);
+        return this;
+    }
+
+    private Behavior<Command> onCompactionFinished(CompactionFinished message) {
+        compacting = false;
+        if (message.failure != null) {
+            getContext().getLog().error("Failed to truncate the message log: {}", message.failure.getMessage());
+        }
+        return this;
+    }
+
+    // Truncates the log below the recovery line of the given nodes and returns the number of deleted segments.
+    private int compactBelowRecoveryLine(Set<String> nodeIds) {
+        VectorClock recoveryLine = computeRecoveryLine(nodeIds);
+        if (recoveryLine == null) {
+            return 0;
+        }
         try {
-            String snapshotData = loadLatestSnapshot(actorId);
-            if (snapshotData == null) {
-                System.err.println("No snapshot data available to recover for actor ID: " + actorId);
-                return;
+            return messageLog.truncateBelow(recoveryLine);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The recovery line is the componentwise minimum of the vector clocks of every node's latest snapshot. Any
+    // recovery restarts from a snapshot at or above it, so logged messages below it are never replayed again.
+    // Returns null while some node has no snapshot yet.
+    private VectorClock computeRecoveryLine(Set<String> nodeIds) {
+        VectorClock recoveryLine = null;
+        for (String nodeId : nodeIds) {
+            try {
+                if (snapshotStore.latestSnapshotId(nodeId) == null) {
+                    return null;
+                }
+            } catch (IOException e) {
+                log.error("Failed to read the snapshot index: {}", e.getMessage());
+                return null;
+            }
+            SnapshotData data = loadLatestSnapshot(nodeId);
+            if (data == null) {
+                return null;
+            }
+            if (recoveryLine == null) {
+                recoveryLine = data.getVectorClock().copy();
+            } else {
+                recoveryLine.meet(data.getVectorClock());
             }
-            // Parse the snapshot data to get both state and vector clock
-            SnapshotData data = parseSnapshotData(snapshotData);
-
-            // Determine the neighbors of the actor from the snapshot
-            Set<ActorRef<Message>> neighbors = determineNeighbors(actorId);
-
-            // Create a new actor instance with the recovered state and vector clock
-            ActorRef<Message> newActor = getContext().spawn(
-                    PetersonKearnsActor.create(neighbors, data.getPersonalState()),
-                    actorId + "_recovered"
-            );
-
-            getContext().watch(newActor);
-            nodes.put(actorId, newActor);
-            getContext().getLog().info("Actor {} has been successfully recovered with id {}. ", actorId, actorId + "_recovered");
-
-            // Update neighbors based on messages sent after the snapshot
-            updateNeighborsBasedOnMessagesLog("snapshots/message.log", actorId, data.getVectorClock());
-            // Replay messages post recovery state from the message log
-            replayMessages(PERSISTENT_MESSAGE_LOG_PATH, data.getVectorClock());
-        } catch (Exception e) {
-            getContext().getLog().error("Failed to recover actor {}: {}", actorId, e.getMessage());
-        }
-    }
-
-    private void updateNeighborsBasedOnMessagesLog(String logFilePath, String actorId, Map<String, Integer> recoveryVC) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(logFilePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // This makes sure we're only looking at lines with messages sent from the recovered actor
-                if (line.startsWith("From: " + actorId)) {
-                    // Parse the message log
-                    Pattern pattern = Pattern.compile("From: (\\d+), To: (\\d+), Value: (\\d+), VectorClock: (\\{[^\\}]+\\})");
-                    Matcher matcher = pattern.matcher(line);
-                    if (matcher.find()) {
-                        String toId = matcher.group(2);
-                        Map<String, Integer> msgVectorClock = parseVectorClock(matcher.group(4));
-
-                        getContext().getLog().info("Analyzing message from {} to {}: {}", actorId, toId, line);
-
-                        // Only trigger recovery if the message vector clock indicates a need for update
-                        if (shouldReplay(msgVectorClock, recoveryVC)) {
-                            ActorRef<Message> neighbor = nodes.get(toId);
-                            if (neighbor == null) { // Check if the neighbor exists in the nodes map
-                                getContext().getLog().info("Neighbor {} not active. Triggering recovery.", toId);
-                                recoverActorFromSnapshot(toId);
-                            } else {
-                                getContext().getLog().info("Neighbor {} is already active, skipping recovery.", toId);
-                            }
-                        } else {
-                            getContext().getLog().info("Message to {} does not require replay. Vector clock check passed.", toId);
-                        }
+        }
+        return recoveryLine;
+    }
+
+    // Recovers the failed nodes together with every inactive node that must roll back with them. The plan is built
+    // off the actor thread from one pass over the message log, with the snapshots loaded in parallel, and handed back
+    // as RegionPlanned; the region is then respawned at once and each recovered node gets its messages replayed
+    // concurrently.
+    private void recoverRegion(Set<String> failedIds) {
+        getContext().getLog().info("Trying to recover actors {}, loading latest snapshots.", failedIds);
+        planningIds = failedIds;
+        Set<String> activeIds = new HashSet<>(nodes.keySet());
+        // Entries still waiting for a group commit must be in the file before it is scanned
+        CompletableFuture<Map<String, SnapshotData>> plan = messageLog.flush()
+                .thenComposeAsync(flushed -> planRollback(failedIds, activeIds), recoveryExecutor);
+        getContext().pipeToSelf(plan, (planned, failure) -> new RegionPlanned(failedIds, planned, failure));
+    }
+
+    private Behavior<Command> onRegionPlanned(RegionPlanned message) {
+        planningIds = Collections.emptySet();
+        if (message.failure != null) {
+            getContext().getLog().error("Failed to recover actors {}: {}", message.failedIds, message.failure.getMessage());
+            message.failedIds.forEach(failedId -> completeRecovery(failedId, false));
+        } else {
+            // Respawn the whole region before replaying, so messages between recovered nodes find their receiver
+            for (Map.Entry<String, SnapshotData> entry : message.plan.entrySet()) {
+                String actorId = entry.getKey();
+                ActorRef<Message> newActor = getContext().spawn(
+                        PetersonKearnsActor.create(determineNeighbors(actorId), entry.getValue().getPersonalState(), snapshotWriter, clockEncoding),
+                        actorId + "_recovered"
+                );
+                getContext().watch(newActor);
+                nodes.put(actorId, newActor);
+                getContext().getLog().info("Actor {} has been successfully recovered with id {}. ", actorId, actorId + "_recovered");
+            }
+
+            // Replay messages post recovery state from the message log, one task per recovered node
+            Map<String, ActorRef<Message>> senders = new HashMap<>(nodes);
+            message.plan.forEach((actorId, data) -> getContext().pipeToSelf(
+                    CompletableFuture.supplyAsync(() -> replayMessages(actorId, data.getVectorClock(), senders), recoveryExecutor),
+                    (replayed, failure) -> new ReplayFinished(actorId, replayed == null ? 0 : replayed, failure)));
+        }
+        for (String failedId : message.failedIds) {
+            List<ActorRef<ActorRef<Message>>> waiting = awaitingRecovery.remove(failedId);
+            ActorRef<Message> recovered = nodes.get(failedId);
+            if (waiting != null && recovered != null) {
+                waiting.forEach(replyTo -> replyTo.tell(recovered));
+            } else if (waiting != null) {
+                getContext().getLog().warn("Actor {} could not be recovered, {} request(s) for it are dropped", failedId, waiting.size());
+            }
+            // A failed node without a snapshot is not respawned, so no replay will finish for it
+            if (message.failure == null && !message.plan.containsKey(failedId)) {
+                completeRecovery(failedId, false);
+            }
+        }
+        // Failures that arrived while this region was planned
+        if (!pendingRecovery.isEmpty() && !timers.isTimerActive(RECOVERY_TIMER_KEY)) {
+            timers.startSingleTimer(RECOVERY_TIMER_KEY, new RecoverPending(), RECOVERY_BATCH_DELAY);
+        }
+        return this;
+    }
+
+    // Computes the nodes to roll back and their snapshots. A node sending a message after its snapshot forces the
+    // receiver back as well if the receiver is no longer active. The log is read once, keeping per (sender, receiver)
+    // the componentwise maximum clock of their messages: some message of a channel is after the sender's snapshot
+    // exactly when that maximum is. The closure is then computed on this summary, loading the snapshots of each
+    // newly reached set of nodes in parallel. Runs on the recovery pool, with a copy of the active node ids.
+    private CompletableFuture<Map<String, SnapshotData>> planRollback(Set<String> failedIds, Set<String> activeIds) {
+        Map<String, Map<String, VectorClock>> channelClocks;
+        try {
+            channelClocks = scanChannelClocks();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return extendPlan(new LinkedHashMap<>(), new LinkedHashSet<>(failedIds), channelClocks, activeIds);
+    }
+
+    // Adds the frontier's snapshots to the plan and continues with the inactive receivers they force back.
+    private CompletableFuture<Map<String, SnapshotData>> extendPlan(Map<String, SnapshotData> plan, Set<String> frontier, Map<String, Map<String, VectorClock>> channelClocks, Set<String> activeIds) {
+        if (frontier.isEmpty()) {
+            return CompletableFuture.completedFuture(plan);
+        }
+        return loadLatestSnapshots(frontier).thenCompose(loaded -> {
+            Set<String> next = new LinkedHashSet<>();
+            for (String actorId : frontier) {
+                SnapshotData data = loaded.get(actorId);
+                if (data == null) {
+                    log.warn("No snapshot data available to recover for actor ID: {}", actorId);
+                    continue;
+                }
+                plan.put(actorId, data);
+                for (Map.Entry<String, VectorClock> channel : channelClocks.getOrDefault(actorId, Collections.emptyMap()).entrySet()) {
+                    String toId = channel.getKey();
+                    if (data.getVectorClock().dominates(channel.getValue())) {
+                        log.info("Messages from {} to {} do not require replay. Vector clock check passed.", actorId, toId);
+                    } else if (activeIds.contains(toId)) {
+                        log.info("Neighbor {} is already active, skipping recovery.", toId);
+                    } else if (!plan.containsKey(toId) && !frontier.contains(toId)) {
+                        log.info("Neighbor {} not active. Triggering recovery.", toId);
+                        next.add(toId);
                     }
                 }
             }
-        } catch (IOException e) {
-            getContext().getLog().error("Error reading log file for neighbor updates: " + e.getMessage());
+            return extendPlan(plan, next, channelClocks, activeIds);
+        });
+    }
+
+    // One pass over the message log: sender id -> receiver id -> componentwise maximum vector clock.
+    private Map<String, Map<String, VectorClock>> scanChannelClocks() throws IOException {
+        Map<String, Map<String, VectorClock>> channelClocks = new HashMap<>();
+        for (Path segment : messageLog.segments()) {
+            try (MessageLogReader reader = new MessageLogReader(segment)) {
+                while (reader.next()) {
+                    VectorClock maxClock = channelClocks
+                            .computeIfAbsent(PetersonKearnsActor.nodeIdOf(reader.nodeName(reader.sender())), sender -> new HashMap<>())
+                            .computeIfAbsent(PetersonKearnsActor.nodeIdOf(reader.nodeName(reader.receiver())), receiver -> new VectorClock());
+                    reader.mergeClockInto(maxClock);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted below the recovery line after it was listed
+            }
         }
+        return channelClocks;
     }
 
+    // Loads the latest snapshots of the given nodes in parallel on the recovery pool, without blocking a thread to
+    // wait for them.
+    private CompletableFuture<Map<String, SnapshotData>> loadLatestSnapshots(Set<String> nodeIds) {
+        Map<String, CompletableFuture<SnapshotData>> loading = new LinkedHashMap<>();
+        nodeIds.forEach(nodeId -> loading.put(nodeId, CompletableFuture.supplyAsync(() -> loadLatestSnapshot(nodeId), recoveryExecutor)));
+        return CompletableFuture.allOf(loading.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<String, SnapshotData> loaded = new HashMap<>();
+            loading.forEach((nodeId, future) -> {
+                SnapshotData data = future.join();
+                if (data != null) {
+                    loaded.put(nodeId, data);
+                }
+            });
+            return loaded;
+        });
+    }
 
+    private Behavior<Command> onReplayFinished(ReplayFinished message) {
+        if (message.failure != null) {
+            getContext().getLog().error("Failed to replay messages to {}: {}", message.actorId, message.failure.getMessage());
+        } else {
+            getContext().getLog().info("Replayed {} messages to recovered actor {}", message.replayed, message.actorId);
+        }
+        completeRecovery(message.actorId, message.failure == null);
+        return this;
+    }
 
-    private SnapshotData parseSnapshotData(String jsonData) throws IllegalArgumentException {
+    static SnapshotData parseSnapshotData(String snapshotId, String jsonData) throws IllegalArgumentException {
         if (jsonData == null || jsonData.isEmpty()) {
             throw new IllegalArgumentException("Snapshot data is null or empty");
         }
 
-        getContext().getLog().info("Parsing snapshot data: {}", jsonData);
-
         // Parsing personal state
         String personalStateKey = "\"PersonalState\":";
         int personalStateIndex = jsonData.indexOf(personalStateKey);
@@ -258,119 +592,93 @@ public class CheckpointRecoveryManager extends AbstractBehavior<CheckpointRecove
         String vectorClockKey = "\"VectorClock\":";
         int vectorClockIndex = jsonData.indexOf(vectorClockKey);
         if (vectorClockIndex == -1) {
-            getContext().getLog().error("VectorClock field missing in the snapshot.");
             throw new IllegalArgumentException("VectorClock not found in the snapshot.");
         }
         int vectorClockStart = vectorClockIndex + vectorClockKey.length();
         int vectorClockEnd = jsonData.indexOf("}", vectorClockStart) + 1; // Include the closing brace '}'
         String vectorClockData = jsonData.substring(vectorClockStart, vectorClockEnd);
 
-        Map<String, Integer> vectorClock = parseJsonMap(vectorClockData);
+        VectorClock vectorClock = new VectorClock();
+        parseJsonMap(vectorClockData).forEach((node, counter) -> vectorClock.set(NodeIndex.shared().indexOf(node), counter));
 
-        return new SnapshotData(personalState, vectorClock);
+        return new SnapshotData(snapshotId, personalState, vectorClock);
     }
 
-    private Map<String, Integer> parseJsonMap(String jsonData) throws IllegalArgumentException {
+    static Map<String, Integer> parseJsonMap(String jsonData) throws IllegalArgumentException {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.readValue(jsonData, new TypeReference<Map<String, Integer>>() {});
+            return JSON.readValue(jsonData, new TypeReference<Map<String, Integer>>() {});
         } catch (JsonProcessingException e) {
-            getContext().getLog().error("Error parsing JSON map: {}", e.getMessage());
-            throw new IllegalArgumentException("Error parsing JSON map.", e);
+            throw new IllegalArgumentException("Error parsing JSON map: " + e.getMessage(), e);
         }
     }
 
-    private String loadLatestSnapshot(String nodeId) {
-        Path dirPath = Paths.get("snapshots");
-        if (!Files.exists(dirPath)) {
-            System.err.println("Snapshot directory does not exist: " + dirPath.toAbsolutePath());
-            return null;
-        }
-
-        try (Stream<Path> paths = Files.walk(dirPath)) {
-            Optional<Path> latestSnapshot = paths
-                    .filter(Files::isRegularFile)
-                    .filter(path -> path.getFileName().toString().matches("snapshot_" + nodeId + "_.*\\.json"))
-                    .max(Comparator.comparingLong(path -> path.toFile().lastModified()));
-
-            if (!latestSnapshot.isPresent()) {
-                System.err.println("No snapshot found for node ID: " + nodeId);
+    // Resolves the node's latest snapshot through the snapshot store index. Parsed snapshots are kept per node and
+    // reused as long as the store still reports the same latest snapshot id, so cascading recoveries of the same
+    // node neither scan the store nor parse the snapshot again.
+    private SnapshotData loadLatestSnapshot(String nodeId) {
+        try {
+            String latestSnapshotId = snapshotStore.latestSnapshotId(nodeId);
+            if (latestSnapshotId == null) {
+                log.warn("No snapshot found for node ID: {}", nodeId);
                 return null;
             }
-
-            try {
-                return new String(Files.readAllBytes(latestSnapshot.get()));
-            } catch (IOException e) {
-                System.err.println("Failed to read snapshot: " + e.getMessage());
+            SnapshotData cached = latestSnapshots.get(nodeId);
+            if (cached != null && latestSnapshotId.equals(cached.getSnapshotId())) {
+                return cached;
+            }
+            SnapshotRecord latestSnapshot = snapshotStore.read(nodeId, latestSnapshotId);
+            if (latestSnapshot == null) {
+                log.warn("Snapshot {} of node ID {} is no longer available", latestSnapshotId, nodeId);
                 return null;
             }
+            SnapshotData data = parseSnapshotData(latestSnapshotId, latestSnapshot.getContent());
+            latestSnapshots.put(nodeId, data);
+            return data;
         } catch (IOException e) {
-            System.err.println("Failed to load snapshots: " + e.getMessage());
+            log.warn("Failed to read snapshot: {}", e.getMessage());
             return null;
         }
     }
 
     private Set<ActorRef<Message>> determineNeighbors(String actorId) {
-        Set<String> neighborIds = nodeNeighbors.getOrDefault(actorId, new HashSet<>());
         Set<ActorRef<Message>> neighborRefs = new HashSet<>();
+        int node = topology != null ? topology.id(actorId) : -1;
+        if (node < 0) {
+            return neighborRefs;
+        }
 
-        neighborIds.forEach(id -> {
-            ActorRef<Message> neighborRef = nodes.get(id);
+        for (int edge = topology.edgeStart(node); edge < topology.edgeEnd(node); edge++) {
+            ActorRef<Message> neighborRef = nodes.get(topology.name(topology.target(edge)));
             if (neighborRef != null) {
                 neighborRefs.add(neighborRef);
             }
-        });
+        }
 
         return neighborRefs;
     }
 
-    private Map<String, Integer> parseVectorClock(String vcString) {
-        Map<String, Integer> vc = new HashMap<>();
-        vcString = vcString.replace("{", "").replace("}", "");
-        String[] entries = vcString.split(",");
-        for (String entry : entries) {
-            String[] kv = entry.split(":");
-            vc.put(kv[0].trim().replace("\"", ""), Integer.parseInt(kv[1].trim()));
-        }
-        return vc;
-    }
-
-    private boolean shouldReplay(Map<String, Integer> messageVC, Map<String, Integer> snapshotVC) {
-        // Replay if message vector clock is greater than snapshot vector clock for any key
-        return messageVC.entrySet().stream()
-                .anyMatch(e -> e.getValue() > snapshotVC.getOrDefault(e.getKey(), 0));
-    }
-
-    public void replayMessages(String logFilePath, Map<String, Integer> recoveryVC) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(logFilePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Pattern pattern = Pattern.compile("From: (\\d+), To: (\\d+), Value: (\\d+), VectorClock: (\\{[^\\}]+\\})");
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    String fromId = matcher.group(1);
-                    String toId = matcher.group(2);
-                    int value = Integer.parseInt(matcher.group(3));
-                    Map<String, Integer> messageVectorClock = parseVectorClock(matcher.group(4));
-
-                    if (shouldReplay(messageVectorClock, recoveryVC)) {
-                        ActorRef<Message> toActor = nodes.get(toId);
-                        if (toActor != null) {
-                            // Create and send a BasicMessage
-                            PetersonKearnsActor.BasicMessage message = new PetersonKearnsActor.BasicMessage(value, nodes.get(fromId), messageVectorClock);
-                            toActor.tell(message);
-                            getContext().getLog().info("Replayed message from {} to {} with value {}", fromId, toId, value);
-                        } else {
-                            getContext().getLog().error("No actor found with ID {}", toId);
-                        }
-                    }
+    // Replays to the recovered actor the messages it received after its snapshot and returns how many. The log index
+    // selects them by the actor's own clock component, which it logged before counting the reception, so the first
+    // message after the snapshot carries exactly the snapshot's component. Runs on the recovery pool, so it only
+    // uses the given copy of the node map.
+    private int replayMessages(String actorId, VectorClock recoveryVC, Map<String, ActorRef<Message>> senders) {
+        ActorRef<Message> toActor = senders.get(actorId);
+        AtomicInteger replayed = new AtomicInteger();
+        try {
+            messageLog.forEachReceived(actorId, recoveryVC.get(NodeIndex.shared().indexOf(actorId)), record -> {
+                ActorRef<Message> fromActor = senders.get(PetersonKearnsActor.nodeIdOf(record.nodeName(record.sender())));
+                if (toActor != null && fromActor != null) {
+                    VectorClock messageVectorClock = new VectorClock();
+                    record.copyClock(messageVectorClock);
+                    toActor.tell(new PetersonKearnsActor.BasicMessage(record.value(), fromActor, messageVectorClock));
+                    replayed.incrementAndGet();
+                } else {
+                    log.warn("No actor found for message from {} to {}", record.nodeName(record.sender()), actorId);
                 }
-            }
+            });
         } catch (IOException e) {
-            getContext().getLog().error("Error reading log file: " + e.getMessage());
+            throw new UncheckedIOException(e);
         }
+        return replayed.get();
     }
-
-
 }
-
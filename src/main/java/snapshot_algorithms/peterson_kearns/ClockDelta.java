@@ -0,0 +1,39 @@
+package snapshot_algorithms.peterson_kearns;
+
+import snapshot_algorithms.VectorClock;
+
+// The vector clock entries a message carries in differential mode: only those that changed since the sender's last
+// message on the same channel (Singhal-Kshemkalyani). Channels between actors are FIFO, so merging the entries
+// into the receiver's clock gives the same result as merging the sender's full clock.
+public final class ClockDelta {
+
+    private final int[] nodes;
+    private final int[] counters;
+
+    ClockDelta(int[] nodes, int[] counters) {
+        this.nodes = nodes;
+        this.counters = counters;
+    }
+
+    // Number of clock entries carried.
+    public int size() {
+        return nodes.length;
+    }
+
+    public int node(int entry) {
+        return nodes[entry];
+    }
+
+    public int counter(int entry) {
+        return counters[entry];
+    }
+
+    // Componentwise maximum of the carried entries with the target clock.
+    public void mergeInto(VectorClock target) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (counters[i] > target.get(nodes[i])) {
+                target.set(nodes[i], counters[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package snapshot_algorithms.peterson_kearns;
+
+import snapshot_algorithms.VectorClock;
+
+import java.util.Arrays;
+
+// Singhal-Kshemkalyani bookkeeping of one node. Every receive or send is an event with a local sequence number; the
+// tracker remembers for every clock entry the event that last changed it, and for every receiver the event of the
+// last send to it. A message then only needs the entries changed after the last send on its channel. The sequence
+// is kept apart from the vector clock so that a clock restored by the checkpoint manager cannot move it backwards.
+class DifferentialClock {
+
+    private int event;
+    // Event that last changed each entry of the clock, by NodeIndex index
+    private int[] lastUpdate = new int[16];
+    // Event of the last send to each receiver, by NodeIndex index; -1 means the next send carries the full clock
+    private int[] lastSent = new int[16];
+    private int[] selectedNodes = new int[16];
+
+    DifferentialClock() {
+        Arrays.fill(lastSent, -1);
+    }
+
+    // Starts the next receive or send event.
+    void beginEvent() {
+        event++;
+    }
+
+    // Records that an entry changed during the current event.
+    void updated(int node) {
+        if (node >= lastUpdate.length) {
+            lastUpdate = Arrays.copyOf(lastUpdate, Math.max(node + 1, lastUpdate.length * 2));
+        }
+        lastUpdate[node] = event;
+    }
+
+    // Merges a received full clock, recording the entries it raises.
+    void merge(VectorClock clock, VectorClock received) {
+        for (int node = 0; node < received.capacity(); node++) {
+            if (received.get(node) > clock.get(node)) {
+                clock.set(node, received.get(node));
+                updated(node);
+            }
+        }
+    }
+
+    // Merges received entries, recording the ones they raise.
+    void merge(VectorClock clock, ClockDelta received) {
+        for (int i = 0; i < received.size(); i++) {
+            int node = received.node(i);
+            if (received.counter(i) > clock.get(node)) {
+                clock.set(node, received.counter(i));
+                updated(node);
+            }
+        }
+    }
+
+    // Entries of the clock to piggyback on a message to the receiver sent in the current event.
+    ClockDelta deltaFor(int receiver, VectorClock clock) {
+        ensureReceiver(receiver);
+        int since = lastSent[receiver];
+        int count = 0;
+        for (int node = 0; node < clock.capacity(); node++) {
+            if (clock.get(node) != 0 && (since < 0 || (node < lastUpdate.length && lastUpdate[node] > since))) {
+                if (count == selectedNodes.length) {
+                    selectedNodes = Arrays.copyOf(selectedNodes, count * 2);
+                }
+                selectedNodes[count++] = node;
+            }
+        }
+        int[] nodes = Arrays.copyOf(selectedNodes, count);
+        int[] counters = new int[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = clock.get(nodes[i]);
+        }
+        lastSent[receiver] = event;
+        return new ClockDelta(nodes, counters);
+    }
+
+    // The receiver lost what it had merged, e.g. because its clock was restored; its next message carries the
+    // full clock.
+    void resetChannel(int receiver) {
+        ensureReceiver(receiver);
+        lastSent[receiver] = -1;
+    }
+
+    private void ensureReceiver(int receiver) {
+        if (receiver >= lastSent.length) {
+            int oldLength = lastSent.length;
+            lastSent = Arrays.copyOf(lastSent, Math.max(receiver + 1, oldLength * 2));
+            Arrays.fill(lastSent, oldLength, lastSent.length, -1);
+        }
+    }
+}
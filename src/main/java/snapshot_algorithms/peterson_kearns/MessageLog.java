@@ -0,0 +1,540 @@
+package snapshot_algorithms.peterson_kearns;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.VectorClock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Write-ahead log for the messages received by the Peterson-Kearns nodes. All nodes of a log share one long-lived
+// channel owned by a single writer thread. Appends are queued and written in group commits: the writer takes
+// everything that arrives within the policy's delay (up to maxBatchRecords), writes it with one call and, if the
+// policy asks for it, forces it to disk once for the whole group. Each append is acknowledged by a future that
+// completes when its commit is done.
+//
+// The log is a directory of segment files; the writer starts a new segment once the active one reaches
+// maxSegmentBytes. A segment is a sequence of binary records, each framed as varint bodyLength | body |
+// int crc32(body). Node names are written once per segment, in a NODE record that gives them a small id; messages
+// refer to nodes by id:
+//   NODE:    byte 1 | varint nodeId | varint nameLength | UTF-8 name
+//   MESSAGE: byte 2 | varint sender | varint receiver | int value | varint clockSize | clockSize x (varint nodeId, varint counter)
+// Varints are unsigned LEB128. MessageLogReader streams the records of a segment back. Since every segment defines
+// its own ids, sealed segments can be read and deleted independently (see truncateBelow).
+//
+// Every segment also has a MessageLogIndex, kept in memory and written next to the segment when it is sealed, so
+// that the messages a node received after a snapshot can be read without scanning the log (see forEachReceived).
+public class MessageLog implements AutoCloseable {
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get("snapshots", "message-log");
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    // Receives the records selected by forEachReceived; the reader is positioned on one message record.
+    public interface RecordHandler {
+        void accept(MessageLogReader record) throws IOException;
+    }
+
+    static final byte NODE_RECORD = 1;
+    static final byte MESSAGE_RECORD = 2;
+
+    private static final Logger log = LoggerFactory.getLogger(MessageLog.class);
+
+    private static final Map<Path, MessageLog> OPEN_LOGS = new ConcurrentHashMap<>();
+
+    public static final class FlushPolicy {
+        // Commit once this many records are queued
+        public final int maxBatchRecords;
+        // Commit at the latest this long after the first queued record
+        public final Duration maxDelay;
+        // Force every commit to stable storage before acknowledging it
+        public final boolean fsyncPerCommit;
+
+        public FlushPolicy(int maxBatchRecords, Duration maxDelay, boolean fsyncPerCommit) {
+            if (maxBatchRecords < 1) {
+                throw new IllegalArgumentException("maxBatchRecords must be at least 1");
+            }
+            this.maxBatchRecords = maxBatchRecords;
+            this.maxDelay = maxDelay;
+            this.fsyncPerCommit = fsyncPerCommit;
+        }
+
+        public static final FlushPolicy DEFAULT = new FlushPolicy(512, Duration.ofMillis(2), false);
+    }
+
+    private static final class PendingAppend {
+        final String sender;
+        final String receiver;
+        final int value;
+        final VectorClock vectorClock;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+        // Offset of the record in the active segment, set when it is encoded
+        long position;
+
+        PendingAppend(String sender, String receiver, int value, VectorClock vectorClock) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.value = value;
+            this.vectorClock = vectorClock;
+        }
+
+        boolean isBarrier() {
+            return sender == null;
+        }
+    }
+
+    private final Path directory;
+    private final FlushPolicy policy;
+    private final long maxSegmentBytes;
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile long commitCount;
+    private FileChannel channel;
+    private volatile int activeSegment;
+    private final ConcurrentSkipListMap<Integer, MessageLogIndex> indexes = new ConcurrentSkipListMap<>();
+    // Per sealed segment, the lowest recovery line all of its messages lie below; a sealed segment never changes, so
+    // truncation reads it once
+    private final Map<Integer, VectorClock> sealedBounds = new ConcurrentHashMap<>();
+    // Owned by the writer thread: ids of the node names already defined in the active segment, and the encode buffers
+    private final Map<String, Integer> nodeIds = new HashMap<>();
+    // Segment ids by NodeIndex index, -1 where not resolved yet, so clock entries are encoded without name lookups
+    private int[] segmentIds = new int[0];
+    private int[] clockIds = new int[16];
+    private final NodeIndex nodeIndex = NodeIndex.shared();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer body = ByteBuffer.allocate(256);
+    private ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+
+    // Returns the log shared by every node in this JVM in the default directory.
+    public static MessageLog open() {
+        return open(DEFAULT_DIRECTORY);
+    }
+
+    // Returns the log shared by every node in this JVM for the given directory, opening it with the default policy.
+    public static MessageLog open(Path directory) {
+        return open(directory, FlushPolicy.DEFAULT);
+    }
+
+    // Returns the log shared by every node in this JVM for the given directory. The policy only applies if this call opens it.
+    public static MessageLog open(Path directory, FlushPolicy policy) {
+        return OPEN_LOGS.computeIfAbsent(directory.toAbsolutePath().normalize(), dir -> {
+            try {
+                return new MessageLog(dir, policy, DEFAULT_MAX_SEGMENT_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open message log " + dir, e);
+            }
+        });
+    }
+
+    // Closes the log shared for the directory if one is open, e.g. before the directory is deleted; the next open()
+    // starts from whatever is on disk then.
+    public static void closeIfOpen(Path directory) throws IOException {
+        MessageLog messageLog = OPEN_LOGS.get(directory.toAbsolutePath().normalize());
+        if (messageLog != null) {
+            messageLog.close();
+        }
+    }
+
+    public MessageLog(Path directory, FlushPolicy policy) throws IOException {
+        this(directory, policy, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    public MessageLog(Path directory, FlushPolicy policy, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.policy = policy;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.channel = openActiveSegment();
+        this.writer = new Thread(this::runWriter, "message-log-writer-" + directory.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Queues a received message for the next group commit. The clock is copied, so the caller may keep updating it.
+    // The future completes once the record is written, and forced to disk if the policy requires it.
+    public CompletableFuture<Void> append(String sender, String receiver, int value, VectorClock vectorClock) {
+        return enqueue(new PendingAppend(sender, receiver, value, vectorClock.copy()));
+    }
+
+    // Completes once every message appended before this call has been committed.
+    public CompletableFuture<Void> flush() {
+        return enqueue(new PendingAppend(null, null, 0, null));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Segment files in log order, the last one is being written.
+    public List<Path> segments() throws IOException {
+        return listSegments().stream().map(this::segmentPath).collect(Collectors.toList());
+    }
+
+    // Deletes the sealed segments that only hold messages below the recovery line (see
+    // MessageLogReader.mergeRecoveryBoundInto). Every node's latest snapshot dominates the recovery line and a
+    // recovery only replays the messages logged at or after its snapshot's own entry, so such messages are never
+    // replayed again. Returns the number of deleted segments.
+    public int truncateBelow(VectorClock recoveryLine) throws IOException {
+        int active = activeSegment;
+        int deleted = 0;
+        for (int segment : listSegments()) {
+            if (segment >= active) {
+                break;
+            }
+            Path segmentFile = segmentPath(segment);
+            VectorClock bound = sealedBounds.get(segment);
+            if (bound == null) {
+                bound = new VectorClock();
+                try (MessageLogReader reader = new MessageLogReader(segmentFile)) {
+                    while (reader.next()) {
+                        reader.mergeRecoveryBoundInto(bound);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted by a concurrent truncation
+                    continue;
+                }
+                sealedBounds.put(segment, bound);
+            }
+            if (recoveryLine.dominates(bound)) {
+                sealedBounds.remove(segment);
+                indexes.remove(segment);
+                Files.deleteIfExists(segmentFile);
+                Files.deleteIfExists(indexPath(segment));
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} message log segments below the recovery line {}", deleted, recoveryLine);
+        }
+        return deleted;
+    }
+
+    // Streams the messages the node received while its own clock component was at least fromClock, in log order.
+    // Only the indexed records are read: the cost is proportional to the messages selected, not to the log size.
+    public void forEachReceived(String receiver, int fromClock, RecordHandler handler) throws IOException {
+        for (Map.Entry<Integer, MessageLogIndex> entry : indexes.entrySet()) {
+            long[] positions = entry.getValue().positionsFrom(receiver, fromClock);
+            if (positions.length == 0) {
+                continue;
+            }
+            FileChannel segment;
+            try {
+                segment = FileChannel.open(segmentPath(entry.getKey()), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // Truncated below the recovery line, or the directory was wiped
+                continue;
+            }
+            try (MessageLogReader reader = new MessageLogReader(segment, 0, entry.getValue().nodeNames())) {
+                for (long position : positions) {
+                    reader.seek(position);
+                    if (reader.next()) {
+                        handler.accept(reader);
+                    }
+                }
+            }
+        }
+    }
+
+    // Number of group commits written so far.
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    // Waits for the writer to commit what is still queued. An interrupt of the closing thread does not cut that short;
+    // it is kept for the caller instead.
+    @Override
+    public void close() throws IOException {
+        OPEN_LOGS.remove(directory, this);
+        running = false;
+        writer.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private CompletableFuture<Void> enqueue(PendingAppend pending) {
+        if (!running) {
+            pending.committed.completeExceptionally(new IllegalStateException("Message log " + directory + " is closed"));
+            return pending.committed;
+        }
+        queue.add(pending);
+        return pending.committed;
+    }
+
+    private void runWriter() {
+        List<PendingAppend> batch = new ArrayList<>(policy.maxBatchRecords);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingAppend first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + policy.maxDelay.toNanos();
+                while (batch.size() < policy.maxBatchRecords) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingAppend next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts the writer; commit whatever is still queued before leaving
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingAppend> batch) {
+        try {
+            if (channel.position() >= maxSegmentBytes) {
+                indexes.get(activeSegment).write(indexPath(activeSegment));
+                channel.close();
+                channel = openSegment(activeSegment + 1);
+            }
+            long segmentPosition = channel.position();
+            out.clear();
+            for (PendingAppend pending : batch) {
+                if (!pending.isBarrier()) {
+                    encodeMessage(pending, segmentPosition);
+                }
+            }
+            out.flip();
+            if (out.hasRemaining()) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                if (policy.fsyncPerCommit) {
+                    channel.force(false);
+                }
+                commitCount++;
+            }
+            MessageLogIndex index = indexes.get(activeSegment);
+            for (PendingAppend pending : batch) {
+                if (!pending.isBarrier()) {
+                    index.add(pending.receiver, pending.vectorClock.get(nodeIndex.indexOf(pending.receiver)), pending.position);
+                }
+                pending.committed.complete(null);
+            }
+        } catch (IOException e) {
+            log.error("Failed to commit {} message log entries to {}", batch.size(), directory, e);
+            for (PendingAppend pending : batch) {
+                pending.committed.completeExceptionally(e);
+            }
+            // Ids defined in a failed commit may not have reached the file; reopening relearns the ones that did
+            try {
+                channel.close();
+                channel = openActiveSegment();
+            } catch (IOException reopenFailure) {
+                log.error("Failed to reopen message log {}", directory, reopenFailure);
+            }
+        }
+    }
+
+    private void encodeMessage(PendingAppend pending, long segmentPosition) {
+        int sender = nodeId(pending.sender);
+        int receiver = nodeId(pending.receiver);
+        // Only non-zero clock entries are written, a missing entry reads as zero
+        VectorClock clock = pending.vectorClock;
+        int entries = 0;
+        for (int node = 0; node < clock.capacity(); node++) {
+            if (clock.get(node) != 0) {
+                if (entries == clockIds.length) {
+                    clockIds = Arrays.copyOf(clockIds, entries * 2);
+                }
+                clockIds[entries++] = segmentId(node);
+            }
+        }
+        // Node definitions are written first, the message record starts here
+        pending.position = segmentPosition + out.position();
+
+        body.clear();
+        body.put(MESSAGE_RECORD);
+        putVarint(sender);
+        putVarint(receiver);
+        ensureBody(Integer.BYTES);
+        body.putInt(pending.value);
+        putVarint(entries);
+        int entry = 0;
+        for (int node = 0; node < clock.capacity(); node++) {
+            if (clock.get(node) != 0) {
+                putVarint(clockIds[entry++]);
+                putVarint(clock.get(node));
+            }
+        }
+        writeRecord();
+    }
+
+    private int segmentId(int node) {
+        if (node >= segmentIds.length) {
+            int oldLength = segmentIds.length;
+            segmentIds = Arrays.copyOf(segmentIds, Math.max(node + 1, oldLength * 2));
+            Arrays.fill(segmentIds, oldLength, segmentIds.length, -1);
+        }
+        if (segmentIds[node] < 0) {
+            segmentIds[node] = nodeId(nodeIndex.name(node));
+        }
+        return segmentIds[node];
+    }
+
+    // Returns the id of a node name, writing its NODE record first if this file has not defined it yet
+    private int nodeId(String name) {
+        Integer id = nodeIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        id = nodeIds.size();
+        nodeIds.put(name, id);
+        indexes.get(activeSegment).defineNode(id, name);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        body.clear();
+        body.put(NODE_RECORD);
+        putVarint(id);
+        putVarint(nameBytes.length);
+        ensureBody(nameBytes.length);
+        body.put(nameBytes);
+        writeRecord();
+        return id;
+    }
+
+    // Frames the body buffer into the output buffer
+    private void writeRecord() {
+        body.flip();
+        int length = body.remaining();
+        crc.reset();
+        crc.update(body.array(), body.arrayOffset(), length);
+        if (out.remaining() < length + 5 + Integer.BYTES) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + length + 5 + Integer.BYTES));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+        putVarint(out, length);
+        out.put(body);
+        out.putInt((int) crc.getValue());
+    }
+
+    private void putVarint(int value) {
+        ensureBody(5);
+        putVarint(body, value);
+    }
+
+    private void ensureBody(int bytes) {
+        if (body.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(body.capacity() * 2, body.position() + bytes));
+            body.flip();
+            larger.put(body);
+            body = larger;
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Opens the last segment for appending and loads the indexes of the sealed ones, rebuilding any that is missing.
+    private FileChannel openActiveSegment() throws IOException {
+        Files.createDirectories(directory);
+        indexes.clear();
+        List<Integer> existing = listSegments();
+        for (int i = 0; i < existing.size() - 1; i++) {
+            int segment = existing.get(i);
+            MessageLogIndex index = MessageLogIndex.read(indexPath(segment));
+            if (index == null) {
+                try (MessageLogReader reader = new MessageLogReader(segmentPath(segment))) {
+                    index = MessageLogIndex.scan(reader);
+                }
+                index.write(indexPath(segment));
+            }
+            indexes.put(segment, index);
+        }
+        return openSegment(existing.isEmpty() ? 1 : existing.get(existing.size() - 1));
+    }
+
+    // Opens a segment for appending. An existing segment is scanned to rebuild its index and learn the node ids it
+    // defines, and a torn record left by a crash is cut off so that new records follow the intact prefix.
+    private FileChannel openSegment(int segment) throws IOException {
+        Path segmentFile = segmentPath(segment);
+        nodeIds.clear();
+        Arrays.fill(segmentIds, -1);
+        FileChannel opened = FileChannel.open(segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MessageLogReader reader = new MessageLogReader(opened, 0);
+        indexes.put(segment, MessageLogIndex.scan(reader));
+        for (int id = 0; id < reader.nodeCount(); id++) {
+            String name = reader.nodeName(id);
+            if (name != null) {
+                nodeIds.put(name, id);
+            }
+        }
+        if (reader.isTruncated()) {
+            log.warn("Truncating torn record at offset {} of message log segment {}", reader.validLength(), segmentFile);
+            opened.truncate(reader.validLength());
+        }
+        opened.position(reader.validLength());
+        activeSegment = segment;
+        return opened;
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private Path indexPath(int segment) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, INDEX_SUFFIX));
+    }
+}
@@ -0,0 +1,161 @@
+package snapshot_algorithms.peterson_kearns;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Secondary index of one message log segment. For every receiving node it keeps the offsets of the messages the
+// node received, together with the node's own clock component when it logged them, in log order. A node's own
+// component only grows, so the first message after a snapshot is found with a binary search and recovery reads
+// just the records after it. Also keeps the segment's node ids, so that a reader can start in the middle of it.
+class MessageLogIndex {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Logger log = LoggerFactory.getLogger(MessageLogIndex.class);
+
+    private static final class ReceiverEntries {
+        int size;
+        int[] clocks = new int[16];
+        long[] positions = new long[16];
+        // False once a clock went backwards (a node whose state was reset); the entries are then filtered linearly
+        boolean sorted = true;
+
+        void add(int clock, long position) {
+            if (size == clocks.length) {
+                clocks = Arrays.copyOf(clocks, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            if (size > 0 && clock < clocks[size - 1]) {
+                sorted = false;
+            }
+            clocks[size] = clock;
+            positions[size] = position;
+            size++;
+        }
+
+        long[] positionsFrom(int fromClock) {
+            if (sorted) {
+                int low = 0;
+                int high = size;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (clocks[middle] < fromClock) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                return Arrays.copyOfRange(positions, low, size);
+            }
+            long[] selected = new long[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (clocks[i] >= fromClock) {
+                    selected[count++] = positions[i];
+                }
+            }
+            return Arrays.copyOf(selected, count);
+        }
+    }
+
+    private final List<String> nodeNames = new ArrayList<>();
+    private final Map<String, ReceiverEntries> receivers = new HashMap<>();
+
+    // Builds the index of a segment by reading all of it.
+    static MessageLogIndex scan(MessageLogReader reader) throws IOException {
+        MessageLogIndex index = new MessageLogIndex();
+        while (reader.next()) {
+            index.add(reader.nodeName(reader.receiver()), reader.clockOf(reader.receiver()), reader.recordPosition());
+        }
+        for (int id = 0; id < reader.nodeCount(); id++) {
+            index.defineNode(id, reader.nodeName(id));
+        }
+        return index;
+    }
+
+    // Loads an index written by write(), or returns null if there is none or it is unreadable.
+    static MessageLogIndex read(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            MessageLogIndex index = new MessageLogIndex();
+            int nodeCount = in.readInt();
+            for (int id = 0; id < nodeCount; id++) {
+                index.defineNode(id, in.readBoolean() ? in.readUTF() : null);
+            }
+            int receiverCount = in.readInt();
+            for (int r = 0; r < receiverCount; r++) {
+                String receiver = in.readUTF();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    index.add(receiver, in.readInt(), in.readLong());
+                }
+            }
+            return index;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable message log index {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    synchronized void defineNode(int id, String name) {
+        while (nodeNames.size() <= id) {
+            nodeNames.add(null);
+        }
+        nodeNames.set(id, name);
+    }
+
+    synchronized List<String> nodeNames() {
+        return new ArrayList<>(nodeNames);
+    }
+
+    synchronized void add(String receiver, int clock, long position) {
+        receivers.computeIfAbsent(receiver, name -> new ReceiverEntries()).add(clock, position);
+    }
+
+    // Offsets of the messages the node received while its own clock component was at least fromClock, in log order.
+    synchronized long[] positionsFrom(String receiver, int fromClock) {
+        ReceiverEntries entries = receivers.get(receiver);
+        return entries == null ? new long[0] : entries.positionsFrom(fromClock);
+    }
+
+    // Writes the index next to its sealed segment, replacing any previous version atomically.
+    synchronized void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(nodeNames.size());
+            for (String name : nodeNames) {
+                out.writeBoolean(name != null);
+                if (name != null) {
+                    out.writeUTF(name);
+                }
+            }
+            out.writeInt(receivers.size());
+            for (Map.Entry<String, ReceiverEntries> receiver : receivers.entrySet()) {
+                ReceiverEntries entries = receiver.getValue();
+                out.writeUTF(receiver.getKey());
+                out.writeInt(entries.size);
+                for (int i = 0; i < entries.size; i++) {
+                    out.writeInt(entries.clocks[i]);
+                    out.writeLong(entries.positions[i]);
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,296 @@
+package snapshot_algorithms.peterson_kearns;
+
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.VectorClock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Streaming reader over a binary message log (see MessageLog for the record layout). Records are decoded straight
+// out of one reusable buffer into reusable fields, so reading a message allocates nothing; only the first record
+// defining a node name creates its String. Reading stops at the end of the file or at the first torn or corrupt
+// record, validLength() tells how much of the file is intact.
+public class MessageLogReader implements AutoCloseable {
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_VARINT_BYTES = 5;
+    // Far above any record the log writes; a larger length can only come from a corrupt varint
+    static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private final List<String> nodeNames = new ArrayList<>();
+    // NodeIndex index of every segment id, -1 until resolved
+    private int[] nodeIndices = new int[0];
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private long bufferStart;
+    private boolean endOfFile;
+    private long recordPosition;
+    private long validLength;
+    private boolean truncated;
+
+    private int sender;
+    private int receiver;
+    private int value;
+    private int clockSize;
+    private int[] clockNodes = new int[16];
+    private int[] clockValues = new int[16];
+
+    public MessageLogReader(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), 0);
+    }
+
+    // Reads the channel from the given position; node names defined before it are unknown to this reader.
+    public MessageLogReader(FileChannel channel, long position) {
+        this.channel = channel;
+        this.bufferStart = position;
+        this.validLength = position;
+        buffer.limit(0);
+    }
+
+    // Reads the channel from the given position, with the node names the segment defines before it already known.
+    public MessageLogReader(FileChannel channel, long position, List<String> knownNodeNames) {
+        this(channel, position);
+        nodeNames.addAll(knownNodeNames);
+    }
+
+    // Moves to the record starting at the given offset. Data already buffered is reused when the offset lies in it.
+    public void seek(long position) {
+        if (position >= bufferStart && position <= bufferStart + buffer.limit()) {
+            buffer.position((int) (position - bufferStart));
+        } else {
+            bufferStart = position;
+            buffer.clear().limit(0);
+        }
+        endOfFile = false;
+        truncated = false;
+        validLength = position;
+    }
+
+    // Advances to the next message record, consuming node definitions on the way. Returns false at the end of the
+    // intact part of the log.
+    public boolean next() throws IOException {
+        while (true) {
+            recordPosition = bufferStart + buffer.position();
+            if (fill(MAX_VARINT_BYTES) == 0) {
+                return false;
+            }
+            int bodyLength = readVarint();
+            // A corrupt length must neither overflow nor make fill() allocate more than the file still holds
+            if (bodyLength <= 0 || bodyLength > MAX_RECORD_BYTES) {
+                return stopAtTornRecord();
+            }
+            int recordLength = bodyLength + Integer.BYTES;
+            if (buffer.remaining() < recordLength && recordLength > channel.size() - (bufferStart + buffer.position())) {
+                return stopAtTornRecord();
+            }
+            if (fill(recordLength) < recordLength) {
+                return stopAtTornRecord();
+            }
+            int bodyStart = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), buffer.arrayOffset() + bodyStart, bodyLength);
+            if ((int) crc.getValue() != buffer.getInt(bodyStart + bodyLength)) {
+                return stopAtTornRecord();
+            }
+
+            byte type = buffer.get();
+            if (type == MessageLog.NODE_RECORD) {
+                int nodeId = readVarint();
+                int nameLength = readVarint();
+                String name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), nameLength, StandardCharsets.UTF_8);
+                while (nodeNames.size() <= nodeId) {
+                    nodeNames.add(null);
+                }
+                nodeNames.set(nodeId, name);
+                if (nodeId < nodeIndices.length) {
+                    nodeIndices[nodeId] = -1;
+                }
+            } else if (type == MessageLog.MESSAGE_RECORD) {
+                sender = readVarint();
+                receiver = readVarint();
+                value = buffer.getInt();
+                clockSize = readVarint();
+                if (clockNodes.length < clockSize) {
+                    clockNodes = new int[Math.max(clockSize, clockNodes.length * 2)];
+                    clockValues = new int[clockNodes.length];
+                }
+                for (int i = 0; i < clockSize; i++) {
+                    clockNodes[i] = readVarint();
+                    clockValues[i] = readVarint();
+                }
+            }
+            buffer.position(bodyStart + bodyLength + Integer.BYTES);
+            validLength = bufferStart + buffer.position();
+            if (type == MessageLog.MESSAGE_RECORD) {
+                return true;
+            }
+        }
+    }
+
+    // File offset of the record returned by the last call to next().
+    public long recordPosition() {
+        return recordPosition;
+    }
+
+    // Length of the intact prefix of the log read so far.
+    public long validLength() {
+        return validLength;
+    }
+
+    // True if reading stopped at a torn or corrupt record rather than at the end of the file.
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int sender() {
+        return sender;
+    }
+
+    public int receiver() {
+        return receiver;
+    }
+
+    public int value() {
+        return value;
+    }
+
+    public int clockSize() {
+        return clockSize;
+    }
+
+    public int clockNode(int entry) {
+        return clockNodes[entry];
+    }
+
+    public int clockValue(int entry) {
+        return clockValues[entry];
+    }
+
+    // Clock entry of the given node in the current record, zero if the clock has none.
+    public int clockOf(int nodeId) {
+        for (int i = 0; i < clockSize; i++) {
+            if (clockNodes[i] == nodeId) {
+                return clockValues[i];
+            }
+        }
+        return 0;
+    }
+
+    // Name of a node id defined so far, or null.
+    public String nodeName(int nodeId) {
+        return nodeId < nodeNames.size() ? nodeNames.get(nodeId) : null;
+    }
+
+    public int nodeCount() {
+        return nodeNames.size();
+    }
+
+    // True if the current record's clock is ahead of the given clock in any entry.
+    public boolean clockExceeds(VectorClock bound) {
+        for (int i = 0; i < clockSize; i++) {
+            if (clockValues[i] > bound.get(nodeIndexOf(clockNodes[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Raises the bound so that the current record lies below every recovery line dominating it: the record's clock
+    // must be dominated by the line and the receiver's own entry, which is logged before the reception is counted,
+    // must be smaller than the line's. A record whose receiver entry equals the line was received after a snapshot
+    // on the line and may still be replayed.
+    public void mergeRecoveryBoundInto(VectorClock bound) {
+        mergeClockInto(bound);
+        int receiverNode = nodeIndexOf(receiver);
+        int receivedAfter = clockOf(receiver) + 1;
+        if (receivedAfter > bound.get(receiverNode)) {
+            bound.set(receiverNode, receivedAfter);
+        }
+    }
+
+    // Copies the current record's clock into the target, whose other entries are left as they are.
+    public void copyClock(VectorClock target) {
+        for (int i = 0; i < clockSize; i++) {
+            target.set(nodeIndexOf(clockNodes[i]), clockValues[i]);
+        }
+    }
+
+    // Merges the current record's clock into the target (componentwise maximum).
+    public void mergeClockInto(VectorClock target) {
+        for (int i = 0; i < clockSize; i++) {
+            int node = nodeIndexOf(clockNodes[i]);
+            if (clockValues[i] > target.get(node)) {
+                target.set(node, clockValues[i]);
+            }
+        }
+    }
+
+    // NodeIndex index of a segment id, resolved once per id.
+    private int nodeIndexOf(int nodeId) {
+        if (nodeId >= nodeIndices.length) {
+            int oldLength = nodeIndices.length;
+            nodeIndices = Arrays.copyOf(nodeIndices, Math.max(nodeId + 1, Math.max(16, oldLength * 2)));
+            Arrays.fill(nodeIndices, oldLength, nodeIndices.length, -1);
+        }
+        if (nodeIndices[nodeId] < 0) {
+            nodeIndices[nodeId] = NodeIndex.shared().indexOf(nodeName(nodeId));
+        }
+        return nodeIndices[nodeId];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean stopAtTornRecord() {
+        truncated = true;
+        endOfFile = true;
+        buffer.limit(buffer.position());
+        return false;
+    }
+
+    // Makes at least the requested number of bytes available from the current position unless the file ends first.
+    // Returns the number of bytes available.
+    private int fill(int wanted) throws IOException {
+        while (buffer.remaining() < wanted && !endOfFile) {
+            if (buffer.capacity() < wanted) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(wanted, buffer.capacity() * 2));
+                bufferStart += buffer.position();
+                larger.put(buffer);
+                larger.flip();
+                buffer = larger;
+            }
+            bufferStart += buffer.position();
+            buffer.compact();
+            int read = channel.read(buffer, bufferStart + buffer.position());
+            buffer.flip();
+            if (read < 0) {
+                endOfFile = true;
+            }
+        }
+        return buffer.remaining();
+    }
+
+    // Unsigned LEB128. Returns -1 if the buffer ends inside the varint.
+    private int readVarint() {
+        int result = 0;
+        for (int shift = 0; shift < 32 && buffer.hasRemaining(); shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+}
@@ -3,12 +3,13 @@ package snapshot_algorithms.peterson_kearns;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.*;
+import snapshot_algorithms.LocalSnapshot;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.VectorClock;
+import snapshot_algorithms.storage.SnapshotWriter;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -16,24 +17,86 @@ import java.util.stream.Collectors;
 
 public class PetersonKearnsActor extends AbstractBehavior<Message> {
 
-    public static final class InitiateSnapshot implements Message {}
+    public static final class InitiateSnapshot implements Message {
+        // Told the local checkpoint once it is taken; null if nobody collects the checkpoints
+        public final ActorRef<SnapshotCollector.Command> collector;
+
+        public InitiateSnapshot() {
+            this(null);
+        }
+
+        public InitiateSnapshot(ActorRef<SnapshotCollector.Command> collector) {
+            this.collector = collector;
+        }
+    }
 
     public static final class TerminateActor implements Message {}
 
+    // How a node piggybacks its vector clock on the messages it sends. DIFFERENTIAL only sends the entries changed
+    // since the last message on the same channel and relies on channels being FIFO, which Akka guarantees per
+    // sender-receiver pair.
+    public enum ClockEncoding { FULL, DIFFERENTIAL }
+
+    // Sent to the node itself when a group commit containing one of its log entries failed.
+    private static final class MessageLogFailed implements Message {
+        final Throwable cause;
+
+        MessageLogFailed(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
     private final Map<ActorRef<Message>, List<Message>> state;
-    private Map<String, Integer> vectorClock;
+    // Node id of this actor, the same for every incarnation of the node
+    private final String nodeId;
+    private final NodeIndex nodeIndex;
+    private final int selfIndex;
+    private final VectorClock vectorClock;
     private int personalState;
-    private static final String PERSISTENT_MESSAGE_LOG_PATH = "snapshots/message.log";
+    private final ActorRef<SnapshotWriter.Command> snapshotWriter;
+    private final MessageLog messageLog;
+    // Per-channel send state when sending differential clocks, null when sending full clocks
+    private final DifferentialClock clockTracker;
 
     public static final class BasicMessage implements Message {
         public final int value;
         public final ActorRef<Message> from;
-        public final Map<String, Integer> vectorClock;
+        // Exactly one of the two is set
+        public final VectorClock vectorClock;
+        public final ClockDelta clockDelta;
+
+        public BasicMessage(int value, ActorRef<Message> from, VectorClock vectorClock) {
+            this.value = value;
+            this.from = from;
+            this.vectorClock = vectorClock.copy();
+            this.clockDelta = null;
+        }
 
-        public BasicMessage(int value, ActorRef<Message> from, Map<String, Integer> vectorClock) {
+        public BasicMessage(int value, ActorRef<Message> from, ClockDelta clockDelta) {
             this.value = value;
             this.from = from;
-            this.vectorClock = new HashMap<>(vectorClock);
+            this.vectorClock = null;
+            this.clockDelta = clockDelta;
+        }
+    }
+
+    // Makes the node send a BasicMessage to another node, piggybacking its clock in the node's encoding.
+    public static final class SendBasicMessage implements Message {
+        public final int value;
+        public final ActorRef<Message> to;
+
+        public SendBasicMessage(int value, ActorRef<Message> to) {
+            this.value = value;
+            this.to = to;
+        }
+    }
+
+    // Tells a node that the receiver's clock was restored, so the next message to it must carry the full clock.
+    public static final class ResetChannelClock implements Message {
+        public final ActorRef<Message> receiver;
+
+        public ResetChannelClock(ActorRef<Message> receiver) {
+            this.receiver = receiver;
         }
     }
 
@@ -47,9 +110,9 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
 
     public static final class SetState implements Message {
         public final int newState;
-        public final Map<String, Integer> newVectorClock;
+        public final VectorClock newVectorClock;
 
-        public SetState(int newState, Map<String, Integer> newVectorClock) {
+        public SetState(int newState, VectorClock newVectorClock) {
             this.newState = newState;
             this.newVectorClock = newVectorClock;
         }
@@ -57,11 +120,11 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
 
     public static class SentMessageInfo {
         final BasicMessage message;
-        final Map<String, Integer> vectorClockAtSend;
+        final VectorClock vectorClockAtSend;
 
-        public SentMessageInfo(BasicMessage message, Map<String, Integer> vectorClockAtSend) {
+        public SentMessageInfo(BasicMessage message, VectorClock vectorClockAtSend) {
             this.message = message;
-            this.vectorClockAtSend = new HashMap<>(vectorClockAtSend);
+            this.vectorClockAtSend = vectorClockAtSend.copy();
         }
     }
 
@@ -70,31 +133,53 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
         return newReceiveBuilder()
                 .onMessage(InitiateSnapshot.class, this::onInitiateSnapshot)
                 .onMessage(BasicMessage.class, this::onBasicMessage)
+                .onMessage(SendBasicMessage.class, this::onSendBasicMessage)
+                .onMessage(ResetChannelClock.class, this::onResetChannelClock)
                 .onMessage(AddNeighbor.class, this::onAddNeighbor)
                 .onMessage(TerminateActor.class, this::onTerminateActor)
                 .onMessage(SetState.class, this::onSetState)
+                .onMessage(MessageLogFailed.class, this::onMessageLogFailed)
                 .build();
     }
 
-    public PetersonKearnsActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, int initialState) {
+    public PetersonKearnsActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, int initialState, ActorRef<SnapshotWriter.Command> snapshotWriter) {
+        this(context, neighbors, initialState, snapshotWriter, ClockEncoding.FULL);
+    }
+
+    public PetersonKearnsActor(ActorContext<Message> context, Set<ActorRef<Message>> neighbors, int initialState, ActorRef<SnapshotWriter.Command> snapshotWriter, ClockEncoding clockEncoding) {
         super(context);
+        this.clockTracker = clockEncoding == ClockEncoding.DIFFERENTIAL ? new DifferentialClock() : null;
         this.personalState = initialState;
+        this.snapshotWriter = snapshotWriter;
+        this.nodeId = nodeIdOf(context.getSelf().path().name());
+        this.messageLog = MessageLog.open();
         this.state = new HashMap<>();
-        this.vectorClock = new HashMap<>();
-        // Initialize the vector clock with zero for each neighbor and the actor itself
-        this.vectorClock.put(context.getSelf().path().name(), 0);
+        // Every entry of a new clock is zero; registering the neighbors only gives them an index
+        this.nodeIndex = NodeIndex.shared();
+        this.selfIndex = nodeIndex.indexOf(nodeId);
         neighbors.forEach(neighbor -> {
             state.put(neighbor, new ArrayList<>());
-            vectorClock.put(neighbor.path().name(), 0); // Initialize vector clock for each neighbor
+            nodeIndex.indexOf(nodeIdOf(neighbor));
         });
+        this.vectorClock = new VectorClock(nodeIndex.size());
     }
-    public static Behavior<Message> create(Set<ActorRef<Message>> initialNeighbors, int initialState) {
-        return Behaviors.setup(context -> new PetersonKearnsActor(context, initialNeighbors, initialState));
+    public static Behavior<Message> create(Set<ActorRef<Message>> initialNeighbors, int initialState, ActorRef<SnapshotWriter.Command> snapshotWriter) {
+        return Behaviors.setup(context -> new PetersonKearnsActor(context, initialNeighbors, initialState, snapshotWriter));
+    }
+
+    public static Behavior<Message> create(Set<ActorRef<Message>> initialNeighbors, int initialState, ActorRef<SnapshotWriter.Command> snapshotWriter, ClockEncoding clockEncoding) {
+        return Behaviors.setup(context -> new PetersonKearnsActor(context, initialNeighbors, initialState, snapshotWriter, clockEncoding));
     }
 
     private Behavior<Message> onInitiateSnapshot(InitiateSnapshot message) {
             getContext().getLog().info("Initiating snapshot process.");
-            takeSnapshot();
+            takeSnapshot(message.collector);
+            if (message.collector != null) {
+                // A checkpoint records no channels; its vector clock, which orders it against the others, is in the store
+                Map<String, List<Integer>> channels = new HashMap<>();
+                state.keySet().forEach(neighbor -> channels.put(nodeIdOf(neighbor), new ArrayList<>()));
+                message.collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot(nodeId, personalState, channels)));
+            }
             return this;
     }
 
@@ -103,40 +188,75 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
         getContext().getLog().info("{} received BasicMessage with value: {} from {}", getContext().getSelf().path().name(), message.value, message.from.path().name());
 
         logMessage(message);
-        // Ensure that the sender is known in the vector clock
-        this.vectorClock.putIfAbsent(message.from.path().name(), 0);
+        if (clockTracker != null) {
+            clockTracker.beginEvent();
+        }
 
         // Increment the vector clock for the sender to reflect the reception of their message
-        this.vectorClock.compute(message.from.path().name(), (key, val) -> val == null ? 1 : val + 1);
+        int senderIndex = nodeIndex.indexOf(nodeIdOf(message.from));
+        this.vectorClock.increment(senderIndex);
+        if (clockTracker != null) {
+            clockTracker.updated(senderIndex);
+        }
 
 //        getContext().getLog().info("Old Personal {} , new personal: {}", personalState, personalState + message.value);
 
-        mergeVectorClocks(message.vectorClock);
+        if (message.clockDelta != null) {
+            mergeVectorClocks(message.clockDelta);
+        } else {
+            mergeVectorClocks(message.vectorClock);
+        }
         this.personalState += message.value;
 
         // Increment local vector clock to reflect local change
-        incrementVectorClock(getContext().getSelf().path().name());
+        incrementOwnClock();
         return this;
     }
 
-    private void logMessage(BasicMessage message) {
-        // Convert vector clock to a string representation
-        String vectorClockStr = this.vectorClock.entrySet().stream()
-                .map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue())
-                .collect(Collectors.joining(", ", "{", "}"));
+    private Behavior<Message> onSendBasicMessage(SendBasicMessage message) {
+        // Sending is an event of its own
+        if (clockTracker != null) {
+            clockTracker.beginEvent();
+        }
+        incrementOwnClock();
+        if (clockTracker != null) {
+            ClockDelta delta = clockTracker.deltaFor(nodeIndex.indexOf(nodeIdOf(message.to)), vectorClock);
+            message.to.tell(new BasicMessage(message.value, getContext().getSelf(), delta));
+        } else {
+            message.to.tell(new BasicMessage(message.value, getContext().getSelf(), vectorClock));
+        }
+        return this;
+    }
 
-        // Format log entry
-        String logEntry = String.format("From: %s, To: %s, Value: %d, VectorClock: %s\n",
-                getContext().getSelf().path().name(), message.from.path().name(), message.value, vectorClockStr);
+    private Behavior<Message> onResetChannelClock(ResetChannelClock message) {
+        if (clockTracker != null) {
+            clockTracker.resetChannel(nodeIndex.indexOf(nodeIdOf(message.receiver)));
+        }
+        return this;
+    }
 
-        // Write to log file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(PERSISTENT_MESSAGE_LOG_PATH, true))) {
-            writer.write(logEntry);
-        } catch (IOException e) {
-            getContext().getLog().error("Failed to write to log file", e);
+    private void incrementOwnClock() {
+        this.vectorClock.increment(selfIndex);
+        if (clockTracker != null) {
+            clockTracker.updated(selfIndex);
         }
     }
 
+    private void logMessage(BasicMessage message) {
+        // Queue the record for the next group commit of the shared write-ahead log
+        ActorRef<Message> self = getContext().getSelf();
+        // Logged under node ids, so replay and truncation see the messages of every incarnation of a node
+        messageLog.append(nodeIdOf(message.from), nodeId, message.value, this.vectorClock).exceptionally(e -> {
+            self.tell(new MessageLogFailed(e));
+            return null;
+        });
+    }
+
+    private Behavior<Message> onMessageLogFailed(MessageLogFailed message) {
+        getContext().getLog().error("Failed to write to log file", message.cause);
+        return this;
+    }
+
     private Behavior<Message> onTerminateActor(TerminateActor message) {
         getContext().getLog().info("Terminating {} actor.", getContext().getSelf().path().name());
         return Behaviors.stopped(() -> getContext().getLog().info("Actor has been stopped."));
@@ -145,24 +265,42 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
     private Behavior<Message> onSetState(SetState message) {
         getContext().getLog().info("State and vector clock updated at {} by checkpoint manager. New State: {} New VectorClock: {} - Old State {}, Old VectorClock: {}", getContext().getSelf().path().name(), message.newState, message.newVectorClock, this.personalState, this.vectorClock );
         this.personalState = message.newState;
-        this.vectorClock = new HashMap<>(message.newVectorClock);
+        this.vectorClock.copyFrom(message.newVectorClock);
+        if (clockTracker != null) {
+            // Every entry may have changed, and the neighbors' deltas assume the clock that was replaced
+            clockTracker.beginEvent();
+            for (int node = 0; node < vectorClock.capacity(); node++) {
+                clockTracker.updated(node);
+            }
+            ActorRef<Message> self = getContext().getSelf();
+            state.keySet().forEach(neighbor -> neighbor.tell(new ResetChannelClock(self)));
+        }
         return this;
     }
 
-    private void incrementVectorClock(String actorId) {
-        this.vectorClock.put(actorId, vectorClock.getOrDefault(actorId, 0) + 1);  // Increment by 1
+    private void mergeVectorClocks(VectorClock receivedClock) {
+        if (clockTracker != null) {
+            clockTracker.merge(this.vectorClock, receivedClock);
+        } else {
+            this.vectorClock.merge(receivedClock);  // Merge received clock with local clock
+        }
     }
 
-    private void mergeVectorClocks(Map<String, Integer> receivedClock) {
-        receivedClock.forEach((key, value) ->
-                this.vectorClock.merge(key, value, Math::max));  // Merge received clock with local clock
+    private void mergeVectorClocks(ClockDelta receivedDelta) {
+        // The entries left out have not changed since the sender's previous message on this FIFO channel, which was
+        // already merged, so this gives the same clock as merging the sender's full clock
+        if (clockTracker != null) {
+            clockTracker.merge(this.vectorClock, receivedDelta);
+        } else {
+            receivedDelta.mergeInto(this.vectorClock);
+        }
     }
 
 
     private Behavior<Message> onAddNeighbor(AddNeighbor message) {
         if (!state.containsKey(message.neighbor)) {
             state.put(message.neighbor, new LinkedList<>());  // Initialize message queue for the new neighbor
-            vectorClock.putIfAbsent(message.neighbor.path().name(), 0);  // Initialize vector clock entry if not present
+            nodeIndex.indexOf(nodeIdOf(message.neighbor));  // Give the neighbor a vector clock entry
             getContext().getLog().info("{} added as neighbor added to {}", message.neighbor.path().name(), getContext().getSelf().path().name());
         }
         return this;
@@ -175,18 +313,28 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
         return Behaviors.stopped();
     }
 
-    private void takeSnapshot() {
+    private void takeSnapshot(ActorRef<SnapshotCollector.Command> collector) {
         getContext().getLog().info("Compiling snapshot data. Personal state: {}", this.personalState);
 
+        String formattedTimestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        String snapshotContent = formatSnapshot(formattedTimestamp, this.personalState, this.vectorClock, nodeIndex, this.state);
+
+        // Log the final snapshot content
+        getContext().getLog().info("Snapshot Content: {}", snapshotContent);
+
+        // Write the snapshot to a file
+        writeSnapshotToFile(formattedTimestamp, snapshotContent, collector);
+    }
+
+    // Serializes the state, clock and channel states of a snapshot; kept apart from the actor for benchmarking.
+    static String formatSnapshot(String formattedTimestamp, int personalState, VectorClock vectorClock, NodeIndex nodeIndex, Map<ActorRef<Message>, List<Message>> state) {
         // Serialize the vector clock
-        String vectorClockJson = this.vectorClock.entrySet().stream()
-                .map(entry -> "\"" + entry.getKey() + "\": " + entry.getValue())
-                .collect(Collectors.joining(", ", "{", "}"));
+        String vectorClockJson = vectorClock.appendJson(new StringBuilder(), nodeIndex).toString();
 
         // Serialize the channel states with messages
-        String channelStatesJson = this.state.entrySet().stream()
+        String channelStatesJson = state.entrySet().stream()
                 .map(entry -> {
-                    String neighborName = entry.getKey().path().name();
+                    String neighborName = nodeIdOf(entry.getKey());
                     List<Integer> messages = entry.getValue().stream()
                             .filter(message -> message instanceof BasicMessage)
                             .map(message -> ((BasicMessage) message).value)
@@ -197,41 +345,31 @@ public class PetersonKearnsActor extends AbstractBehavior<Message> {
                 .collect(Collectors.joining(", ", "{", "}"));// Log the complete channel states JSON
 
         // Combine all serialized data into one snapshot string
-        String formattedTimestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-        String snapshotContent = String.format(
+        return String.format(
                 "{\"Timestamp\": \"%s\", \"PersonalState\": %d, \"VectorClock\": %s, \"ChannelStates\": %s}",
                 formattedTimestamp,
-                this.personalState,
+                personalState,
                 vectorClockJson,
                 channelStatesJson
         );
-
-        // Log the final snapshot content
-        getContext().getLog().info("Snapshot Content: {}", snapshotContent);
-
-        // Write the snapshot to a file
-        writeSnapshotToFile(formattedTimestamp, snapshotContent);
     }
 
-    private void writeSnapshotToFile(String formattedTimestamp, String snapshotContent) {
-        getContext().getLog().info("Writing snapshot to file. Timestamp: {}", formattedTimestamp);
-        String directoryPath = "snapshots";
-        File directory = new File(directoryPath);
-        if (!directory.exists() && !directory.mkdir()) {
-            getContext().getLog().error("Failed to create snapshot directory");
-            return;
-        }
+    // The collector, if any, also hears from the writer once the checkpoint is durable
+    private void writeSnapshotToFile(String formattedTimestamp, String snapshotContent, ActorRef<SnapshotCollector.Command> collector) {
+        getContext().getLog().info("Handing snapshot to writer. Timestamp: {}", formattedTimestamp);
+        // Stored under the node id, so the recovery of a recovered node finds its latest snapshot
+        snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(nodeId, formattedTimestamp, snapshotContent, null, collector, SnapshotCollector.SINGLE_SNAPSHOT));
+    }
 
-        String nodeName = getContext().getSelf().path().name();
-        String safeTimestamp = formattedTimestamp.replace(":", "-").replace("T", "_");
-        String filePath = directoryPath + "/snapshot_" + nodeName + "_" + safeTimestamp + ".json";
+    // Recovered nodes are spawned as "<id>_recovered" but keep their node id, and with it their vector clock entry.
+    static String nodeIdOf(ActorRef<?> actor) {
+        return nodeIdOf(actor.path().name());
+    }
 
-        try (FileWriter writer = new FileWriter(filePath)) {
-            writer.write(snapshotContent);
-            getContext().getLog().info("Snapshot saved to " + filePath);
-        } catch (IOException e) {
-            getContext().getLog().error("Failed to save snapshot", e);
+    static String nodeIdOf(String actorName) {
+        while (actorName != null && actorName.endsWith("_recovered")) {
+            actorName = actorName.substring(0, actorName.length() - "_recovered".length());
         }
+        return actorName;
     }
-
 }
@@ -0,0 +1,399 @@
+package snapshot_algorithms.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only snapshot store. Snapshots of all nodes go into a sequence of segment files as length-prefixed,
+// CRC-checked records:
+//
+//   int bodyLength | int crc32(body) | body = UTF nodeId, UTF snapshotId, UTF-8 content bytes
+//
+// A segment is rolled once it would grow past maxSegmentBytes. The in-memory index maps every (nodeId, snapshotId)
+// to the segment and offset of its record, and keeps the location of each node's latest snapshot, so lookups never
+// touch more than the one record they return.
+//
+// The index is persisted incrementally in an append-only manifest next to the segments, one small entry per record.
+// Opening the store replays the manifest and only scans segment data written after its last entry, so startup does
+// not read snapshot contents; a torn record at the end of the last segment is truncated away.
+//
+// Appends and index lookups hold the store's lock, reads and syncs do not: a record is read with a positional read
+// on its segment channel once its location is known, so snapshots of several nodes load in parallel and readers do
+// not wait for the writer's sync.
+public class SegmentedSnapshotStore implements SnapshotStore {
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get("snapshots", "store");
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String MANIFEST_FILE = "manifest.idx";
+    private static final int HEADER_BYTES = 8;
+    // A location packs the segment number into the high bits and the byte offset into the low 40 bits
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private static final Map<Path, SegmentedSnapshotStore> OPEN_STORES = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(SegmentedSnapshotStore.class);
+
+    private static class NodeSnapshots {
+        long latest;
+        String latestId;
+        final Map<String, Long> locations = new HashMap<>();
+    }
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final Map<String, NodeSnapshots> index = new HashMap<>();
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private final ByteArrayOutputStream bodyBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream manifestBuffer = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private FileChannel manifest;
+    private long manifestSize;
+    private int activeSegment;
+    private long activeSize;
+
+    // Returns the store shared by every caller in this JVM for the default directory.
+    public static SegmentedSnapshotStore open() {
+        return open(DEFAULT_DIRECTORY);
+    }
+
+    // Returns the store shared by every caller in this JVM for the given directory.
+    public static SegmentedSnapshotStore open(Path directory) {
+        return OPEN_STORES.computeIfAbsent(directory.toAbsolutePath().normalize(), dir -> {
+            try {
+                return new SegmentedSnapshotStore(dir, DEFAULT_MAX_SEGMENT_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open snapshot store in " + dir, e);
+            }
+        });
+    }
+
+    // Closes the store shared for the directory if one is open, e.g. before the directory is deleted; the next open()
+    // starts from whatever is on disk then.
+    public static void closeIfOpen(Path directory) throws IOException {
+        SegmentedSnapshotStore store = OPEN_STORES.get(directory.toAbsolutePath().normalize());
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    public SegmentedSnapshotStore(Path directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        load();
+    }
+
+    @Override
+    public synchronized void append(String nodeId, String snapshotId, String content) throws IOException {
+        bodyBuffer.reset();
+        DataOutputStream body = new DataOutputStream(bodyBuffer);
+        body.writeUTF(nodeId);
+        body.writeUTF(snapshotId);
+        body.write(content.getBytes(StandardCharsets.UTF_8));
+        byte[] bodyBytes = bodyBuffer.toByteArray();
+
+        crc.reset();
+        crc.update(bodyBytes);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bodyBytes.length);
+        record.putInt(bodyBytes.length).putInt((int) crc.getValue()).put(bodyBytes).flip();
+
+        if (activeSize > 0 && activeSize + record.remaining() > maxSegmentBytes) {
+            rollSegment();
+        }
+        FileChannel channel = segments.get(activeSegment);
+        long offset = activeSize;
+        int recordLength = record.remaining();
+        while (record.hasRemaining()) {
+            activeSize += channel.write(record, activeSize);
+        }
+        long location = location(activeSegment, offset);
+        indexRecord(nodeId, snapshotId, location);
+        appendManifestEntry(nodeId, snapshotId, location, recordLength);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        FileChannel channel;
+        FileChannel manifestChannel;
+        synchronized (this) {
+            channel = segments.get(activeSegment);
+            manifestChannel = manifest;
+        }
+        // A segment rolled meanwhile was forced when it was rolled
+        if (channel != null) {
+            channel.force(false);
+        }
+        // Data first, so a durable manifest entry never points at a record that is not durable itself
+        manifestChannel.force(false);
+    }
+
+    @Override
+    public SnapshotRecord latest(String nodeId) throws IOException {
+        long location = locate(nodeId, null);
+        return location < 0 ? null : readAt(location);
+    }
+
+    @Override
+    public synchronized String latestSnapshotId(String nodeId) throws IOException {
+        NodeSnapshots snapshots = index.get(nodeId);
+        return snapshots == null ? null : snapshots.latestId;
+    }
+
+    @Override
+    public SnapshotRecord read(String nodeId, String snapshotId) throws IOException {
+        long location = locate(nodeId, snapshotId);
+        return location < 0 ? null : readAt(location);
+    }
+
+    @Override
+    public synchronized Set<String> nodeIds() {
+        return new HashSet<>(index.keySet());
+    }
+
+    // Number of segment files currently making up the store.
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        OPEN_STORES.remove(directory.toAbsolutePath().normalize(), this);
+        closeSegments();
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        for (int segment : listSegments()) {
+            segments.put(segment, FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        manifest = FileChannel.open(directory.resolve(MANIFEST_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Everything up to the end of the last manifest entry is already indexed, only data after it is scanned
+        long indexedUpTo = loadManifest();
+        int resumeSegment = (int) (indexedUpTo >>> OFFSET_BITS);
+        for (Map.Entry<Integer, FileChannel> entry : segments.tailMap(resumeSegment, true).entrySet()) {
+            long startOffset = entry.getKey() == resumeSegment ? indexedUpTo & OFFSET_MASK : 0;
+            scanSegment(entry.getKey(), entry.getValue(), startOffset, entry.getKey().equals(segments.lastKey()));
+        }
+        if (segments.isEmpty()) {
+            activeSegment = 1;
+            segments.put(activeSegment, openNewSegment(activeSegment));
+        } else {
+            activeSegment = segments.lastKey();
+        }
+        activeSize = segments.get(activeSegment).size();
+    }
+
+    // Replays the manifest into the index and returns the location just past the last record it covers.
+    private long loadManifest() throws IOException {
+        long size = manifest.size();
+        long offset = 0;
+        long indexedUpTo = 0;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        while (offset + Integer.BYTES <= size) {
+            lengthBuffer.clear();
+            readFully(manifest, lengthBuffer, offset);
+            int entryLength = lengthBuffer.getInt(0);
+            if (entryLength <= 0 || offset + Integer.BYTES + entryLength > size) {
+                break;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(entryLength);
+            readFully(manifest, entry, offset + Integer.BYTES);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.array()));
+            String nodeId = in.readUTF();
+            String snapshotId = in.readUTF();
+            long location = in.readLong();
+            int recordLength = in.readInt();
+
+            // An entry is only trusted if its record is still fully present in the segment
+            FileChannel channel = segments.get((int) (location >>> OFFSET_BITS));
+            long recordEnd = (location & OFFSET_MASK) + recordLength;
+            if (channel == null || recordEnd > channel.size()) {
+                break;
+            }
+            indexRecord(nodeId, snapshotId, location);
+            indexedUpTo = location + recordLength;
+            offset += Integer.BYTES + entryLength;
+        }
+        if (offset < size) {
+            log.warn("Truncating snapshot manifest at offset {}", offset);
+            manifest.truncate(offset);
+        }
+        manifestSize = offset;
+        return indexedUpTo;
+    }
+
+    private void appendManifestEntry(String nodeId, String snapshotId, long location, int recordLength) throws IOException {
+        manifestBuffer.reset();
+        DataOutputStream entry = new DataOutputStream(manifestBuffer);
+        entry.writeInt(0);
+        entry.writeUTF(nodeId);
+        entry.writeUTF(snapshotId);
+        entry.writeLong(location);
+        entry.writeInt(recordLength);
+        ByteBuffer buffer = ByteBuffer.wrap(manifestBuffer.toByteArray());
+        buffer.putInt(0, buffer.capacity() - Integer.BYTES);
+        while (buffer.hasRemaining()) {
+            manifestSize += manifest.write(buffer, manifestSize);
+        }
+    }
+
+    private void scanSegment(int segment, FileChannel channel, long startOffset, boolean lastSegment) throws IOException {
+        long size = channel.size();
+        long offset = startOffset;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (offset + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, offset);
+            header.flip();
+            int bodyLength = header.getInt();
+            int checksum = header.getInt();
+            if (bodyLength < 0 || offset + HEADER_BYTES + bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(channel, body, offset + HEADER_BYTES);
+            byte[] bodyBytes = body.array();
+            if (!checksumMatches(bodyBytes, checksum)) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bodyBytes));
+            String nodeId = in.readUTF();
+            String snapshotId = in.readUTF();
+            indexRecord(nodeId, snapshotId, location(segment, offset));
+            // Records written after the last manifest entry are added to it, so the next open does not scan them again
+            appendManifestEntry(nodeId, snapshotId, location(segment, offset), HEADER_BYTES + bodyLength);
+            offset += HEADER_BYTES + bodyLength;
+        }
+        if (offset < size) {
+            if (lastSegment) {
+                log.warn("Truncating torn snapshot record at offset {} of {}", offset, segmentPath(segment));
+                channel.truncate(offset);
+            } else {
+                log.warn("Ignoring corrupt snapshot records after offset {} of {}", offset, segmentPath(segment));
+            }
+        }
+    }
+
+    // Location of the given snapshot of the node, or of its latest one for a null id; -1 if there is none.
+    private synchronized long locate(String nodeId, String snapshotId) {
+        NodeSnapshots snapshots = index.get(nodeId);
+        if (snapshots == null) {
+            return -1;
+        }
+        if (snapshotId == null) {
+            return snapshots.latest;
+        }
+        Long location = snapshots.locations.get(snapshotId);
+        return location == null ? -1 : location;
+    }
+
+    private synchronized FileChannel segmentChannel(int segment) {
+        return segments.get(segment);
+    }
+
+    // Runs outside the lock; positional reads leave the channel position alone and may run concurrently.
+    private SnapshotRecord readAt(long location) throws IOException {
+        int segment = (int) (location >>> OFFSET_BITS);
+        long offset = location & OFFSET_MASK;
+        FileChannel channel = segmentChannel(segment);
+        if (channel == null) {
+            throw new IOException("Snapshot segment " + segment + " is no longer available");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, offset);
+        header.flip();
+        int bodyLength = header.getInt();
+        int checksum = header.getInt();
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        readFully(channel, body, offset + HEADER_BYTES);
+        byte[] bodyBytes = body.array();
+        if (!checksumMatches(bodyBytes, checksum)) {
+            throw new IOException("Checksum mismatch for snapshot record at offset " + offset + " of " + segmentPath(segment));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bodyBytes));
+        String nodeId = in.readUTF();
+        String snapshotId = in.readUTF();
+        String content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        return new SnapshotRecord(nodeId, snapshotId, content);
+    }
+
+    private void indexRecord(String nodeId, String snapshotId, long location) {
+        NodeSnapshots snapshots = index.computeIfAbsent(nodeId, id -> new NodeSnapshots());
+        snapshots.latest = location;
+        snapshots.latestId = snapshotId;
+        snapshots.locations.put(snapshotId, location);
+    }
+
+    private void rollSegment() throws IOException {
+        segments.get(activeSegment).force(false);
+        activeSegment++;
+        segments.put(activeSegment, openNewSegment(activeSegment));
+        activeSize = 0;
+    }
+
+    private FileChannel openNewSegment(int segment) throws IOException {
+        return FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void closeSegments() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+        if (manifest != null) {
+            manifest.close();
+        }
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    // Uses its own CRC32, since readers check records concurrently with each other and with appends.
+    private static boolean checksumMatches(byte[] bodyBytes, int checksum) {
+        CRC32 bodyCrc = new CRC32();
+        bodyCrc.update(bodyBytes);
+        return (int) bodyCrc.getValue() == checksum;
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << OFFSET_BITS) | offset;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of snapshot segment");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package snapshot_algorithms.storage;
+
+// One recorded local state of a node as kept by a SnapshotStore.
+public class SnapshotRecord {
+    private final String nodeId;
+    private final String snapshotId;
+    private final String content;
+
+    public SnapshotRecord(String nodeId, String snapshotId, String content) {
+        this.nodeId = nodeId;
+        this.snapshotId = snapshotId;
+        this.content = content;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotRecord{" +
+                "nodeId='" + nodeId + '\'' +
+                ", snapshotId='" + snapshotId + '\'' +
+                ", content=" + content +
+                '}';
+    }
+}
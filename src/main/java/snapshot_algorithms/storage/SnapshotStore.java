@@ -0,0 +1,28 @@
+package snapshot_algorithms.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+// Storage for the local states recorded by the snapshot algorithms. Implementations must be safe to share
+// between the snapshot writer and the recovery manager.
+public interface SnapshotStore extends Closeable {
+
+    // Appends a snapshot, it becomes the latest snapshot of its node.
+    void append(String nodeId, String snapshotId, String content) throws IOException;
+
+    // Forces everything appended so far to stable storage.
+    void sync() throws IOException;
+
+    // Returns the most recently appended snapshot of the node, or null if the node has none.
+    SnapshotRecord latest(String nodeId) throws IOException;
+
+    // Returns the id of the node's latest snapshot without reading it, or null if the node has none.
+    String latestSnapshotId(String nodeId) throws IOException;
+
+    // Returns a specific snapshot of the node, or null if it is unknown.
+    SnapshotRecord read(String nodeId, String snapshotId) throws IOException;
+
+    // Ids of all nodes that have at least one snapshot.
+    Set<String> nodeIds();
+}
@@ -0,0 +1,180 @@
+package snapshot_algorithms.storage;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.*;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Persists recorded node states off the algorithm actors. Snapshot nodes hand their serialized state to this actor
+// and keep processing markers; writes are batched into the SnapshotStore with a single sync per batch and every
+// request is acknowledged once it is on disk. Writes that name a collector are also reported to it, batched per
+// flush and snapshot id, so the initiator learns whether the whole global snapshot is durable.
+public class SnapshotWriter extends AbstractBehavior<SnapshotWriter.Command> {
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(5);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    public interface Command {}
+
+    public static final class WriteSnapshot implements Command {
+        public final String nodeId;
+        public final String snapshotId;
+        public final String content;
+        public final ActorRef<Message> replyTo;
+        // Optional: the collector of the global snapshot and the id it collects the local snapshot under
+        public final ActorRef<SnapshotCollector.Command> collector;
+        public final long collectedSnapshotId;
+
+        public WriteSnapshot(String nodeId, String snapshotId, String content, ActorRef<Message> replyTo) {
+            this(nodeId, snapshotId, content, replyTo, null, SnapshotCollector.SINGLE_SNAPSHOT);
+        }
+
+        public WriteSnapshot(String nodeId, String snapshotId, String content, ActorRef<Message> replyTo, ActorRef<SnapshotCollector.Command> collector, long collectedSnapshotId) {
+            this.nodeId = nodeId;
+            this.snapshotId = snapshotId;
+            this.content = content;
+            this.replyTo = replyTo;
+            this.collector = collector;
+            this.collectedSnapshotId = collectedSnapshotId;
+        }
+    }
+
+    // Durability acknowledgement sent back to the node that requested the write.
+    public static final class SnapshotPersisted implements Message {
+        public final String nodeId;
+        public final String snapshotId;
+        public final boolean success;
+
+        public SnapshotPersisted(String nodeId, String snapshotId, boolean success) {
+            this.nodeId = nodeId;
+            this.snapshotId = snapshotId;
+            this.success = success;
+        }
+    }
+
+    private static final class Flush implements Command {}
+
+    // The nodes of one snapshot a flush reports to its collector
+    private static final class Acknowledgements {
+        final List<String> persisted = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+    }
+
+    private static final Object FLUSH_TIMER_KEY = new Object();
+
+    private final TimerScheduler<Command> timers;
+    private final SnapshotStore store;
+    private final Duration flushInterval;
+    private final int maxBatchSize;
+    private final List<WriteSnapshot> pending = new ArrayList<>();
+
+    private SnapshotWriter(ActorContext<Command> context, TimerScheduler<Command> timers, SnapshotStore store, Duration flushInterval, int maxBatchSize) {
+        super(context);
+        this.timers = timers;
+        this.store = store;
+        this.flushInterval = flushInterval;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public static Behavior<Command> create() {
+        return create(SegmentedSnapshotStore.open(), DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public static Behavior<Command> create(SnapshotStore store, Duration flushInterval, int maxBatchSize) {
+        return Behaviors.setup(context -> Behaviors.withTimers(timers -> new SnapshotWriter(context, timers, store, flushInterval, maxBatchSize)));
+    }
+
+    // Spawns a writer on the blocking-IO dispatcher so file system calls never run on the algorithm actors' threads.
+    public static ActorRef<Command> spawn(ActorContext<?> context, String name) {
+        return context.spawn(create(), name, DispatcherSelector.blocking());
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(WriteSnapshot.class, this::onWriteSnapshot)
+                .onMessage(Flush.class, this::onFlush)
+                .onSignal(PostStop.class, signal -> onPostStop())
+                .build();
+    }
+
+    private Behavior<Command> onWriteSnapshot(WriteSnapshot command) {
+        pending.add(command);
+        if (pending.size() >= maxBatchSize) {
+            timers.cancel(FLUSH_TIMER_KEY);
+            flushPending();
+        } else if (!timers.isTimerActive(FLUSH_TIMER_KEY)) {
+            timers.startSingleTimer(FLUSH_TIMER_KEY, new Flush(), flushInterval);
+        }
+        return this;
+    }
+
+    private Behavior<Command> onFlush(Flush command) {
+        flushPending();
+        return this;
+    }
+
+    private Behavior<Command> onPostStop() {
+        // Nodes stop as soon as their snapshot completes, so anything still queued must reach the disk here.
+        flushPending();
+        return this;
+    }
+
+    private void flushPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        getContext().getLog().debug("Flushing {} snapshot(s) to the snapshot store.", pending.size());
+        boolean[] appended = new boolean[pending.size()];
+        for (int i = 0; i < pending.size(); i++) {
+            WriteSnapshot command = pending.get(i);
+            try {
+                store.append(command.nodeId, command.snapshotId, command.content);
+                appended[i] = true;
+            } catch (IOException e) {
+                getContext().getLog().error("Failed to append snapshot {} of {}", command.snapshotId, command.nodeId, e);
+            }
+        }
+        boolean synced;
+        try {
+            store.sync();
+            synced = true;
+        } catch (IOException e) {
+            getContext().getLog().error("Failed to sync snapshot store", e);
+            synced = false;
+        }
+        Map<ActorRef<SnapshotCollector.Command>, Map<Long, Acknowledgements>> reports = new HashMap<>();
+        for (int i = 0; i < pending.size(); i++) {
+            WriteSnapshot command = pending.get(i);
+            boolean durable = appended[i] && synced;
+            // Logged here so the nodes need not handle the outcome of every write
+            if (durable) {
+                getContext().getLog().info("Snapshot {} of {} saved to the snapshot store", command.snapshotId, command.nodeId);
+            } else {
+                getContext().getLog().error("Snapshot {} of {} could not be persisted.", command.snapshotId, command.nodeId);
+            }
+            if (command.replyTo != null) {
+                command.replyTo.tell(new SnapshotPersisted(command.nodeId, command.snapshotId, durable));
+            }
+            if (command.collector != null) {
+                Acknowledgements acknowledgements = reports.computeIfAbsent(command.collector, collector -> new HashMap<>())
+                        .computeIfAbsent(command.collectedSnapshotId, id -> new Acknowledgements());
+                (durable ? acknowledgements.persisted : acknowledgements.failed).add(command.nodeId);
+            }
+        }
+        // One report per collector and snapshot, however many of its nodes this flush carried
+        reports.forEach((collector, bySnapshot) -> bySnapshot.forEach((id, acknowledgements) ->
+                collector.tell(new SnapshotCollector.LocalSnapshotsPersisted(id, acknowledgements.persisted, acknowledgements.failed))));
+        pending.clear();
+    }
+}
@@ -0,0 +1,193 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Versioned binary form of a Graph, used to skip DOT parsing when the same topology is loaded again. The file is
+// little endian:
+//
+//   header   magic, version, source size, source modification time, source CRC32C, node count, edge count, name bytes
+//   offsets  int[nodeCount + 1], the CSR row offsets
+//   targets  int[edgeCount]
+//   (padding to 8 bytes)
+//   weights  double[edgeCount]
+//   names    int[nodeCount + 1] offsets into the UTF-8 name bytes, followed by the bytes
+//
+// The source fields key the file to the DOT file it was built from. Size and modification time are checked first;
+// only if they differ is the source hashed, so a touched but unchanged file still hits the cache.
+final class BinaryGraphFile {
+
+    private static final int MAGIC = 0x48505247; // "GRPH"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 48;
+    // Large arrays are written through a buffer of this size
+    private static final int WRITE_CHUNK_BYTES = 1 << 20;
+    private static final int HASH_WINDOW_BYTES = 1 << 28;
+
+    private BinaryGraphFile() {
+    }
+
+    // Writes the graph built from source to target, replacing it atomically.
+    static void write(Graph graph, Path source, Path target) throws IOException {
+        List<String> names = graph.names();
+        int nodeCount = names.size();
+        int edgeCount = graph.edgeCount();
+        byte[][] encodedNames = new byte[nodeCount][];
+        long nameBytes = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            encodedNames[node] = names.get(node).getBytes(StandardCharsets.UTF_8);
+            nameBytes += encodedNames[node].length;
+        }
+        if (nameBytes > Integer.MAX_VALUE) {
+            throw new IOException("Node names of " + source + " are too large for a graph file");
+        }
+
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putLong(Files.size(source))
+                    .putLong(Files.getLastModifiedTime(source).toMillis())
+                    .putLong(hash(source))
+                    .putInt(nodeCount)
+                    .putInt(edgeCount)
+                    .putLong(nameBytes);
+            writeInts(channel, buffer, graph.offsets());
+            writeInts(channel, buffer, graph.targets());
+            if (((nodeCount + 1 + edgeCount) & 1) != 0) {
+                writeInts(channel, buffer, new int[1]);
+            }
+            writeDoubles(channel, buffer, graph.weights());
+            int[] nameOffsets = new int[nodeCount + 1];
+            for (int node = 0; node < nodeCount; node++) {
+                nameOffsets[node + 1] = nameOffsets[node] + encodedNames[node].length;
+            }
+            writeInts(channel, buffer, nameOffsets);
+            for (byte[] name : encodedNames) {
+                if (buffer.remaining() < name.length) {
+                    flush(channel, buffer);
+                }
+                if (buffer.remaining() < name.length) {
+                    channel.write(ByteBuffer.wrap(name));
+                } else {
+                    buffer.put(name);
+                }
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the graph file and returns its graph, or null if it is missing, of another format version, or was
+    // built from a different version of source.
+    static Graph read(Path file, Path source) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt() != MAGIC || mapped.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long sourceSize = mapped.getLong();
+            long sourceModified = mapped.getLong();
+            long sourceHash = mapped.getLong();
+            if (Files.size(source) != sourceSize
+                    || (Files.getLastModifiedTime(source).toMillis() != sourceModified && hash(source) != sourceHash)) {
+                return null;
+            }
+            int nodeCount = mapped.getInt();
+            int edgeCount = mapped.getInt();
+            int nameBytes = (int) mapped.getLong();
+
+            int[] offsets = new int[nodeCount + 1];
+            mapped.asIntBuffer().get(offsets);
+            mapped.position(mapped.position() + offsets.length * Integer.BYTES);
+            int[] targets = new int[edgeCount];
+            mapped.asIntBuffer().get(targets);
+            mapped.position(mapped.position() + targets.length * Integer.BYTES);
+            if (((nodeCount + 1 + edgeCount) & 1) != 0) {
+                mapped.getInt();
+            }
+            double[] weights = new double[edgeCount];
+            mapped.asDoubleBuffer().get(weights);
+            mapped.position(mapped.position() + weights.length * Double.BYTES);
+            int[] nameOffsets = new int[nodeCount + 1];
+            mapped.asIntBuffer().get(nameOffsets);
+            mapped.position(mapped.position() + nameOffsets.length * Integer.BYTES);
+            byte[] bytes = new byte[nameBytes];
+            mapped.get(bytes);
+            String[] names = new String[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                names[node] = new String(bytes, nameOffsets[node], nameOffsets[node + 1] - nameOffsets[node], StandardCharsets.UTF_8);
+            }
+            return new Graph(Arrays.asList(names), offsets, targets, weights);
+        } catch (RuntimeException e) {
+            // A truncated or corrupt file; it is rebuilt from the source
+            System.err.println("Ignoring unreadable graph file " + file + ": " + e);
+            return null;
+        }
+    }
+
+    // CRC32C of the file's content.
+    static long hash(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW_BYTES, size - position)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int written = 0; written < values.length; ) {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush(channel, buffer);
+            }
+            int count = Math.min(values.length - written, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, written, count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            written += count;
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+        for (int written = 0; written < values.length; ) {
+            if (buffer.remaining() < Double.BYTES) {
+                flush(channel, buffer);
+            }
+            int count = Math.min(values.length - written, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().put(values, written, count);
+            buffer.position(buffer.position() + count * Double.BYTES);
+            written += count;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
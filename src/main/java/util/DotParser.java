@@ -0,0 +1,517 @@
+package util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Streaming parser for the DOT topologies the simulations load. It maps the file in windows, tokenizes the bytes in
+// place and hands every edge statement to a callback, so no line, token or edge object is created per edge. Node
+// names are interned on first sight and edges refer to them by dense id (0..n-1 in order of appearance); a String
+// is only created once per node.
+//
+// parseParallel splits the file into chunks at line boundaries and tokenizes them on a fork-join pool, each chunk
+// with its own interning table. The chunks are then merged in file order: their names are interned into the global
+// table in local id order and their edges handed on with global ids, which gives exactly the ids and the edge order
+// of the sequential parser.
+//
+// Like GraphParser it is line based: a line whose statement is `<id> -> <id>` or `<id> -- <id>` is an edge, its
+// "weight" attribute the weight (-1 if it has none), and every other line is skipped.
+public final class DotParser {
+
+    // Window of the file that is mapped at a time; a window ends at the last complete line in it
+    private static final int WINDOW_BYTES = 1 << 28;
+    // Smallest chunk parseParallel hands to a task, so that small files stay on one thread
+    private static final long MIN_CHUNK_BYTES = 1 << 22;
+    // Chunks per worker thread, so that a slow chunk does not leave the other threads idle
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Mantissas up to this many digits convert to double exactly
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+            1e19, 1e20, 1e21, 1e22};
+    private static final byte[] WEIGHT = "weight".getBytes(StandardCharsets.US_ASCII);
+
+    public interface EdgeHandler {
+        // Called once per edge statement; an undirected edge is reported once, with directed false.
+        void edge(int source, int destination, double weight, boolean directed);
+    }
+
+    public static final class Result {
+        // Node names by id
+        public final List<String> nodeNames;
+        public final long edges;
+        public final long bytes;
+        public final long elapsedNanos;
+
+        Result(List<String> nodeNames, long edges, long bytes, long elapsedNanos) {
+            this.nodeNames = nodeNames;
+            this.edges = edges;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double edgesPerSecond() {
+            return elapsedNanos == 0 ? 0 : edges * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d nodes, %d edges, %d bytes in %.1f ms (%.0f edges/s)",
+                    nodeNames.size(), edges, bytes, elapsedNanos / 1e6, edgesPerSecond());
+        }
+    }
+
+    private final NodeTable nodes;
+    private final EdgeHandler handler;
+    private MappedByteBuffer buffer;
+    // Position of the mapped window in the file, and of the line being parsed in the window
+    private long base;
+    private int lineStart;
+    private long edges;
+
+    private DotParser(List<String> nodeNames, EdgeHandler handler) {
+        this.nodes = new NodeTable(nodeNames);
+        this.handler = handler;
+    }
+
+    public static Result parse(Path file, EdgeHandler handler) throws IOException {
+        return parse(file, new ArrayList<>(), handler);
+    }
+
+    // Appends each node name to nodeNames, which must be empty, when it is first seen and before the edge that
+    // mentions it is handed on, so the handler can look the names up by id.
+    public static Result parse(Path file, List<String> nodeNames, EdgeHandler handler) throws IOException {
+        long start = System.nanoTime();
+        DotParser parser = new DotParser(nodeNames, handler);
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long position = 0;
+            int window = WINDOW_BYTES;
+            while (position < size) {
+                int length = (int) Math.min(window, size - position);
+                parser.buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                parser.base = position;
+                boolean last = position + length == size;
+                int consumed = parser.parseLines(length, last);
+                if (consumed == 0) {
+                    // A single line longer than the window: map a larger one
+                    if (window == Integer.MAX_VALUE) {
+                        throw new IOException("The line at byte " + position + " of " + file + " is too long");
+                    }
+                    window = (int) Math.min(Integer.MAX_VALUE, (long) window * 2);
+                    continue;
+                }
+                position += consumed;
+            }
+        }
+        return new Result(Collections.unmodifiableList(parser.nodes.names), parser.edges, size,
+                System.nanoTime() - start);
+    }
+
+    public static Result parseParallel(Path file, EdgeHandler handler) throws IOException {
+        return parseParallel(file, new ArrayList<>(), handler);
+    }
+
+    // Like parse, but tokenizes chunks of the file on the common fork-join pool. The handler is still called on the
+    // calling thread, in file order.
+    public static Result parseParallel(Path file, List<String> nodeNames, EdgeHandler handler) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long size = Files.size(file);
+        if (size <= MIN_CHUNK_BYTES || Runtime.getRuntime().availableProcessors() < 2) {
+            // Merging the chunks would only add work
+            return parse(file, nodeNames, handler);
+        }
+        long chunkBytes = Math.min(WINDOW_BYTES, Math.max(MIN_CHUNK_BYTES, size / ((long) pool.getParallelism() * CHUNKS_PER_THREAD) + 1));
+        return parseParallel(file, nodeNames, handler, pool, chunkBytes);
+    }
+
+    static Result parseParallel(Path file, List<String> nodeNames, EdgeHandler handler, ForkJoinPool pool, long chunkBytes) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<long[]> chunks = splitAtLines(channel, size, chunkBytes);
+            List<ForkJoinTask<ChunkEdges>> tasks = new ArrayList<>(chunks.size());
+            for (long[] chunk : chunks) {
+                tasks.add(pool.submit(() -> parseChunk(channel, chunk[0], chunk[1])));
+            }
+
+            Map<String, Integer> ids = new HashMap<>();
+            long edges = 0;
+            for (int i = 0; i < tasks.size(); i++) {
+                ChunkEdges chunk = join(tasks.get(i));
+                // Drop the chunk once it is merged
+                tasks.set(i, null);
+                int[] globalIds = new int[chunk.names.size()];
+                for (int local = 0; local < globalIds.length; local++) {
+                    globalIds[local] = ids.computeIfAbsent(chunk.names.get(local), name -> {
+                        nodeNames.add(name);
+                        return nodeNames.size() - 1;
+                    });
+                }
+                for (int edge = 0; edge < chunk.size; edge++) {
+                    handler.edge(globalIds[chunk.sources[edge]], globalIds[chunk.destinations[edge]], chunk.weights[edge], chunk.directed[edge]);
+                }
+                edges += chunk.size;
+            }
+            return new Result(Collections.unmodifiableList(nodeNames), edges, size, System.nanoTime() - start);
+        }
+    }
+
+    // Start and end of every chunk; a chunk ends after the first newline at or past chunkBytes from its start.
+    private static List<long[]> splitAtLines(FileChannel channel, long size, long chunkBytes) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer scan = ByteBuffer.allocate(1 << 16);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkBytes);
+            search:
+            while (end < size) {
+                scan.clear();
+                int read = channel.read(scan, end - 1);
+                for (int i = 0; i < read; i++) {
+                    if (scan.get(i) == '\n') {
+                        end += i;
+                        break search;
+                    }
+                }
+                end += read;
+            }
+            end = Math.min(end, size);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("The line at byte " + start + " is too long");
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static ChunkEdges parseChunk(FileChannel channel, long start, long end) {
+        ChunkEdges chunk = new ChunkEdges();
+        DotParser parser = new DotParser(chunk.names, chunk);
+        try {
+            parser.buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        parser.base = start;
+        parser.parseLines((int) (end - start), true);
+        return chunk;
+    }
+
+    private static ChunkEdges join(ForkJoinTask<ChunkEdges> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Failed to parse chunk", e.getCause());
+        }
+    }
+
+    // Parses the complete lines of the mapped window and returns the number of bytes they take up.
+    private int parseLines(int length, boolean last) {
+        lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) == '\n') {
+                parseLine(lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (last && lineStart < length) {
+            parseLine(lineStart, length);
+            return length;
+        }
+        return lineStart;
+    }
+
+    private void parseLine(int start, int end) {
+        int position = skipWhitespace(start, end);
+        int sourceEnd = idEnd(position, end);
+        if (sourceEnd < 0) {
+            return;
+        }
+        int sourceStart = position;
+        position = skipWhitespace(sourceEnd, end);
+        if (position + 1 >= end || buffer.get(position) != '-') {
+            return;
+        }
+        byte operator = buffer.get(position + 1);
+        if (operator != '>' && operator != '-') {
+            return;
+        }
+        position = skipWhitespace(position + 2, end);
+        int destinationEnd = idEnd(position, end);
+        if (destinationEnd < 0) {
+            return;
+        }
+        int source = nodes.intern(buffer, unquotedStart(sourceStart), unquotedEnd(sourceStart, sourceEnd));
+        int destination = nodes.intern(buffer, unquotedStart(position), unquotedEnd(position, destinationEnd));
+        double weight = weight(destinationEnd, end);
+        edges++;
+        handler.edge(source, destination, weight, operator == '>');
+    }
+
+    // End of the quoted or bare id starting at position, or -1 if there is none.
+    private int idEnd(int position, int end) {
+        if (position >= end) {
+            return -1;
+        }
+        if (buffer.get(position) == '"') {
+            for (int i = position + 1; i < end; i++) {
+                byte b = buffer.get(i);
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        int i = position;
+        while (i < end && isIdByte(buffer.get(i))) {
+            i++;
+        }
+        return i > position ? i : -1;
+    }
+
+    private int unquotedStart(int idStart) {
+        return buffer.get(idStart) == '"' ? idStart + 1 : idStart;
+    }
+
+    private int unquotedEnd(int idStart, int idEnd) {
+        return buffer.get(idStart) == '"' ? idEnd - 1 : idEnd;
+    }
+
+    // Value of the weight attribute in the rest of the line, or -1 if it has none.
+    private double weight(int start, int end) {
+        int key = indexOf(WEIGHT, start, end);
+        if (key < 0) {
+            System.err.println("Error parsing weight from the line at byte " + (base + lineStart));
+            return -1;
+        }
+        int position = key + WEIGHT.length;
+        if (position < end && buffer.get(position) == '"') {
+            position++;
+        }
+        position = skipWhitespace(position, end);
+        if (position >= end || buffer.get(position) != '=') {
+            System.err.println("Error parsing weight from the line at byte " + (base + lineStart));
+            return -1;
+        }
+        position = skipWhitespace(position + 1, end);
+        boolean quoted = position < end && buffer.get(position) == '"';
+        int valueStart = quoted ? position + 1 : position;
+        int valueEnd = valueStart;
+        while (valueEnd < end && isNumberByte(buffer.get(valueEnd))) {
+            valueEnd++;
+        }
+        double weight = parseDouble(valueStart, valueEnd);
+        if (Double.isNaN(weight)) {
+            System.err.println("Error parsing weight from the line at byte " + (base + lineStart));
+            return -1;
+        }
+        return weight;
+    }
+
+    // Plain decimals are converted in place; anything else falls back to Double.parseDouble. NaN if malformed.
+    private double parseDouble(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && digits <= MAX_EXACT_DIGITS) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        byte[] text = new byte[end - start];
+        for (int j = 0; j < text.length; j++) {
+            text[j] = buffer.get(start + j);
+        }
+        try {
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private int indexOf(byte[] needle, int start, int end) {
+        outer:
+        for (int i = start; i <= end - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buffer.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int skipWhitespace(int position, int end) {
+        while (position < end) {
+            byte b = buffer.get(position);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isIdByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '.' || b < 0;
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+' || b == 'e' || b == 'E';
+    }
+
+    // Edges of one chunk with the chunk's own node ids, kept until the chunk is merged.
+    private static final class ChunkEdges implements EdgeHandler {
+        final List<String> names = new ArrayList<>();
+        int size;
+        int[] sources = new int[1024];
+        int[] destinations = new int[1024];
+        double[] weights = new double[1024];
+        boolean[] directed = new boolean[1024];
+
+        @Override
+        public void edge(int source, int destination, double weight, boolean isDirected) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+                destinations = Arrays.copyOf(destinations, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                directed = Arrays.copyOf(directed, size * 2);
+            }
+            sources[size] = source;
+            destinations[size] = destination;
+            weights[size] = weight;
+            directed[size] = isDirected;
+            size++;
+        }
+    }
+
+    // Open-addressing table from node name bytes to dense ids. Names are compared against the bytes they were
+    // interned from, which are kept in one growing array.
+    private static final class NodeTable {
+        final List<String> names;
+        private int[] slots = new int[1024];
+        private int[] hashes = new int[256];
+        private int[] offsets = new int[257];
+        private byte[] bytes = new byte[4096];
+
+        NodeTable(List<String> names) {
+            this.names = names;
+        }
+
+        int intern(MappedByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            hash ^= hash >>> 16;
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    id = add(buffer, start, end, hash);
+                    slots[slot] = id + 1;
+                    if (names.size() * 2 > slots.length) {
+                        rehash();
+                    }
+                    return id;
+                }
+                if (hashes[id] == hash && sameName(id, buffer, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        private boolean sameName(int id, MappedByteBuffer buffer, int start, int end) {
+            int offset = offsets[id];
+            if (offsets[id + 1] - offset != end - start) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (bytes[offset++] != buffer.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int add(MappedByteBuffer buffer, int start, int end, int hash) {
+            int id = names.size();
+            if (id + 1 == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            int offset = offsets[id];
+            int length = end - start;
+            if (offset + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(offset + length, bytes.length * 2));
+            }
+            for (int i = 0; i < length; i++) {
+                bytes[offset + i] = buffer.get(start + i);
+            }
+            hashes[id] = hash;
+            offsets[id + 1] = offset + length;
+            names.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            return id;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < names.size(); id++) {
+                int slot = hashes[id] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id + 1;
+            }
+        }
+    }
+}
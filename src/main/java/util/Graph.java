@@ -0,0 +1,239 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Directed weighted graph in compressed sparse row form. Nodes have dense ids 0..n-1 and keep their DOT names; the
+// edges of node u are the indices edgeStart(u) until edgeEnd(u) into the target and weight arrays, in file order. An
+// edge costs 12 bytes (an int target and a double weight), against an Edge object with two Strings per direction.
+//
+// Like GraphParser.parseDotFile, an undirected ("--") DOT edge becomes an edge in both directions.
+public final class Graph {
+
+    public interface NeighborConsumer {
+        void accept(int target, double weight);
+    }
+
+    private final List<String> names;
+    // Built on the first lookup by name; most users only walk the ids
+    private Map<String, Integer> ids;
+    // Edges of node u are offsets[u] until offsets[u + 1]
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+
+    Graph(List<String> names, int[] offsets, int[] targets, double[] weights) {
+        this.names = Collections.unmodifiableList(names);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    // Builds the graph in two streaming passes over the file: one counts the edges of every node, the other stores
+    // them in place, so no per-edge object or edge list for the whole file is needed. Both passes tokenize the file
+    // in parallel and assign the same ids.
+    public static Graph fromDotFile(Path file) throws IOException {
+        int[][] degrees = {new int[1024]};
+        DotParser.Result counted = DotParser.parseParallel(file, (source, destination, weight, directed) -> {
+            int highest = Math.max(source, destination);
+            if (highest >= degrees[0].length) {
+                degrees[0] = Arrays.copyOf(degrees[0], Math.max(highest + 1, degrees[0].length * 2));
+            }
+            degrees[0][source]++;
+            if (!directed) {
+                degrees[0][destination]++;
+            }
+        });
+
+        int nodeCount = counted.nodeNames.size();
+        int[] offsets = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] = offsets[node] + degrees[0][node];
+        }
+        int[] targets = new int[offsets[nodeCount]];
+        double[] weights = new double[offsets[nodeCount]];
+        // Next free edge of every node; ids are assigned in the same order in both passes
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        DotParser.parseParallel(file, (source, destination, weight, directed) -> {
+            targets[next[source]] = destination;
+            weights[next[source]++] = weight;
+            if (!directed) {
+                targets[next[destination]] = source;
+                weights[next[destination]++] = weight;
+            }
+        });
+        return new Graph(new ArrayList<>(counted.nodeNames), offsets, targets, weights);
+    }
+
+    // Builds the graph from a source that reports the same edges every time it is run, such as a seeded generator:
+    // once to count the edges of every node and once to store them.
+    static Graph fromEdges(List<String> names, Consumer<DotParser.EdgeHandler> edges) {
+        int nodeCount = names.size();
+        int[] offsets = new int[nodeCount + 1];
+        edges.accept((source, destination, weight, directed) -> {
+            offsets[source + 1]++;
+            if (!directed) {
+                offsets[destination + 1]++;
+            }
+        });
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] targets = new int[offsets[nodeCount]];
+        double[] weights = new double[offsets[nodeCount]];
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        edges.accept((source, destination, weight, directed) -> {
+            targets[next[source]] = destination;
+            weights[next[source]++] = weight;
+            if (!directed) {
+                targets[next[destination]] = source;
+                weights[next[destination]++] = weight;
+            }
+        });
+        return new Graph(names, offsets, targets, weights);
+    }
+
+    public static Graph fromDotFile(String filePath) throws IOException {
+        return fromDotFile(Path.of(filePath));
+    }
+
+    public int nodeCount() {
+        return names.size();
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public String name(int node) {
+        return names.get(node);
+    }
+
+    // Id of the named node, or -1 if the graph has no such node.
+    public synchronized int id(String name) {
+        if (ids == null) {
+            ids = new HashMap<>(names.size() * 2);
+            for (int node = 0; node < names.size(); node++) {
+                ids.put(names.get(node), node);
+            }
+        }
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    // Number of outgoing edges.
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    public int edgeStart(int node) {
+        return offsets[node];
+    }
+
+    public int edgeEnd(int node) {
+        return offsets[node + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public double weight(int edge) {
+        return weights[edge];
+    }
+
+    // The arrays themselves, for writing the graph out.
+    List<String> names() {
+        return names;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] targets() {
+        return targets;
+    }
+
+    double[] weights() {
+        return weights;
+    }
+
+    public void forEachNeighbor(int node, NeighborConsumer consumer) {
+        for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+            consumer.accept(targets[edge], weights[edge]);
+        }
+    }
+
+    // The graph with every edge in both directions and at most one edge between two nodes; where both directions
+    // existed the weight of the first one seen is kept. Outgoing edges come before incoming ones.
+    public Graph undirected() {
+        int nodeCount = nodeCount();
+        // Incoming edges of every node, the transpose in the same form
+        int[] inOffsets = new int[nodeCount + 1];
+        for (int target : targets) {
+            inOffsets[target + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            inOffsets[node + 1] += inOffsets[node];
+        }
+        int[] sources = new int[targets.length];
+        double[] inWeights = new double[targets.length];
+        int[] next = Arrays.copyOf(inOffsets, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                sources[next[targets[edge]]] = node;
+                inWeights[next[targets[edge]]++] = weights[edge];
+            }
+        }
+
+        // First pass counts the distinct neighbors, the second stores them; seen[v] == u + 1 marks v as taken for u
+        int[] seen = new int[nodeCount];
+        int[] undirectedOffsets = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            int degree = 0;
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                degree += mark(seen, targets[edge], node);
+            }
+            for (int edge = inOffsets[node]; edge < inOffsets[node + 1]; edge++) {
+                degree += mark(seen, sources[edge], node);
+            }
+            undirectedOffsets[node + 1] = undirectedOffsets[node] + degree;
+        }
+        Arrays.fill(seen, 0);
+        int[] undirectedTargets = new int[undirectedOffsets[nodeCount]];
+        double[] undirectedWeights = new double[undirectedOffsets[nodeCount]];
+        int position = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                if (mark(seen, targets[edge], node) == 1) {
+                    undirectedTargets[position] = targets[edge];
+                    undirectedWeights[position++] = weights[edge];
+                }
+            }
+            for (int edge = inOffsets[node]; edge < inOffsets[node + 1]; edge++) {
+                if (mark(seen, sources[edge], node) == 1) {
+                    undirectedTargets[position] = sources[edge];
+                    undirectedWeights[position++] = inWeights[edge];
+                }
+            }
+        }
+        return new Graph(names, undirectedOffsets, undirectedTargets, undirectedWeights);
+    }
+
+    // Returns 1 if the neighbor was not taken for the node yet, and takes it.
+    private static int mark(int[] seen, int neighbor, int node) {
+        if (seen[neighbor] == node + 1) {
+            return 0;
+        }
+        seen[neighbor] = node + 1;
+        return 1;
+    }
+}
@@ -0,0 +1,416 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Synthetic topologies for exercising the algorithms on networks far larger than the DOT files in the repo. Every
+// topology is undirected, names its nodes "0".."n-1", gives every edge weight 1.0 and is reproducible: a random one
+// draws from a Random with the given seed each time its edges are generated. A topology goes straight into a Graph,
+// without an edge list, or is streamed out as a DOT file that GraphParser reads back.
+public final class GraphGenerator {
+
+    private static final double WEIGHT = 1.0;
+    // Rounds of endpoint swaps a random regular graph gets to remove its self-loops and parallel edges
+    private static final int MAX_REPAIR_ROUNDS = 1000;
+
+    public static final class Topology {
+        private final String name;
+        private final int nodeCount;
+        // Reports every edge once, with directed false
+        private final Consumer<DotParser.EdgeHandler> edges;
+
+        private Topology(String name, int nodeCount, Consumer<DotParser.EdgeHandler> edges) {
+            this.name = name;
+            this.nodeCount = nodeCount;
+            this.edges = edges;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int nodeCount() {
+            return nodeCount;
+        }
+
+        public void forEachEdge(DotParser.EdgeHandler handler) {
+            edges.accept(handler);
+        }
+
+        public Graph toGraph() {
+            return Graph.fromEdges(new NumberedNames(nodeCount), edges);
+        }
+
+        // Streams the topology out as an undirected DOT graph. Nodes without edges are not written.
+        public void writeDot(Path file) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write("graph \"" + name + "\" {\n");
+                try {
+                    edges.accept((source, destination, weight, directed) -> {
+                        try {
+                            writer.write('"');
+                            writer.write(Integer.toString(source));
+                            writer.write("\" -- \"");
+                            writer.write(Integer.toString(destination));
+                            writer.write("\" [\"weight\"=\"");
+                            writer.write(Double.toString(weight));
+                            writer.write("\"]\n");
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                writer.write("}\n");
+            }
+        }
+    }
+
+    private GraphGenerator() {
+    }
+
+    // Cycle through all nodes.
+    public static Topology ring(int nodes) {
+        requireAtLeast("nodes", nodes, 3);
+        return new Topology("ring-" + nodes, nodes, out -> {
+            for (int node = 0; node < nodes; node++) {
+                out.edge(node, (node + 1) % nodes, WEIGHT, false);
+            }
+        });
+    }
+
+    // Grid whose rows and columns wrap around; node (x, y) is y * width + x.
+    public static Topology torus(int width, int height) {
+        return torus(width, height, 1);
+    }
+
+    // Three-dimensional torus; node (x, y, z) is (z * height + y) * width + x.
+    public static Topology torus(int width, int height, int depth) {
+        requireAtLeast("width", width, 1);
+        requireAtLeast("height", height, 1);
+        requireAtLeast("depth", depth, 1);
+        String name = depth == 1 ? "torus-" + width + "x" + height : "torus-" + width + "x" + height + "x" + depth;
+        return new Topology(name, Math.multiplyExact(Math.multiplyExact(width, height), depth), out -> {
+            for (int z = 0; z < depth; z++) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int node = (z * height + y) * width + x;
+                        if (hasNext(x, width)) {
+                            out.edge(node, (z * height + y) * width + (x + 1) % width, WEIGHT, false);
+                        }
+                        if (hasNext(y, height)) {
+                            out.edge(node, (z * height + (y + 1) % height) * width + x, WEIGHT, false);
+                        }
+                        if (hasNext(z, depth)) {
+                            out.edge(node, (((z + 1) % depth) * height + y) * width + x, WEIGHT, false);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Every pair of nodes connected.
+    public static Topology complete(int nodes) {
+        requireAtLeast("nodes", nodes, 1);
+        return new Topology("complete-" + nodes, nodes, out -> {
+            for (int source = 0; source < nodes; source++) {
+                for (int destination = source + 1; destination < nodes; destination++) {
+                    out.edge(source, destination, WEIGHT, false);
+                }
+            }
+        });
+    }
+
+    // Uniformly paired stubs (the configuration model) with every node of the given degree. Self-loops and parallel
+    // edges are removed by swapping endpoints with random other edges, which keeps all degrees.
+    public static Topology randomRegular(int nodes, int degree, long seed) {
+        requireAtLeast("degree", degree, 1);
+        if (degree >= nodes || ((long) nodes * degree) % 2 != 0) {
+            throw new IllegalArgumentException("No simple " + degree + "-regular graph on " + nodes + " nodes");
+        }
+        return new Topology("random-regular-" + nodes + "-" + degree, nodes, out -> {
+            Random random = new Random(seed);
+            int[] stubs = new int[Math.multiplyExact(nodes, degree)];
+            for (int stub = 0; stub < stubs.length; stub++) {
+                stubs[stub] = stub / degree;
+            }
+            for (int stub = stubs.length - 1; stub > 0; stub--) {
+                int other = random.nextInt(stub + 1);
+                int swapped = stubs[stub];
+                stubs[stub] = stubs[other];
+                stubs[other] = swapped;
+            }
+            // Edge i joins stubs[2i] and stubs[2i + 1]
+            int edgeCount = stubs.length / 2;
+            for (int round = 0; ; round++) {
+                int[] invalid = invalidEdges(stubs, edgeCount);
+                if (invalid.length == 0) {
+                    break;
+                }
+                if (round == MAX_REPAIR_ROUNDS) {
+                    throw new IllegalStateException("Could not remove the parallel edges of " + nodes + " nodes of degree " + degree);
+                }
+                for (int edge : invalid) {
+                    int other = random.nextInt(edgeCount);
+                    // (a, b), (c, d) become (a, d), (c, b)
+                    int swapped = stubs[2 * edge + 1];
+                    stubs[2 * edge + 1] = stubs[2 * other + 1];
+                    stubs[2 * other + 1] = swapped;
+                }
+            }
+            for (int edge = 0; edge < edgeCount; edge++) {
+                out.edge(stubs[2 * edge], stubs[2 * edge + 1], WEIGHT, false);
+            }
+        });
+    }
+
+    // G(n, p): every pair connected with the given probability. Skips over the absent pairs geometrically
+    // (Batagelj and Brandes), so it runs in time linear in nodes and edges.
+    public static Topology erdosRenyi(int nodes, double probability, long seed) {
+        requireAtLeast("nodes", nodes, 1);
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("probability must be between 0 and 1: " + probability);
+        }
+        if (probability == 1) {
+            return complete(nodes);
+        }
+        return new Topology("erdos-renyi-" + nodes + "-" + probability, nodes, out -> {
+            if (probability == 0) {
+                return;
+            }
+            Random random = new Random(seed);
+            double logMiss = Math.log(1 - probability);
+            long destination = -1;
+            int source = 1;
+            while (source < nodes) {
+                destination += 1 + (long) Math.floor(Math.log(1 - random.nextDouble()) / logMiss);
+                while (destination >= source && source < nodes) {
+                    destination -= source;
+                    source++;
+                }
+                if (source < nodes) {
+                    out.edge(source, (int) destination, WEIGHT, false);
+                }
+            }
+        });
+    }
+
+    // Preferential attachment: starts from a complete graph of edgesPerNode + 1 nodes and connects every further
+    // node to edgesPerNode distinct nodes chosen with probability proportional to their degree.
+    public static Topology barabasiAlbert(int nodes, int edgesPerNode, long seed) {
+        requireAtLeast("edgesPerNode", edgesPerNode, 1);
+        if (nodes <= edgesPerNode) {
+            throw new IllegalArgumentException("nodes must be more than edgesPerNode: " + nodes);
+        }
+        return new Topology("barabasi-albert-" + nodes + "-" + edgesPerNode, nodes, out -> {
+            Random random = new Random(seed);
+            int initial = edgesPerNode + 1;
+            long endpointCount = (long) initial * edgesPerNode + 2L * (nodes - initial) * edgesPerNode;
+            // Every node once per edge it has, so that a uniform pick is proportional to degree
+            int[] endpoints = new int[Math.toIntExact(endpointCount)];
+            int size = 0;
+            for (int source = 0; source < initial; source++) {
+                for (int destination = source + 1; destination < initial; destination++) {
+                    out.edge(source, destination, WEIGHT, false);
+                    endpoints[size++] = source;
+                    endpoints[size++] = destination;
+                }
+            }
+            int[] chosen = new int[edgesPerNode];
+            for (int node = initial; node < nodes; node++) {
+                for (int count = 0; count < edgesPerNode; ) {
+                    int candidate = endpoints[random.nextInt(size)];
+                    if (!contains(chosen, count, candidate)) {
+                        chosen[count++] = candidate;
+                    }
+                }
+                for (int target : chosen) {
+                    out.edge(node, target, WEIGHT, false);
+                    endpoints[size++] = node;
+                    endpoints[size++] = target;
+                }
+            }
+        });
+    }
+
+    // A rows x columns grid of complete graphs of cliqueSize nodes. The first node of each clique is linked to the
+    // first node of the cliques to its right and below; clique (r, c) holds the nodes from (r * columns + c) *
+    // cliqueSize on.
+    public static Topology gridOfCliques(int rows, int columns, int cliqueSize) {
+        requireAtLeast("rows", rows, 1);
+        requireAtLeast("columns", columns, 1);
+        requireAtLeast("cliqueSize", cliqueSize, 1);
+        int nodes = Math.multiplyExact(Math.multiplyExact(rows, columns), cliqueSize);
+        return new Topology("grid-of-cliques-" + rows + "x" + columns + "-" + cliqueSize, nodes, out -> {
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    int first = (row * columns + column) * cliqueSize;
+                    for (int source = first; source < first + cliqueSize; source++) {
+                        for (int destination = source + 1; destination < first + cliqueSize; destination++) {
+                            out.edge(source, destination, WEIGHT, false);
+                        }
+                    }
+                    if (column + 1 < columns) {
+                        out.edge(first, first + cliqueSize, WEIGHT, false);
+                    }
+                    if (row + 1 < rows) {
+                        out.edge(first, first + columns * cliqueSize, WEIGHT, false);
+                    }
+                }
+            }
+        });
+    }
+
+    // Edges that are self-loops or repeat an earlier edge.
+    private static int[] invalidEdges(int[] stubs, int edgeCount) {
+        long[] keys = new long[edgeCount];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            keys[edge] = key(stubs[2 * edge], stubs[2 * edge + 1]);
+        }
+        Arrays.sort(keys);
+        Set<Long> repeated = new HashSet<>();
+        for (int i = 1; i < edgeCount; i++) {
+            if (keys[i] == keys[i - 1]) {
+                repeated.add(keys[i]);
+            }
+        }
+        Set<Long> seen = new HashSet<>();
+        int[] invalid = new int[16];
+        int count = 0;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int source = stubs[2 * edge];
+            int destination = stubs[2 * edge + 1];
+            long key = key(source, destination);
+            if (source == destination || (repeated.contains(key) && !seen.add(key))) {
+                if (count == invalid.length) {
+                    invalid = Arrays.copyOf(invalid, count * 2);
+                }
+                invalid[count++] = edge;
+            }
+        }
+        return Arrays.copyOf(invalid, count);
+    }
+
+    private static long key(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    // Whether a node at the position has an edge to the next one along a wrapping dimension of the given size.
+    // A dimension of two has a single edge between its positions, and one of one has none.
+    private static boolean hasNext(int position, int size) {
+        return size > 2 || (size == 2 && position == 0);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void requireAtLeast(String parameter, int value, int minimum) {
+        if (value < minimum) {
+            throw new IllegalArgumentException(parameter + " must be at least " + minimum + ": " + value);
+        }
+    }
+
+    // Node names "0".."n-1", made when asked for instead of held for every node.
+    private static final class NumberedNames extends AbstractList<String> {
+        private final int size;
+
+        NumberedNames(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return Integer.toString(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // A topology of about the given number of nodes, for sweeping over network sizes: ring, torus (square), complete,
+    // random-regular (degree 4), erdos-renyi (average degree 8), barabasi-albert (3 edges per node) or
+    // grid-of-cliques (a square grid of cliques of 8).
+    public static Topology ofSize(String kind, int nodes, long seed) {
+        int side = Math.max(1, (int) Math.round(Math.sqrt(nodes)));
+        switch (kind) {
+            case "ring":
+                return ring(nodes);
+            case "torus":
+                return torus(side, side);
+            case "complete":
+                return complete(nodes);
+            case "random-regular":
+                return randomRegular(nodes, 4, seed);
+            case "erdos-renyi":
+                return erdosRenyi(nodes, Math.min(1.0, 8.0 / nodes), seed);
+            case "barabasi-albert":
+                return barabasiAlbert(nodes, 3, seed);
+            case "grid-of-cliques":
+                int cliques = Math.max(1, (int) Math.round(Math.sqrt(nodes / 8.0)));
+                return gridOfCliques(cliques, cliques, 8);
+            default:
+                throw new IllegalArgumentException("Unknown topology: " + kind);
+        }
+    }
+
+    // Writes a generated topology as a DOT file, e.g. `torus 100 100 torus.dot` or `erdos-renyi 10000 0.001 42 er.dot`.
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: GraphGenerator <ring|torus|complete|random-regular|erdos-renyi|barabasi-albert|grid-of-cliques> <parameters...> <output.dot>");
+            return;
+        }
+        Topology topology = topology(args[0], Arrays.asList(args).subList(1, args.length - 1));
+        Path output = Paths.get(args[args.length - 1]);
+        long start = System.nanoTime();
+        topology.writeDot(output);
+        System.out.printf("Wrote %s with %d nodes to %s in %.1f ms%n", topology.name(), topology.nodeCount(), output, (System.nanoTime() - start) / 1e6);
+    }
+
+    private static Topology topology(String kind, List<String> parameters) {
+        switch (kind) {
+            case "ring":
+                return ring(Integer.parseInt(parameters.get(0)));
+            case "torus":
+                return parameters.size() == 2
+                        ? torus(Integer.parseInt(parameters.get(0)), Integer.parseInt(parameters.get(1)))
+                        : torus(Integer.parseInt(parameters.get(0)), Integer.parseInt(parameters.get(1)), Integer.parseInt(parameters.get(2)));
+            case "complete":
+                return complete(Integer.parseInt(parameters.get(0)));
+            case "random-regular":
+                return randomRegular(Integer.parseInt(parameters.get(0)), Integer.parseInt(parameters.get(1)), Long.parseLong(parameters.get(2)));
+            case "erdos-renyi":
+                return erdosRenyi(Integer.parseInt(parameters.get(0)), Double.parseDouble(parameters.get(1)), Long.parseLong(parameters.get(2)));
+            case "barabasi-albert":
+                return barabasiAlbert(Integer.parseInt(parameters.get(0)), Integer.parseInt(parameters.get(1)), Long.parseLong(parameters.get(2)));
+            case "grid-of-cliques":
+                return gridOfCliques(Integer.parseInt(parameters.get(0)), Integer.parseInt(parameters.get(1)), Integer.parseInt(parameters.get(2)));
+            default:
+                throw new IllegalArgumentException("Unknown topology: " + kind);
+        }
+    }
+}
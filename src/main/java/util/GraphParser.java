@@ -1,19 +1,17 @@
 package util;
 
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 public class GraphParser {
 
+    // Where loadGraph keeps the binary form of the DOT files it parsed
+    public static final Path GRAPH_CACHE_DIRECTORY = Paths.get("target", "graph-cache");
+
     public static class Edge {
         String source;
         String destination;
@@ -49,55 +47,67 @@ public class GraphParser {
 
     public static List<Edge> parseDotFile(String filePath) {
         List<Edge> edges = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("--") || line.contains("->")) { // Supports both directed ("->") and undirected ("--") edges
-                    String[] parts = line.split(" ");
-                    String source = parts[0].replace("\"", "");
-                    String destination = parts[2].replace("\"", "");
-
-                    double weight = extractWeight(line);
-                    edges.add(new Edge(source, destination, weight));
-                    // If the edge is undirected, add the reverse direction as well
-                    if (line.contains("--")) {
-                        edges.add(new Edge(destination, source, weight));
-                    }
+        // Every edge of a node shares the one name the parser created for it
+        List<String> names = new ArrayList<>();
+        try {
+            DotParser.parse(Paths.get(filePath), names, (source, destination, weight, directed) -> {
+                edges.add(new Edge(names.get(source), names.get(destination), weight));
+                // If the edge is undirected, add the reverse direction as well
+                if (!directed) {
+                    edges.add(new Edge(names.get(destination), names.get(source), weight));
                 }
-            }
+            });
         } catch (IOException e) {
             e.printStackTrace();
         }
         return edges;
     }
-    private static double extractWeight(String line) {
+
+    // Loads the graph of a DOT file from its binary form in the cache directory, parsing the DOT file and caching
+    // the result when there is no binary form yet or the DOT file changed since it was written.
+    public static Graph loadGraph(String filePath) throws IOException {
+        Path source = Paths.get(filePath);
+        Path cached = GRAPH_CACHE_DIRECTORY.resolve(cacheFileName(source));
+        Graph graph = readBinaryGraph(cached, source);
+        if (graph != null) {
+            return graph;
+        }
+        graph = Graph.fromDotFile(source);
         try {
-            String weightStr = line.substring(line.indexOf("\"weight\"=") + 9, line.lastIndexOf("]"));
-            return Double.parseDouble(weightStr.replace("\"", ""));
-        } catch (Exception e){
-            System.err.println("Error parsing weight from line: " + line);
-            return -1;
+            writeBinaryGraph(graph, source, cached);
+        } catch (IOException e) {
+            // The graph is still usable; the next load parses the DOT file again
+            System.err.println("Failed to cache graph of " + filePath + ": " + e.getMessage());
         }
+        return graph;
     }
 
-    public static void clearSnapshotsDirectory() throws IOException {
-        Path snapshotsDir = Paths.get("snapshots");
-        if (Files.exists(snapshotsDir)) {
-            Files.walk(snapshotsDir)
-                    .sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .forEach(File::delete);
-
-            Files.createDirectories(snapshotsDir);
-        } else {
-            Files.createDirectories(snapshotsDir);
-        }
+    // Writes the graph parsed from the source DOT file in the binary graph format.
+    public static void writeBinaryGraph(Graph graph, Path source, Path target) throws IOException {
+        BinaryGraphFile.write(graph, source, target);
     }
 
-    public static void main(String[] args) {
-        String filePath = "target/test-classes/graph/Electiongraph2.dot";
-        List<Edge> edges = parseDotFile(filePath);
-        edges.forEach(System.out::println);
+    // Maps a binary graph file, returning null if it is missing, unreadable, or stale with respect to the source.
+    public static Graph readBinaryGraph(Path file, Path source) throws IOException {
+        return BinaryGraphFile.read(file, source);
+    }
+
+    // DOT files with the same name in different directories get different cache files.
+    private static String cacheFileName(Path source) {
+        return source.getFileName() + "-" + Integer.toHexString(source.toAbsolutePath().normalize().hashCode()) + ".graph";
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filePath = args.length > 0 ? args[0] : "target/test-classes/graph/Electiongraph2.dot";
+        // Stream the file without materializing the edges and report the parse throughput
+        System.out.println("Sequential: " + DotParser.parse(Paths.get(filePath), (source, destination, weight, directed) -> {}));
+        System.out.println("Parallel:   " + DotParser.parseParallel(Paths.get(filePath), (source, destination, weight, directed) -> {}));
+        // The first load fills the binary cache, the second maps it
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            Graph graph = loadGraph(filePath);
+            System.out.printf("Loaded %d nodes, %d edges in %.1f ms%n", graph.nodeCount(), graph.edgeCount(), (System.nanoTime() - start) / 1e6);
+        }
     }
 
 
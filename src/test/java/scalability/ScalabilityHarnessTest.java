@@ -0,0 +1,89 @@
+package scalability;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.Graph;
+import util.GraphGenerator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ScalabilityHarnessTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChangRobertsMessagesOnRing() throws InterruptedException {
+        Graph ring = GraphGenerator.ring(20).toGraph();
+        RunResult result = ScalabilityHarness.measure(Algorithm.CHANG_ROBERTS, "ring", ring, 0, TIMEOUT);
+
+        assertTrue(result.completed);
+        // Node 0's id is replaced at node 1, the highest id travels the whole ring twice, once as Elected
+        Map<String, MessageStatistics.TypeCount> byType = result.messagesByType;
+        assertEquals(1, byType.get("ChangRobertActor.StartElection").messages);
+        assertEquals(39, byType.get("ChangRobertActor.ElectionMessage").messages);
+        assertEquals(20, byType.get("ChangRobertActor.Elected").messages);
+        assertEquals(60, result.messages);
+        assertEquals(4 * 60, result.bytes);
+        // The setup messages were not counted
+        assertEquals(20, result.mailboxHighWaterByNode.size());
+        assertEquals(1, result.maxMailboxHighWater);
+    }
+
+    @Test
+    public void testDolevKlaweRodehElectsOnRing() throws InterruptedException {
+        Graph ring = GraphGenerator.ring(20).toGraph();
+        RunResult result = ScalabilityHarness.measure(Algorithm.DOLEV_KLAWE_RODEH, "ring", ring, 0, TIMEOUT);
+
+        assertTrue(result.completed);
+        assertEquals(20, result.messagesByType.get("DolevKlaweRodehActor.StartElection").messages);
+    }
+
+    @Test
+    public void testChandyLamportSendsOneMarkerPerChannel() throws Exception {
+        Graph torus = GraphGenerator.torus(4, 4).toGraph();
+        RunResult result = ScalabilityHarness.measure(Algorithm.CHANDY_LAMPORT, "torus", torus, 0, TIMEOUT);
+
+        assertTrue(result.completed);
+        assertEquals(torus.edgeCount(), result.messagesByType.get("ChandyLamportActor.MarkerMessage").messages);
+        assertEquals(1, result.messagesByType.get("ChandyLamportActor.InitiateSnapshot").messages);
+
+        Path out = folder.getRoot().toPath();
+        ScalabilityHarness.write(List.of(result), out);
+        List<String> runs = Files.readAllLines(out.resolve("runs.csv"));
+        assertEquals(RunResult.CSV_HEADER, runs.get(0));
+        assertTrue(runs.get(1).startsWith("chandy-lamport,torus,16,64,0,true,"));
+        assertEquals(1 + 16, Files.readAllLines(out.resolve("mailboxes.csv")).size());
+        assertTrue(Files.readString(out.resolve("runs.json")).contains("\"ChandyLamportActor.MarkerMessage\""));
+    }
+
+    @Test
+    public void testCountingLaiYangSendsOnePresnapPerChannel() throws Exception {
+        Graph torus = GraphGenerator.torus(4, 4).toGraph();
+        RunResult result = ScalabilityHarness.measure(Algorithm.LAI_YANG_COUNTING, "torus", torus, 0, TIMEOUT);
+
+        assertTrue(result.completed);
+        assertEquals(torus.edgeCount(), result.messagesByType.get("LaiYangActor.PresnapMessage").messages);
+        assertEquals(torus.edgeCount() + 1, result.messages);
+    }
+
+    @Test
+    public void testMatternControlMessagesDoNotDependOnTheEdges() throws Exception {
+        Graph torus = GraphGenerator.torus(4, 4).toGraph();
+        RunResult result = ScalabilityHarness.measure(Algorithm.MATTERN, "torus", torus, 0, TIMEOUT);
+
+        assertTrue(result.completed);
+        // Five control messages per node other than the initiator, and the initiator's own InitiateSnapshot
+        assertEquals(15, result.messagesByType.get("MatternActor.SnapshotTime").messages);
+        assertEquals(5 * 15 + 1, result.messages);
+    }
+}
@@ -0,0 +1,112 @@
+package snapshot_algorithms;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GlobalSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAssemblesReportsInNodeOrder() {
+        GlobalSnapshot.Builder builder = new GlobalSnapshot.Builder(Arrays.asList("a", "b", "c"));
+        assertTrue(builder.add(new LocalSnapshot("c", 3, Map.of("b", Arrays.asList(7, 8)))));
+        assertTrue(builder.add(new LocalSnapshot("a", 1, Map.of("c", Collections.emptyList()))));
+        assertFalse("A second report of a node is ignored", builder.add(new LocalSnapshot("a", 5, Map.of())));
+        assertFalse("Unknown nodes are ignored", builder.add(new LocalSnapshot("x", 5, Map.of())));
+        assertEquals(Collections.singleton("b"), builder.missingNodes());
+        assertTrue(builder.add(new LocalSnapshot("b", 2, Map.of("a", Collections.singletonList(9), "probe", Collections.singletonList(1)))));
+        assertTrue(builder.isComplete());
+
+        GlobalSnapshot snapshot = builder.build(Duration.ZERO);
+        assertEquals(3, snapshot.size());
+        assertEquals("Channels from nodes outside the snapshot are left out", 3, snapshot.channelCount());
+        for (int node = 0; node < snapshot.size(); node++) {
+            assertEquals(node + 1, snapshot.state(node));
+            assertEquals(1, snapshot.channelEnd(node) - snapshot.channelStart(node));
+        }
+        int channelOfC = snapshot.channelStart(snapshot.id("c"));
+        assertEquals(snapshot.id("b"), snapshot.sender(channelOfC));
+        assertEquals(2, snapshot.inFlight(channelOfC));
+        assertEquals(Arrays.asList(7, 8), snapshot.get("c").channels.get("b"));
+        assertEquals(Collections.singletonList(9), snapshot.get("b").channels.get("a"));
+        assertNull(snapshot.get("x"));
+    }
+
+    @Test
+    public void testSentMinusReceivedMustEqualInFlight() {
+        GlobalSnapshot.Builder builder = new GlobalSnapshot.Builder(Arrays.asList("a", "b"));
+        // a sent 3 to b; b received 1 before its snapshot and recorded 2 in transit
+        builder.add(new LocalSnapshot("a", 0, Map.of("b", Collections.emptyList()), Map.of("b", 3), Map.of()));
+        builder.add(new LocalSnapshot("b", 0, Map.of("a", Arrays.asList(4, 5)), Map.of(), Map.of("a", 1)));
+        GlobalSnapshot snapshot = builder.build(Duration.ZERO);
+        assertTrue(snapshot.checkConsistency().toString(), snapshot.isConsistent());
+
+        builder = new GlobalSnapshot.Builder(Arrays.asList("a", "b"));
+        // One message was lost: sent 3, received 1, one in transit
+        builder.add(new LocalSnapshot("a", 0, Map.of("b", Collections.emptyList()), Map.of("b", 3), Map.of()));
+        builder.add(new LocalSnapshot("b", 0, Map.of("a", Collections.singletonList(4)), Map.of(), Map.of("a", 1)));
+        List<GlobalSnapshot.Inconsistency> inconsistencies = builder.build(Duration.ZERO).checkConsistency();
+        assertEquals(1, inconsistencies.size());
+        assertEquals("a", inconsistencies.get(0).from);
+        assertEquals("b", inconsistencies.get(0).to);
+        assertEquals(3, inconsistencies.get(0).sent);
+        assertEquals(1, inconsistencies.get(0).received);
+        assertEquals(1, inconsistencies.get(0).inFlight);
+    }
+
+    @Test
+    public void testSendingOnAnUnrecordedChannelIsInconsistent() {
+        GlobalSnapshot.Builder builder = new GlobalSnapshot.Builder(Arrays.asList("a", "b"));
+        builder.add(new LocalSnapshot("a", 0, Map.of(), Map.of("b", 2), Map.of()));
+        builder.add(new LocalSnapshot("b", 0, Map.of(), Map.of(), Map.of()));
+        List<GlobalSnapshot.Inconsistency> inconsistencies = builder.build(Duration.ZERO).checkConsistency();
+        assertEquals(1, inconsistencies.size());
+        assertEquals(2, inconsistencies.get(0).sent);
+
+        builder = new GlobalSnapshot.Builder(Arrays.asList("a", "b"));
+        // Without counts there is nothing to check
+        builder.add(new LocalSnapshot("a", 0, Map.of()));
+        builder.add(new LocalSnapshot("b", 0, Map.of("a", Collections.singletonList(1))));
+        assertTrue(builder.build(Duration.ZERO).isConsistent());
+    }
+
+    @Test
+    public void testLargeRingIsCheckedAndStreamedToTheStore() throws Exception {
+        int nodes = 100_000;
+        List<String> names = new ArrayList<>(nodes);
+        for (int node = 0; node < nodes; node++) {
+            names.add(String.valueOf(node));
+        }
+        GlobalSnapshot.Builder builder = new GlobalSnapshot.Builder(names);
+        // Every node sent two messages to its successor, one arrived before the successor's snapshot
+        for (int node = nodes - 1; node >= 0; node--) {
+            String predecessor = names.get((node + nodes - 1) % nodes);
+            String successor = names.get((node + 1) % nodes);
+            builder.add(new LocalSnapshot(names.get(node), node, Map.of(predecessor, Collections.singletonList(node)),
+                    Map.of(successor, 2), Map.of(predecessor, 1)));
+        }
+        GlobalSnapshot snapshot = builder.build(Duration.ofMillis(5));
+        assertEquals(nodes, snapshot.channelCount());
+        assertTrue(snapshot.isConsistent());
+
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(folder.getRoot().toPath(), SegmentedSnapshotStore.DEFAULT_MAX_SEGMENT_BYTES)) {
+            snapshot.writeTo(store, "ring");
+            int parts = (nodes + GlobalSnapshot.NODES_PER_RECORD - 1) / GlobalSnapshot.NODES_PER_RECORD;
+            String summary = store.latest(GlobalSnapshot.STORE_NODE_ID).getContent();
+            assertTrue(summary, summary.contains("\"Parts\": " + parts));
+            assertTrue(summary, summary.contains("\"Inconsistencies\": 0"));
+            String firstPart = store.read(GlobalSnapshot.STORE_NODE_ID, "ring/0").getContent();
+            assertTrue(firstPart, firstPart.startsWith("{\"Nodes\": [{\"Node\": \"0\", \"State\": 0, \"ChannelStates\": {\"99999\": [0]}"));
+            assertNotNull(store.read(GlobalSnapshot.STORE_NODE_ID, "ring/" + (parts - 1)));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package snapshot_algorithms;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SnapshotCollectorTest {
+
+    static ActorTestKit testKit;
+
+    @BeforeClass
+    public static void setup() {
+        testKit = ActorTestKit.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testReportsProgressAndTimesOutWithMissingNodes() throws Exception {
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(Arrays.asList("a", "b", "c"), Duration.ofMillis(500), result));
+        TestProbe<SnapshotCollector.Progress> progressProbe = testKit.createTestProbe();
+
+        collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot("a", 1, Collections.emptyMap())));
+        // A second report of the same node does not count
+        collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot("a", 2, Collections.emptyMap())));
+        collector.tell(new SnapshotCollector.GetProgress(progressProbe.getRef()));
+        SnapshotCollector.Progress progress = progressProbe.receiveMessage();
+        assertEquals(1, progress.recorded);
+        assertEquals(3, progress.expected);
+        assertEquals(Arrays.asList("b", "c"), Arrays.asList(progress.missing.toArray()));
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("The snapshot should have timed out");
+        } catch (ExecutionException e) {
+            SnapshotCollector.IncompleteSnapshotException incomplete = (SnapshotCollector.IncompleteSnapshotException) e.getCause();
+            assertEquals(2, incomplete.progress.missing.size());
+        }
+    }
+
+    @Test
+    public void testCompletesWithEveryLocalSnapshot() throws Exception {
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(Arrays.asList("a", "b"), Duration.ofSeconds(10), result));
+
+        collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot("b", 2, Collections.emptyMap())));
+        collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot("a", 1, Collections.emptyMap())));
+
+        GlobalSnapshot snapshot = result.get(5, TimeUnit.SECONDS);
+        assertEquals(2, snapshot.size());
+        assertEquals(1, snapshot.get("a").state);
+        assertEquals(2, snapshot.get("b").state);
+    }
+
+    @Test
+    public void testReportsDurabilityOnceEveryNodeWasAcknowledged() throws Exception {
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        CompletableFuture<SnapshotCollector.Durability> durability = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(Arrays.asList("a", "b", "c"), 3, Duration.ofSeconds(10), result, durability));
+
+        // Acknowledgements of another snapshot do not count
+        collector.tell(new SnapshotCollector.LocalSnapshotsPersisted(4, Arrays.asList("a", "b", "c"), Collections.emptyList()));
+        collector.tell(new SnapshotCollector.LocalSnapshotsPersisted(3, Arrays.asList("a", "b"), Collections.emptyList()));
+        for (String node : Arrays.asList("a", "b", "c")) {
+            collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot(node, 1, Collections.emptyMap()), 3));
+        }
+        assertEquals(3, result.get(5, TimeUnit.SECONDS).size());
+        assertFalse("c is not acknowledged yet", durability.isDone());
+
+        collector.tell(new SnapshotCollector.LocalSnapshotsPersisted(3, Collections.emptyList(), Collections.singletonList("c")));
+        SnapshotCollector.Durability outcome = durability.get(5, TimeUnit.SECONDS);
+        assertFalse(outcome.isDurable());
+        assertEquals(2, outcome.persisted);
+        assertEquals(Collections.singleton("c"), outcome.failed);
+        assertTrue(outcome.unacknowledged.isEmpty());
+    }
+
+    @Test
+    public void testDurabilityTimesOutWithUnacknowledgedNodes() throws Exception {
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        CompletableFuture<SnapshotCollector.Durability> durability = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(Arrays.asList("a", "b"), SnapshotCollector.SINGLE_SNAPSHOT, Duration.ofMillis(500), result, durability));
+
+        collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot("a", 1, Collections.emptyMap())));
+        collector.tell(new SnapshotCollector.LocalSnapshotRecorded(new LocalSnapshot("b", 2, Collections.emptyMap())));
+        collector.tell(new SnapshotCollector.LocalSnapshotsPersisted(SnapshotCollector.SINGLE_SNAPSHOT, Collections.singletonList("a"), Collections.emptyList()));
+
+        SnapshotCollector.Durability outcome = durability.get(5, TimeUnit.SECONDS);
+        assertTrue("The global snapshot itself completed", result.isDone() && !result.isCompletedExceptionally());
+        assertEquals(1, outcome.persisted);
+        assertEquals(new HashSet<>(Collections.singletonList("b")), outcome.unacknowledged);
+    }
+}
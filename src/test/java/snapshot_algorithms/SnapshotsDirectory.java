@@ -0,0 +1,35 @@
+package snapshot_algorithms;
+
+import snapshot_algorithms.peterson_kearns.MessageLog;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+
+// Empties the snapshots directory the algorithm tests write their snapshot store and message log to.
+public final class SnapshotsDirectory {
+
+    private SnapshotsDirectory() {}
+
+    public static void clearSnapshotsDirectory() throws IOException {
+        // The stores kept open in this JVM are closed first, so they are reopened on the emptied directory instead
+        // of writing to deleted files
+        SegmentedSnapshotStore.closeIfOpen(SegmentedSnapshotStore.DEFAULT_DIRECTORY);
+        MessageLog.closeIfOpen(MessageLog.DEFAULT_DIRECTORY);
+        Path snapshotsDir = Paths.get("snapshots");
+        if (Files.exists(snapshotsDir)) {
+            Files.walk(snapshotsDir)
+                    .sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+
+            Files.createDirectories(snapshotsDir);
+        } else {
+            Files.createDirectories(snapshotsDir);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package snapshot_algorithms;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VectorClockTest {
+
+    @Test
+    public void testMergeAndCompare() {
+        VectorClock a = new VectorClock(2);
+        VectorClock b = new VectorClock(4);
+        a.increment(0);
+        b.increment(3);
+
+        assertEquals(VectorClock.Order.CONCURRENT, a.compare(b));
+        assertFalse(a.dominates(b));
+
+        VectorClock merged = a.copy();
+        merged.merge(b);
+        assertEquals(1, merged.get(0));
+        assertEquals(1, merged.get(3));
+        assertTrue(merged.dominates(a));
+        assertTrue(merged.dominates(b));
+        assertEquals(VectorClock.Order.BEFORE, a.compare(merged));
+        assertEquals(VectorClock.Order.AFTER, merged.compare(b));
+
+        // Clocks of different lengths compare as if padded with zeros
+        VectorClock shorter = new VectorClock(1);
+        shorter.set(0, 1);
+        assertEquals(VectorClock.Order.EQUAL, shorter.compare(a));
+        assertEquals(shorter, a);
+    }
+
+    @Test
+    public void testMeetAndJson() {
+        NodeIndex index = NodeIndex.shared();
+        int x = index.indexOf("clockTestX");
+        int y = index.indexOf("clockTestY");
+        VectorClock a = new VectorClock();
+        VectorClock b = new VectorClock();
+        a.set(x, 4);
+        a.set(y, 1);
+        b.set(x, 2);
+
+        a.meet(b);
+        assertEquals(2, a.get(x));
+        assertEquals(0, a.get(y));
+        assertEquals("{\"clockTestX\": 2}", a.appendJson(new StringBuilder(), index).toString());
+    }
+}
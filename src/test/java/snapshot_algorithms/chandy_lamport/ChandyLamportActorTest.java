@@ -1,30 +1,41 @@
 package snapshot_algorithms.chandy_lamport;
 
 import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import snapshot_algorithms.GlobalSnapshot;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+import snapshot_algorithms.storage.SnapshotRecord;
+import snapshot_algorithms.storage.SnapshotWriter;
 import util.GraphParser;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
-import static util.GraphParser.clearSnapshotsDirectory;
+import static snapshot_algorithms.SnapshotsDirectory.clearSnapshotsDirectory;
 
 public class ChandyLamportActorTest {
 
     static ActorTestKit testKit;
+    // Shared by every node, as in Main
+    static ActorRef<SnapshotWriter.Command> snapshotWriter;
 
     @BeforeClass
     public static void setup() throws IOException {
 
         testKit = ActorTestKit.create();
         clearSnapshotsDirectory();
+        snapshotWriter = testKit.spawn(SnapshotWriter.create(), "snapshot-writer");
     }
 
     @AfterClass
@@ -38,8 +49,8 @@ public class ChandyLamportActorTest {
         Map<String, ActorRef<Message>> nodes = new HashMap<>();
 
         edges.forEach(edge -> {
-            nodes.computeIfAbsent(edge.getSource(), sourceId -> testKit.spawn(ChandyLamportActor.create(new HashSet<>()), sourceId));
-            nodes.computeIfAbsent(edge.getDestination(), destId -> testKit.spawn(ChandyLamportActor.create(new HashSet<>()), destId));
+            nodes.computeIfAbsent(edge.getSource(), sourceId -> testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), sourceId));
+            nodes.computeIfAbsent(edge.getDestination(), destId -> testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), destId));
         });
 
         edges.forEach(edge -> {
@@ -51,12 +62,12 @@ public class ChandyLamportActorTest {
         return nodes;
     }
 
-    private int parseSnapshotAndGetState(String filename) throws Exception {
-        String content = new String(Files.readAllBytes(Paths.get("snapshots", filename)));
+    private int parseSnapshotAndGetState(SnapshotRecord snapshot) throws Exception {
+        String content = snapshot.getContent();
         String searchKey = "\"State\":";
         int startIndex = content.indexOf(searchKey) + searchKey.length();
         if (startIndex == -1) {
-            throw new RuntimeException("State not found in snapshot file: " + filename);
+            throw new RuntimeException("State not found in snapshot of node: " + snapshot.getNodeId());
         }
         int endIndex = content.indexOf(",", startIndex);
         endIndex = endIndex == -1 ? content.indexOf("}", startIndex) : endIndex; // Handle if "State" is the last element
@@ -70,8 +81,8 @@ public class ChandyLamportActorTest {
         ActorTestKit testKit = ActorTestKit.create();
 
         // Spawn nodes with empty neighbor sets initially
-        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeA");
-        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeB");
+        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeA");
+        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeB");
 
         // Dynamically add each other as neighbors
         nodeA.tell(new ChandyLamportActor.AddNeighbor(nodeB));
@@ -86,13 +97,12 @@ public class ChandyLamportActorTest {
         // Give some time for the snapshot to be taken
         Thread.sleep(1000); // Consider using a more robust synchronization method in production
 
-        // Fetch the snapshot file for NodeA
-        File snapshotsDir = new File("snapshots");
-        File[] files = snapshotsDir.listFiles((dir, name) -> name.startsWith("snapshot_NodeA") && name.endsWith(".json"));
-        assertTrue("Snapshot file for NodeA should exist", files != null && files.length > 0);
+        // Fetch the snapshot of NodeA from the snapshot store
+        SnapshotRecord snapshot = SegmentedSnapshotStore.open().latest("NodeA");
+        assertTrue("Snapshot for NodeA should exist", snapshot != null);
 
-        // Parse the state from the first snapshot file
-        int stateNodeA = parseSnapshotAndGetState(files[0].getName());
+        // Parse the state from the snapshot
+        int stateNodeA = parseSnapshotAndGetState(snapshot);
         assertTrue("The state of NodeA after snapshot should reflect the updated value", stateNodeA == 20);
 
         testKit.shutdownTestKit();
@@ -103,12 +113,12 @@ public class ChandyLamportActorTest {
         ActorTestKit testKit = ActorTestKit.create();
 
         // Spawn nodes
-        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeA");
-        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeB");
-        ActorRef<Message> nodeC = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeC");
-        ActorRef<Message> nodeD = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeD");
-        ActorRef<Message> nodeE = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeE");
-        ActorRef<Message> nodeF = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeF");
+        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeA");
+        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeB");
+        ActorRef<Message> nodeC = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeC");
+        ActorRef<Message> nodeD = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeD");
+        ActorRef<Message> nodeE = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeE");
+        ActorRef<Message> nodeF = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeF");
 
         // Establish neighbor relationships
         nodeA.tell(new ChandyLamportActor.AddNeighbor(nodeB));
@@ -135,16 +145,11 @@ public class ChandyLamportActorTest {
         // Allow some time for the snapshot process to complete across the network
         Thread.sleep(3000);
 
-        // Define the directory where snapshots are saved
-        File snapshotsDir = new File("snapshots");
-
-
-        // Verify snapshot files for all nodes
+        // Verify snapshots for all nodes
         String[] nodeNames = {"NodeA", "NodeB", "NodeC", "NodeD", "NodeE", "NodeF"};
         for (String nodeName : nodeNames) {
-            File[] snapshotFiles = snapshotsDir.listFiles(
-                    (dir, name) -> name.startsWith("snapshot_" + nodeName) && name.endsWith(".json"));
-            assertTrue(nodeName + " should have a snapshot file", snapshotFiles != null && snapshotFiles.length > 0);
+            SnapshotRecord snapshot = SegmentedSnapshotStore.open().latest(nodeName);
+            assertTrue(nodeName + " should have a snapshot", snapshot != null);
             // Optionally parse and verify the state of each node from its snapshot file
         }
 
@@ -156,12 +161,12 @@ public class ChandyLamportActorTest {
         ActorTestKit testKit = ActorTestKit.create();
 
         // Spawn nodes
-        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeA");
-        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeB");
-        ActorRef<Message> nodeC = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeC");
-        ActorRef<Message> nodeD = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeD");
-        ActorRef<Message> nodeE = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeE");
-        ActorRef<Message> nodeF = testKit.spawn(ChandyLamportActor.create(new HashSet<>()), "NodeF");
+        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeA");
+        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeB");
+        ActorRef<Message> nodeC = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeC");
+        ActorRef<Message> nodeD = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeD");
+        ActorRef<Message> nodeE = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeE");
+        ActorRef<Message> nodeF = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "NodeF");
 
         // Establish neighbor relationships
         nodeA.tell(new ChandyLamportActor.AddNeighbor(nodeB));
@@ -196,19 +201,237 @@ public class ChandyLamportActorTest {
         // Allow some time for the snapshot process to complete across the network
         Thread.sleep(3000);
 
-        // Define the directory where snapshots are saved
-        File snapshotsDir = new File("snapshots");
-
-
-        // Verify snapshot files for all nodes
+        // Verify snapshots for all nodes
         String[] nodeNames = {"NodeA", "NodeB", "NodeC", "NodeD", "NodeE", "NodeF"};
         for (String nodeName : nodeNames) {
-            File[] snapshotFiles = snapshotsDir.listFiles(
-                    (dir, name) -> name.startsWith("snapshot_" + nodeName) && name.endsWith(".json"));
-            assertTrue(nodeName + " should have a snapshot file", snapshotFiles != null && snapshotFiles.length > 0);
+            SnapshotRecord snapshot = SegmentedSnapshotStore.open().latest(nodeName);
+            assertTrue(nodeName + " should have a snapshot", snapshot != null);
         }
 
         testKit.shutdownTestKit();
     }
 
+    @Test
+    public void testCollectorCompletesWhenEveryChannelIsRecorded() throws Exception {
+        ActorTestKit testKit = ActorTestKit.create();
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        List<String> names = Arrays.asList("RingA", "RingB", "RingC", "RingD");
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(names, Duration.ofSeconds(10), result));
+
+        List<ActorRef<Message>> ring = new ArrayList<>();
+        for (String name : names) {
+            ring.add(testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer.getRef(), collector), name));
+        }
+        for (int node = 0; node < ring.size(); node++) {
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + 1) % ring.size())));
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + ring.size() - 1) % ring.size())));
+        }
+        ring.get(0).tell(new ChandyLamportActor.BasicMessage(10, ring.get(1)));
+        ring.get(0).tell(new ChandyLamportActor.InitiateSnapshot());
+
+        GlobalSnapshot snapshot = result.get(10, TimeUnit.SECONDS);
+        assertEquals(4, snapshot.size());
+        assertEquals(20, snapshot.get("RingA").state);
+        assertEquals(new HashSet<>(Arrays.asList("RingB", "RingD")), snapshot.get("RingA").channels.keySet());
+
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testGlobalSnapshotOfCirculatingMessagesIsConsistent() throws Exception {
+        ActorTestKit testKit = ActorTestKit.create();
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        TestProbe<Message> outside = testKit.createTestProbe();
+        List<String> names = Arrays.asList("CircleA", "CircleB", "CircleC", "CircleD", "CircleE");
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(names, Duration.ofSeconds(10), result));
+
+        List<ActorRef<Message>> ring = new ArrayList<>();
+        for (String name : names) {
+            ring.add(testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer.getRef(), collector), name));
+        }
+        for (int node = 0; node < ring.size(); node++) {
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + 1) % ring.size())));
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + ring.size() - 1) % ring.size())));
+        }
+        // Values keep being forwarded around the ring while the snapshot is taken
+        ring.get(0).tell(new ChandyLamportActor.BasicMessage(1, outside.getRef()));
+        ring.get(2).tell(new ChandyLamportActor.BasicMessage(1, outside.getRef()));
+        ring.get(3).tell(new ChandyLamportActor.InitiateSnapshot());
+
+        GlobalSnapshot snapshot = result.get(10, TimeUnit.SECONDS);
+        assertEquals(10, snapshot.channelCount());
+        assertTrue(snapshot.checkConsistency().toString(), snapshot.isConsistent());
+
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testConcurrentSnapshotsAreCollectedByIdAndNodesKeepRunning() throws Exception {
+        ActorTestKit testKit = ActorTestKit.create();
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        TestProbe<Message> outside = testKit.createTestProbe();
+        List<String> names = Arrays.asList("LiveA", "LiveB", "LiveC", "LiveD");
+        List<CompletableFuture<GlobalSnapshot>> results = new ArrayList<>();
+        List<ActorRef<SnapshotCollector.Command>> collectors = new ArrayList<>();
+        for (long snapshotId = 1; snapshotId <= 3; snapshotId++) {
+            CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+            results.add(result);
+            collectors.add(testKit.spawn(SnapshotCollector.create(names, snapshotId, Duration.ofSeconds(10), result)));
+        }
+        // The nodes report every snapshot to all collectors, each keeps the reports of its own snapshot
+        ActorRef<SnapshotCollector.Command> fanOut = testKit.spawn(Behaviors.<SnapshotCollector.Command>receiveMessage(command -> {
+            collectors.forEach(collector -> collector.tell(command));
+            return Behaviors.same();
+        }));
+
+        List<ActorRef<Message>> ring = new ArrayList<>();
+        for (String name : names) {
+            ring.add(testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer.getRef(), fanOut), name));
+        }
+        for (int node = 0; node < ring.size(); node++) {
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + 1) % ring.size())));
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + ring.size() - 1) % ring.size())));
+        }
+        ring.get(0).tell(new ChandyLamportActor.BasicMessage(1, outside.getRef()));
+        // Two snapshots started by different nodes run at the same time
+        ring.get(0).tell(new ChandyLamportActor.InitiateSnapshot(1));
+        ring.get(2).tell(new ChandyLamportActor.InitiateSnapshot(2));
+
+        for (int snapshot = 0; snapshot < 2; snapshot++) {
+            GlobalSnapshot global = results.get(snapshot).get(10, TimeUnit.SECONDS);
+            assertEquals(4, global.size());
+            assertTrue(global.checkConsistency().toString(), global.isConsistent());
+        }
+
+        // The nodes survived both snapshots and take part in the next one
+        ring.get(1).tell(new ChandyLamportActor.InitiateSnapshot(3));
+        GlobalSnapshot third = results.get(2).get(10, TimeUnit.SECONDS);
+        assertTrue(third.checkConsistency().toString(), third.isConsistent());
+
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testInitiatorsMergeTheirRegionsIntoOneSnapshot() throws Exception {
+        ActorTestKit testKit = ActorTestKit.create();
+        Queue<SnapshotWriter.WriteSnapshot> writes = new ConcurrentLinkedQueue<>();
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(Behaviors.receive(SnapshotWriter.Command.class)
+                .onMessage(SnapshotWriter.WriteSnapshot.class, write -> {
+                    writes.add(write);
+                    return Behaviors.same();
+                })
+                .build());
+        TestProbe<Message> outside = testKit.createTestProbe();
+        List<String> names = new ArrayList<>();
+        for (int node = 0; node < 12; node++) {
+            names.add("Region" + node);
+        }
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(names, 7, Duration.ofSeconds(10), result));
+
+        List<ActorRef<Message>> ring = new ArrayList<>();
+        for (String name : names) {
+            ring.add(testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer, collector), name));
+        }
+        for (int node = 0; node < ring.size(); node++) {
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + 1) % ring.size())));
+            ring.get(node).tell(new ChandyLamportActor.AddNeighbor(ring.get((node + ring.size() - 1) % ring.size())));
+        }
+        ring.get(1).tell(new ChandyLamportActor.BasicMessage(1, outside.getRef()));
+        ring.get(6).tell(new ChandyLamportActor.BasicMessage(1, outside.getRef()));
+        // Three nodes start the same snapshot
+        ring.get(0).tell(new ChandyLamportActor.InitiateSnapshot(7));
+        ring.get(4).tell(new ChandyLamportActor.InitiateSnapshot(7));
+        ring.get(8).tell(new ChandyLamportActor.InitiateSnapshot(7));
+
+        GlobalSnapshot snapshot = result.get(10, TimeUnit.SECONDS);
+        assertEquals(12, snapshot.size());
+        assertEquals(24, snapshot.channelCount());
+        assertTrue(snapshot.checkConsistency().toString(), snapshot.isConsistent());
+
+        // Every node persisted the region it joined, and every initiator kept its own
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writes.size() < names.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Map<String, String> regions = new HashMap<>();
+        for (SnapshotWriter.WriteSnapshot write : writes) {
+            regions.put(write.nodeId, write.content.replaceAll(".*\"Region\": \"(\\w+)\".*", "$1"));
+        }
+        assertEquals(names.size(), regions.size());
+        assertEquals(new HashSet<>(Arrays.asList("Region0", "Region4", "Region8")), new HashSet<>(regions.values()));
+        for (String initiator : Arrays.asList("Region0", "Region4", "Region8")) {
+            assertEquals(initiator, regions.get(initiator));
+        }
+
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testQueryNeighborsAnswersAfterAddedNeighbors() {
+        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "QueryA");
+        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "QueryB");
+        ActorRef<Message> nodeC = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), snapshotWriter), "QueryC");
+        nodeA.tell(new ChandyLamportActor.AddNeighbor(nodeB));
+        nodeA.tell(new ChandyLamportActor.AddNeighbor(nodeC));
+
+        TestProbe<ChandyLamportActor.NeighborsResponse> probe = testKit.createTestProbe();
+        nodeA.tell(new ChandyLamportActor.QueryNeighbors(probe.getRef()));
+        assertEquals(new HashSet<>(Arrays.asList("QueryB", "QueryC")), probe.receiveMessage().neighbors);
+    }
+
+    @Test
+    public void testFormatterReusesItsBuffer() {
+        ActorRef<Message> nodeA = testKit.spawn(Behaviors.<Message>ignore(), "FormatA");
+        ActorRef<Message> nodeB = testKit.spawn(Behaviors.<Message>ignore(), "FormatB");
+        ChandyLamportActor.SnapshotFormatter formatter = new ChandyLamportActor.SnapshotFormatter();
+
+        int[][] values = {{1, -20, Integer.MIN_VALUE}, new int[200]};
+        Arrays.fill(values[1], 123456789);
+        String large = formatter.format("2024-01-01T00:00:00", Long.MAX_VALUE, "FormatA", -7, Arrays.asList(nodeA, nodeB), values, new int[]{3, 200}, 2);
+        assertTrue(large, large.startsWith("{\"Timestamp\": \"2024-01-01T00:00:00\", \"SnapshotId\": 9223372036854775807, \"Region\": \"FormatA\", \"State\": -7, \"ChannelStates\": {\"FormatA\": [1, -20, -2147483648], \"FormatB\": [123456789, "));
+        assertTrue(large, large.endsWith(", 123456789]}}"));
+
+        // A shorter snapshot leaves nothing of the previous one behind
+        String small = formatter.format("2024-01-01T00:00:01", 0, "FormatB", 0, Arrays.asList(nodeA, nodeB), new int[2][], new int[2], 1);
+        assertEquals("{\"Timestamp\": \"2024-01-01T00:00:01\", \"SnapshotId\": 0, \"Region\": \"FormatB\", \"State\": 0, \"ChannelStates\": {\"FormatA\": []}}", small);
+    }
+
+    @Test
+    public void testPeriodicSnapshotsUntilStopped() throws Exception {
+        ActorTestKit testKit = ActorTestKit.create();
+        Queue<SnapshotWriter.WriteSnapshot> writes = new ConcurrentLinkedQueue<>();
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(Behaviors.receive(SnapshotWriter.Command.class)
+                .onMessage(SnapshotWriter.WriteSnapshot.class, write -> {
+                    writes.add(write);
+                    return Behaviors.same();
+                })
+                .build());
+        ActorRef<Message> nodeA = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer), "PeriodicA");
+        ActorRef<Message> nodeB = testKit.spawn(ChandyLamportActor.create(new HashSet<>(), writer), "PeriodicB");
+        nodeA.tell(new ChandyLamportActor.AddNeighbor(nodeB));
+        nodeB.tell(new ChandyLamportActor.AddNeighbor(nodeA));
+
+        nodeA.tell(new ChandyLamportActor.StartPeriodicSnapshots(Duration.ofMillis(100)));
+        Thread.sleep(1000);
+        nodeA.tell(new ChandyLamportActor.StopPeriodicSnapshots());
+        // Let the last snapshot complete
+        Thread.sleep(300);
+
+        // Both nodes persisted every snapshot, each under its own snapshot id
+        Set<String> snapshotIds = new HashSet<>();
+        for (SnapshotWriter.WriteSnapshot write : writes) {
+            snapshotIds.add(write.content.replaceAll(".*\"SnapshotId\": (\\d+).*", "$1"));
+        }
+        assertTrue("Several snapshots were taken: " + snapshotIds, snapshotIds.size() >= 3);
+        assertEquals(2 * snapshotIds.size(), writes.size());
+
+        int written = writes.size();
+        Thread.sleep(300);
+        assertEquals("No snapshot is taken once stopped", written, writes.size());
+
+        testKit.shutdownTestKit();
+    }
 }
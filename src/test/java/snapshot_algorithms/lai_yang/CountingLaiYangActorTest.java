@@ -0,0 +1,87 @@
+package snapshot_algorithms.lai_yang;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import snapshot_algorithms.GlobalSnapshot;
+import snapshot_algorithms.LocalSnapshot;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SnapshotWriter;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CountingLaiYangActorTest {
+
+    static ActorTestKit testKit;
+
+    @BeforeClass
+    public static void setup() {
+        testKit = ActorTestKit.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testSnapshotOfCirculatingValuesIsConsistent() throws Exception {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        List<String> names = Arrays.asList("CountA", "CountB", "CountC", "CountD", "CountE", "CountF");
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(names, Duration.ofSeconds(10), result));
+
+        // Every node is connected to every other one, where flooding would multiply each value at every hop
+        List<ActorRef<Message>> network = new ArrayList<>();
+        for (String name : names) {
+            network.add(testKit.spawn(CountingLaiYangActor.create(new HashSet<>(), writer.getRef(), collector), name));
+        }
+        for (ActorRef<Message> node : network) {
+            for (ActorRef<Message> neighbor : network) {
+                if (node != neighbor) {
+                    node.tell(new LaiYangActor.AddNeighbor(neighbor));
+                }
+            }
+        }
+        network.get(0).tell(new LaiYangActor.PerformCalculation(1));
+        network.get(3).tell(new LaiYangActor.PerformCalculation(1));
+        network.get(4).tell(new LaiYangActor.InitiateSnapshot());
+
+        GlobalSnapshot snapshot = result.get(10, TimeUnit.SECONDS);
+        assertEquals(6, snapshot.size());
+        assertEquals(30, snapshot.channelCount());
+        assertTrue(snapshot.checkConsistency().toString(), snapshot.isConsistent());
+    }
+
+    @Test
+    public void testChannelIsRecordedOnceTheCountedWhiteMessagesArrived() {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        TestProbe<SnapshotCollector.Command> collector = testKit.createTestProbe();
+        ActorRef<Message> sender = testKit.spawn(Behaviors.<Message>ignore(), "CountSender");
+        ActorRef<Message> node = testKit.spawn(CountingLaiYangActor.create(new HashSet<>(), writer.getRef(), collector.getRef()), "CountNode");
+        node.tell(new LaiYangActor.AddNeighbor(sender));
+
+        // The presnap message overtakes the two white messages it counts
+        node.tell(new LaiYangActor.PresnapMessage(2, sender));
+        node.tell(new LaiYangActor.StateMessage(5, sender, false));
+        collector.expectNoMessage(Duration.ofMillis(200));
+        node.tell(new LaiYangActor.StateMessage(6, sender, false));
+
+        LocalSnapshot local = collector.expectMessageClass(SnapshotCollector.LocalSnapshotRecorded.class).snapshot;
+        assertEquals("CountNode", local.node);
+        assertEquals(Arrays.asList(5, 6), local.channels.get("CountSender"));
+        // Red messages are not part of any channel state
+        node.tell(new LaiYangActor.StateMessage(7, sender, true));
+        collector.expectNoMessage(Duration.ofMillis(200));
+    }
+}
@@ -0,0 +1,125 @@
+package snapshot_algorithms.lai_yang;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import snapshot_algorithms.Message;
+
+import java.io.UncheckedIOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class InTransitRecordingTest {
+
+    static ActorTestKit testKit;
+    static ActorRef<Message> senderA;
+    static ActorRef<Message> senderB;
+
+    @BeforeClass
+    public static void setup() {
+        testKit = ActorTestKit.create();
+        senderA = testKit.spawn(Behaviors.<Message>ignore(), "SenderA");
+        senderB = testKit.spawn(Behaviors.<Message>ignore(), "SenderB");
+    }
+
+    @AfterClass
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    // "sender:value" for white and "sender:value!" for red messages, per sender
+    private static Map<String, List<String>> contents(InTransitRecording.View view) {
+        Map<String, List<String>> contents = new TreeMap<>();
+        view.forEach((sender, value, red) -> contents.computeIfAbsent(sender.path().name(), name -> new ArrayList<>()).add(value + (red ? "!" : "")));
+        return contents;
+    }
+
+    @Test
+    public void testRecordsPerChannelInOrder() {
+        InTransitRecording recording = new InTransitRecording();
+        recording.record(senderA, 1, false);
+        recording.record(senderB, -2, true);
+        for (int value = 2; value <= 20; value++) {
+            recording.record(senderA, value, false);
+        }
+        recording.record(senderA, Integer.MIN_VALUE, true);
+
+        InTransitRecording.View view = recording.view();
+        assertEquals(21 + 1, view.size());
+        List<String> expectedA = new ArrayList<>();
+        for (int value = 1; value <= 20; value++) {
+            expectedA.add(String.valueOf(value));
+        }
+        expectedA.add(Integer.MIN_VALUE + "!");
+        assertEquals(expectedA, contents(view).get("SenderA"));
+        assertEquals(Collections.singletonList("-2!"), contents(view).get("SenderB"));
+    }
+
+    @Test
+    public void testViewIsSharedAndDoesNotChange() {
+        InTransitRecording recording = new InTransitRecording();
+        recording.record(senderA, 1, false);
+        InTransitRecording.View view = recording.view();
+        assertSame("Nothing new was recorded", view, recording.view());
+
+        recording.record(senderA, 2, false);
+        recording.record(senderB, 3, false);
+        assertEquals(Collections.singletonMap("SenderA", Collections.singletonList("1")), contents(view));
+        assertNotSame(view, recording.view());
+        assertEquals(3, recording.view().size());
+    }
+
+    @Test
+    public void testViewsOutliveClearUntilClose() {
+        InTransitRecording recording = new InTransitRecording(2);
+        recording.record(senderA, 1, false);
+        recording.record(senderA, 2, true);
+        recording.record(senderB, 3, false);
+        InTransitRecording.View before = recording.view();
+
+        recording.clear();
+        recording.record(senderB, 4, false);
+        recording.record(senderB, 5, false);
+
+        assertEquals(Arrays.asList("1", "2!"), contents(before).get("SenderA"));
+        assertEquals(Collections.singletonList("3"), contents(before).get("SenderB"));
+        assertEquals(Collections.singletonMap("SenderB", Arrays.asList("4", "5")), contents(recording.view()));
+
+        recording.close();
+        try {
+            before.forEach((sender, value, red) -> { });
+            fail("Spill files are deleted on close");
+        } catch (UncheckedIOException expected) {
+        }
+    }
+
+    @Test
+    public void testSpillsToDiskPastTheThreshold() {
+        InTransitRecording recording = new InTransitRecording(4);
+        for (int value = 0; value < 10; value++) {
+            recording.record(value % 2 == 0 ? senderA : senderB, value, value == 9);
+        }
+        InTransitRecording.View before = recording.view();
+        assertEquals(10, recording.size());
+        assertEquals(Arrays.asList("0", "2", "4", "6", "8"), contents(before).get("SenderA"));
+        assertEquals(Arrays.asList("1", "3", "5", "7", "9!"), contents(before).get("SenderB"));
+
+        // Views keep covering what was recorded when they were taken, across later spills
+        for (int value = 10; value < 20; value++) {
+            recording.record(senderA, value, false);
+        }
+        assertEquals(10, contents(before).values().stream().mapToInt(List::size).sum());
+        assertEquals(15, contents(recording.view()).get("SenderA").size());
+
+        recording.close();
+        try {
+            before.forEach((sender, value, red) -> { });
+            fail("The spill file is deleted on close");
+        } catch (UncheckedIOException expected) {
+        }
+    }
+}
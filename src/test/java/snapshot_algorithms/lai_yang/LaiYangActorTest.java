@@ -1,31 +1,46 @@
 package snapshot_algorithms.lai_yang;
 
 import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import snapshot_algorithms.GlobalSnapshot;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+import snapshot_algorithms.storage.SnapshotRecord;
+import snapshot_algorithms.storage.SnapshotWriter;
 import util.GraphParser;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
-import static util.GraphParser.clearSnapshotsDirectory;
+import static snapshot_algorithms.SnapshotsDirectory.clearSnapshotsDirectory;
 
 public class LaiYangActorTest {
 
     static ActorTestKit testKit;
+    // Shared by every node of a test, as in Main
+    ActorRef<SnapshotWriter.Command> snapshotWriter;
 
     @BeforeClass
-    public static void setup() throws IOException {
+    public static void setup() {
 
         testKit = ActorTestKit.create();
+    }
+
+    // Clearing the directory closes the store a writer holds, so each test starts from an empty one with its own writer
+    @Before
+    public void spawnSnapshotWriter() throws IOException {
         clearSnapshotsDirectory();
+        snapshotWriter = testKit.spawn(SnapshotWriter.create());
     }
 
     @AfterClass
@@ -41,8 +56,8 @@ public class LaiYangActorTest {
         Map<String, ActorRef<Message>> nodes = new HashMap<>();
 
         edges.forEach(edge -> {
-            nodes.computeIfAbsent(edge.getSource(), sourceId -> testKit.spawn(LaiYangActor.create(new HashSet<>()), sourceId));
-            nodes.computeIfAbsent(edge.getDestination(), destId -> testKit.spawn(LaiYangActor.create(new HashSet<>()), destId));
+            nodes.computeIfAbsent(edge.getSource(), sourceId -> testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), sourceId));
+            nodes.computeIfAbsent(edge.getDestination(), destId -> testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), destId));
         });
 
         edges.forEach(edge -> {
@@ -55,12 +70,12 @@ public class LaiYangActorTest {
     }
 
     // Method to parse the snapshot file and return the state value
-    private int parseSnapshotAndGetState(String filename) throws Exception {
-        String content = new String(Files.readAllBytes(Paths.get("snapshots", filename)));
+    private int parseSnapshotAndGetState(SnapshotRecord snapshot) throws Exception {
+        String content = snapshot.getContent();
         String searchKey = "\"State\":";
         int startIndex = content.indexOf(searchKey) + searchKey.length();
         if (startIndex == -1) {
-            throw new RuntimeException("State not found in snapshot file: " + filename);
+            throw new RuntimeException("State not found in snapshot of node: " + snapshot.getNodeId());
         }
         int endIndex = content.indexOf(",", startIndex);
         endIndex = endIndex == -1 ? content.indexOf("}", startIndex) : endIndex; // Handle if "State" is the last element
@@ -73,9 +88,9 @@ public class LaiYangActorTest {
     public void testGraphCreationAndSnapshotInitiation() throws Exception {
 
         // Create nodes
-        ActorRef<Message> nodeA = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeA");
-        ActorRef<Message> nodeB = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeB");
-        ActorRef<Message> nodeC = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeC");
+        ActorRef<Message> nodeA = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeA");
+        ActorRef<Message> nodeB = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeB");
+        ActorRef<Message> nodeC = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeC");
 
         // Dynamically add neighbors using AddNeighbor message
         nodeA.tell(new LaiYangActor.AddNeighbor(nodeB));
@@ -88,11 +103,10 @@ public class LaiYangActorTest {
         // Allow some time for the snapshot initiation to propagate
         Thread.sleep(2000);
 
-        File snapshotsDir = new File("snapshots");
-        File[] files = snapshotsDir.listFiles((dir, name) -> name.startsWith("snapshot_NodeA") && name.endsWith(".json"));
-        assertTrue("Snapshot file for NodeA should exist", files != null && files.length > 0);
+        SnapshotRecord snapshot = SegmentedSnapshotStore.open().latest("NodeA");
+        assertTrue("Snapshot for NodeA should exist", snapshot != null);
 
-        int stateNodeA = parseSnapshotAndGetState(files[files.length - 1].getName());
+        int stateNodeA = parseSnapshotAndGetState(snapshot);
 
         Thread.sleep(2000);
 
@@ -103,12 +117,10 @@ public class LaiYangActorTest {
 
     @Test
     public void testSnapshotCreationAndContent() throws Exception {
-        clearSnapshotsDirectory();
-
-        ActorRef<Message> nodeA = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeA");
-        ActorRef<Message> nodeB = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeB");
-        ActorRef<Message> nodeC = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeC");
-        ActorRef<Message> nodeD = testKit.spawn(LaiYangActor.create(new HashSet<>()), "NodeD");
+        ActorRef<Message> nodeA = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeA");
+        ActorRef<Message> nodeB = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeB");
+        ActorRef<Message> nodeC = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeC");
+        ActorRef<Message> nodeD = testKit.spawn(LaiYangActor.create(new HashSet<>(), snapshotWriter), "NodeD");
 
         // Connect nodes
         nodeA.tell(new LaiYangActor.AddNeighbor(nodeB));
@@ -125,11 +137,10 @@ public class LaiYangActorTest {
         // Give some time for snapshot to be taken
         Thread.sleep(1000);
 
-        File snapshotsDir = new File("snapshots");
-        File[] files = snapshotsDir.listFiles((dir, name) -> name.startsWith("snapshot_NodeA") && name.endsWith(".json"));
-        assertTrue("Snapshot file for NodeA should exist", files != null && files.length > 0);
+        SnapshotRecord snapshot = SegmentedSnapshotStore.open().latest("NodeA");
+        assertTrue("Snapshot for NodeA should exist", snapshot != null);
 
-        int stateNodeA = parseSnapshotAndGetState(files[files.length - 1].getName());
+        int stateNodeA = parseSnapshotAndGetState(snapshot);
 
         assertTrue("The state of NodeA after snapshot should be 20", stateNodeA == 20);
 
@@ -138,9 +149,6 @@ public class LaiYangActorTest {
 
     @Test
     public void testGraphSnapshotFromDotFile() throws Exception {
-        clearSnapshotsDirectory();
-
-
         Map<String, ActorRef<Message>> network = buildNetworkFromDotFile("src/test/resources/graph/testGraph.dot");
 
         ActorRef<Message> initNode = network.get("0");
@@ -153,7 +161,6 @@ public class LaiYangActorTest {
 
     @Test
     public void testGraphSnapshotFromDotFileTwo() throws Exception {
-        clearSnapshotsDirectory();
         Thread.sleep(2000);
 
         Map<String, ActorRef<Message>> network = buildNetworkFromDotFile("src/test/resources/graph/testGraph2.dot");
@@ -170,7 +177,6 @@ public class LaiYangActorTest {
 
     @Test
     public void testGraphSnapshotFromDotFileThree() throws Exception {
-        clearSnapshotsDirectory();
         Thread.sleep(2000);
         // Build the network from the dot file
         Map<String, ActorRef<Message>> network = buildNetworkFromDotFile("src/test/resources/graph/testGraph3.dot");
@@ -188,7 +194,6 @@ public class LaiYangActorTest {
 
     @Test
     public void testGraphSnapshotFromDotFileThreeScenarioTwo() throws Exception {
-        clearSnapshotsDirectory();
         // Build the network from the dot file
         Map<String, ActorRef<Message>> network = buildNetworkFromDotFile("src/test/resources/graph/testGraph3.dot");
 
@@ -205,12 +210,53 @@ public class LaiYangActorTest {
         // Allow some time for the snapshot process to complete
         Thread.sleep(5000);
 
-        File snapshotDir = new File("snapshots");
-        File[] snapshotFiles = snapshotDir.listFiles((dir, name) -> name.startsWith("snapshot_7") && name.endsWith(".json"));
-        assertTrue("Snapshot file for Node 7 should exist", snapshotFiles != null && snapshotFiles.length > 0);
+        SnapshotRecord snapshot = SegmentedSnapshotStore.open().latest("7");
+        assertTrue("Snapshot for Node 7 should exist", snapshot != null);
 
 
         Thread.sleep(2000);
     }
 
+    @Test
+    public void testCollectorCompletesOncePresnapArrivedOnEveryChannel() throws Exception {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(Arrays.asList("LineA", "LineB", "LineC"), Duration.ofSeconds(10), result));
+        ActorRef<Message> nodeA = testKit.spawn(LaiYangActor.create(new HashSet<>(), writer.getRef(), collector), "LineA");
+        ActorRef<Message> nodeB = testKit.spawn(LaiYangActor.create(new HashSet<>(), writer.getRef(), collector), "LineB");
+        ActorRef<Message> nodeC = testKit.spawn(LaiYangActor.create(new HashSet<>(), writer.getRef(), collector), "LineC");
+        nodeA.tell(new LaiYangActor.AddNeighbor(nodeB));
+        nodeB.tell(new LaiYangActor.AddNeighbor(nodeA));
+        nodeB.tell(new LaiYangActor.AddNeighbor(nodeC));
+        nodeC.tell(new LaiYangActor.AddNeighbor(nodeB));
+
+        nodeA.tell(new LaiYangActor.InitiateSnapshot());
+
+        GlobalSnapshot snapshot = result.get(10, TimeUnit.SECONDS);
+        assertEquals(3, snapshot.size());
+        assertEquals(new HashSet<>(Arrays.asList("LineA", "LineC")), snapshot.get("LineB").channels.keySet());
+    }
+
+    @Test
+    public void testQueryStateSharesTheRecordedMessages() {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        TestProbe<Message> replies = testKit.createTestProbe();
+        ActorRef<Message> sender = testKit.createTestProbe(Message.class).getRef();
+        ActorRef<Message> node = testKit.spawn(LaiYangActor.create(new HashSet<>(), writer.getRef(), null, 2), "QueryNode");
+
+        node.tell(new LaiYangActor.InitiateSnapshot());
+        for (int value = 0; value < 5; value++) {
+            node.tell(new LaiYangActor.StateMessage(value, sender, false));
+        }
+        node.tell(new LaiYangActor.QueryState(replies.getRef()));
+        node.tell(new LaiYangActor.QueryState(replies.getRef()));
+        LaiYangActor.StateResponse first = replies.expectMessageClass(LaiYangActor.StateResponse.class);
+        LaiYangActor.StateResponse second = replies.expectMessageClass(LaiYangActor.StateResponse.class);
+
+        assertTrue(first.recorded);
+        assertSame(first.inTransitMessages, second.inTransitMessages);
+        List<Integer> values = new ArrayList<>();
+        first.inTransitMessages.forEach((from, value, red) -> values.add(value));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), values);
+    }
 }
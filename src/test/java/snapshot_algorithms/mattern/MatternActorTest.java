@@ -0,0 +1,98 @@
+package snapshot_algorithms.mattern;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import snapshot_algorithms.*;
+import snapshot_algorithms.storage.SnapshotWriter;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MatternActorTest {
+
+    static ActorTestKit testKit;
+
+    @BeforeClass
+    public static void setup() {
+        testKit = ActorTestKit.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testSnapshotOfCirculatingValuesIsConsistent() throws Exception {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        List<String> names = Arrays.asList("MatternA", "MatternB", "MatternC", "MatternD", "MatternE", "MatternF");
+        CompletableFuture<GlobalSnapshot> result = new CompletableFuture<>();
+        ActorRef<SnapshotCollector.Command> collector = testKit.spawn(SnapshotCollector.create(names, Duration.ofSeconds(10), result));
+
+        List<ActorRef<Message>> network = new ArrayList<>();
+        for (String name : names) {
+            network.add(testKit.spawn(MatternActor.create(new HashSet<>(), writer.getRef(), collector), name));
+        }
+        for (ActorRef<Message> node : network) {
+            for (ActorRef<Message> neighbor : network) {
+                if (node != neighbor) {
+                    node.tell(new MatternActor.AddNeighbor(neighbor));
+                }
+            }
+        }
+        network.get(0).tell(new MatternActor.PerformCalculation(1));
+        network.get(3).tell(new MatternActor.PerformCalculation(1));
+        network.get(4).tell(new MatternActor.InitiateSnapshot(network));
+
+        GlobalSnapshot snapshot = result.get(10, TimeUnit.SECONDS);
+        assertEquals(6, snapshot.size());
+        assertTrue(snapshot.checkConsistency().toString(), snapshot.isConsistent());
+        // Every node recorded before its clock passed the initiator's advance
+        int snapshotTime = snapshot.get("MatternE").snapshotClock + 1;
+        for (String name : names) {
+            assertTrue(name, snapshot.get(name).snapshotClock < snapshotTime);
+        }
+    }
+
+    @Test
+    public void testRecordsBeforeTheFirstMessageStampedAtTheSnapshotTime() {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        TestProbe<SnapshotCollector.Command> collector = testKit.createTestProbe();
+        TestProbe<Message> initiator = testKit.createTestProbe();
+        ActorRef<Message> sender = testKit.spawn(Behaviors.<Message>ignore(), "MatternSender");
+        ActorRef<Message> node = testKit.spawn(MatternActor.create(new HashSet<>(), writer.getRef(), collector.getRef()), "MatternNode");
+        int initiatorIndex = NodeIndex.shared().indexOf(initiator.getRef().path().name());
+
+        VectorClock time = new VectorClock();
+        time.set(initiatorIndex, 1);
+        node.tell(new MatternActor.SnapshotTime(time, initiator.getRef()));
+        initiator.expectMessageClass(MatternActor.SnapshotTimeAcknowledged.class);
+
+        VectorClock before = new VectorClock();
+        VectorClock after = time.copy();
+        node.tell(new MatternActor.BasicMessage(5, sender, before));
+        node.tell(new MatternActor.BasicMessage(6, sender, after));
+        assertEquals(Collections.emptyMap(), initiator.expectMessageClass(MatternActor.SentBeforeSnapshot.class).counts);
+        // Sent before the snapshot time but received after the node recorded
+        node.tell(new MatternActor.BasicMessage(7, sender, before));
+        node.tell(new MatternActor.ExpectedMessages(Collections.singletonMap(sender, 3)));
+        collector.expectNoMessage(Duration.ofMillis(200));
+        node.tell(new MatternActor.BasicMessage(8, sender, before));
+
+        LocalSnapshot local = collector.expectMessageClass(SnapshotCollector.LocalSnapshotRecorded.class).snapshot;
+        assertEquals("MatternNode", local.node);
+        assertEquals(10, local.state);
+        assertEquals(Arrays.asList(7, 8), local.channels.get("MatternSender"));
+        assertEquals(Integer.valueOf(1), local.received.get("MatternSender"));
+        assertEquals(0, local.snapshotClock);
+    }
+}
@@ -9,13 +9,11 @@ import akka.actor.typed.javadsl.AskPattern;
 import org.junit.ClassRule;
 import org.junit.Test;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.VectorClock;
+import snapshot_algorithms.storage.SegmentedSnapshotStore;
+import snapshot_algorithms.storage.SnapshotWriter;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.Duration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
@@ -39,8 +37,6 @@ public class CheckpointRecoveryManagerTest {
 
     @Test
     public void testSnapshotCreation() {
-        String snapshotDirectoryPath = "snapshots";
-        Path snapshotDir = Paths.get(snapshotDirectoryPath);
         try {
             // Trigger actions that should create snapshots
             ActorRef<CheckpointRecoveryManager.Command> checkpointManager = testKit.spawn(CheckpointRecoveryManager.create());
@@ -50,11 +46,10 @@ public class CheckpointRecoveryManagerTest {
             // Allow some time for files to be written
             Thread.sleep(2000);
 
-            // Check if the snapshot directory contains any files
-            boolean hasSnapshots = Files.list(snapshotDir)
-                    .anyMatch(path -> path.toString().endsWith(".json"));
+            // Check if the snapshot store contains any snapshots
+            boolean hasSnapshots = !SegmentedSnapshotStore.open().nodeIds().isEmpty();
             assertTrue("Snapshots should have been created", hasSnapshots);
-        } catch (IOException | InterruptedException e) {
+        } catch (InterruptedException e) {
             fail("Failed due to an exception: " + e.getMessage());
         }
     }
@@ -72,12 +67,54 @@ public class CheckpointRecoveryManagerTest {
         checkpointManager.tell(new CheckpointRecoveryManager.InitiateNetworkSnapshot());
         checkpointManager.tell(new CheckpointRecoveryManager.TerminateActor("0"));
 
-        assertNotNull("Node 0 should have been recreated", testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0), "0"));
+        assertNotNull("Node 0 should have been recreated", testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, testKit.spawn(SnapshotWriter.create())), "0"));
 
         testKit.shutdownTestKit();
     }
 
 
+    @Test
+    public void testNodesFailingTogetherAreRecoveredTogether() throws InterruptedException {
+        ActorRef<CheckpointRecoveryManager.Command> checkpointManager = testKit.spawn(CheckpointRecoveryManager.create());
+        TestProbe<ActorRef<Message>> probe = testKit.createTestProbe();
+        checkpointManager.tell(new CheckpointRecoveryManager.BuildNetworkFromDotFile("src/test/resources/graph/testGraph.dot"));
+        checkpointManager.tell(new CheckpointRecoveryManager.InitiateNetworkSnapshot());
+        // Let the writer persist the checkpoints
+        Thread.sleep(1000);
+
+        checkpointManager.tell(new CheckpointRecoveryManager.TerminateActor("1"));
+        checkpointManager.tell(new CheckpointRecoveryManager.TerminateActor("2"));
+
+        probe.awaitAssert(Duration.ofSeconds(5), () -> {
+            for (String nodeId : new String[]{"1", "2"}) {
+                checkpointManager.tell(new CheckpointRecoveryManager.GetActorRef(nodeId, probe.getRef()));
+                ActorRef<Message> node = probe.receiveMessage();
+                assertNotNull(nodeId + " should be registered again", node);
+                assertEquals(nodeId + "_recovered", node.path().name());
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testAwaitRecoveryIsAnsweredOnceTheReplayFinished() throws InterruptedException {
+        ActorRef<CheckpointRecoveryManager.Command> checkpointManager = testKit.spawn(CheckpointRecoveryManager.create());
+        TestProbe<CheckpointRecoveryManager.RecoveryCompleted> probe = testKit.createTestProbe();
+        checkpointManager.tell(new CheckpointRecoveryManager.BuildNetworkFromDotFile("src/test/resources/graph/testGraph.dot"));
+        checkpointManager.tell(new CheckpointRecoveryManager.InitiateNetworkSnapshot());
+        // Let the writer persist the checkpoints
+        Thread.sleep(1000);
+
+        checkpointManager.tell(new CheckpointRecoveryManager.AwaitRecovery("2", probe.getRef()));
+        // Still up, so nothing is answered until it fails and is recovered
+        probe.expectNoMessage(Duration.ofMillis(200));
+        checkpointManager.tell(new CheckpointRecoveryManager.TerminateActor("2"));
+
+        CheckpointRecoveryManager.RecoveryCompleted completed = probe.receiveMessage(Duration.ofSeconds(5));
+        assertEquals("2", completed.actorId);
+        assertTrue("2 should be recovered from its checkpoint", completed.recovered);
+    }
+
     @Test
     public void testActorRecoveryFromSnapshotRecovery() throws InterruptedException, ExecutionException {
         // Create the actor system and the checkpoint manager actor
@@ -112,10 +149,10 @@ public class CheckpointRecoveryManagerTest {
         assertEquals(true, actor1 != null);
 
         // Send messages to actors to change state
-        actor0.tell(new PetersonKearnsActor.BasicMessage(10, actor1, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
+        actor0.tell(new PetersonKearnsActor.BasicMessage(10, actor1, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
 
         // Allow time for messages to be processed
         Thread.sleep(2000);
@@ -166,10 +203,10 @@ public class CheckpointRecoveryManagerTest {
         assertEquals(true, actor1 != null);
 
         // Send messages to actors to change state
-        actor0.tell(new PetersonKearnsActor.BasicMessage(10, actor1, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
+        actor0.tell(new PetersonKearnsActor.BasicMessage(10, actor1, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
 
         // Allow time for messages to be processed
         Thread.sleep(2000);
@@ -178,8 +215,8 @@ public class CheckpointRecoveryManagerTest {
         system.tell(new CheckpointRecoveryManager.InitiateNetworkSnapshot());
         Thread.sleep(2000);
 
-        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new HashMap<>()));
-        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new HashMap<>()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(10, actor0, new VectorClock()));
+        actor1.tell(new PetersonKearnsActor.BasicMessage(20, actor0, new VectorClock()));
 
         // Terminate an actor
         system.tell(new CheckpointRecoveryManager.TerminateActor("0"));
@@ -0,0 +1,261 @@
+package snapshot_algorithms.peterson_kearns;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.VectorClock;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class MessageLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentAppendsAreGroupCommitted() throws Exception {
+        Path logPath = folder.getRoot().toPath().resolve("message-log");
+        MessageLog messageLog = new MessageLog(logPath, new MessageLog.FlushPolicy(1000, Duration.ofMillis(20), false));
+
+        // Several nodes appending at the same time, as the Peterson-Kearns actors do
+        List<Thread> nodes = new ArrayList<>();
+        List<CompletableFuture<Void>> acknowledgements = new ArrayList<>();
+        for (int node = 0; node < 4; node++) {
+            String nodeId = String.valueOf(node);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    CompletableFuture<Void> ack = messageLog.append(nodeId, "9", i, clock(nodeId, i + 1));
+                    synchronized (acknowledgements) {
+                        acknowledgements.add(ack);
+                    }
+                }
+            });
+            nodes.add(thread);
+            thread.start();
+        }
+        for (Thread thread : nodes) {
+            thread.join();
+        }
+        CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture<?>[0])).get();
+        assertTrue("Entries should be written in groups, not one by one", messageLog.getCommitCount() < 1000);
+        List<Path> segments = messageLog.segments();
+        messageLog.close();
+
+        assertEquals(1, segments.size());
+        Set<String> distinct = new HashSet<>();
+        try (MessageLogReader reader = new MessageLogReader(segments.get(0))) {
+            while (reader.next()) {
+                String sender = reader.nodeName(reader.sender());
+                assertEquals("9", reader.nodeName(reader.receiver()));
+                assertEquals(1, reader.clockSize());
+                assertEquals(sender, reader.nodeName(reader.clockNode(0)));
+                assertEquals(reader.value() + 1, reader.clockValue(0));
+                distinct.add(sender + ":" + reader.value());
+            }
+            assertFalse(reader.isTruncated());
+        }
+        assertEquals("Every entry should be in the log exactly once", 1000, distinct.size());
+    }
+
+    @Test
+    public void testFlushWaitsForQueuedEntries() throws Exception {
+        Path logPath = folder.getRoot().toPath().resolve("flushed");
+        MessageLog messageLog = new MessageLog(logPath, new MessageLog.FlushPolicy(1, Duration.ZERO, true));
+
+        messageLog.append("1", "2", 5, clock("1", 3));
+        messageLog.append("2", "1", 7, clock("2", 4));
+        messageLog.flush().get();
+
+        try (MessageLogReader reader = new MessageLogReader(messageLog.segments().get(0))) {
+            assertTrue(reader.next());
+            assertEquals(5, reader.value());
+            assertTrue(reader.next());
+            assertEquals(7, reader.value());
+            assertFalse(reader.next());
+        }
+        messageLog.close();
+
+        assertTrue("Appends after close should fail", messageLog.append("1", "2", 0, clock()).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCorruptRecordLengthStopsReading() throws Exception {
+        byte[][] corruptLengths = {
+                // Integer.MAX_VALUE, which overflowed the length check
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07},
+                // Above the maximum record size
+                {(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01},
+                // Below the maximum but beyond the end of the file
+                {(byte) 0x80, (byte) 0x80, 0x01, MessageLog.MESSAGE_RECORD, 0, 1}
+        };
+        for (int i = 0; i < corruptLengths.length; i++) {
+            MessageLog messageLog = new MessageLog(folder.getRoot().toPath().resolve("corrupt" + i), MessageLog.FlushPolicy.DEFAULT);
+            messageLog.append("1", "2", 1, clock("1", 1)).get();
+            Path logPath = messageLog.segments().get(0);
+            messageLog.close();
+
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(corruptLengths[i]));
+            }
+            try (MessageLogReader reader = new MessageLogReader(logPath)) {
+                assertTrue(reader.next());
+                long intact = reader.validLength();
+                assertFalse(reader.next());
+                assertTrue("The corrupt length should be detected", reader.isTruncated());
+                assertEquals(intact, reader.validLength());
+            }
+        }
+    }
+
+    @Test
+    public void testTornRecordIsTruncatedOnReopen() throws Exception {
+        Path logDirectory = folder.getRoot().toPath().resolve("torn");
+        MessageLog messageLog = new MessageLog(logDirectory, MessageLog.FlushPolicy.DEFAULT);
+        messageLog.append("1", "2", 1, clock("1", 1)).get();
+        Path logPath = messageLog.segments().get(0);
+        messageLog.close();
+
+        // Simulate a crash in the middle of writing the next record
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{20, MessageLog.MESSAGE_RECORD, 0, 1}));
+        }
+        try (MessageLogReader reader = new MessageLogReader(logPath)) {
+            assertTrue(reader.next());
+            assertFalse(reader.next());
+            assertTrue("The torn record should be detected", reader.isTruncated());
+        }
+
+        // Reopening cuts the torn record off and keeps the node ids defined before it
+        messageLog = new MessageLog(logDirectory, MessageLog.FlushPolicy.DEFAULT);
+        messageLog.append("2", "1", 2, clock("2", 1)).get();
+        messageLog.close();
+
+        try (MessageLogReader reader = new MessageLogReader(logPath)) {
+            assertTrue(reader.next());
+            assertEquals("1", reader.nodeName(reader.sender()));
+            assertTrue(reader.next());
+            assertEquals("2", reader.nodeName(reader.sender()));
+            assertEquals("1", reader.nodeName(reader.receiver()));
+            assertEquals(2, reader.nodeCount());
+            assertFalse(reader.next());
+            assertFalse(reader.isTruncated());
+        }
+    }
+
+    @Test
+    public void testSegmentsBelowRecoveryLineAreDeleted() throws Exception {
+        Path logDirectory = folder.getRoot().toPath().resolve("segmented");
+        // Tiny segments and one record per commit, so every commit after the first starts a new segment
+        MessageLog messageLog = new MessageLog(logDirectory, new MessageLog.FlushPolicy(1, Duration.ZERO, false), 1);
+        for (int i = 1; i <= 5; i++) {
+            messageLog.append("1", "2", i, clock("1", i, "2", i)).get();
+        }
+        assertEquals(5, messageLog.segments().size());
+
+        // Messages logged below clock 3 of their receiver are never replayed; the one logged at 3 may still be
+        assertEquals(2, messageLog.truncateBelow(clock("1", 3, "2", 3)));
+        List<Path> remaining = messageLog.segments();
+        assertEquals(3, remaining.size());
+        try (MessageLogReader reader = new MessageLogReader(remaining.get(0))) {
+            assertTrue("Every segment defines its own node ids", reader.next());
+            assertEquals("1", reader.nodeName(reader.sender()));
+            assertEquals(3, reader.value());
+        }
+
+        // The active segment is never deleted, even if it is below the line
+        assertEquals(2, messageLog.truncateBelow(clock("1", 10, "2", 10)));
+        assertEquals(1, messageLog.segments().size());
+        messageLog.append("2", "1", 6, clock("1", 6, "2", 6)).get();
+        messageLog.close();
+    }
+
+    @Test
+    public void testSealedSegmentsAreReadOnceForTruncation() throws Exception {
+        Path logDirectory = folder.getRoot().toPath().resolve("bounded");
+        MessageLog messageLog = new MessageLog(logDirectory, new MessageLog.FlushPolicy(1, Duration.ZERO, false), 1);
+        for (int i = 1; i <= 3; i++) {
+            messageLog.append("1", "2", i, clock("1", i, "2", i)).get();
+        }
+        assertEquals(0, messageLog.truncateBelow(clock("1", 1, "2", 1)));
+
+        // Emptied segments would look deletable; the bounds remembered from the first pass still hold them
+        List<Path> segments = messageLog.segments();
+        for (Path segment : segments.subList(0, segments.size() - 1)) {
+            Files.write(segment, new byte[0]);
+        }
+        assertEquals(0, messageLog.truncateBelow(clock("1", 1, "2", 1)));
+        assertEquals(2, messageLog.truncateBelow(clock("1", 3, "2", 3)));
+        messageLog.close();
+    }
+
+    @Test
+    public void testCompactionKeepsMessagesLoggedAtTheRecoveryLine() throws Exception {
+        Path logDirectory = folder.getRoot().toPath().resolve("compacted");
+        MessageLog messageLog = new MessageLog(logDirectory, new MessageLog.FlushPolicy(1, Duration.ZERO, false), 1);
+        // Both nodes took their snapshot at clock 2 of B. B logs the clock it had before counting each reception,
+        // so its first message after the snapshot is logged at exactly the snapshot clock
+        messageLog.append("A", "B", 1, clock("A", 1, "B", 1)).get();
+        messageLog.append("A", "B", 2, clock("A", 2, "B", 2)).get();
+        messageLog.append("A", "B", 3, clock("A", 3, "B", 3)).get();
+        VectorClock snapshot = clock("A", 2, "B", 2);
+
+        assertEquals("Only the message before the snapshot can go", 1, messageLog.truncateBelow(snapshot));
+
+        // Recovering B from its snapshot replays everything it received since
+        List<Integer> replayed = new ArrayList<>();
+        messageLog.forEachReceived("B", snapshot.get(NodeIndex.shared().indexOf("B")), record -> replayed.add(record.value()));
+        assertEquals(List.of(2, 3), replayed);
+        messageLog.close();
+    }
+
+    @Test
+    public void testReceivedMessagesAreReadThroughTheIndex() throws Exception {
+        Path logDirectory = folder.getRoot().toPath().resolve("indexed");
+        MessageLog messageLog = new MessageLog(logDirectory, new MessageLog.FlushPolicy(1, Duration.ZERO, false), 64);
+        // Node A logs its own clock component before counting each reception; B receives in between
+        for (int i = 0; i < 10; i++) {
+            messageLog.append("B", "A", i, clock("A", i, "B", i)).get();
+            messageLog.append("A", "B", 100 + i, clock("A", i, "B", i)).get();
+        }
+        assertTrue("The messages should span several segments", messageLog.segments().size() > 2);
+        messageLog.close();
+
+        // Reopening loads the indexes of the sealed segments from disk
+        messageLog = new MessageLog(logDirectory, MessageLog.FlushPolicy.DEFAULT, 64);
+        List<Integer> values = new ArrayList<>();
+        messageLog.forEachReceived("A", 6, record -> {
+            assertEquals("B", record.nodeName(record.sender()));
+            assertEquals("A", record.nodeName(record.receiver()));
+            values.add(record.value());
+        });
+        assertEquals(List.of(6, 7, 8, 9), values);
+
+        // New messages are indexed as soon as they are committed
+        messageLog.append("B", "A", 10, clock("A", 10, "B", 10)).get();
+        values.clear();
+        messageLog.forEachReceived("A", 9, record -> values.add(record.value()));
+        assertEquals(List.of(9, 10), values);
+        messageLog.close();
+    }
+
+    private static VectorClock clock(Object... namesAndCounters) {
+        VectorClock clock = new VectorClock();
+        for (int i = 0; i < namesAndCounters.length; i += 2) {
+            clock.set(NodeIndex.shared().indexOf((String) namesAndCounters[i]), (Integer) namesAndCounters[i + 1]);
+        }
+        return clock;
+    }
+}
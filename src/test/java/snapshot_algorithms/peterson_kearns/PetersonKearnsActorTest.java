@@ -7,18 +7,27 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import snapshot_algorithms.Message;
+import snapshot_algorithms.NodeIndex;
+import snapshot_algorithms.VectorClock;
+import snapshot_algorithms.storage.SnapshotWriter;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
+
+import static org.junit.Assert.*;
 
 
 public class PetersonKearnsActorTest {
 
     static final ActorTestKit testKit = ActorTestKit.create();
+    static ActorRef<SnapshotWriter.Command> snapshotWriter;
 
     @BeforeClass
     public static void setup() {
+        snapshotWriter = testKit.spawn(SnapshotWriter.create(), "snapshot-writer");
     }
 
     @AfterClass
@@ -29,34 +38,99 @@ public class PetersonKearnsActorTest {
     @Test
     public void testMessageHandlingAndStateUpdate() {
         TestProbe<Message> probe = testKit.createTestProbe();
-        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0));
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, snapshotWriter));
 
-        actor.tell(new PetersonKearnsActor.BasicMessage(10, probe.ref(), new HashMap<>()));
+        actor.tell(new PetersonKearnsActor.BasicMessage(10, probe.ref(), new VectorClock()));
     }
 
 
     @Test
     public void testSnapshotTakingAndRecovery() {
         TestProbe<Message> probe = testKit.createTestProbe();
-        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0));
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, snapshotWriter));
+
+        actor.tell(new PetersonKearnsActor.InitiateSnapshot());
+    }
+
+    @Test
+    public void testRecoveredNodeStoresSnapshotsUnderItsNodeId() {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 3, writer.getRef()), "StoredNode_recovered");
 
         actor.tell(new PetersonKearnsActor.InitiateSnapshot());
+
+        assertEquals("StoredNode", writer.expectMessageClass(SnapshotWriter.WriteSnapshot.class).nodeId);
+    }
+
+    @Test
+    public void testRecoveredNodeLogsUnderItsNodeId() {
+        TestProbe<SnapshotWriter.Command> writer = testKit.createTestProbe();
+        TestProbe<Message> probe = testKit.createTestProbe();
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, writer.getRef()), "LoggedNode_recovered");
+        int value = (int) (System.nanoTime() & Integer.MAX_VALUE);
+
+        actor.tell(new PetersonKearnsActor.BasicMessage(value, probe.ref(), new VectorClock()));
+
+        // The reception is indexed under the node id, which replay asks for
+        probe.awaitAssert(() -> {
+            MessageLog messageLog = MessageLog.open();
+            messageLog.flush().join();
+            List<Integer> values = new ArrayList<>();
+            try {
+                messageLog.forEachReceived("LoggedNode", 0, record -> values.add(record.value()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            assertTrue(values.contains(value));
+            return null;
+        });
     }
 
     @Test
     public void testMessageVectorClockLogging() {
         TestProbe<Message> probe = testKit.createTestProbe();
-        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0));
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, snapshotWriter));
 
-        Map<String, Integer> vectorClock = new HashMap<>();
-        vectorClock.put("someActor", 1);
+        VectorClock vectorClock = new VectorClock();
+        vectorClock.set(NodeIndex.shared().indexOf("someActor"), 1);
         actor.tell(new PetersonKearnsActor.BasicMessage(5, probe.ref(), vectorClock));
     }
 
+    @Test
+    public void testDifferentialClockOnlySendsChangedEntries() {
+        TestProbe<Message> probe = testKit.createTestProbe();
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, snapshotWriter, PetersonKearnsActor.ClockEncoding.DIFFERENTIAL), "differential");
+        NodeIndex index = NodeIndex.shared();
+        int probeIndex = index.indexOf(probe.ref().path().name());
+        int actorIndex = index.indexOf("differential");
+
+        VectorClock received = new VectorClock();
+        received.set(probeIndex, 3);
+        actor.tell(new PetersonKearnsActor.BasicMessage(1, probe.ref(), received));
+        actor.tell(new PetersonKearnsActor.SendBasicMessage(2, probe.ref()));
+        actor.tell(new PetersonKearnsActor.SendBasicMessage(3, probe.ref()));
+
+        // The first message on the channel carries every non-zero entry, the second only the sender's own
+        PetersonKearnsActor.BasicMessage first = probe.expectMessageClass(PetersonKearnsActor.BasicMessage.class);
+        PetersonKearnsActor.BasicMessage second = probe.expectMessageClass(PetersonKearnsActor.BasicMessage.class);
+        assertNull(first.vectorClock);
+        assertEquals(2, first.clockDelta.size());
+        assertEquals(1, second.clockDelta.size());
+        assertEquals(actorIndex, second.clockDelta.node(0));
+
+        VectorClock rebuilt = new VectorClock();
+        first.clockDelta.mergeInto(rebuilt);
+        second.clockDelta.mergeInto(rebuilt);
+        VectorClock expected = new VectorClock();
+        expected.set(probeIndex, 3);
+        expected.set(actorIndex, 3);
+        assertEquals(expected, rebuilt);
+    }
+
     @Test
     public void testActorTerminationEffects() {
         TestProbe<Message> probe = testKit.createTestProbe();
-        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0));
+        ActorRef<Message> actor = testKit.spawn(PetersonKearnsActor.create(new HashSet<>(), 0, snapshotWriter));
 
         actor.tell(new PetersonKearnsActor.TerminateActor());
     }
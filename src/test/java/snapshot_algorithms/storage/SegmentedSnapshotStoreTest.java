@@ -0,0 +1,141 @@
+package snapshot_algorithms.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SegmentedSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLatestSnapshotPerNode() throws IOException {
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(folder.getRoot().toPath(), 1024)) {
+            store.append("0", "s1", "{\"State\": 1}");
+            store.append("1", "s1", "{\"State\": 10}");
+            store.append("0", "s2", "{\"State\": 2}");
+
+            assertEquals("s2", store.latest("0").getSnapshotId());
+            assertEquals("{\"State\": 2}", store.latest("0").getContent());
+            assertEquals("{\"State\": 1}", store.read("0", "s1").getContent());
+            assertEquals("{\"State\": 10}", store.latest("1").getContent());
+            assertNull("Unknown nodes have no snapshot", store.latest("2"));
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsDuringAppends() throws Exception {
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(folder.getRoot().toPath(), 512)) {
+            for (int node = 0; node < 8; node++) {
+                store.append(String.valueOf(node), "s0", "{\"State\": " + node + "}");
+            }
+            // Readers check records while the writer keeps appending and rolling segments
+            CompletableFuture<Void> appending = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 1; i <= 200; i++) {
+                        store.append("writer", "s" + i, "{\"State\": " + i + "}");
+                        store.sync();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            List<CompletableFuture<Void>> readers = new ArrayList<>();
+            for (int node = 0; node < 8; node++) {
+                String nodeId = String.valueOf(node);
+                readers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            assertEquals("{\"State\": " + nodeId + "}", store.read(nodeId, "s0").getContent());
+                            SnapshotRecord written = store.latest("writer");
+                            assertTrue(written == null || written.getContent().startsWith("{\"State\": "));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            appending.get(30, TimeUnit.SECONDS);
+            for (CompletableFuture<Void> reader : readers) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals("s200", store.latest("writer").getSnapshotId());
+            assertTrue(store.segmentCount() > 1);
+        }
+    }
+
+    @Test
+    public void testSegmentsRollAndIndexIsRebuiltOnOpen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(directory, 256)) {
+            for (int i = 0; i < 50; i++) {
+                store.append(String.valueOf(i % 5), "snapshot-" + i, "{\"State\": " + i + "}");
+            }
+            store.sync();
+            assertTrue("Small segments should have been rolled", store.segmentCount() > 1);
+        }
+
+        try (SegmentedSnapshotStore reopened = new SegmentedSnapshotStore(directory, 256)) {
+            assertEquals(5, reopened.nodeIds().size());
+            assertEquals("snapshot-49", reopened.latest("4").getSnapshotId());
+            assertEquals("{\"State\": 45}", reopened.latest("0").getContent());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(directory, SegmentedSnapshotStore.DEFAULT_MAX_SEGMENT_BYTES)) {
+            store.append("0", "s1", "{\"State\": 1}");
+            store.append("0", "s2", "{\"State\": 2}");
+        }
+
+        // Simulate a crash in the middle of the second record
+        try (RandomAccessFile segment = new RandomAccessFile(directory.resolve("segment-00000001.log").toFile(), "rw")) {
+            segment.setLength(segment.length() - 3);
+        }
+
+        try (SegmentedSnapshotStore reopened = new SegmentedSnapshotStore(directory, SegmentedSnapshotStore.DEFAULT_MAX_SEGMENT_BYTES)) {
+            assertEquals("s1", reopened.latest("0").getSnapshotId());
+            reopened.append("0", "s3", "{\"State\": 3}");
+            assertEquals("{\"State\": 3}", reopened.latest("0").getContent());
+        }
+    }
+
+    @Test
+    public void testManifestIsRebuiltWhenMissing() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(directory, 512)) {
+            for (int i = 0; i < 20; i++) {
+                store.append(String.valueOf(i % 4), "snapshot-" + i, "{\"State\": " + i + "}");
+            }
+            store.sync();
+        }
+        assertTrue("The index should be persisted in a manifest", Files.size(directory.resolve("manifest.idx")) > 0);
+
+        // Without a manifest the segments are scanned once and the manifest is written again
+        Files.delete(directory.resolve("manifest.idx"));
+        try (SegmentedSnapshotStore reopened = new SegmentedSnapshotStore(directory, 512)) {
+            assertEquals("snapshot-19", reopened.latestSnapshotId("3"));
+            reopened.sync();
+        }
+
+        try (SegmentedSnapshotStore reopened = new SegmentedSnapshotStore(directory, 512)) {
+            assertEquals(4, reopened.nodeIds().size());
+            assertEquals("snapshot-16", reopened.latestSnapshotId("0"));
+            assertEquals("{\"State\": 17}", reopened.latest("1").getContent());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package snapshot_algorithms.storage;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.DispatcherSelector;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import snapshot_algorithms.Message;
+import snapshot_algorithms.SnapshotCollector;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SnapshotWriterTest {
+
+    static ActorTestKit testKit;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        testKit = ActorTestKit.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testBatchedWritesAreAcknowledged() throws IOException {
+        SnapshotStore store = new SegmentedSnapshotStore(folder.getRoot().toPath(), SegmentedSnapshotStore.DEFAULT_MAX_SEGMENT_BYTES);
+        TestProbe<Message> probe = testKit.createTestProbe();
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(SnapshotWriter.create(store, Duration.ofMillis(50), 3), "writer", DispatcherSelector.blocking());
+
+        // Three requests fill the batch and are flushed without waiting for the timer
+        for (int i = 0; i < 3; i++) {
+            writer.tell(new SnapshotWriter.WriteSnapshot("WriterNode" + i, "2024-04-01T10:00:00", "{\"State\": " + i + "}", probe.ref()));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            SnapshotWriter.SnapshotPersisted persisted = probe.expectMessageClass(SnapshotWriter.SnapshotPersisted.class);
+            assertTrue("Snapshot of " + persisted.nodeId + " should be persisted", persisted.success);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            SnapshotRecord snapshot = store.latest("WriterNode" + i);
+            assertNotNull("Every node should have its own snapshot", snapshot);
+            assertEquals("{\"State\": " + i + "}", snapshot.getContent());
+        }
+        store.close();
+    }
+
+    @Test
+    public void testCollectorHearsOncePerFlushAndSnapshot() throws IOException {
+        SnapshotStore store = new SegmentedSnapshotStore(folder.getRoot().toPath(), SegmentedSnapshotStore.DEFAULT_MAX_SEGMENT_BYTES);
+        TestProbe<SnapshotCollector.Command> collector = testKit.createTestProbe();
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(SnapshotWriter.create(store, Duration.ofMillis(50), 3), "collectingWriter", DispatcherSelector.blocking());
+
+        writer.tell(new SnapshotWriter.WriteSnapshot("CollectedA", "2024-04-01T10:00:00", "{\"State\": 1}", null, collector.ref(), 7));
+        writer.tell(new SnapshotWriter.WriteSnapshot("CollectedB", "2024-04-01T10:00:00", "{\"State\": 2}", null, collector.ref(), 7));
+        writer.tell(new SnapshotWriter.WriteSnapshot("CollectedA", "2024-04-01T10:00:01", "{\"State\": 3}", null, collector.ref(), 8));
+
+        SnapshotCollector.LocalSnapshotsPersisted first = collector.expectMessageClass(SnapshotCollector.LocalSnapshotsPersisted.class);
+        SnapshotCollector.LocalSnapshotsPersisted second = collector.expectMessageClass(SnapshotCollector.LocalSnapshotsPersisted.class);
+        SnapshotCollector.LocalSnapshotsPersisted seven = first.snapshotId == 7 ? first : second;
+        SnapshotCollector.LocalSnapshotsPersisted eight = first.snapshotId == 7 ? second : first;
+        assertEquals(Arrays.asList("CollectedA", "CollectedB"), seven.persisted);
+        assertEquals(Collections.singletonList("CollectedA"), eight.persisted);
+        assertTrue(seven.failed.isEmpty());
+        collector.expectNoMessage(Duration.ofMillis(100));
+        store.close();
+    }
+
+    @Test
+    public void testPendingWritesAreFlushedOnStop() throws IOException {
+        SnapshotStore store = new SegmentedSnapshotStore(folder.getRoot().toPath(), SegmentedSnapshotStore.DEFAULT_MAX_SEGMENT_BYTES);
+        ActorRef<SnapshotWriter.Command> writer = testKit.spawn(SnapshotWriter.create(store, Duration.ofMinutes(1), 100), "stoppingWriter");
+
+        writer.tell(new SnapshotWriter.WriteSnapshot("StoppedNode", "2024-04-01T10:00:00", "{\"State\": 7}", null));
+        testKit.stop(writer);
+
+        assertNotNull("Queued snapshot should be written when the writer stops", store.latest("StoppedNode"));
+        store.close();
+    }
+}
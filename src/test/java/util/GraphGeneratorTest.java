@@ -0,0 +1,74 @@
+package util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GraphGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRegularTopologiesHaveExpectedDegrees() {
+        assertDegrees(GraphGenerator.ring(10).toGraph(), 2, 2);
+        assertDegrees(GraphGenerator.torus(5, 4).toGraph(), 4, 4);
+        assertDegrees(GraphGenerator.torus(3, 3, 3).toGraph(), 6, 6);
+        assertDegrees(GraphGenerator.complete(6).toGraph(), 5, 5);
+
+        Graph regular = GraphGenerator.randomRegular(500, 4, 7).toGraph();
+        assertDegrees(regular, 4, 4);
+        for (int node = 0; node < regular.nodeCount(); node++) {
+            Set<Integer> neighbors = new HashSet<>();
+            for (int edge = regular.edgeStart(node); edge < regular.edgeEnd(node); edge++) {
+                assertNotEquals("No self-loops", node, regular.target(edge));
+                assertTrue("No parallel edges", neighbors.add(regular.target(edge)));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomTopologiesAreSeeded() {
+        Graph first = GraphGenerator.barabasiAlbert(1000, 3, 11).toGraph();
+        Graph second = GraphGenerator.barabasiAlbert(1000, 3, 11).toGraph();
+        assertEquals(2 * (6 + 996 * 3), first.edgeCount());
+        for (int edge = 0; edge < first.edgeCount(); edge++) {
+            assertEquals(first.target(edge), second.target(edge));
+        }
+
+        // Expected degree 999 * 0.01, about ten
+        Graph random = GraphGenerator.erdosRenyi(1000, 0.01, 3).toGraph();
+        double averageDegree = (double) random.edgeCount() / random.nodeCount();
+        assertTrue("Average degree " + averageDegree, averageDegree > 8 && averageDegree < 12);
+    }
+
+    @Test
+    public void testDotOutputParsesBackToSameGraph() throws IOException {
+        GraphGenerator.Topology topology = GraphGenerator.gridOfCliques(3, 4, 5);
+        Path file = folder.getRoot().toPath().resolve("cliques.dot");
+        topology.writeDot(file);
+
+        Graph generated = topology.toGraph();
+        Graph parsed = Graph.fromDotFile(file);
+        assertEquals(generated.nodeCount(), parsed.nodeCount());
+        assertEquals(generated.edgeCount(), parsed.edgeCount());
+        // 12 cliques of 10 edges and 17 bridges between them, stored in both directions
+        assertEquals(2 * (12 * 10 + 17), parsed.edgeCount());
+        for (int node = 0; node < generated.nodeCount(); node++) {
+            assertEquals(generated.degree(node), parsed.degree(parsed.id(generated.name(node))));
+        }
+    }
+
+    private static void assertDegrees(Graph graph, int minimum, int maximum) {
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            assertTrue(graph.degree(node) >= minimum && graph.degree(node) <= maximum);
+        }
+    }
+}
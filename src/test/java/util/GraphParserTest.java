@@ -4,10 +4,18 @@ import util.GraphParser;
 import org.junit.Test;
 import util.GraphParser.Edge;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class GraphParserTest {
 
@@ -55,4 +63,61 @@ public class GraphParserTest {
         );
 
     }
+
+    @Test
+    public void testStreamingParserInternsNodes() throws IOException {
+        List<int[]> edges = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        DotParser.Result result = DotParser.parse(Paths.get("src/test/resources/graph/testGraph2.dot"), (source, destination, weight, directed) -> {
+            edges.add(new int[]{source, destination});
+            weights.add(weight);
+        });
+
+        assertEquals(11, result.edges, "Every edge statement should be reported.");
+        assertEquals(10, result.nodeNames.size(), "Each node should be named once.");
+        // Ids are assigned in order of appearance: 0, 1, 2, 3, ...
+        assertEquals("9", result.nodeNames.get(edges.get(10)[0]), "Edge 9->0 source mismatch.");
+        assertEquals(0, edges.get(10)[1], "Edge 9->0 destination mismatch.");
+        assertEquals(6.0, weights.get(10), "Edge 9->0 weight mismatch.");
+        assertEquals(1.5, weights.get(1), "Edge 0->2 weight mismatch.");
+    }
+
+    @Test
+    public void testParallelParserMatchesSequentialParser() throws IOException {
+        Path file = Files.createTempFile("parallel", ".dot");
+        try {
+            Random random = new Random(42);
+            StringBuilder dot = new StringBuilder("digraph \"random\" {\n");
+            for (int i = 0; i < 2000; i++) {
+                if (i % 50 == 0) {
+                    dot.append('"').append(random.nextInt(300)).append("\" [\"color\"=\"red\"]\n");
+                }
+                dot.append('"').append(random.nextInt(300)).append(random.nextBoolean() ? "\" -> \"" : "\" -- \"")
+                        .append(random.nextInt(300)).append("\" [\"weight\"=\"").append(random.nextInt(100) / 4.0).append("\"]\n");
+            }
+            Files.writeString(file, dot.append("}\n"));
+
+            List<String> sequentialNames = new ArrayList<>();
+            List<String> sequentialEdges = new ArrayList<>();
+            DotParser.parse(file, sequentialNames, (source, destination, weight, directed) ->
+                    sequentialEdges.add(source + " " + destination + " " + weight + " " + directed));
+            List<String> parallelNames = new ArrayList<>();
+            List<String> parallelEdges = new ArrayList<>();
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                // Chunks of a few lines each
+                DotParser.parseParallel(file, parallelNames, (source, destination, weight, directed) ->
+                        parallelEdges.add(source + " " + destination + " " + weight + " " + directed), pool, 97);
+            } finally {
+                pool.shutdown();
+            }
+
+            assertEquals(2000, sequentialEdges.size(), "Every edge should be parsed.");
+            assertTrue(sequentialNames.size() > 250, "Most node names should be used.");
+            assertEquals(sequentialNames, parallelNames, "Node ids should match the sequential parser.");
+            assertEquals(sequentialEdges, parallelEdges, "Edges should match the sequential parser.");
+        } finally {
+            Files.delete(file);
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class GraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompressedRowsMatchParsedEdges() throws IOException {
+        Graph graph = Graph.fromDotFile("src/test/resources/graph/testGraph2.dot");
+
+        assertEquals(10, graph.nodeCount());
+        assertEquals(11, graph.edgeCount());
+        int zero = graph.id("0");
+        assertEquals(2, graph.degree(zero));
+        assertEquals("1", graph.name(graph.target(graph.edgeStart(zero))));
+        assertEquals(1.5, graph.weight(graph.edgeStart(zero) + 1), 0.0);
+        assertEquals(-1, graph.id("missing"));
+    }
+
+    @Test
+    public void testUndirectedEdgesAndView() throws IOException {
+        Path file = folder.newFile("mixed.dot").toPath();
+        Files.writeString(file, "graph g {\n\"a\" -- \"b\" [\"weight\"=\"2.0\"]\n\"b\" -> \"c\" [\"weight\"=\"3.0\"]\n\"c\" -> \"b\" [\"weight\"=\"4.0\"]\n}\n");
+        Graph graph = Graph.fromDotFile(file);
+        int a = graph.id("a");
+        int b = graph.id("b");
+        int c = graph.id("c");
+
+        // The undirected DOT edge is stored in both directions
+        assertEquals(1, graph.degree(a));
+        assertEquals(2, graph.degree(b));
+        assertEquals(1, graph.degree(c));
+
+        Graph undirected = graph.undirected();
+        assertEquals(1, undirected.degree(a));
+        assertEquals(2, undirected.degree(b));
+        assertEquals(1, undirected.degree(c));
+        double[] weightToB = new double[1];
+        undirected.forEachNeighbor(c, (target, weight) -> {
+            assertEquals(b, target);
+            weightToB[0] = weight;
+        });
+        assertEquals(4.0, weightToB[0], 0.0);
+    }
+
+    @Test
+    public void testBinaryGraphRoundTripAndStaleness() throws IOException {
+        Path source = folder.newFile("cached.dot").toPath();
+        Files.writeString(source, "digraph g {\n\"x\" -> \"y\" [\"weight\"=\"1.5\"]\n\"y\" -- \"z\" [\"weight\"=\"2.0\"]\n}\n");
+        Path cached = folder.getRoot().toPath().resolve("cached.graph");
+        Graph graph = Graph.fromDotFile(source);
+        GraphParser.writeBinaryGraph(graph, source, cached);
+
+        Graph loaded = GraphParser.readBinaryGraph(cached, source);
+        assertNotNull(loaded);
+        assertEquals(graph.nodeCount(), loaded.nodeCount());
+        assertEquals(graph.edgeCount(), loaded.edgeCount());
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            assertEquals(graph.name(node), loaded.name(node));
+            assertEquals(graph.edgeStart(node), loaded.edgeStart(node));
+        }
+        for (int edge = 0; edge < graph.edgeCount(); edge++) {
+            assertEquals(graph.target(edge), loaded.target(edge));
+            assertEquals(graph.weight(edge), loaded.weight(edge), 0.0);
+        }
+
+        // Touching the file without changing it keeps the cache valid; changing it does not
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 5000));
+        assertNotNull(GraphParser.readBinaryGraph(cached, source));
+        Files.writeString(source, Files.readString(source).replace("1.5", "2.5"));
+        assertNull(GraphParser.readBinaryGraph(cached, source));
+    }
+}